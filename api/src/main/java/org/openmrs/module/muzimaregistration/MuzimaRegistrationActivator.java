@@ -16,12 +16,16 @@ package org.openmrs.module.muzimaregistration;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.ModuleActivator;
+import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
 
 /**
  * This class contains the logic that is run every time this module is either started or stopped.
  */
 public class MuzimaRegistrationActivator implements ModuleActivator {
+
+	private static final int SUMMARY_SYNCHRONIZATION_BATCH_SIZE = 500;
 	
 	protected Log log = LogFactory.getLog(getClass());
 		
@@ -50,8 +54,33 @@ public class MuzimaRegistrationActivator implements ModuleActivator {
 	 * @see ModuleActivator#started()
 	 */
 	public void started() {
+		synchronizeRegistrationSummaries();
 		log.info("Muzima Registration Module started");
 	}
+
+	/**
+	 * Registration data created before the summary table existed gets its summary once, when the module starts, instead
+	 * of checking the table on every listing.
+	 */
+	private void synchronizeRegistrationSummaries() {
+		try {
+			RegistrationDataService service = Context.getService(RegistrationDataService.class);
+			int total = 0;
+			int created;
+			do {
+				created = service.synchronizeRegistrationSummaries(SUMMARY_SYNCHRONIZATION_BATCH_SIZE);
+				total += created;
+				Context.flushSession();
+				Context.clearSession();
+			} while (created == SUMMARY_SYNCHRONIZATION_BATCH_SIZE);
+			if (total > 0) {
+				log.info("Created " + total + " missing registration summaries.");
+			}
+		} catch (RuntimeException e) {
+			// the listing is still usable, the missing registrations are just not shown.
+			log.error("Unable to create the missing registration summaries!", e);
+		}
+	}
 	
 	/**
 	 * @see ModuleActivator#willStop()
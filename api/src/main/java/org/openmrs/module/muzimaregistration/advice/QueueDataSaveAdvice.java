@@ -0,0 +1,52 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.advice;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzimaregistration.api.PartitionLeaseService;
+import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
+import org.springframework.aop.AfterReturningAdvice;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Advice on the muzima data service recording each registration saved into the queue, so resolving its temporary
+ * uuid answers pending before the registration is processed for the first time. The partition of every queue data
+ * saved into the queue is recorded too, so the processing task only reads the queue data of its partitions.
+ */
+public class QueueDataSaveAdvice implements AfterReturningAdvice {
+
+    private final Log log = LogFactory.getLog(QueueDataSaveAdvice.class);
+
+    @Override
+    public void afterReturning(final Object returnValue, final Method method, final Object[] args,
+                               final Object target) throws Throwable {
+        if (!method.getName().equals("saveQueueData") || !(returnValue instanceof QueueData)) {
+            return;
+        }
+        List<QueueData> queueDataList = Collections.singletonList((QueueData) returnValue);
+        try {
+            Context.getService(RegistrationDataService.class).saveQueuedRegistrations(queueDataList);
+            Context.getService(PartitionLeaseService.class).saveQueueDataPartitions(queueDataList);
+        } catch (RuntimeException e) {
+            // the queue data is recorded by the processing task when it finds it unrecorded, don't fail the submission.
+            log.warn("Unable to record the queued data: " + ((QueueData) returnValue).getUuid(), e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api;
+
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+import org.openmrs.api.OpenmrsService;
+
+import java.util.List;
+
+/**
+ * This service writes large numbers of observations through JDBC batches, outside of the hibernate session. It is a
+ * Spring managed bean which is configured in moduleApplicationContext.xml.
+ * <p/>
+ * It can be accessed only via Context:<br>
+ * <code>
+ * Context.getService(ObsBatchService.class).someMethod();
+ * </code>
+ *
+ * @see org.openmrs.api.context.Context
+ */
+public interface ObsBatchService extends OpenmrsService {
+
+    /**
+     * Insert observations through JDBC batches instead of the hibernate session. Only the person, concept, encounter,
+     * group, date, location, value and creation columns are written. The group members of an observation are inserted
+     * along with it, the observation groups get their id assigned.
+     *
+     * @param obsList the top level observations, referencing the person, concept, encounter, location and creator by id.
+     * @return the number of observations inserted, group members included.
+     */
+    Integer insertObs(final List<Obs> obsList);
+
+    /**
+     * Insert a chunk of the observations of a saved encounter through JDBC batches, the observations are never
+     * attached to the hibernate session. The group members of an observation are inserted along with it.
+     *
+     * @param encounter the saved encounter.
+     * @param obsChunk  the top level observations of the chunk, with their group members.
+     * @return the number of observations inserted, group members included.
+     */
+    Integer saveObsChunk(final Encounter encounter, final List<Obs> obsChunk);
+}
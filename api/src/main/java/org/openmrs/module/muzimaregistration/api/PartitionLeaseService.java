@@ -0,0 +1,158 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api;
+
+import org.openmrs.api.OpenmrsService;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzimaregistration.api.model.PartitionLease;
+import org.openmrs.module.muzimaregistration.api.model.QueueDataPartition;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * This service keeps the leases of the queue partitions shared by the nodes processing the queue, and the partition of
+ * each queue data waiting in the queue. It is a Spring
+ * managed bean which is configured in moduleApplicationContext.xml.
+ * <p/>
+ * It can be accessed only via Context:<br>
+ * <code>
+ * Context.getService(PartitionLeaseService.class).someMethod();
+ * </code>
+ *
+ * @see org.openmrs.api.context.Context
+ */
+public interface PartitionLeaseService extends OpenmrsService {
+
+    /**
+     * Get a snapshot of all partition leases, always reflecting the latest claims.
+     *
+     * @return the partition leases ordered by partition number.
+     */
+    List<PartitionLease> getPartitionLeases();
+
+    /**
+     * Save a partition lease.
+     *
+     * @param partitionLease the partition lease.
+     * @return the saved partition lease.
+     */
+    PartitionLease savePartitionLease(final PartitionLease partitionLease);
+
+    /**
+     * Claim a partition when it is free, expired or already held by the owner. A pending request for the partition
+     * is cleared by the claim.
+     *
+     * @param partitionNumber the partition number.
+     * @param owner           the node claiming the partition.
+     * @param now             the current date.
+     * @param leaseExpiry     the expiry date of the lease.
+     * @return the number of leases claimed, 0 when another node holds the partition.
+     */
+    Integer claimPartitionLease(final Integer partitionNumber, final String owner, final Date now,
+                                final Date leaseExpiry);
+
+    /**
+     * Extend all leases held by the owner.
+     *
+     * @param owner       the node holding the leases.
+     * @param now         the current date.
+     * @param leaseExpiry the new expiry date of the leases.
+     * @return the number of leases renewed.
+     */
+    Integer renewPartitionLeases(final String owner, final Date now, final Date leaseExpiry);
+
+    /**
+     * Extend the lease of a partition, only when the owner still holds it and the lease has not expired. Used before
+     * each batch, a node which lost the lease must stop processing the partition.
+     *
+     * @param partitionNumber the partition number.
+     * @param owner           the node holding the partition.
+     * @param now             the current date.
+     * @param leaseExpiry     the new expiry date of the lease.
+     * @return the number of leases renewed, 0 when the owner doesn't hold the partition anymore.
+     */
+    Integer renewPartitionLease(final Integer partitionNumber, final String owner, final Date now,
+                                final Date leaseExpiry);
+
+    /**
+     * Ask the owner of a partition to give it up, unless another node already has a pending request for it.
+     *
+     * @param partitionNumber the partition number.
+     * @param requester       the node requesting the partition.
+     * @param now             the current date.
+     * @param requestExpiry   the expiry date of the request.
+     * @return the number of leases requested, 0 when another node already requested the partition.
+     */
+    Integer requestPartitionLease(final Integer partitionNumber, final String requester, final Date now,
+                                  final Date requestExpiry);
+
+    /**
+     * Give a partition up, so another node can claim it right away.
+     *
+     * @param partitionNumber the partition number.
+     * @param owner           the node holding the partition.
+     * @param now             the current date.
+     * @return the number of leases released.
+     */
+    Integer releasePartitionLease(final Integer partitionNumber, final String owner, final Date now);
+
+    /**
+     * Record the partition of queue data saved into the queue or picked up for processing. The queue data already
+     * recorded is skipped.
+     *
+     * @param queueDataList the queue data.
+     * @return the number of queue data partitions saved.
+     */
+    Integer saveQueueDataPartitions(final Collection<QueueData> queueDataList);
+
+    /**
+     * Get the queue data waiting in the queue whose partition has not been recorded, because it was queued before the
+     * module was started.
+     *
+     * @param maxResults the maximum number of queue data.
+     * @return the unrecorded queue data, oldest first.
+     */
+    List<QueueData> getUnpartitionedQueueData(final Integer maxResults);
+
+    /**
+     * Get a page of the recorded queue data falling into the partitions, in the order it was recorded.
+     *
+     * @param partitionNumbers the partition numbers.
+     * @param partitionCount   the number of partitions.
+     * @param lastId           the id of the last queue data partition of the previous page, 0 for the first page.
+     * @param maxResults       the size of the page.
+     * @return the queue data partitions recorded after the last id.
+     */
+    List<QueueDataPartition> getQueueDataPartitions(final Collection<Integer> partitionNumbers,
+                                                    final Integer partitionCount, final Integer lastId,
+                                                    final Integer maxResults);
+
+    /**
+     * Get the queue data waiting in the queue by their uuids.
+     *
+     * @param queueDataUuids the uuids of the queue data.
+     * @return the queue data still in the queue, oldest first.
+     */
+    List<QueueData> getQueueData(final Collection<String> queueDataUuids);
+
+    /**
+     * Delete the queue data partitions of queue data which left the queue.
+     *
+     * @param queueDataUuids the uuids of the queue data.
+     * @return the number of queue data partitions deleted.
+     */
+    Integer deleteQueueDataPartitions(final Collection<String> queueDataUuids);
+}
@@ -0,0 +1,109 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api;
+
+import org.openmrs.Encounter;
+import org.openmrs.api.OpenmrsService;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzimaregistration.api.model.EncounterDigest;
+import org.openmrs.module.muzimaregistration.api.model.ProcessedPayload;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This service recognizes resubmitted queue data, by their payload or by the encounter they create, so the same form
+ * data is never processed twice. It is a Spring managed bean which is configured in moduleApplicationContext.xml.
+ * <p/>
+ * It can be accessed only via Context:<br>
+ * <code>
+ * Context.getService(ProcessedPayloadService.class).someMethod();
+ * </code>
+ *
+ * @see org.openmrs.api.context.Context
+ */
+public interface ProcessedPayloadService extends OpenmrsService {
+
+    /**
+     * Check whether a queue data with the same payload has already been processed. Recently processed payload hashes
+     * are kept in memory, so most resubmissions are recognized without hitting the database. The duplicates found are
+     * counted per discriminator.
+     *
+     * @param queueData the queue data.
+     * @return true when the payload of the queue data has already been processed.
+     */
+    boolean isDuplicatePayload(final QueueData queueData);
+
+    /**
+     * Record the payload of a queue data as processed. The payload hash is remembered in memory only after the
+     * current transaction is committed.
+     *
+     * @param queueData the processed queue data.
+     * @return the saved processed payload.
+     */
+    ProcessedPayload saveProcessedPayload(final QueueData queueData);
+
+    /**
+     * Get the number of duplicate payloads skipped since the module was started.
+     *
+     * @return map of the queue data discriminator to the number of duplicates skipped.
+     */
+    Map<String, Long> getDuplicatePayloadCounts();
+
+    /**
+     * Check whether the same encounter has already been saved from a queue data. Encounters are compared on their
+     * patient, form, encounter datetime, location and observations, so resubmitted form data with a different layout
+     * is recognized too. The duplicates found are counted.
+     *
+     * @param encounter the encounter which is about to be saved.
+     * @return true when the same encounter has already been saved.
+     */
+    boolean isDuplicateEncounter(final Encounter encounter);
+
+    /**
+     * Check whether the same encounter has already been saved from a queue data, without holding the observations of
+     * the encounter in memory.
+     *
+     * @param encounter     the encounter which is about to be saved, its observations are ignored.
+     * @param normalizedObs the canonical representations of the top level observations of the encounter.
+     * @return true when the same encounter has already been saved.
+     * @see org.openmrs.module.muzimaregistration.utils.EncounterNormalizer#normalize(org.openmrs.Obs)
+     */
+    boolean isDuplicateEncounter(final Encounter encounter, final List<String> normalizedObs);
+
+    /**
+     * Record the digest of an encounter saved from a queue data.
+     *
+     * @param encounter the saved encounter.
+     * @return the saved encounter digest.
+     */
+    EncounterDigest saveEncounterDigest(final Encounter encounter);
+
+    /**
+     * Record the digest of an encounter saved from a queue data, without holding the observations of the encounter in
+     * memory.
+     *
+     * @param encounter     the saved encounter, its observations are ignored.
+     * @param normalizedObs the canonical representations of the top level observations of the encounter.
+     * @return the saved encounter digest.
+     */
+    EncounterDigest saveEncounterDigest(final Encounter encounter, final List<String> normalizedObs);
+
+    /**
+     * Get the number of duplicate encounters skipped since the module was started.
+     *
+     * @return the number of duplicate encounters skipped.
+     */
+    Long getDuplicateEncounterCount();
+}
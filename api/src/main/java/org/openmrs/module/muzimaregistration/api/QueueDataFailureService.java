@@ -0,0 +1,82 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api;
+
+import org.openmrs.api.OpenmrsService;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzimaregistration.api.model.QueueDataFailure;
+import org.openmrs.module.muzimaregistration.api.model.SkippedObs;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This service keeps the failure history of the queue data and decides when a failing queue data is retried or
+ * quarantined. It is a Spring managed bean which is configured in moduleApplicationContext.xml.
+ * <p/>
+ * It can be accessed only via Context:<br>
+ * <code>
+ * Context.getService(QueueDataFailureService.class).someMethod();
+ * </code>
+ *
+ * @see org.openmrs.api.context.Context
+ */
+public interface QueueDataFailureService extends OpenmrsService {
+
+    /**
+     * Get the failure history of a set of queue data in as few queries as possible.
+     *
+     * @param queueDataUuids the uuids of the queue data.
+     * @return map of the queue data uuid to its failure history. Queue data which never failed will not be in the map.
+     */
+    Map<String, QueueDataFailure> getQueueDataFailures(final Collection<String> queueDataUuids);
+
+    /**
+     * Record a failure of a queue data. A failure with a reason code quarantines the queue data. A failure without
+     * reason code is treated as transient and postpones the next attempt, the delay doubles with each failure. A queue
+     * data still failing after a number of attempts is quarantined as well.
+     *
+     * @param queueData  the failing queue data.
+     * @param reasonCode the reason why the queue data can never be processed, null for a transient failure.
+     * @param message    the message of the failure.
+     * @return the updated failure history of the queue data.
+     */
+    QueueDataFailure saveQueueDataFailure(final QueueData queueData, final String reasonCode, final String message);
+
+    /**
+     * Delete the failure history of a queue data, used once the queue data has been processed.
+     *
+     * @param queueDataFailure the failure history of the queue data.
+     */
+    void deleteQueueDataFailure(final QueueDataFailure queueDataFailure);
+
+    /**
+     * Record the observations of a queue data which were skipped while the rest of its observations were saved. The
+     * record is kept apart from the failure history of the queue data, which went through.
+     *
+     * @param queueData the processed queue data.
+     * @param failures  the index and reason of each skipped observation.
+     * @return the skipped obs record of the queue data.
+     */
+    SkippedObs saveSkippedObs(final QueueData queueData, final List<String> failures);
+
+    /**
+     * Get the observations of a processed queue data which were skipped.
+     *
+     * @param queueDataUuid the uuid of the queue data.
+     * @return the skipped obs record of the queue data, null when every observation was saved.
+     */
+    SkippedObs getSkippedObsByQueueDataUuid(final String queueDataUuid);
+}
@@ -0,0 +1,29 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api;
+
+/**
+ * Listener notified when registration data mapping a temporary uuid to a patient is saved, used by the processors to
+ * pick up again the queue data waiting for the registration.
+ */
+public interface RegistrationDataListener {
+
+    /**
+     * Handle a newly mapped temporary uuid. When called inside a transaction, the mapping is only visible to other
+     * transactions once the transaction is committed.
+     *
+     * @param temporaryUuid the temporary uuid which is now mapped.
+     */
+    void registrationDataSaved(final String temporaryUuid);
+}
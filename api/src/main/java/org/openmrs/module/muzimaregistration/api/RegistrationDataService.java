@@ -13,10 +13,19 @@
  */
 package org.openmrs.module.muzimaregistration.api;
 
+import org.openmrs.Patient;
 import org.openmrs.api.OpenmrsService;
+import org.openmrs.module.muzima.model.QueueData;
 import org.openmrs.module.muzimaregistration.api.model.RegistrationData;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationMapping;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationResolution;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationSummary;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This service exposes module's core functionality. It is a Spring managed bean which is configured in moduleApplicationContext.xml.
@@ -77,6 +86,16 @@ public interface RegistrationDataService extends OpenmrsService {
      */
     void deleteRegistrationData(final RegistrationData registrationData);
 
+    /**
+     * Void a registration data. Voided registration data will be sent as removed mapping to the clients syncing the
+     * registration changes.
+     *
+     * @param registrationData the registration data to be voided.
+     * @param reason           the reason for voiding the registration data.
+     * @return the voided registration data.
+     */
+    RegistrationData voidRegistrationData(final RegistrationData registrationData, final String reason);
+
     /**
      * Get all registration data information from the database.
      *
@@ -91,4 +110,171 @@ public interface RegistrationDataService extends OpenmrsService {
      * @return the number of registration data in the database.
      */
     Number countRegistrationData();
-}
\ No newline at end of file
+
+    /**
+     * Walk through all registration data (including the voided ones) in the database, one row at a time.
+     *
+     * @param callback the callback which will receive each registration data.
+     */
+    void scrollRegistrationData(final RegistrationDataCallback callback);
+
+    /**
+     * Import a batch of registration data into the database. Registration data with a temporary uuid which already
+     * exists in the database will be skipped. Each batch is saved in its own transaction.
+     *
+     * @param registrationDataList the registration data to be imported.
+     * @return the number of registration data created in the database.
+     */
+    @Transactional
+    Integer importRegistrationData(final List<RegistrationData> registrationDataList);
+
+    /**
+     * Get patients by their uuid in as few queries as possible. The names and identifiers of the patients are
+     * fetched together with the patients, so reading them will not trigger additional queries.
+     *
+     * @param assignedUuids the uuids of the patients.
+     * @return map of the patient uuid to the patient. Uuids without matching patient will not be in the map.
+     */
+    Map<String, Patient> getAssignedPatients(final Collection<String> assignedUuids);
+
+    /**
+     * Get registration summary by the uuid of the registration data it summarizes.
+     *
+     * @param registrationUuid the uuid of the registration data.
+     * @return the registration summary of the registration data.
+     */
+    RegistrationSummary getRegistrationSummaryByRegistrationUuid(final String registrationUuid);
+
+    /**
+     * Get a page of registration summaries.
+     *
+     * @param search     the prefix of the display name or the preferred identifier, all summaries when blank.
+     * @param orderBy    the property to order the summaries by, prefixed with "-" for descending order.
+     * @param pageNumber the page number.
+     * @param pageSize   the page size.
+     * @return the registration summaries in the page.
+     */
+    List<RegistrationSummary> getRegistrationSummaries(final String search, final String orderBy,
+                                                       final Integer pageNumber, final Integer pageSize);
+
+    /**
+     * Walk through a page of registration summaries one row at a time. The rows are read through a forward only
+     * cursor on a stateless session, so memory usage stays constant regardless of the page size.
+     *
+     * @param search     the prefix of the display name or the preferred identifier, all summaries when blank.
+     * @param orderBy    the property to order the summaries by, prefixed with "-" for descending order.
+     * @param pageNumber the page number.
+     * @param pageSize   the page size.
+     * @param callback   the callback which will receive each registration summary.
+     */
+    void scrollRegistrationSummaries(final String search, final String orderBy,
+                                     final Integer pageNumber, final Integer pageSize,
+                                     final RegistrationSummaryCallback callback);
+
+    /**
+     * Count the number of registration summaries.
+     *
+     * @param search the prefix of the display name or the preferred identifier, all summaries when blank.
+     * @return the number of registration summaries.
+     */
+    Number countRegistrationSummaries(final String search);
+
+    /**
+     * Create or update the registration summary of a registration data using the patient the registration data
+     * is pointing to.
+     *
+     * @param registrationData the registration data.
+     * @param patient          the patient of the registration data.
+     * @return the saved registration summary.
+     */
+    RegistrationSummary saveRegistrationSummary(final RegistrationData registrationData, final Patient patient);
+
+    /**
+     * Refresh the patient information in all registration summaries pointing to the patient.
+     *
+     * @param patient the patient.
+     */
+    void refreshRegistrationSummaries(final Patient patient);
+
+    /**
+     * Create registration summaries for registration data which doesn't have one yet (e.g. registration data
+     * created before the summary table was introduced).
+     *
+     * @param batchSize the maximum number of registration summaries to create.
+     * @return the number of registration summaries created.
+     */
+    Integer synchronizeRegistrationSummaries(final Integer batchSize);
+
+    /**
+     * Resolve a set of temporary uuids into their registration summaries in as few queries as possible. Registration
+     * data which doesn't have a summary yet will get one created.
+     *
+     * @param temporaryUuids the temporary uuids.
+     * @return map of the temporary uuid to the registration summary. Temporary uuids which have not been registered
+     *         will not be in the map.
+     */
+    Map<String, RegistrationSummary> getRegistrationSummariesByTemporaryUuids(final Collection<String> temporaryUuids);
+
+    /**
+     * Get registration data mappings created, changed or voided after the since date and not later than the until
+     * date. Voided registration data is returned too, so the caller can remove them. The mappings are ordered by
+     * the internal database id and the page continues after the last id.
+     *
+     * @param since      the lower bound (exclusive) of the modification date, null to get all registration data.
+     * @param until      the upper bound (inclusive) of the modification date.
+     * @param lastId     the internal database id of the last mapping in the previous page, null for the first page.
+     * @param maxResults the maximum number of mappings to return.
+     * @return the registration data mappings modified in the window.
+     */
+    List<RegistrationMapping> getRegistrationMappingsModifiedSince(final Date since, final Date until,
+                                                                   final Integer lastId, final Integer maxResults);
+
+    /**
+     * Get the upper bound of a delta sync window. The modification dates are stored with a precision of one second
+     * and a registration data saved in a transaction still running at the end of the window would be missed by the
+     * next sync too. The bound is therefore truncated to whole seconds and kept behind the current time by a safety
+     * window.
+     *
+     * @param now the current time.
+     * @return the upper bound (inclusive) of the sync window.
+     */
+    Date getRegistrationChangesUntil(final Date now);
+
+    /**
+     * Get the last modification date of the registration summaries, used to detect changes in the listing without
+     * reading the summaries.
+     *
+     * @param search the prefix of the display name or the preferred identifier, all summaries when blank.
+     * @return the latest creation or change date of the registration summaries, null when there is no summary.
+     */
+    Date getRegistrationSummariesLastModified(final String search);
+
+    /**
+     * Resolve a temporary uuid into the uuid of the patient assigned to it. Both the found and the not found results
+     * are cached for a short time, so clients polling for a registration which is still in the queue will not hit the
+     * database on every request. A registration waiting in the queue is found through the queued registration recorded
+     * when it was queued, the queue payloads are never searched.
+     *
+     * @param temporaryUuid the temporary uuid assigned to a patient.
+     * @return the resolution of the temporary uuid, never null.
+     */
+    RegistrationResolution resolveTemporaryUuid(final String temporaryUuid);
+
+    /**
+     * Record the temporary uuids of the registrations waiting in the queue, so resolving a temporary uuid answers
+     * pending as soon as its registration is queued. Queue data which is not a registration, or which has already been
+     * recorded, is skipped.
+     *
+     * @param queueDataList the queued or picked up queue data.
+     * @return the number of queued registrations recorded.
+     */
+    Integer saveQueuedRegistrations(final Collection<QueueData> queueDataList);
+
+    /**
+     * Delete the queued registrations of queue data which left the queue, because it was processed or quarantined.
+     *
+     * @param queueDataUuids the uuids of the queue data.
+     * @return the number of queued registrations deleted.
+     */
+    Integer deleteQueuedRegistrations(final Collection<String> queueDataUuids);
+}
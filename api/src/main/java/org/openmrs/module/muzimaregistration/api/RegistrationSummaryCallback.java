@@ -0,0 +1,30 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api;
+
+import org.openmrs.module.muzimaregistration.api.model.RegistrationSummary;
+
+/**
+ * Callback used when walking through the registration summary table one row at a time.
+ */
+public interface RegistrationSummaryCallback {
+
+    /**
+     * Handle a single registration summary read from the database. The registration summary is not attached to any
+     * hibernate session and will not be kept by the caller after this method returns.
+     *
+     * @param registrationSummary the registration summary.
+     */
+    void handle(final RegistrationSummary registrationSummary);
+}
@@ -0,0 +1,39 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.db;
+
+import org.openmrs.module.muzima.api.db.SingleClassDao;
+import org.openmrs.module.muzimaregistration.api.model.EncounterDigest;
+
+/**
+ * Database methods for the encounter digest part of {@link org.openmrs.module.muzimaregistration.api.RegistrationDataService}.
+ */
+public interface EncounterDigestDao extends SingleClassDao<EncounterDigest> {
+
+    /**
+     * Get encounter digest by the digest of the encounter.
+     *
+     * @param digest the digest of the encounter.
+     * @return the encounter digest with matching digest.
+     */
+    EncounterDigest getEncounterDigestByDigest(final String digest);
+
+    /**
+     * Save an encounter digest.
+     *
+     * @param encounterDigest the encounter digest.
+     * @return the saved encounter digest.
+     */
+    EncounterDigest saveEncounterDigest(final EncounterDigest encounterDigest);
+}
@@ -0,0 +1,35 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.db;
+
+import org.openmrs.Obs;
+import org.openmrs.module.muzima.api.db.SingleClassDao;
+
+import java.util.List;
+
+/**
+ * Database methods for the bulk observation part of {@link org.openmrs.module.muzimaregistration.api.RegistrationDataService}.
+ */
+public interface ObsBatchDao extends SingleClassDao<Obs> {
+
+    /**
+     * Insert observations through JDBC batches instead of the hibernate session. Only the person, concept, encounter,
+     * group, date, location, value and creation columns are written. The group members of an observation are inserted
+     * along with it, the observation groups get their id assigned.
+     *
+     * @param obsList the top level observations, referencing the person, concept, encounter, location and creator by id.
+     * @return the number of observations inserted, group members included.
+     */
+    Integer insertObs(final List<Obs> obsList);
+}
@@ -0,0 +1,100 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.db;
+
+import org.openmrs.module.muzima.api.db.SingleClassDao;
+import org.openmrs.module.muzimaregistration.api.model.PartitionLease;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Database methods for the partition lease part of {@link org.openmrs.module.muzimaregistration.api.RegistrationDataService}.
+ */
+public interface PartitionLeaseDao extends SingleClassDao<PartitionLease> {
+
+    /**
+     * Get a snapshot of all partition leases. The leases are read through a projection query, they are not attached
+     * to the hibernate session and always reflect the latest claims.
+     *
+     * @return the partition leases ordered by partition number.
+     */
+    List<PartitionLease> getPartitionLeases();
+
+    /**
+     * Save a partition lease.
+     *
+     * @param partitionLease the partition lease.
+     * @return the saved partition lease.
+     */
+    PartitionLease savePartitionLease(final PartitionLease partitionLease);
+
+    /**
+     * Claim a partition when it is free, expired or already held by the owner. A pending request for the partition
+     * is cleared by the claim.
+     *
+     * @param partitionNumber the partition number.
+     * @param owner           the node claiming the partition.
+     * @param now             the current date.
+     * @param leaseExpiry     the expiry date of the lease.
+     * @return the number of leases claimed, 0 when another node holds the partition.
+     */
+    Integer claimPartitionLease(final Integer partitionNumber, final String owner, final Date now,
+                                final Date leaseExpiry);
+
+    /**
+     * Extend all leases held by the owner.
+     *
+     * @param owner       the node holding the leases.
+     * @param now         the current date.
+     * @param leaseExpiry the new expiry date of the leases.
+     * @return the number of leases renewed.
+     */
+    Integer renewPartitionLeases(final String owner, final Date now, final Date leaseExpiry);
+
+    /**
+     * Extend the lease of a partition, only when the owner still holds it and the lease has not expired. Used before
+     * each batch, a node which lost the lease must stop processing the partition.
+     *
+     * @param partitionNumber the partition number.
+     * @param owner           the node holding the partition.
+     * @param now             the current date.
+     * @param leaseExpiry     the new expiry date of the lease.
+     * @return the number of leases renewed, 0 when the owner doesn't hold the partition anymore.
+     */
+    Integer renewPartitionLease(final Integer partitionNumber, final String owner, final Date now,
+                                final Date leaseExpiry);
+
+    /**
+     * Ask the owner of a partition to give it up, unless another node already has a pending request for it.
+     *
+     * @param partitionNumber the partition number.
+     * @param requester       the node requesting the partition.
+     * @param now             the current date.
+     * @param requestExpiry   the expiry date of the request.
+     * @return the number of leases requested, 0 when another node already requested the partition.
+     */
+    Integer requestPartitionLease(final Integer partitionNumber, final String requester, final Date now,
+                                  final Date requestExpiry);
+
+    /**
+     * Give a partition up, so another node can claim it right away.
+     *
+     * @param partitionNumber the partition number.
+     * @param owner           the node holding the partition.
+     * @param now             the current date.
+     * @return the number of leases released.
+     */
+    Integer releasePartitionLease(final Integer partitionNumber, final String owner, final Date now);
+}
@@ -0,0 +1,39 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.db;
+
+import org.openmrs.module.muzima.api.db.SingleClassDao;
+import org.openmrs.module.muzimaregistration.api.model.ProcessedPayload;
+
+/**
+ * Database methods for the processed payload part of {@link org.openmrs.module.muzimaregistration.api.RegistrationDataService}.
+ */
+public interface ProcessedPayloadDao extends SingleClassDao<ProcessedPayload> {
+
+    /**
+     * Get processed payload by the content hash of the payload.
+     *
+     * @param payloadHash the content hash of the payload.
+     * @return the processed payload with matching hash.
+     */
+    ProcessedPayload getProcessedPayloadByHash(final String payloadHash);
+
+    /**
+     * Save a processed payload.
+     *
+     * @param processedPayload the processed payload.
+     * @return the saved processed payload.
+     */
+    ProcessedPayload saveProcessedPayload(final ProcessedPayload processedPayload);
+}
@@ -0,0 +1,57 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.db;
+
+import org.openmrs.module.muzima.api.db.SingleClassDao;
+import org.openmrs.module.muzimaregistration.api.model.QueueDataFailure;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Database methods for the queue data failure part of {@link org.openmrs.module.muzimaregistration.api.RegistrationDataService}.
+ */
+public interface QueueDataFailureDao extends SingleClassDao<QueueDataFailure> {
+
+    /**
+     * Get queue data failure by the uuid of the failing queue data.
+     *
+     * @param queueDataUuid the uuid of the queue data.
+     * @return the queue data failure of the queue data.
+     */
+    QueueDataFailure getQueueDataFailureByQueueDataUuid(final String queueDataUuid);
+
+    /**
+     * Get queue data failures for a set of queue data in as few queries as possible.
+     *
+     * @param queueDataUuids the uuids of the queue data.
+     * @return the queue data failures with matching queue data uuid.
+     */
+    List<QueueDataFailure> getQueueDataFailuresByQueueDataUuids(final Collection<String> queueDataUuids);
+
+    /**
+     * Save a queue data failure.
+     *
+     * @param queueDataFailure the queue data failure.
+     * @return the saved queue data failure.
+     */
+    QueueDataFailure saveQueueDataFailure(final QueueDataFailure queueDataFailure);
+
+    /**
+     * Delete a queue data failure.
+     *
+     * @param queueDataFailure the queue data failure.
+     */
+    void deleteQueueDataFailure(final QueueDataFailure queueDataFailure);
+}
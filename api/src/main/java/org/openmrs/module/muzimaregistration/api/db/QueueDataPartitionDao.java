@@ -0,0 +1,80 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.db;
+
+import org.openmrs.module.muzima.api.db.SingleClassDao;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzimaregistration.api.model.QueueDataPartition;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Database methods for the queue data partition part of {@link org.openmrs.module.muzimaregistration.api.PartitionLeaseService}.
+ */
+public interface QueueDataPartitionDao extends SingleClassDao<QueueDataPartition> {
+
+    /**
+     * Get a page of the recorded queue data falling into the partitions, in the order it was recorded.
+     *
+     * @param partitionNumbers the partition numbers.
+     * @param partitionCount   the number of partitions.
+     * @param lastId           the id of the last queue data partition of the previous page, 0 for the first page.
+     * @param maxResults       the size of the page.
+     * @return the queue data partitions recorded after the last id.
+     */
+    List<QueueDataPartition> getQueueDataPartitions(final Collection<Integer> partitionNumbers,
+                                                    final Integer partitionCount, final Integer lastId,
+                                                    final Integer maxResults);
+
+    /**
+     * Get the uuids of the queue data which already have a queue data partition.
+     *
+     * @param queueDataUuids the uuids of the queue data.
+     * @return the uuids of the queue data with a queue data partition.
+     */
+    List<String> getQueueDataUuids(final Collection<String> queueDataUuids);
+
+    /**
+     * Get the queue data waiting in the queue without a queue data partition, oldest first.
+     *
+     * @param maxResults the maximum number of queue data.
+     * @return the unrecorded queue data.
+     */
+    List<QueueData> getUnpartitionedQueueData(final Integer maxResults);
+
+    /**
+     * Get the queue data waiting in the queue by their uuids, oldest first.
+     *
+     * @param queueDataUuids the uuids of the queue data.
+     * @return the queue data still in the queue.
+     */
+    List<QueueData> getQueueData(final Collection<String> queueDataUuids);
+
+    /**
+     * Save a queue data partition.
+     *
+     * @param queueDataPartition the queue data partition.
+     * @return the saved queue data partition.
+     */
+    QueueDataPartition saveQueueDataPartition(final QueueDataPartition queueDataPartition);
+
+    /**
+     * Delete the queue data partitions of queue data which left the queue.
+     *
+     * @param queueDataUuids the uuids of the queue data.
+     * @return the number of deleted queue data partitions.
+     */
+    int deleteQueueDataPartitions(final Collection<String> queueDataUuids);
+}
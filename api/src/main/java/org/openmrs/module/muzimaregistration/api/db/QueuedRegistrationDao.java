@@ -0,0 +1,66 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.db;
+
+import org.openmrs.module.muzima.api.db.SingleClassDao;
+import org.openmrs.module.muzimaregistration.api.model.QueuedRegistration;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Database methods for the queued registration part of {@link org.openmrs.module.muzimaregistration.api.RegistrationDataService}.
+ */
+public interface QueuedRegistrationDao extends SingleClassDao<QueuedRegistration> {
+
+    /**
+     * Count the registration forms for a temporary uuid which are still waiting in the queue.
+     *
+     * @param temporaryUuid the temporary uuid assigned to a patient.
+     * @return the number of queued registrations with the temporary uuid.
+     */
+    Number countQueuedRegistrations(final String temporaryUuid);
+
+    /**
+     * Get queued registration by the uuid of the queue data.
+     *
+     * @param queueDataUuid the uuid of the queue data.
+     * @return the queued registration of the queue data.
+     */
+    QueuedRegistration getQueuedRegistrationByQueueDataUuid(final String queueDataUuid);
+
+    /**
+     * Get the uuids of the queue data which already have a queued registration.
+     *
+     * @param queueDataUuids the uuids of the queue data.
+     * @return the uuids of the queue data with a queued registration.
+     */
+    List<String> getQueueDataUuids(final Collection<String> queueDataUuids);
+
+    /**
+     * Save a queued registration.
+     *
+     * @param queuedRegistration the queued registration.
+     * @return the saved queued registration.
+     */
+    QueuedRegistration saveQueuedRegistration(final QueuedRegistration queuedRegistration);
+
+    /**
+     * Delete the queued registrations of queue data which left the queue.
+     *
+     * @param queueDataUuids the uuids of the queue data.
+     * @return the number of deleted queued registrations.
+     */
+    int deleteQueuedRegistrations(final Collection<String> queueDataUuids);
+}
@@ -14,9 +14,14 @@
 package org.openmrs.module.muzimaregistration.api.db;
 
 
+import org.openmrs.Patient;
 import org.openmrs.module.muzima.api.db.SingleClassDao;
+import org.openmrs.module.muzimaregistration.api.RegistrationDataCallback;
 import org.openmrs.module.muzimaregistration.api.model.RegistrationData;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationMapping;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -80,4 +85,68 @@ public interface RegistrationDataDao extends SingleClassDao<RegistrationData> {
      * @return the number of registration data in the database.
      */
     Number countRegistrationData();
-}
\ No newline at end of file
+
+    /**
+     * Walk through all registration data (including the voided ones) ordered by the internal database id. The rows
+     * are read through a forward only cursor and handed to the callback one at a time, so memory usage stays
+     * constant regardless of the number of rows in the table.
+     *
+     * @param callback the callback which will receive each registration data.
+     */
+    void scrollRegistrationData(final RegistrationDataCallback callback);
+
+    /**
+     * Get the temporary uuids (including the voided ones) which already exist in the database.
+     *
+     * @param temporaryUuids the temporary uuids to check.
+     * @return the subset of the temporary uuids which already exist in the database.
+     */
+    List<String> getTemporaryUuids(final Collection<String> temporaryUuids);
+
+    /**
+     * Create new registration data entries in the database in a single batch. The session will be flushed and
+     * cleared after the batch is saved.
+     *
+     * @param registrationDataList the registration data to be created.
+     */
+    void saveRegistrationData(final List<RegistrationData> registrationDataList);
+
+    /**
+     * Get patients by their uuid in as few queries as possible. The names and identifiers of the patients are
+     * fetched together with the patients, so reading them will not trigger additional queries.
+     *
+     * @param assignedUuids the uuids of the patients.
+     * @return the patients with matching uuid.
+     */
+    List<Patient> getPatientsByUuids(final Collection<String> assignedUuids);
+
+    /**
+     * Get registration data which doesn't have a registration summary yet.
+     *
+     * @param maxResults the maximum number of registration data to return.
+     * @return registration data without registration summary, ordered by the internal database id.
+     */
+    List<RegistrationData> getRegistrationDataWithoutSummary(final Integer maxResults);
+
+    /**
+     * Get registration data for a set of temporary uuids in as few queries as possible.
+     *
+     * @param temporaryUuids the temporary uuids.
+     * @return the registration data with matching temporary uuid.
+     */
+    List<RegistrationData> getRegistrationDataByTemporaryUuids(final Collection<String> temporaryUuids);
+
+    /**
+     * Get registration data mappings created, changed or voided after the since date and not later than the until
+     * date. Voided registration data is returned too, so the caller can remove them. The mappings are ordered by
+     * the internal database id and the page continues after the last id.
+     *
+     * @param since      the lower bound (exclusive) of the modification date, null to get all registration data.
+     * @param until      the upper bound (inclusive) of the modification date.
+     * @param lastId     the internal database id of the last mapping in the previous page, null for the first page.
+     * @param maxResults the maximum number of mappings to return.
+     * @return the registration data mappings modified in the window.
+     */
+    List<RegistrationMapping> getRegistrationMappingsModifiedSince(final Date since, final Date until,
+                                                                   final Integer lastId, final Integer maxResults);
+}
@@ -0,0 +1,125 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.db;
+
+import org.openmrs.module.muzima.api.db.SingleClassDao;
+import org.openmrs.module.muzimaregistration.api.RegistrationSummaryCallback;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationSummary;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Database methods for the registration summary part of {@link org.openmrs.module.muzimaregistration.api.RegistrationDataService}.
+ */
+public interface RegistrationSummaryDao extends SingleClassDao<RegistrationSummary> {
+
+    /**
+     * Get registration summary by the uuid of the registration data it summarizes.
+     *
+     * @param registrationUuid the uuid of the registration data.
+     * @return the registration summary of the registration data.
+     */
+    RegistrationSummary getRegistrationSummaryByRegistrationUuid(final String registrationUuid);
+
+    /**
+     * Get registration summary by the temporary uuid of the registration data it summarizes.
+     *
+     * @param temporaryUuid the temporary uuid of the registration data.
+     * @return the registration summary of the registration data.
+     */
+    RegistrationSummary getRegistrationSummaryByTemporaryUuid(final String temporaryUuid);
+
+    /**
+     * Get all registration summaries of a patient.
+     *
+     * @param assignedUuid the real uuid of the patient.
+     * @return all registration summaries pointing to the patient.
+     */
+    List<RegistrationSummary> getRegistrationSummariesByAssignedUuid(final String assignedUuid);
+
+    /**
+     * Get registration summaries for a set of temporary uuids in as few queries as possible.
+     *
+     * @param temporaryUuids the temporary uuids.
+     * @return the registration summaries with matching temporary uuid.
+     */
+    List<RegistrationSummary> getRegistrationSummariesByTemporaryUuids(final Collection<String> temporaryUuids);
+
+    /**
+     * Get a page of registration summaries.
+     *
+     * @param search     the prefix of the display name or the preferred identifier, all summaries when blank.
+     * @param orderBy    the property to order the summaries by, prefixed with "-" for descending order.
+     * @param pageNumber the page number.
+     * @param pageSize   the page size.
+     * @return the registration summaries in the page.
+     */
+    List<RegistrationSummary> getRegistrationSummaries(final String search, final String orderBy,
+                                                       final Integer pageNumber, final Integer pageSize);
+
+    /**
+     * Walk through a page of registration summaries one row at a time. The rows are read through a forward only
+     * cursor on a stateless session, so memory usage stays constant regardless of the page size.
+     *
+     * @param search     the prefix of the display name or the preferred identifier, all summaries when blank.
+     * @param orderBy    the property to order the summaries by, prefixed with "-" for descending order.
+     * @param pageNumber the page number.
+     * @param pageSize   the page size.
+     * @param callback   the callback which will receive each registration summary.
+     */
+    void scrollRegistrationSummaries(final String search, final String orderBy,
+                                     final Integer pageNumber, final Integer pageSize,
+                                     final RegistrationSummaryCallback callback);
+
+    /**
+     * Count the number of registration summaries.
+     *
+     * @param search the prefix of the display name or the preferred identifier, all summaries when blank.
+     * @return the number of registration summaries.
+     */
+    Number countRegistrationSummaries(final String search);
+
+    /**
+     * Save a registration summary.
+     *
+     * @param registrationSummary the registration summary.
+     * @return the saved registration summary.
+     */
+    RegistrationSummary saveRegistrationSummary(final RegistrationSummary registrationSummary);
+
+    /**
+     * Save a batch of new registration summaries in a single flush. The saved summaries are evicted from the session.
+     *
+     * @param registrationSummaries the registration summaries.
+     */
+    void saveRegistrationSummaries(final List<RegistrationSummary> registrationSummaries);
+
+    /**
+     * Delete a registration summary.
+     *
+     * @param registrationSummary the registration summary.
+     */
+    void deleteRegistrationSummary(final RegistrationSummary registrationSummary);
+
+    /**
+     * Get the last modification date of the registration summaries, used to detect changes in the listing without
+     * reading the summaries.
+     *
+     * @param search the prefix of the display name or the preferred identifier, all summaries when blank.
+     * @return the latest creation or change date of the registration summaries, null when there is no summary.
+     */
+    Date getRegistrationSummariesLastModified(final String search);
+}
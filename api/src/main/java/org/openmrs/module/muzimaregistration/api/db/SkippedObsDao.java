@@ -0,0 +1,39 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.db;
+
+import org.openmrs.module.muzima.api.db.SingleClassDao;
+import org.openmrs.module.muzimaregistration.api.model.SkippedObs;
+
+/**
+ * Database methods for the skipped obs part of {@link org.openmrs.module.muzimaregistration.api.RegistrationDataService}.
+ */
+public interface SkippedObsDao extends SingleClassDao<SkippedObs> {
+
+    /**
+     * Get the skipped obs record by the uuid of the processed queue data.
+     *
+     * @param queueDataUuid the uuid of the queue data.
+     * @return the skipped obs record of the queue data.
+     */
+    SkippedObs getSkippedObsByQueueDataUuid(final String queueDataUuid);
+
+    /**
+     * Save a skipped obs record.
+     *
+     * @param skippedObs the skipped obs record.
+     * @return the saved skipped obs record.
+     */
+    SkippedObs saveSkippedObs(final SkippedObs skippedObs);
+}
@@ -0,0 +1,64 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.db.hibernate;
+
+import org.hibernate.Criteria;
+import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Restrictions;
+import org.openmrs.module.muzima.api.db.hibernate.HibernateSingleClassDao;
+import org.openmrs.module.muzimaregistration.api.db.EncounterDigestDao;
+import org.openmrs.module.muzimaregistration.api.model.EncounterDigest;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * It is a default implementation of  {@link org.openmrs.module.muzimaregistration.api.db.EncounterDigestDao}.
+ */
+public class HibernateEncounterDigestDao extends HibernateSingleClassDao<EncounterDigest> implements EncounterDigestDao {
+
+    public HibernateEncounterDigestDao() {
+        super(EncounterDigest.class);
+    }
+
+    /**
+     * @return the sessionFactory
+     */
+    protected SessionFactory getSessionFactory() {
+        return sessionFactory;
+    }
+
+    /**
+     * Get encounter digest by the digest of the encounter.
+     *
+     * @param digest the digest of the encounter.
+     * @return the encounter digest with matching digest.
+     */
+    @Override
+    public EncounterDigest getEncounterDigestByDigest(final String digest) {
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+        criteria.add(Restrictions.eq("digest", digest));
+        return (EncounterDigest) criteria.uniqueResult();
+    }
+
+    /**
+     * Save an encounter digest.
+     *
+     * @param encounterDigest the encounter digest.
+     * @return the saved encounter digest.
+     */
+    @Override
+    @Transactional
+    public EncounterDigest saveEncounterDigest(final EncounterDigest encounterDigest) {
+        return saveOrUpdate(encounterDigest);
+    }
+}
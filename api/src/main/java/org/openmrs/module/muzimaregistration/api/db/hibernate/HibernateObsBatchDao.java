@@ -0,0 +1,209 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.db.hibernate;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.openmrs.Obs;
+import org.openmrs.api.APIException;
+import org.openmrs.module.muzima.api.db.hibernate.HibernateSingleClassDao;
+import org.openmrs.module.muzimaregistration.api.db.ObsBatchDao;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * It is a default implementation of  {@link org.openmrs.module.muzimaregistration.api.db.ObsBatchDao}.
+ * <p/>
+ * The observations are inserted on the connection of the current hibernate session, so they are part of the current
+ * transaction, but they are never attached to the session. Observation groups are inserted one level at a time, the
+ * ids of the groups of a level are read back by uuid before their members are inserted.
+ */
+public class HibernateObsBatchDao extends HibernateSingleClassDao<Obs> implements ObsBatchDao {
+
+    private static final int JDBC_BATCH_SIZE = 500;
+
+    private static final int MAX_IN_CLAUSE_SIZE = 500;
+
+    private static final String INSERT_OBS = "insert into obs (person_id, concept_id, encounter_id, obs_group_id,"
+            + " obs_datetime, location_id, value_coded, value_datetime, value_numeric, value_text, creator,"
+            + " date_created, voided, uuid) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SELECT_OBS_IDS = "select obs_id, uuid from obs where uuid in (";
+
+    private final Log log = LogFactory.getLog(this.getClass());
+
+    public HibernateObsBatchDao() {
+        super(Obs.class);
+    }
+
+    /**
+     * @return the sessionFactory
+     */
+    protected SessionFactory getSessionFactory() {
+        return sessionFactory;
+    }
+
+    /**
+     * Insert observations through JDBC batches instead of the hibernate session. Only the person, concept, encounter,
+     * group, date, location, value and creation columns are written. The group members of an observation are inserted
+     * along with it, the observation groups get their id assigned.
+     *
+     * @param obsList the top level observations, referencing the person, concept, encounter, location and creator by id.
+     * @return the number of observations inserted, group members included.
+     */
+    @Override
+    @Transactional
+    @SuppressWarnings("deprecation")
+    public Integer insertObs(final List<Obs> obsList) {
+        Session session = getSessionFactory().getCurrentSession();
+        // the patient or the encounter might have been saved earlier in the same transaction.
+        session.flush();
+        Connection connection = session.connection();
+        try {
+            int counter = 0;
+            List<Obs> level = obsList;
+            while (!level.isEmpty()) {
+                counter += insertLevel(connection, level);
+                List<Obs> groups = new ArrayList<Obs>();
+                for (Obs obs : level) {
+                    if (obs.hasGroupMembers()) {
+                        groups.add(obs);
+                    }
+                }
+                assignObsIds(connection, groups);
+                List<Obs> members = new ArrayList<Obs>();
+                for (Obs group : groups) {
+                    members.addAll(group.getGroupMembers());
+                }
+                level = members;
+            }
+            return counter;
+        } catch (SQLException e) {
+            throw new APIException("Unable to insert " + obsList.size() + " observations!", e);
+        }
+    }
+
+    private int insertLevel(final Connection connection, final List<Obs> obsList) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(INSERT_OBS);
+        try {
+            int counter = 0;
+            for (Obs obs : obsList) {
+                if (obs.getUuid() == null) {
+                    obs.setUuid(UUID.randomUUID().toString());
+                }
+                statement.setInt(1, obs.getPerson().getPersonId());
+                statement.setInt(2, obs.getConcept().getConceptId());
+                if (obs.getEncounter() != null) {
+                    statement.setInt(3, obs.getEncounter().getEncounterId());
+                } else {
+                    statement.setNull(3, Types.INTEGER);
+                }
+                if (obs.getObsGroup() != null) {
+                    statement.setInt(4, obs.getObsGroup().getObsId());
+                } else {
+                    statement.setNull(4, Types.INTEGER);
+                }
+                statement.setTimestamp(5, new Timestamp(obs.getObsDatetime().getTime()));
+                if (obs.getLocation() != null) {
+                    statement.setInt(6, obs.getLocation().getLocationId());
+                } else {
+                    statement.setNull(6, Types.INTEGER);
+                }
+                if (obs.getValueCoded() != null) {
+                    statement.setInt(7, obs.getValueCoded().getConceptId());
+                } else {
+                    statement.setNull(7, Types.INTEGER);
+                }
+                if (obs.getValueDatetime() != null) {
+                    statement.setTimestamp(8, new Timestamp(obs.getValueDatetime().getTime()));
+                } else {
+                    statement.setNull(8, Types.TIMESTAMP);
+                }
+                if (obs.getValueNumeric() != null) {
+                    statement.setDouble(9, obs.getValueNumeric());
+                } else {
+                    statement.setNull(9, Types.DOUBLE);
+                }
+                statement.setString(10, obs.getValueText());
+                statement.setInt(11, obs.getCreator().getUserId());
+                statement.setTimestamp(12, new Timestamp(obs.getDateCreated().getTime()));
+                statement.setBoolean(13, false);
+                statement.setString(14, obs.getUuid());
+                statement.addBatch();
+                if (++counter % JDBC_BATCH_SIZE == 0) {
+                    statement.executeBatch();
+                }
+            }
+            if (counter % JDBC_BATCH_SIZE != 0) {
+                statement.executeBatch();
+            }
+            return counter;
+        } finally {
+            close(statement);
+        }
+    }
+
+    /**
+     * Read the ids of the inserted observation groups back by uuid, so their members can reference them.
+     */
+    private void assignObsIds(final Connection connection, final List<Obs> groups) throws SQLException {
+        for (int i = 0; i < groups.size(); i += MAX_IN_CLAUSE_SIZE) {
+            List<Obs> chunk = groups.subList(i, Math.min(i + MAX_IN_CLAUSE_SIZE, groups.size()));
+            StringBuilder query = new StringBuilder(SELECT_OBS_IDS);
+            for (int j = 0; j < chunk.size(); j++) {
+                query.append(j == 0 ? "?" : ", ?");
+            }
+            query.append(")");
+            Map<String, Integer> obsIds = new HashMap<String, Integer>();
+            PreparedStatement statement = connection.prepareStatement(query.toString());
+            try {
+                for (int j = 0; j < chunk.size(); j++) {
+                    statement.setString(j + 1, chunk.get(j).getUuid());
+                }
+                ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    obsIds.put(resultSet.getString(2), resultSet.getInt(1));
+                }
+                resultSet.close();
+            } finally {
+                close(statement);
+            }
+            for (Obs group : chunk) {
+                group.setObsId(obsIds.get(group.getUuid()));
+            }
+        }
+    }
+
+    private void close(final Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            log.warn("Unable to close the observation statement!", e);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.db.hibernate;
+
+import org.hibernate.Criteria;
+import org.hibernate.Query;
+import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
+import org.hibernate.transform.Transformers;
+import org.openmrs.module.muzima.api.db.hibernate.HibernateSingleClassDao;
+import org.openmrs.module.muzimaregistration.api.db.PartitionLeaseDao;
+import org.openmrs.module.muzimaregistration.api.model.PartitionLease;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * It is a default implementation of  {@link org.openmrs.module.muzimaregistration.api.db.PartitionLeaseDao}.
+ * <p/>
+ * Claims are conditional bulk updates, the database serializes concurrent claims of the same partition and only one
+ * of them updates the row.
+ */
+public class HibernatePartitionLeaseDao extends HibernateSingleClassDao<PartitionLease> implements PartitionLeaseDao {
+
+    public HibernatePartitionLeaseDao() {
+        super(PartitionLease.class);
+    }
+
+    /**
+     * @return the sessionFactory
+     */
+    protected SessionFactory getSessionFactory() {
+        return sessionFactory;
+    }
+
+    /**
+     * Get a snapshot of all partition leases. The leases are read through a projection query, they are not attached
+     * to the hibernate session and always reflect the latest claims.
+     *
+     * @return the partition leases ordered by partition number.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<PartitionLease> getPartitionLeases() {
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+        criteria.setProjection(Projections.projectionList()
+                .add(Projections.property("id"), "id")
+                .add(Projections.property("partitionNumber"), "partitionNumber")
+                .add(Projections.property("owner"), "owner")
+                .add(Projections.property("leaseExpiry"), "leaseExpiry")
+                .add(Projections.property("requestedBy"), "requestedBy")
+                .add(Projections.property("requestExpiry"), "requestExpiry"));
+        criteria.setResultTransformer(Transformers.aliasToBean(PartitionLease.class));
+        criteria.addOrder(Order.asc("partitionNumber"));
+        return criteria.list();
+    }
+
+    /**
+     * Save a partition lease.
+     *
+     * @param partitionLease the partition lease.
+     * @return the saved partition lease.
+     */
+    @Override
+    @Transactional
+    public PartitionLease savePartitionLease(final PartitionLease partitionLease) {
+        return saveOrUpdate(partitionLease);
+    }
+
+    /**
+     * Claim a partition when it is free, expired or already held by the owner. A pending request for the partition
+     * is cleared by the claim.
+     *
+     * @param partitionNumber the partition number.
+     * @param owner           the node claiming the partition.
+     * @param now             the current date.
+     * @param leaseExpiry     the expiry date of the lease.
+     * @return the number of leases claimed, 0 when another node holds the partition.
+     */
+    @Override
+    @Transactional
+    public Integer claimPartitionLease(final Integer partitionNumber, final String owner, final Date now,
+                                       final Date leaseExpiry) {
+        Query query = getSessionFactory().getCurrentSession().createQuery(
+                "update PartitionLease set owner = :owner, leaseExpiry = :leaseExpiry, requestedBy = null,"
+                        + " requestExpiry = null, dateChanged = :now"
+                        + " where partitionNumber = :partitionNumber"
+                        + " and (owner is null or owner = :owner or leaseExpiry is null or leaseExpiry <= :now)");
+        query.setString("owner", owner);
+        query.setTimestamp("leaseExpiry", leaseExpiry);
+        query.setTimestamp("now", now);
+        query.setInteger("partitionNumber", partitionNumber);
+        return query.executeUpdate();
+    }
+
+    /**
+     * Extend all leases held by the owner.
+     *
+     * @param owner       the node holding the leases.
+     * @param now         the current date.
+     * @param leaseExpiry the new expiry date of the leases.
+     * @return the number of leases renewed.
+     */
+    @Override
+    @Transactional
+    public Integer renewPartitionLeases(final String owner, final Date now, final Date leaseExpiry) {
+        Query query = getSessionFactory().getCurrentSession().createQuery(
+                "update PartitionLease set leaseExpiry = :leaseExpiry, dateChanged = :now where owner = :owner");
+        query.setTimestamp("leaseExpiry", leaseExpiry);
+        query.setTimestamp("now", now);
+        query.setString("owner", owner);
+        return query.executeUpdate();
+    }
+
+    /**
+     * Extend the lease of a partition, only when the owner still holds it and the lease has not expired. Used before
+     * each batch, a node which lost the lease must stop processing the partition.
+     *
+     * @param partitionNumber the partition number.
+     * @param owner           the node holding the partition.
+     * @param now             the current date.
+     * @param leaseExpiry     the new expiry date of the lease.
+     * @return the number of leases renewed, 0 when the owner doesn't hold the partition anymore.
+     */
+    @Override
+    @Transactional
+    public Integer renewPartitionLease(final Integer partitionNumber, final String owner, final Date now,
+                                       final Date leaseExpiry) {
+        Query query = getSessionFactory().getCurrentSession().createQuery(
+                "update PartitionLease set leaseExpiry = :leaseExpiry, dateChanged = :now"
+                        + " where partitionNumber = :partitionNumber and owner = :owner and leaseExpiry > :now");
+        query.setTimestamp("leaseExpiry", leaseExpiry);
+        query.setTimestamp("now", now);
+        query.setInteger("partitionNumber", partitionNumber);
+        query.setString("owner", owner);
+        return query.executeUpdate();
+    }
+
+    /**
+     * Ask the owner of a partition to give it up, unless another node already has a pending request for it.
+     *
+     * @param partitionNumber the partition number.
+     * @param requester       the node requesting the partition.
+     * @param now             the current date.
+     * @param requestExpiry   the expiry date of the request.
+     * @return the number of leases requested, 0 when another node already requested the partition.
+     */
+    @Override
+    @Transactional
+    public Integer requestPartitionLease(final Integer partitionNumber, final String requester, final Date now,
+                                         final Date requestExpiry) {
+        Query query = getSessionFactory().getCurrentSession().createQuery(
+                "update PartitionLease set requestedBy = :requester, requestExpiry = :requestExpiry, dateChanged = :now"
+                        + " where partitionNumber = :partitionNumber and (requestedBy is null"
+                        + " or requestedBy = :requester or requestExpiry is null or requestExpiry <= :now)");
+        query.setString("requester", requester);
+        query.setTimestamp("requestExpiry", requestExpiry);
+        query.setTimestamp("now", now);
+        query.setInteger("partitionNumber", partitionNumber);
+        return query.executeUpdate();
+    }
+
+    /**
+     * Give a partition up, so another node can claim it right away.
+     *
+     * @param partitionNumber the partition number.
+     * @param owner           the node holding the partition.
+     * @param now             the current date.
+     * @return the number of leases released.
+     */
+    @Override
+    @Transactional
+    public Integer releasePartitionLease(final Integer partitionNumber, final String owner, final Date now) {
+        Query query = getSessionFactory().getCurrentSession().createQuery(
+                "update PartitionLease set owner = null, leaseExpiry = null, dateChanged = :now"
+                        + " where partitionNumber = :partitionNumber and owner = :owner");
+        query.setTimestamp("now", now);
+        query.setInteger("partitionNumber", partitionNumber);
+        query.setString("owner", owner);
+        return query.executeUpdate();
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.db.hibernate;
+
+import org.hibernate.Criteria;
+import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Restrictions;
+import org.openmrs.module.muzima.api.db.hibernate.HibernateSingleClassDao;
+import org.openmrs.module.muzimaregistration.api.db.ProcessedPayloadDao;
+import org.openmrs.module.muzimaregistration.api.model.ProcessedPayload;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * It is a default implementation of  {@link org.openmrs.module.muzimaregistration.api.db.ProcessedPayloadDao}.
+ */
+public class HibernateProcessedPayloadDao extends HibernateSingleClassDao<ProcessedPayload> implements ProcessedPayloadDao {
+
+    public HibernateProcessedPayloadDao() {
+        super(ProcessedPayload.class);
+    }
+
+    /**
+     * @return the sessionFactory
+     */
+    protected SessionFactory getSessionFactory() {
+        return sessionFactory;
+    }
+
+    /**
+     * Get processed payload by the content hash of the payload.
+     *
+     * @param payloadHash the content hash of the payload.
+     * @return the processed payload with matching hash.
+     */
+    @Override
+    public ProcessedPayload getProcessedPayloadByHash(final String payloadHash) {
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+        criteria.add(Restrictions.eq("payloadHash", payloadHash));
+        return (ProcessedPayload) criteria.uniqueResult();
+    }
+
+    /**
+     * Save a processed payload.
+     *
+     * @param processedPayload the processed payload.
+     * @return the saved processed payload.
+     */
+    @Override
+    @Transactional
+    public ProcessedPayload saveProcessedPayload(final ProcessedPayload processedPayload) {
+        return saveOrUpdate(processedPayload);
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.db.hibernate;
+
+import org.hibernate.Criteria;
+import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Restrictions;
+import org.openmrs.module.muzima.api.db.hibernate.HibernateSingleClassDao;
+import org.openmrs.module.muzimaregistration.api.db.QueueDataFailureDao;
+import org.openmrs.module.muzimaregistration.api.model.QueueDataFailure;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * It is a default implementation of  {@link org.openmrs.module.muzimaregistration.api.db.QueueDataFailureDao}.
+ */
+public class HibernateQueueDataFailureDao extends HibernateSingleClassDao<QueueDataFailure> implements QueueDataFailureDao {
+
+    private static final int MAX_IN_CLAUSE_SIZE = 500;
+
+    public HibernateQueueDataFailureDao() {
+        super(QueueDataFailure.class);
+    }
+
+    /**
+     * @return the sessionFactory
+     */
+    protected SessionFactory getSessionFactory() {
+        return sessionFactory;
+    }
+
+    /**
+     * Get queue data failure by the uuid of the failing queue data.
+     *
+     * @param queueDataUuid the uuid of the queue data.
+     * @return the queue data failure of the queue data.
+     */
+    @Override
+    public QueueDataFailure getQueueDataFailureByQueueDataUuid(final String queueDataUuid) {
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+        criteria.add(Restrictions.eq("queueDataUuid", queueDataUuid));
+        return (QueueDataFailure) criteria.uniqueResult();
+    }
+
+    /**
+     * Get queue data failures for a set of queue data in as few queries as possible.
+     *
+     * @param queueDataUuids the uuids of the queue data.
+     * @return the queue data failures with matching queue data uuid.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<QueueDataFailure> getQueueDataFailuresByQueueDataUuids(final Collection<String> queueDataUuids) {
+        List<QueueDataFailure> queueDataFailures = new ArrayList<QueueDataFailure>();
+        List<String> uuids = new ArrayList<String>(queueDataUuids);
+        for (int i = 0; i < uuids.size(); i += MAX_IN_CLAUSE_SIZE) {
+            List<String> chunk = uuids.subList(i, Math.min(i + MAX_IN_CLAUSE_SIZE, uuids.size()));
+            Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+            criteria.add(Restrictions.in("queueDataUuid", chunk));
+            queueDataFailures.addAll(criteria.list());
+        }
+        return queueDataFailures;
+    }
+
+    /**
+     * Save a queue data failure.
+     *
+     * @param queueDataFailure the queue data failure.
+     * @return the saved queue data failure.
+     */
+    @Override
+    @Transactional
+    public QueueDataFailure saveQueueDataFailure(final QueueDataFailure queueDataFailure) {
+        return saveOrUpdate(queueDataFailure);
+    }
+
+    /**
+     * Delete a queue data failure.
+     *
+     * @param queueDataFailure the queue data failure.
+     */
+    @Override
+    @Transactional
+    public void deleteQueueDataFailure(final QueueDataFailure queueDataFailure) {
+        delete(queueDataFailure);
+    }
+}
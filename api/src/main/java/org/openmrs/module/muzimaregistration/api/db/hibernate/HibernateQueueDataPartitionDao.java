@@ -0,0 +1,158 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.db.hibernate;
+
+import org.hibernate.Criteria;
+import org.hibernate.Query;
+import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import org.openmrs.module.muzima.api.db.hibernate.HibernateSingleClassDao;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzimaregistration.api.db.QueueDataPartitionDao;
+import org.openmrs.module.muzimaregistration.api.model.QueueDataPartition;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * It is a default implementation of  {@link org.openmrs.module.muzimaregistration.api.db.QueueDataPartitionDao}.
+ */
+public class HibernateQueueDataPartitionDao extends HibernateSingleClassDao<QueueDataPartition> implements QueueDataPartitionDao {
+
+    public HibernateQueueDataPartitionDao() {
+        super(QueueDataPartition.class);
+    }
+
+    /**
+     * @return the sessionFactory
+     */
+    protected SessionFactory getSessionFactory() {
+        return sessionFactory;
+    }
+
+    /**
+     * Get a page of the recorded queue data falling into the partitions, in the order it was recorded.
+     *
+     * @param partitionNumbers the partition numbers.
+     * @param partitionCount   the number of partitions.
+     * @param lastId           the id of the last queue data partition of the previous page, 0 for the first page.
+     * @param maxResults       the size of the page.
+     * @return the queue data partitions recorded after the last id.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<QueueDataPartition> getQueueDataPartitions(final Collection<Integer> partitionNumbers,
+                                                           final Integer partitionCount, final Integer lastId,
+                                                           final Integer maxResults) {
+        if (partitionNumbers.isEmpty()) {
+            return new ArrayList<QueueDataPartition>();
+        }
+        // paging on the id keeps the pages stable while the processed queue data is deleted.
+        Query query = getSessionFactory().getCurrentSession().createQuery(
+                "from QueueDataPartition where id > :lastId"
+                        + " and mod(patientHash, :partitionCount) in (:partitionNumbers) order by id");
+        query.setInteger("lastId", lastId);
+        query.setInteger("partitionCount", partitionCount);
+        query.setParameterList("partitionNumbers", partitionNumbers);
+        query.setMaxResults(maxResults);
+        return query.list();
+    }
+
+    /**
+     * Get the uuids of the queue data which already have a queue data partition.
+     *
+     * @param queueDataUuids the uuids of the queue data.
+     * @return the uuids of the queue data with a queue data partition.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> getQueueDataUuids(final Collection<String> queueDataUuids) {
+        if (queueDataUuids.isEmpty()) {
+            return new ArrayList<String>();
+        }
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+        criteria.add(Restrictions.in("queueDataUuid", queueDataUuids));
+        criteria.setProjection(Projections.property("queueDataUuid"));
+        return criteria.list();
+    }
+
+    /**
+     * Get the queue data waiting in the queue without a queue data partition, oldest first.
+     *
+     * @param maxResults the maximum number of queue data.
+     * @return the unrecorded queue data.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<QueueData> getUnpartitionedQueueData(final Integer maxResults) {
+        Query query = getSessionFactory().getCurrentSession().createQuery(
+                "from " + QueueData.class.getName() + " queueData where not exists"
+                        + " (select queueDataPartition.id from QueueDataPartition queueDataPartition"
+                        + " where queueDataPartition.queueDataUuid = queueData.uuid) order by queueData.id");
+        query.setMaxResults(maxResults);
+        return query.list();
+    }
+
+    /**
+     * Get the queue data waiting in the queue by their uuids, oldest first.
+     *
+     * @param queueDataUuids the uuids of the queue data.
+     * @return the queue data still in the queue.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<QueueData> getQueueData(final Collection<String> queueDataUuids) {
+        if (queueDataUuids.isEmpty()) {
+            return new ArrayList<QueueData>();
+        }
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(QueueData.class);
+        criteria.add(Restrictions.in("uuid", queueDataUuids));
+        criteria.addOrder(Order.asc("id"));
+        return criteria.list();
+    }
+
+    /**
+     * Save a queue data partition.
+     *
+     * @param queueDataPartition the queue data partition.
+     * @return the saved queue data partition.
+     */
+    @Override
+    @Transactional
+    public QueueDataPartition saveQueueDataPartition(final QueueDataPartition queueDataPartition) {
+        return saveOrUpdate(queueDataPartition);
+    }
+
+    /**
+     * Delete the queue data partitions of queue data which left the queue.
+     *
+     * @param queueDataUuids the uuids of the queue data.
+     * @return the number of deleted queue data partitions.
+     */
+    @Override
+    @Transactional
+    public int deleteQueueDataPartitions(final Collection<String> queueDataUuids) {
+        if (queueDataUuids.isEmpty()) {
+            return 0;
+        }
+        Query query = getSessionFactory().getCurrentSession().createQuery(
+                "delete from QueueDataPartition where queueDataUuid in (:queueDataUuids)");
+        query.setParameterList("queueDataUuids", queueDataUuids);
+        return query.executeUpdate();
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.db.hibernate;
+
+import org.hibernate.Criteria;
+import org.hibernate.Query;
+import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import org.openmrs.module.muzima.api.db.hibernate.HibernateSingleClassDao;
+import org.openmrs.module.muzimaregistration.api.db.QueuedRegistrationDao;
+import org.openmrs.module.muzimaregistration.api.model.QueuedRegistration;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * It is a default implementation of  {@link org.openmrs.module.muzimaregistration.api.db.QueuedRegistrationDao}.
+ */
+public class HibernateQueuedRegistrationDao extends HibernateSingleClassDao<QueuedRegistration> implements QueuedRegistrationDao {
+
+    public HibernateQueuedRegistrationDao() {
+        super(QueuedRegistration.class);
+    }
+
+    /**
+     * @return the sessionFactory
+     */
+    protected SessionFactory getSessionFactory() {
+        return sessionFactory;
+    }
+
+    /**
+     * Count the registration forms for a temporary uuid which are still waiting in the queue.
+     *
+     * @param temporaryUuid the temporary uuid assigned to a patient.
+     * @return the number of queued registrations with the temporary uuid.
+     */
+    @Override
+    public Number countQueuedRegistrations(final String temporaryUuid) {
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+        criteria.add(Restrictions.eq("temporaryUuid", temporaryUuid));
+        criteria.setProjection(Projections.rowCount());
+        return (Number) criteria.uniqueResult();
+    }
+
+    /**
+     * Get queued registration by the uuid of the queue data.
+     *
+     * @param queueDataUuid the uuid of the queue data.
+     * @return the queued registration of the queue data.
+     */
+    @Override
+    public QueuedRegistration getQueuedRegistrationByQueueDataUuid(final String queueDataUuid) {
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+        criteria.add(Restrictions.eq("queueDataUuid", queueDataUuid));
+        return (QueuedRegistration) criteria.uniqueResult();
+    }
+
+    /**
+     * Get the uuids of the queue data which already have a queued registration.
+     *
+     * @param queueDataUuids the uuids of the queue data.
+     * @return the uuids of the queue data with a queued registration.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> getQueueDataUuids(final Collection<String> queueDataUuids) {
+        if (queueDataUuids.isEmpty()) {
+            return new ArrayList<String>();
+        }
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+        criteria.add(Restrictions.in("queueDataUuid", queueDataUuids));
+        criteria.setProjection(Projections.property("queueDataUuid"));
+        return criteria.list();
+    }
+
+    /**
+     * Save a queued registration.
+     *
+     * @param queuedRegistration the queued registration.
+     * @return the saved queued registration.
+     */
+    @Override
+    @Transactional
+    public QueuedRegistration saveQueuedRegistration(final QueuedRegistration queuedRegistration) {
+        return saveOrUpdate(queuedRegistration);
+    }
+
+    /**
+     * Delete the queued registrations of queue data which left the queue.
+     *
+     * @param queueDataUuids the uuids of the queue data.
+     * @return the number of deleted queued registrations.
+     */
+    @Override
+    @Transactional
+    public int deleteQueuedRegistrations(final Collection<String> queueDataUuids) {
+        if (queueDataUuids.isEmpty()) {
+            return 0;
+        }
+        Query query = getSessionFactory().getCurrentSession().createQuery(
+                "delete from QueuedRegistration where queueDataUuid in (:queueDataUuids)");
+        query.setParameterList("queueDataUuids", queueDataUuids);
+        return query.executeUpdate();
+    }
+}
@@ -16,15 +16,32 @@ package org.openmrs.module.muzimaregistration.api.db.hibernate;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.CacheMode;
 import org.hibernate.Criteria;
+import org.hibernate.FetchMode;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.transform.Transformers;
+import org.openmrs.Patient;
 import org.openmrs.module.muzima.api.db.hibernate.HibernateSingleClassDao;
+import org.openmrs.module.muzimaregistration.api.RegistrationDataCallback;
 import org.openmrs.module.muzimaregistration.api.db.RegistrationDataDao;
 import org.openmrs.module.muzimaregistration.api.model.RegistrationData;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationMapping;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -32,6 +49,10 @@ import java.util.List;
  */
 public class HibernateRegistrationDataDao extends HibernateSingleClassDao<RegistrationData> implements RegistrationDataDao {
 
+    private static final int DEFAULT_FETCH_SIZE = 1000;
+
+    private static final int MAX_IN_CLAUSE_SIZE = 500;
+
     private final Log log = LogFactory.getLog(this.getClass());
 
     public HibernateRegistrationDataDao() {
@@ -147,4 +168,205 @@ public class HibernateRegistrationDataDao extends HibernateSingleClassDao<Regist
         criteria.setProjection(Projections.rowCount());
         return (Number) criteria.uniqueResult();
     }
-}
\ No newline at end of file
+
+    /**
+     * Walk through all registration data (including the voided ones) ordered by the internal database id. The rows
+     * are read through a forward only cursor and handed to the callback one at a time, so memory usage stays
+     * constant regardless of the number of rows in the table.
+     *
+     * @param callback the callback which will receive each registration data.
+     */
+    @Override
+    public void scrollRegistrationData(final RegistrationDataCallback callback) {
+        // stateless session: nothing read here will end up in the first level cache.
+        StatelessSession session = getSessionFactory().openStatelessSession();
+        ScrollableResults results = null;
+        try {
+            Query query = session.createQuery("select r.uuid, r.temporaryUuid, r.assignedUuid, r.dateCreated, r.voided"
+                    + " from RegistrationData r order by r.id");
+            query.setFetchSize(getStreamingFetchSize(getSessionFactory()));
+            results = query.scroll(ScrollMode.FORWARD_ONLY);
+            while (results.next()) {
+                RegistrationData registrationData = new RegistrationData();
+                registrationData.setUuid(results.getString(0));
+                registrationData.setTemporaryUuid(results.getString(1));
+                registrationData.setAssignedUuid(results.getString(2));
+                registrationData.setDateCreated((Date) results.get(3));
+                registrationData.setVoided((Boolean) results.get(4));
+                callback.handle(registrationData);
+            }
+        } finally {
+            if (results != null) {
+                results.close();
+            }
+            session.close();
+        }
+    }
+
+    /**
+     * Get the temporary uuids (including the voided ones) which already exist in the database.
+     *
+     * @param temporaryUuids the temporary uuids to check.
+     * @return the subset of the temporary uuids which already exist in the database.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> getTemporaryUuids(final Collection<String> temporaryUuids) {
+        if (temporaryUuids.isEmpty()) {
+            return new ArrayList<String>();
+        }
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+        criteria.add(Restrictions.in("temporaryUuid", temporaryUuids));
+        criteria.setProjection(Projections.property("temporaryUuid"));
+        return criteria.list();
+    }
+
+    /**
+     * Create new registration data entries in the database in a single batch. The session will be flushed and
+     * cleared after the batch is saved.
+     *
+     * @param registrationDataList the registration data to be created.
+     */
+    @Override
+    @Transactional
+    public void saveRegistrationData(final List<RegistrationData> registrationDataList) {
+        Session session = getSessionFactory().getCurrentSession();
+        for (RegistrationData registrationData : registrationDataList) {
+            session.save(registrationData);
+        }
+        session.flush();
+        session.clear();
+    }
+
+    /**
+     * MySQL driver will only stream the result set when the fetch size is set to Integer.MIN_VALUE, otherwise the
+     * whole result set is buffered in memory before the first row is returned.
+     *
+     * @param sessionFactory the session factory the cursor will be opened from.
+     * @return the fetch size to be used for the forward only cursor.
+     */
+    static int getStreamingFetchSize(final SessionFactory sessionFactory) {
+        SessionFactoryImplementor sessionFactoryImplementor = (SessionFactoryImplementor) sessionFactory;
+        if (sessionFactoryImplementor.getDialect() instanceof MySQLDialect) {
+            return Integer.MIN_VALUE;
+        }
+        return DEFAULT_FETCH_SIZE;
+    }
+
+    /**
+     * Create criteria which will return {@link RegistrationMapping} built straight from the selected columns.
+     *
+     * @return the criteria projecting the mapping columns.
+     */
+    private Criteria createMappingCriteria() {
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+        criteria.setProjection(Projections.projectionList()
+                .add(Projections.property("id"), "id")
+                .add(Projections.property("uuid"), "uuid")
+                .add(Projections.property("temporaryUuid"), "temporaryUuid")
+                .add(Projections.property("assignedUuid"), "assignedUuid")
+                .add(Projections.property("dateCreated"), "dateCreated")
+                .add(Projections.property("dateChanged"), "dateChanged")
+                .add(Projections.property("dateVoided"), "dateVoided")
+                .add(Projections.property("voided"), "voided"));
+        criteria.setResultTransformer(Transformers.aliasToBean(RegistrationMapping.class));
+        criteria.setCacheMode(CacheMode.IGNORE);
+        return criteria;
+    }
+
+    /**
+     * Get patients by their uuid in as few queries as possible. The names and identifiers of the patients are
+     * fetched together with the patients, so reading them will not trigger additional queries.
+     *
+     * @param assignedUuids the uuids of the patients.
+     * @return the patients with matching uuid.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Patient> getPatientsByUuids(final Collection<String> assignedUuids) {
+        List<Patient> patients = new ArrayList<Patient>();
+        List<String> uuids = new ArrayList<String>(assignedUuids);
+        for (int i = 0; i < uuids.size(); i += MAX_IN_CLAUSE_SIZE) {
+            List<String> chunk = uuids.subList(i, Math.min(i + MAX_IN_CLAUSE_SIZE, uuids.size()));
+            Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(Patient.class);
+            criteria.add(Restrictions.in("uuid", chunk));
+            criteria.setFetchMode("names", FetchMode.JOIN);
+            criteria.setFetchMode("identifiers", FetchMode.JOIN);
+            criteria.setResultTransformer(Criteria.DISTINCT_ROOT_ENTITY);
+            patients.addAll(criteria.list());
+        }
+        return patients;
+    }
+
+    /**
+     * Get registration data which doesn't have a registration summary yet.
+     *
+     * @param maxResults the maximum number of registration data to return.
+     * @return registration data without registration summary, ordered by the internal database id.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<RegistrationData> getRegistrationDataWithoutSummary(final Integer maxResults) {
+        Query query = getSessionFactory().getCurrentSession().createQuery("select r from RegistrationData r"
+                + " where r.voided = false and not exists"
+                + " (select s.id from RegistrationSummary s where s.registrationUuid = r.uuid)"
+                + " order by r.id");
+        query.setMaxResults(maxResults);
+        return query.list();
+    }
+
+    /**
+     * Get registration data for a set of temporary uuids in as few queries as possible.
+     *
+     * @param temporaryUuids the temporary uuids.
+     * @return the registration data with matching temporary uuid.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<RegistrationData> getRegistrationDataByTemporaryUuids(final Collection<String> temporaryUuids) {
+        List<RegistrationData> registrationDataList = new ArrayList<RegistrationData>();
+        List<String> uuids = new ArrayList<String>(temporaryUuids);
+        for (int i = 0; i < uuids.size(); i += MAX_IN_CLAUSE_SIZE) {
+            List<String> chunk = uuids.subList(i, Math.min(i + MAX_IN_CLAUSE_SIZE, uuids.size()));
+            Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+            criteria.add(Restrictions.in("temporaryUuid", chunk));
+            criteria.add(Restrictions.eq("voided", Boolean.FALSE));
+            registrationDataList.addAll(criteria.list());
+        }
+        return registrationDataList;
+    }
+
+    /**
+     * Get registration data mappings created, changed or voided after the since date and not later than the until
+     * date. Voided registration data is returned too, so the caller can remove them. The mappings are ordered by
+     * the internal database id and the page continues after the last id.
+     *
+     * @param since      the lower bound (exclusive) of the modification date, null to get all registration data.
+     * @param until      the upper bound (inclusive) of the modification date.
+     * @param lastId     the internal database id of the last mapping in the previous page, null for the first page.
+     * @param maxResults the maximum number of mappings to return.
+     * @return the registration data mappings modified in the window.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<RegistrationMapping> getRegistrationMappingsModifiedSince(final Date since, final Date until,
+                                                                          final Integer lastId, final Integer maxResults) {
+        Criteria criteria = createMappingCriteria();
+        if (since == null) {
+            // nothing to remove on the client during the initial sync.
+            criteria.add(Restrictions.eq("voided", Boolean.FALSE));
+            criteria.add(Restrictions.le("dateCreated", until));
+        } else {
+            criteria.add(Restrictions.disjunction()
+                    .add(Restrictions.and(Restrictions.gt("dateCreated", since), Restrictions.le("dateCreated", until)))
+                    .add(Restrictions.and(Restrictions.gt("dateChanged", since), Restrictions.le("dateChanged", until)))
+                    .add(Restrictions.and(Restrictions.gt("dateVoided", since), Restrictions.le("dateVoided", until))));
+        }
+        if (lastId != null) {
+            criteria.add(Restrictions.gt("id", lastId));
+        }
+        criteria.addOrder(Order.asc("id"));
+        criteria.setMaxResults(maxResults);
+        return criteria.list();
+    }
+}
@@ -0,0 +1,280 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.db.hibernate;
+
+import org.apache.commons.lang.StringUtils;
+import org.hibernate.Criteria;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.criterion.MatchMode;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import org.openmrs.module.muzima.api.db.hibernate.HibernateSingleClassDao;
+import org.openmrs.module.muzimaregistration.api.RegistrationSummaryCallback;
+import org.openmrs.module.muzimaregistration.api.db.RegistrationSummaryDao;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationSummary;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * It is a default implementation of  {@link org.openmrs.module.muzimaregistration.api.db.RegistrationSummaryDao}.
+ */
+public class HibernateRegistrationSummaryDao extends HibernateSingleClassDao<RegistrationSummary> implements RegistrationSummaryDao {
+
+    private static final List<String> SORTABLE_PROPERTIES = Arrays.asList(
+            "displayName", "gender", "birthdate", "preferredIdentifier", "locationName", "dateCreated");
+
+    private static final String DEFAULT_ORDER = "-dateCreated";
+
+    private static final int MAX_IN_CLAUSE_SIZE = 500;
+
+    public HibernateRegistrationSummaryDao() {
+        super(RegistrationSummary.class);
+    }
+
+    /**
+     * @return the sessionFactory
+     */
+    protected SessionFactory getSessionFactory() {
+        return sessionFactory;
+    }
+
+    /**
+     * Get registration summary by the uuid of the registration data it summarizes.
+     *
+     * @param registrationUuid the uuid of the registration data.
+     * @return the registration summary of the registration data.
+     */
+    @Override
+    public RegistrationSummary getRegistrationSummaryByRegistrationUuid(final String registrationUuid) {
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+        criteria.add(Restrictions.eq("registrationUuid", registrationUuid));
+        return (RegistrationSummary) criteria.uniqueResult();
+    }
+
+    /**
+     * Get registration summary by the temporary uuid of the registration data it summarizes.
+     *
+     * @param temporaryUuid the temporary uuid of the registration data.
+     * @return the registration summary of the registration data.
+     */
+    @Override
+    public RegistrationSummary getRegistrationSummaryByTemporaryUuid(final String temporaryUuid) {
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+        criteria.add(Restrictions.eq("temporaryUuid", temporaryUuid));
+        return (RegistrationSummary) criteria.uniqueResult();
+    }
+
+    /**
+     * Get all registration summaries of a patient.
+     *
+     * @param assignedUuid the real uuid of the patient.
+     * @return all registration summaries pointing to the patient.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<RegistrationSummary> getRegistrationSummariesByAssignedUuid(final String assignedUuid) {
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+        criteria.add(Restrictions.eq("assignedUuid", assignedUuid));
+        return criteria.list();
+    }
+
+    /**
+     * Get registration summaries for a set of temporary uuids in as few queries as possible.
+     *
+     * @param temporaryUuids the temporary uuids.
+     * @return the registration summaries with matching temporary uuid.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<RegistrationSummary> getRegistrationSummariesByTemporaryUuids(final Collection<String> temporaryUuids) {
+        List<RegistrationSummary> registrationSummaries = new ArrayList<RegistrationSummary>();
+        List<String> uuids = new ArrayList<String>(temporaryUuids);
+        for (int i = 0; i < uuids.size(); i += MAX_IN_CLAUSE_SIZE) {
+            List<String> chunk = uuids.subList(i, Math.min(i + MAX_IN_CLAUSE_SIZE, uuids.size()));
+            Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+            criteria.add(Restrictions.in("temporaryUuid", chunk));
+            registrationSummaries.addAll(criteria.list());
+        }
+        return registrationSummaries;
+    }
+
+    /**
+     * Get a page of registration summaries.
+     *
+     * @param search     the prefix of the display name or the preferred identifier, all summaries when blank.
+     * @param orderBy    the property to order the summaries by, prefixed with "-" for descending order.
+     * @param pageNumber the page number.
+     * @param pageSize   the page size.
+     * @return the registration summaries in the page.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<RegistrationSummary> getRegistrationSummaries(final String search, final String orderBy,
+                                                              final Integer pageNumber, final Integer pageSize) {
+        Criteria criteria = createSearchCriteria(search);
+        addPageAndOrder(criteria, orderBy, pageNumber, pageSize);
+        return criteria.list();
+    }
+
+    /**
+     * Walk through a page of registration summaries one row at a time. The rows are read through a forward only
+     * cursor on a stateless session, so memory usage stays constant regardless of the page size.
+     *
+     * @param search     the prefix of the display name or the preferred identifier, all summaries when blank.
+     * @param orderBy    the property to order the summaries by, prefixed with "-" for descending order.
+     * @param pageNumber the page number.
+     * @param pageSize   the page size.
+     * @param callback   the callback which will receive each registration summary.
+     */
+    @Override
+    public void scrollRegistrationSummaries(final String search, final String orderBy,
+                                            final Integer pageNumber, final Integer pageSize,
+                                            final RegistrationSummaryCallback callback) {
+        StatelessSession session = getSessionFactory().openStatelessSession();
+        ScrollableResults results = null;
+        try {
+            Criteria criteria = addSearchRestriction(session.createCriteria(mappedClass), search);
+            addPageAndOrder(criteria, orderBy, pageNumber, pageSize);
+            criteria.setFetchSize(HibernateRegistrationDataDao.getStreamingFetchSize(getSessionFactory()));
+            results = criteria.scroll(ScrollMode.FORWARD_ONLY);
+            while (results.next()) {
+                callback.handle((RegistrationSummary) results.get(0));
+            }
+        } finally {
+            if (results != null) {
+                results.close();
+            }
+            session.close();
+        }
+    }
+
+    /**
+     * Count the number of registration summaries.
+     *
+     * @param search the prefix of the display name or the preferred identifier, all summaries when blank.
+     * @return the number of registration summaries.
+     */
+    @Override
+    public Number countRegistrationSummaries(final String search) {
+        Criteria criteria = createSearchCriteria(search);
+        criteria.setProjection(Projections.rowCount());
+        return (Number) criteria.uniqueResult();
+    }
+
+    /**
+     * Get the last modification date of the registration summaries, used to detect changes in the listing without
+     * reading the summaries.
+     *
+     * @param search the prefix of the display name or the preferred identifier, all summaries when blank.
+     * @return the latest creation or change date of the registration summaries, null when there is no summary.
+     */
+    @Override
+    public Date getRegistrationSummariesLastModified(final String search) {
+        Criteria criteria = createSearchCriteria(search);
+        criteria.setProjection(Projections.projectionList()
+                .add(Projections.max("dateCreated"))
+                .add(Projections.max("dateChanged")));
+        Object[] result = (Object[]) criteria.uniqueResult();
+        Date dateCreated = (Date) result[0];
+        Date dateChanged = (Date) result[1];
+        if (dateChanged != null && (dateCreated == null || dateChanged.after(dateCreated))) {
+            return dateChanged;
+        }
+        return dateCreated;
+    }
+
+    /**
+     * Save a registration summary.
+     *
+     * @param registrationSummary the registration summary.
+     * @return the saved registration summary.
+     */
+    @Override
+    @Transactional
+    public RegistrationSummary saveRegistrationSummary(final RegistrationSummary registrationSummary) {
+        return saveOrUpdate(registrationSummary);
+    }
+
+    /**
+     * Save a batch of new registration summaries in a single flush. The saved summaries are evicted from the session.
+     *
+     * @param registrationSummaries the registration summaries.
+     */
+    @Override
+    @Transactional
+    public void saveRegistrationSummaries(final List<RegistrationSummary> registrationSummaries) {
+        Session session = getSessionFactory().getCurrentSession();
+        for (RegistrationSummary registrationSummary : registrationSummaries) {
+            session.save(registrationSummary);
+        }
+        session.flush();
+        for (RegistrationSummary registrationSummary : registrationSummaries) {
+            session.evict(registrationSummary);
+        }
+    }
+
+    /**
+     * Delete a registration summary.
+     *
+     * @param registrationSummary the registration summary.
+     */
+    @Override
+    @Transactional
+    public void deleteRegistrationSummary(final RegistrationSummary registrationSummary) {
+        delete(registrationSummary);
+    }
+
+    private Criteria createSearchCriteria(final String search) {
+        return addSearchRestriction(getSessionFactory().getCurrentSession().createCriteria(mappedClass), search);
+    }
+
+    private Criteria addSearchRestriction(final Criteria criteria, final String search) {
+        if (StringUtils.isNotBlank(search)) {
+            // prefix match only, so both columns can be searched through their index.
+            criteria.add(Restrictions.or(
+                    Restrictions.like("displayName", search, MatchMode.START),
+                    Restrictions.like("preferredIdentifier", search, MatchMode.START)));
+        }
+        return criteria;
+    }
+
+    private void addPageAndOrder(final Criteria criteria, final String orderBy,
+                                 final Integer pageNumber, final Integer pageSize) {
+        if (pageNumber != null) {
+            criteria.setFirstResult((pageNumber - 1) * pageSize);
+        }
+        if (pageSize != null) {
+            criteria.setMaxResults(pageSize);
+        }
+        String order = StringUtils.defaultIfEmpty(orderBy, DEFAULT_ORDER);
+        boolean descending = StringUtils.startsWith(order, "-");
+        String property = StringUtils.removeStart(order, "-");
+        if (!SORTABLE_PROPERTIES.contains(property)) {
+            property = StringUtils.removeStart(DEFAULT_ORDER, "-");
+            descending = true;
+        }
+        criteria.addOrder(descending ? Order.desc(property) : Order.asc(property));
+        criteria.addOrder(Order.asc("id"));
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.db.hibernate;
+
+import org.hibernate.Criteria;
+import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Restrictions;
+import org.openmrs.module.muzima.api.db.hibernate.HibernateSingleClassDao;
+import org.openmrs.module.muzimaregistration.api.db.SkippedObsDao;
+import org.openmrs.module.muzimaregistration.api.model.SkippedObs;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * It is a default implementation of  {@link org.openmrs.module.muzimaregistration.api.db.SkippedObsDao}.
+ */
+public class HibernateSkippedObsDao extends HibernateSingleClassDao<SkippedObs> implements SkippedObsDao {
+
+    public HibernateSkippedObsDao() {
+        super(SkippedObs.class);
+    }
+
+    /**
+     * @return the sessionFactory
+     */
+    protected SessionFactory getSessionFactory() {
+        return sessionFactory;
+    }
+
+    /**
+     * Get the skipped obs record by the uuid of the processed queue data.
+     *
+     * @param queueDataUuid the uuid of the queue data.
+     * @return the skipped obs record of the queue data.
+     */
+    @Override
+    public SkippedObs getSkippedObsByQueueDataUuid(final String queueDataUuid) {
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+        criteria.add(Restrictions.eq("queueDataUuid", queueDataUuid));
+        return (SkippedObs) criteria.uniqueResult();
+    }
+
+    /**
+     * Save a skipped obs record.
+     *
+     * @param skippedObs the skipped obs record.
+     * @return the saved skipped obs record.
+     */
+    @Override
+    @Transactional
+    public SkippedObs saveSkippedObs(final SkippedObs skippedObs) {
+        return saveOrUpdate(skippedObs);
+    }
+}
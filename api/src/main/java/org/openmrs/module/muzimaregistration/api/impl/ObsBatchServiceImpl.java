@@ -0,0 +1,93 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.impl;
+
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.muzimaregistration.api.ObsBatchService;
+import org.openmrs.module.muzimaregistration.api.db.ObsBatchDao;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * It is a default implementation of {@link org.openmrs.module.muzimaregistration.api.ObsBatchService}.
+ */
+public class ObsBatchServiceImpl extends BaseOpenmrsService implements ObsBatchService {
+
+    private ObsBatchDao obsBatchDao;
+
+    /**
+     * @param obsBatchDao the obs batch dao to set
+     */
+    public void setObsBatchDao(ObsBatchDao obsBatchDao) {
+        this.obsBatchDao = obsBatchDao;
+    }
+
+    /**
+     * Insert observations through JDBC batches instead of the hibernate session. Only the person, concept, encounter,
+     * group, date, location, value and creation columns are written. The group members of an observation are inserted
+     * along with it, the observation groups get their id assigned.
+     *
+     * @param obsList the top level observations, referencing the person, concept, encounter, location and creator by id.
+     * @return the number of observations inserted, group members included.
+     */
+    @Override
+    public Integer insertObs(final List<Obs> obsList) {
+        return obsBatchDao.insertObs(obsList);
+    }
+
+    /**
+     * Insert a chunk of the observations of a saved encounter through JDBC batches, the observations are never
+     * attached to the hibernate session. The group members of an observation are inserted along with it.
+     *
+     * @param encounter the saved encounter.
+     * @param obsChunk  the top level observations of the chunk, with their group members.
+     * @return the number of observations inserted, group members included.
+     */
+    @Override
+    public Integer saveObsChunk(final Encounter encounter, final List<Obs> obsChunk) {
+        User creator = encounter.getCreator() != null ? encounter.getCreator() : Context.getAuthenticatedUser();
+        Date dateCreated = new Date();
+        for (Obs obs : obsChunk) {
+            prepareObs(encounter, creator, dateCreated, obs);
+        }
+        return obsBatchDao.insertObs(obsChunk);
+    }
+
+    private void prepareObs(final Encounter encounter, final User creator, final Date dateCreated, final Obs obs) {
+        obs.setEncounter(encounter);
+        obs.setPerson(encounter.getPatient());
+        if (obs.getObsDatetime() == null) {
+            obs.setObsDatetime(encounter.getEncounterDatetime());
+        }
+        if (obs.getLocation() == null) {
+            obs.setLocation(encounter.getLocation());
+        }
+        if (obs.getCreator() == null) {
+            obs.setCreator(creator);
+        }
+        if (obs.getDateCreated() == null) {
+            obs.setDateCreated(dateCreated);
+        }
+        if (obs.hasGroupMembers()) {
+            for (Obs member : obs.getGroupMembers()) {
+                prepareObs(encounter, creator, dateCreated, member);
+            }
+        }
+    }
+}
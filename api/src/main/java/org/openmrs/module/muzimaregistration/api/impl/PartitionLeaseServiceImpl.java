@@ -0,0 +1,225 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.impl;
+
+import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzimaregistration.api.PartitionLeaseService;
+import org.openmrs.module.muzimaregistration.api.db.PartitionLeaseDao;
+import org.openmrs.module.muzimaregistration.api.db.QueueDataPartitionDao;
+import org.openmrs.module.muzimaregistration.api.model.PartitionLease;
+import org.openmrs.module.muzimaregistration.api.model.QueueDataPartition;
+import org.openmrs.module.muzimaregistration.utils.QueueDataUtils;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * It is a default implementation of {@link org.openmrs.module.muzimaregistration.api.PartitionLeaseService}.
+ */
+public class PartitionLeaseServiceImpl extends BaseOpenmrsService implements PartitionLeaseService {
+
+    private PartitionLeaseDao partitionLeaseDao;
+
+    private QueueDataPartitionDao queueDataPartitionDao;
+
+    /**
+     * @param partitionLeaseDao the partition lease dao to set
+     */
+    public void setPartitionLeaseDao(PartitionLeaseDao partitionLeaseDao) {
+        this.partitionLeaseDao = partitionLeaseDao;
+    }
+
+    /**
+     * @param queueDataPartitionDao the queue data partition dao to set
+     */
+    public void setQueueDataPartitionDao(QueueDataPartitionDao queueDataPartitionDao) {
+        this.queueDataPartitionDao = queueDataPartitionDao;
+    }
+
+    /**
+     * Get a snapshot of all partition leases, always reflecting the latest claims.
+     *
+     * @return the partition leases ordered by partition number.
+     */
+    @Override
+    public List<PartitionLease> getPartitionLeases() {
+        return partitionLeaseDao.getPartitionLeases();
+    }
+
+    /**
+     * Save a partition lease.
+     *
+     * @param partitionLease the partition lease.
+     * @return the saved partition lease.
+     */
+    @Override
+    public PartitionLease savePartitionLease(final PartitionLease partitionLease) {
+        return partitionLeaseDao.savePartitionLease(partitionLease);
+    }
+
+    /**
+     * Claim a partition when it is free, expired or already held by the owner. A pending request for the partition
+     * is cleared by the claim.
+     *
+     * @param partitionNumber the partition number.
+     * @param owner           the node claiming the partition.
+     * @param now             the current date.
+     * @param leaseExpiry     the expiry date of the lease.
+     * @return the number of leases claimed, 0 when another node holds the partition.
+     */
+    @Override
+    public Integer claimPartitionLease(final Integer partitionNumber, final String owner, final Date now,
+                                       final Date leaseExpiry) {
+        return partitionLeaseDao.claimPartitionLease(partitionNumber, owner, now, leaseExpiry);
+    }
+
+    /**
+     * Extend all leases held by the owner.
+     *
+     * @param owner       the node holding the leases.
+     * @param now         the current date.
+     * @param leaseExpiry the new expiry date of the leases.
+     * @return the number of leases renewed.
+     */
+    @Override
+    public Integer renewPartitionLeases(final String owner, final Date now, final Date leaseExpiry) {
+        return partitionLeaseDao.renewPartitionLeases(owner, now, leaseExpiry);
+    }
+
+    /**
+     * Extend the lease of a partition, only when the owner still holds it and the lease has not expired. Used before
+     * each batch, a node which lost the lease must stop processing the partition.
+     *
+     * @param partitionNumber the partition number.
+     * @param owner           the node holding the partition.
+     * @param now             the current date.
+     * @param leaseExpiry     the new expiry date of the lease.
+     * @return the number of leases renewed, 0 when the owner doesn't hold the partition anymore.
+     */
+    @Override
+    public Integer renewPartitionLease(final Integer partitionNumber, final String owner, final Date now,
+                                       final Date leaseExpiry) {
+        return partitionLeaseDao.renewPartitionLease(partitionNumber, owner, now, leaseExpiry);
+    }
+
+    /**
+     * Ask the owner of a partition to give it up, unless another node already has a pending request for it.
+     *
+     * @param partitionNumber the partition number.
+     * @param requester       the node requesting the partition.
+     * @param now             the current date.
+     * @param requestExpiry   the expiry date of the request.
+     * @return the number of leases requested, 0 when another node already requested the partition.
+     */
+    @Override
+    public Integer requestPartitionLease(final Integer partitionNumber, final String requester, final Date now,
+                                         final Date requestExpiry) {
+        return partitionLeaseDao.requestPartitionLease(partitionNumber, requester, now, requestExpiry);
+    }
+
+    /**
+     * Give a partition up, so another node can claim it right away.
+     *
+     * @param partitionNumber the partition number.
+     * @param owner           the node holding the partition.
+     * @param now             the current date.
+     * @return the number of leases released.
+     */
+    @Override
+    public Integer releasePartitionLease(final Integer partitionNumber, final String owner, final Date now) {
+        return partitionLeaseDao.releasePartitionLease(partitionNumber, owner, now);
+    }
+
+    /**
+     * Record the partition of queue data saved into the queue or picked up for processing. The queue data already
+     * recorded is skipped.
+     *
+     * @param queueDataList the queue data.
+     * @return the number of queue data partitions saved.
+     */
+    @Override
+    public Integer saveQueueDataPartitions(final Collection<QueueData> queueDataList) {
+        Map<String, QueueData> unrecorded = new LinkedHashMap<String, QueueData>();
+        for (QueueData queueData : queueDataList) {
+            unrecorded.put(queueData.getUuid(), queueData);
+        }
+        if (unrecorded.isEmpty()) {
+            return 0;
+        }
+        unrecorded.keySet().removeAll(queueDataPartitionDao.getQueueDataUuids(unrecorded.keySet()));
+        Date now = new Date();
+        for (QueueData queueData : unrecorded.values()) {
+            QueueDataPartition queueDataPartition = new QueueDataPartition();
+            queueDataPartition.setQueueDataUuid(queueData.getUuid());
+            queueDataPartition.setPatientHash(QueueDataUtils.getPatientHash(queueData));
+            queueDataPartition.setDateCreated(now);
+            queueDataPartitionDao.saveQueueDataPartition(queueDataPartition);
+        }
+        return unrecorded.size();
+    }
+
+    /**
+     * Get the queue data waiting in the queue whose partition has not been recorded, because it was queued before the
+     * module was started.
+     *
+     * @param maxResults the maximum number of queue data.
+     * @return the unrecorded queue data, oldest first.
+     */
+    @Override
+    public List<QueueData> getUnpartitionedQueueData(final Integer maxResults) {
+        return queueDataPartitionDao.getUnpartitionedQueueData(maxResults);
+    }
+
+    /**
+     * Get a page of the recorded queue data falling into the partitions, in the order it was recorded.
+     *
+     * @param partitionNumbers the partition numbers.
+     * @param partitionCount   the number of partitions.
+     * @param lastId           the id of the last queue data partition of the previous page, 0 for the first page.
+     * @param maxResults       the size of the page.
+     * @return the queue data partitions recorded after the last id.
+     */
+    @Override
+    public List<QueueDataPartition> getQueueDataPartitions(final Collection<Integer> partitionNumbers,
+                                                           final Integer partitionCount, final Integer lastId,
+                                                           final Integer maxResults) {
+        return queueDataPartitionDao.getQueueDataPartitions(partitionNumbers, partitionCount, lastId, maxResults);
+    }
+
+    /**
+     * Get the queue data waiting in the queue by their uuids.
+     *
+     * @param queueDataUuids the uuids of the queue data.
+     * @return the queue data still in the queue, oldest first.
+     */
+    @Override
+    public List<QueueData> getQueueData(final Collection<String> queueDataUuids) {
+        return queueDataPartitionDao.getQueueData(queueDataUuids);
+    }
+
+    /**
+     * Delete the queue data partitions of queue data which left the queue.
+     *
+     * @param queueDataUuids the uuids of the queue data.
+     * @return the number of queue data partitions deleted.
+     */
+    @Override
+    public Integer deleteQueueDataPartitions(final Collection<String> queueDataUuids) {
+        return queueDataPartitionDao.deleteQueueDataPartitions(queueDataUuids);
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.impl;
+
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.Encounter;
+import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzimaregistration.api.ProcessedPayloadService;
+import org.openmrs.module.muzimaregistration.api.db.EncounterDigestDao;
+import org.openmrs.module.muzimaregistration.api.db.ProcessedPayloadDao;
+import org.openmrs.module.muzimaregistration.api.model.EncounterDigest;
+import org.openmrs.module.muzimaregistration.api.model.ProcessedPayload;
+import org.openmrs.module.muzimaregistration.utils.EncounterNormalizer;
+import org.openmrs.module.muzimaregistration.utils.ExpiringCache;
+import org.openmrs.module.muzimaregistration.utils.HashUtils;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * It is a default implementation of {@link org.openmrs.module.muzimaregistration.api.ProcessedPayloadService}.
+ */
+public class ProcessedPayloadServiceImpl extends BaseOpenmrsService implements ProcessedPayloadService {
+
+    private static final long PAYLOAD_HASH_TIME_TO_LIVE = 60 * 60 * 1000;
+
+    private static final int PAYLOAD_HASH_CACHE_SIZE = 10000;
+
+    private final ExpiringCache<String, Boolean> payloadHashCache =
+            new ExpiringCache<String, Boolean>(PAYLOAD_HASH_CACHE_SIZE);
+
+    private final ConcurrentMap<String, AtomicLong> duplicatePayloadCounts = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final AtomicLong duplicateEncounterCount = new AtomicLong();
+
+    private ProcessedPayloadDao processedPayloadDao;
+
+    private EncounterDigestDao encounterDigestDao;
+
+    /**
+     * @param processedPayloadDao the processed payload dao to set
+     */
+    public void setProcessedPayloadDao(ProcessedPayloadDao processedPayloadDao) {
+        this.processedPayloadDao = processedPayloadDao;
+    }
+
+    /**
+     * @param encounterDigestDao the encounter digest dao to set
+     */
+    public void setEncounterDigestDao(EncounterDigestDao encounterDigestDao) {
+        this.encounterDigestDao = encounterDigestDao;
+    }
+
+    /**
+     * Check whether a queue data with the same payload has already been processed. Recently processed payload hashes
+     * are kept in memory, so most resubmissions are recognized without hitting the database. The duplicates found are
+     * counted per discriminator.
+     *
+     * @param queueData the queue data.
+     * @return true when the payload of the queue data has already been processed.
+     */
+    @Override
+    public boolean isDuplicatePayload(final QueueData queueData) {
+        String payloadHash = HashUtils.sha256(queueData.getPayload());
+        boolean duplicate = payloadHashCache.get(payloadHash) != null;
+        if (!duplicate && processedPayloadDao.getProcessedPayloadByHash(payloadHash) != null) {
+            payloadHashCache.put(payloadHash, Boolean.TRUE, PAYLOAD_HASH_TIME_TO_LIVE);
+            duplicate = true;
+        }
+        if (duplicate) {
+            String discriminator = StringUtils.defaultString(queueData.getDiscriminator());
+            AtomicLong count = duplicatePayloadCounts.get(discriminator);
+            if (count == null) {
+                duplicatePayloadCounts.putIfAbsent(discriminator, new AtomicLong());
+                count = duplicatePayloadCounts.get(discriminator);
+            }
+            count.incrementAndGet();
+        }
+        return duplicate;
+    }
+
+    /**
+     * Record the payload of a queue data as processed. The payload hash is remembered in memory only after the
+     * current transaction is committed.
+     *
+     * @param queueData the processed queue data.
+     * @return the saved processed payload.
+     */
+    @Override
+    public ProcessedPayload saveProcessedPayload(final QueueData queueData) {
+        final String payloadHash = HashUtils.sha256(queueData.getPayload());
+        ProcessedPayload processedPayload = new ProcessedPayload();
+        processedPayload.setPayloadHash(payloadHash);
+        processedPayload.setDiscriminator(queueData.getDiscriminator());
+        processedPayload.setQueueDataUuid(queueData.getUuid());
+        processedPayload.setDateCreated(new Date());
+        processedPayloadDao.saveProcessedPayload(processedPayload);
+        // a rolled back queue data must not be skipped when it is processed again.
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    payloadHashCache.put(payloadHash, Boolean.TRUE, PAYLOAD_HASH_TIME_TO_LIVE);
+                }
+            });
+        } else {
+            payloadHashCache.put(payloadHash, Boolean.TRUE, PAYLOAD_HASH_TIME_TO_LIVE);
+        }
+        return processedPayload;
+    }
+
+    /**
+     * Get the number of duplicate payloads skipped since the module was started.
+     *
+     * @return map of the queue data discriminator to the number of duplicates skipped.
+     */
+    @Override
+    public Map<String, Long> getDuplicatePayloadCounts() {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : duplicatePayloadCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * Check whether the same encounter has already been saved from a queue data. Encounters are compared on their
+     * patient, form, encounter datetime, location and observations, so resubmitted form data with a different layout
+     * is recognized too. The duplicates found are counted.
+     *
+     * @param encounter the encounter which is about to be saved.
+     * @return true when the same encounter has already been saved.
+     */
+    @Override
+    public boolean isDuplicateEncounter(final Encounter encounter) {
+        return isDuplicateEncounter(HashUtils.sha256(EncounterNormalizer.normalize(encounter)));
+    }
+
+    /**
+     * Check whether the same encounter has already been saved from a queue data, without holding the observations of
+     * the encounter in memory.
+     *
+     * @param encounter     the encounter which is about to be saved, its observations are ignored.
+     * @param normalizedObs the canonical representations of the top level observations of the encounter.
+     * @return true when the same encounter has already been saved.
+     */
+    @Override
+    public boolean isDuplicateEncounter(final Encounter encounter, final List<String> normalizedObs) {
+        return isDuplicateEncounter(HashUtils.sha256(EncounterNormalizer.normalize(encounter, normalizedObs)));
+    }
+
+    private boolean isDuplicateEncounter(final String digest) {
+        boolean duplicate = encounterDigestDao.getEncounterDigestByDigest(digest) != null;
+        if (duplicate) {
+            duplicateEncounterCount.incrementAndGet();
+        }
+        return duplicate;
+    }
+
+    /**
+     * Record the digest of an encounter saved from a queue data.
+     *
+     * @param encounter the saved encounter.
+     * @return the saved encounter digest.
+     */
+    @Override
+    public EncounterDigest saveEncounterDigest(final Encounter encounter) {
+        return saveEncounterDigest(encounter, HashUtils.sha256(EncounterNormalizer.normalize(encounter)));
+    }
+
+    /**
+     * Record the digest of an encounter saved from a queue data, without holding the observations of the encounter in
+     * memory.
+     *
+     * @param encounter     the saved encounter, its observations are ignored.
+     * @param normalizedObs the canonical representations of the top level observations of the encounter.
+     * @return the saved encounter digest.
+     */
+    @Override
+    public EncounterDigest saveEncounterDigest(final Encounter encounter, final List<String> normalizedObs) {
+        return saveEncounterDigest(encounter, HashUtils.sha256(EncounterNormalizer.normalize(encounter, normalizedObs)));
+    }
+
+    private EncounterDigest saveEncounterDigest(final Encounter encounter, final String digest) {
+        EncounterDigest encounterDigest = new EncounterDigest();
+        encounterDigest.setDigest(digest);
+        encounterDigest.setPatientUuid(encounter.getPatient().getUuid());
+        encounterDigest.setEncounterUuid(encounter.getUuid());
+        encounterDigest.setDateCreated(new Date());
+        return encounterDigestDao.saveEncounterDigest(encounterDigest);
+    }
+
+    /**
+     * Get the number of duplicate encounters skipped since the module was started.
+     *
+     * @return the number of duplicate encounters skipped.
+     */
+    @Override
+    public Long getDuplicateEncounterCount() {
+        return duplicateEncounterCount.get();
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.impl;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzimaregistration.api.QueueDataFailureService;
+import org.openmrs.module.muzimaregistration.api.db.QueueDataFailureDao;
+import org.openmrs.module.muzimaregistration.api.db.QueuedRegistrationDao;
+import org.openmrs.module.muzimaregistration.api.db.SkippedObsDao;
+import org.openmrs.module.muzimaregistration.api.model.QueueDataFailure;
+import org.openmrs.module.muzimaregistration.api.model.SkippedObs;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * It is a default implementation of {@link org.openmrs.module.muzimaregistration.api.QueueDataFailureService}.
+ */
+public class QueueDataFailureServiceImpl extends BaseOpenmrsService implements QueueDataFailureService {
+
+    private static final long INITIAL_RETRY_DELAY = 60 * 1000;
+
+    private static final long MAX_RETRY_DELAY = 24 * 60 * 60 * 1000;
+
+    private static final int MAX_FAILURE_MESSAGE_LENGTH = 1024;
+
+    private static final int MAX_TRANSIENT_FAILURES = 10;
+
+    private final Log log = LogFactory.getLog(this.getClass());
+
+    private QueueDataFailureDao queueDataFailureDao;
+
+    private QueuedRegistrationDao queuedRegistrationDao;
+
+    private SkippedObsDao skippedObsDao;
+
+    /**
+     * @param queueDataFailureDao the queue data failure dao to set
+     */
+    public void setQueueDataFailureDao(QueueDataFailureDao queueDataFailureDao) {
+        this.queueDataFailureDao = queueDataFailureDao;
+    }
+
+    /**
+     * @param queuedRegistrationDao the queued registration dao to set
+     */
+    public void setQueuedRegistrationDao(QueuedRegistrationDao queuedRegistrationDao) {
+        this.queuedRegistrationDao = queuedRegistrationDao;
+    }
+
+    /**
+     * @param skippedObsDao the skipped obs dao to set
+     */
+    public void setSkippedObsDao(SkippedObsDao skippedObsDao) {
+        this.skippedObsDao = skippedObsDao;
+    }
+
+    /**
+     * Get the failure history of a set of queue data in as few queries as possible.
+     *
+     * @param queueDataUuids the uuids of the queue data.
+     * @return map of the queue data uuid to its failure history. Queue data which never failed will not be in the map.
+     */
+    @Override
+    public Map<String, QueueDataFailure> getQueueDataFailures(final Collection<String> queueDataUuids) {
+        Map<String, QueueDataFailure> queueDataFailures = new HashMap<String, QueueDataFailure>();
+        for (QueueDataFailure queueDataFailure : queueDataFailureDao.getQueueDataFailuresByQueueDataUuids(queueDataUuids)) {
+            queueDataFailures.put(queueDataFailure.getQueueDataUuid(), queueDataFailure);
+        }
+        return queueDataFailures;
+    }
+
+    /**
+     * Record a failure of a queue data. A failure with a reason code quarantines the queue data. A failure without
+     * reason code is treated as transient and postpones the next attempt, the delay doubles with each failure. A queue
+     * data still failing after a number of attempts is quarantined as well.
+     *
+     * @param queueData  the failing queue data.
+     * @param reasonCode the reason why the queue data can never be processed, null for a transient failure.
+     * @param message    the message of the failure.
+     * @return the updated failure history of the queue data.
+     */
+    @Override
+    public QueueDataFailure saveQueueDataFailure(final QueueData queueData, final String reasonCode,
+                                                 final String message) {
+        Date now = new Date();
+        QueueDataFailure queueDataFailure = queueDataFailureDao.getQueueDataFailureByQueueDataUuid(queueData.getUuid());
+        if (queueDataFailure == null) {
+            queueDataFailure = new QueueDataFailure();
+            queueDataFailure.setQueueDataUuid(queueData.getUuid());
+            queueDataFailure.setDiscriminator(queueData.getDiscriminator());
+            queueDataFailure.setDateCreated(now);
+        } else {
+            queueDataFailure.setDateChanged(now);
+        }
+        int failureCount = queueDataFailure.getFailureCount() + 1;
+        queueDataFailure.setFailureCount(failureCount);
+        queueDataFailure.setMessage(StringUtils.abbreviate(message, MAX_FAILURE_MESSAGE_LENGTH));
+
+        String quarantineReasonCode = reasonCode;
+        if (quarantineReasonCode == null && failureCount >= MAX_TRANSIENT_FAILURES) {
+            quarantineReasonCode = QueueDataFailure.TOO_MANY_FAILURES;
+        }
+        if (quarantineReasonCode != null) {
+            log.info("Quarantining queue data: " + queueData.getUuid() + ", reason: " + quarantineReasonCode);
+            queueDataFailure.setQuarantined(Boolean.TRUE);
+            queueDataFailure.setReasonCode(quarantineReasonCode);
+            queueDataFailure.setNextAttempt(null);
+        } else {
+            long delay = INITIAL_RETRY_DELAY << Math.min(failureCount - 1, 20);
+            queueDataFailure.setQuarantined(Boolean.FALSE);
+            queueDataFailure.setReasonCode(QueueDataFailure.TRANSIENT_FAILURE);
+            queueDataFailure.setNextAttempt(new Date(now.getTime() + Math.min(delay, MAX_RETRY_DELAY)));
+        }
+        if (Boolean.TRUE.equals(queueDataFailure.getQuarantined())) {
+            // a quarantined registration won't be processed without help, the phone shouldn't keep waiting for it.
+            queuedRegistrationDao.deleteQueuedRegistrations(Collections.singletonList(queueData.getUuid()));
+        }
+        return queueDataFailureDao.saveQueueDataFailure(queueDataFailure);
+    }
+
+    /**
+     * Delete the failure history of a queue data, used once the queue data has been processed.
+     *
+     * @param queueDataFailure the failure history of the queue data.
+     */
+    @Override
+    public void deleteQueueDataFailure(final QueueDataFailure queueDataFailure) {
+        queueDataFailureDao.deleteQueueDataFailure(queueDataFailure);
+    }
+
+    /**
+     * Record the observations of a queue data which were skipped while the rest of its observations were saved. The
+     * record is kept apart from the failure history of the queue data, which went through.
+     *
+     * @param queueData the processed queue data.
+     * @param failures  the index and reason of each skipped observation.
+     * @return the skipped obs record of the queue data.
+     */
+    @Override
+    public SkippedObs saveSkippedObs(final QueueData queueData, final List<String> failures) {
+        SkippedObs skippedObs = skippedObsDao.getSkippedObsByQueueDataUuid(queueData.getUuid());
+        if (skippedObs == null) {
+            skippedObs = new SkippedObs();
+            skippedObs.setQueueDataUuid(queueData.getUuid());
+            skippedObs.setDiscriminator(queueData.getDiscriminator());
+        }
+        skippedObs.setDateCreated(new Date());
+        skippedObs.setSkippedCount(failures.size());
+        skippedObs.setMessage(StringUtils.abbreviate(StringUtils.join(failures, "; "), MAX_FAILURE_MESSAGE_LENGTH));
+        return skippedObsDao.saveSkippedObs(skippedObs);
+    }
+
+    /**
+     * Get the observations of a processed queue data which were skipped.
+     *
+     * @param queueDataUuid the uuid of the queue data.
+     * @return the skipped obs record of the queue data, null when every observation was saved.
+     */
+    @Override
+    public SkippedObs getSkippedObsByQueueDataUuid(final String queueDataUuid) {
+        return skippedObsDao.getSkippedObsByQueueDataUuid(queueDataUuid);
+    }
+}
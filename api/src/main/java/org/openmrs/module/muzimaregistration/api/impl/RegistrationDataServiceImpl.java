@@ -16,23 +16,65 @@ package org.openmrs.module.muzimaregistration.api.impl;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PersonName;
+import org.openmrs.User;
 import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzimaregistration.api.RegistrationDataCallback;
+import org.openmrs.module.muzimaregistration.api.RegistrationDataListener;
 import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
+import org.openmrs.module.muzimaregistration.api.RegistrationSummaryCallback;
+import org.openmrs.module.muzimaregistration.api.db.QueuedRegistrationDao;
 import org.openmrs.module.muzimaregistration.api.db.RegistrationDataDao;
+import org.openmrs.module.muzimaregistration.api.db.RegistrationSummaryDao;
+import org.openmrs.module.muzimaregistration.api.model.QueuedRegistration;
 import org.openmrs.module.muzimaregistration.api.model.RegistrationData;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationMapping;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationResolution;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationSummary;
+import org.openmrs.module.muzimaregistration.utils.ExpiringCache;
+import org.openmrs.module.muzimaregistration.utils.QueueDataUtils;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * It is a default implementation of {@link org.openmrs.module.muzimaregistration.api.RegistrationDataService}.
  */
 public class RegistrationDataServiceImpl extends BaseOpenmrsService implements RegistrationDataService {
 
+    private static final long REGISTERED_RESOLUTION_TIME_TO_LIVE = 5 * 60 * 1000;
+
+    private static final long UNREGISTERED_RESOLUTION_TIME_TO_LIVE = 15 * 1000;
+
+    private static final int RESOLUTION_CACHE_SIZE = 10000;
+
+    // longer than the transactions saving registration data, including a slow batch of queue data.
+    private static final long CHANGES_SAFETY_WINDOW = 60 * 1000;
+
     private final Log log = LogFactory.getLog(this.getClass());
 
+    private final ExpiringCache<String, RegistrationResolution> resolutionCache =
+            new ExpiringCache<String, RegistrationResolution>(RESOLUTION_CACHE_SIZE);
+
     private RegistrationDataDao dao;
 
+    private RegistrationSummaryDao summaryDao;
+
+    private RegistrationDataListener registrationDataListener;
+
+    private QueuedRegistrationDao queuedRegistrationDao;
+
     /**
      * @param dao the dao to set
      */
@@ -47,6 +89,34 @@ public class RegistrationDataServiceImpl extends BaseOpenmrsService implements R
         return dao;
     }
 
+    /**
+     * @param summaryDao the summary dao to set
+     */
+    public void setSummaryDao(RegistrationSummaryDao summaryDao) {
+        this.summaryDao = summaryDao;
+    }
+
+    /**
+     * @return the summary dao
+     */
+    public RegistrationSummaryDao getSummaryDao() {
+        return summaryDao;
+    }
+
+    /**
+     * @param registrationDataListener the listener notified when a temporary uuid is mapped
+     */
+    public void setRegistrationDataListener(RegistrationDataListener registrationDataListener) {
+        this.registrationDataListener = registrationDataListener;
+    }
+
+    /**
+     * @param queuedRegistrationDao the queued registration dao to set
+     */
+    public void setQueuedRegistrationDao(QueuedRegistrationDao queuedRegistrationDao) {
+        this.queuedRegistrationDao = queuedRegistrationDao;
+    }
+
     /**
      * Get registration data by the internal database id of the registration data.
      *
@@ -107,7 +177,10 @@ public class RegistrationDataServiceImpl extends BaseOpenmrsService implements R
      */
     @Override
     public RegistrationData saveRegistrationData(final RegistrationData registrationData) {
-        return dao.saveRegistrationData(registrationData);
+        resolutionCache.remove(registrationData.getTemporaryUuid());
+        RegistrationData savedRegistrationData = dao.saveRegistrationData(registrationData);
+        notifyRegistrationDataSaved(registrationData.getTemporaryUuid());
+        return savedRegistrationData;
     }
 
     /**
@@ -117,9 +190,38 @@ public class RegistrationDataServiceImpl extends BaseOpenmrsService implements R
      */
     @Override
     public void deleteRegistrationData(final RegistrationData registrationData) {
+        RegistrationSummary registrationSummary =
+                summaryDao.getRegistrationSummaryByRegistrationUuid(registrationData.getUuid());
+        if (registrationSummary != null) {
+            summaryDao.deleteRegistrationSummary(registrationSummary);
+        }
+        resolutionCache.remove(registrationData.getTemporaryUuid());
         dao.deleteRegistrationData(registrationData);
     }
 
+    /**
+     * Void a registration data. Voided registration data will be sent as removed mapping to the clients syncing the
+     * registration changes.
+     *
+     * @param registrationData the registration data to be voided.
+     * @param reason           the reason for voiding the registration data.
+     * @return the voided registration data.
+     */
+    @Override
+    public RegistrationData voidRegistrationData(final RegistrationData registrationData, final String reason) {
+        registrationData.setVoided(Boolean.TRUE);
+        registrationData.setVoidedBy(Context.getAuthenticatedUser());
+        registrationData.setDateVoided(new Date());
+        registrationData.setVoidReason(reason);
+        RegistrationSummary registrationSummary =
+                summaryDao.getRegistrationSummaryByRegistrationUuid(registrationData.getUuid());
+        if (registrationSummary != null) {
+            summaryDao.deleteRegistrationSummary(registrationSummary);
+        }
+        resolutionCache.remove(registrationData.getTemporaryUuid());
+        return dao.saveRegistrationData(registrationData);
+    }
+
     /**
      * Get all registration data information from the database.
      *
@@ -139,4 +241,385 @@ public class RegistrationDataServiceImpl extends BaseOpenmrsService implements R
     public Number countRegistrationData() {
         return dao.countRegistrationData();
     }
-}
\ No newline at end of file
+
+    /**
+     * Walk through all registration data (including the voided ones) in the database, one row at a time.
+     *
+     * @param callback the callback which will receive each registration data.
+     */
+    @Override
+    public void scrollRegistrationData(final RegistrationDataCallback callback) {
+        dao.scrollRegistrationData(callback);
+    }
+
+    /**
+     * Import a batch of registration data into the database. Registration data with a temporary uuid which already
+     * exists in the database will be skipped. Each batch is saved in its own transaction, together with the
+     * registration summaries of the new registration data.
+     *
+     * @param registrationDataList the registration data to be imported.
+     * @return the number of registration data created in the database.
+     */
+    @Override
+    public Integer importRegistrationData(final List<RegistrationData> registrationDataList) {
+        Set<String> temporaryUuids = new HashSet<String>();
+        for (RegistrationData registrationData : registrationDataList) {
+            temporaryUuids.add(registrationData.getTemporaryUuid());
+        }
+        Set<String> existingTemporaryUuids = new HashSet<String>(dao.getTemporaryUuids(temporaryUuids));
+
+        User creator = Context.getAuthenticatedUser();
+        List<RegistrationData> newRegistrationDataList = new ArrayList<RegistrationData>();
+        for (RegistrationData registrationData : registrationDataList) {
+            // the same temporary uuid might appear more than once in a single batch.
+            if (existingTemporaryUuids.add(registrationData.getTemporaryUuid())) {
+                registrationData.setCreator(creator);
+                if (registrationData.getDateCreated() == null) {
+                    registrationData.setDateCreated(new Date());
+                }
+                newRegistrationDataList.add(registrationData);
+                resolutionCache.remove(registrationData.getTemporaryUuid());
+            }
+        }
+        dao.saveRegistrationData(newRegistrationDataList);
+        saveRegistrationSummaries(newRegistrationDataList);
+        for (RegistrationData registrationData : newRegistrationDataList) {
+            notifyRegistrationDataSaved(registrationData.getTemporaryUuid());
+        }
+        return newRegistrationDataList.size();
+    }
+
+    /**
+     * Create the registration summaries of new registration data, so the listing shows them without waiting for
+     * the summaries to be synchronized.
+     */
+    private void saveRegistrationSummaries(final List<RegistrationData> registrationDataList) {
+        Set<String> assignedUuids = new HashSet<String>();
+        for (RegistrationData registrationData : registrationDataList) {
+            assignedUuids.add(registrationData.getAssignedUuid());
+        }
+        Map<String, Patient> patients = getAssignedPatients(assignedUuids);
+        List<RegistrationSummary> registrationSummaries = new ArrayList<RegistrationSummary>();
+        for (RegistrationData registrationData : registrationDataList) {
+            RegistrationSummary registrationSummary = newRegistrationSummary(registrationData);
+            copyPatientInformation(registrationSummary, patients.get(registrationData.getAssignedUuid()));
+            registrationSummaries.add(registrationSummary);
+        }
+        summaryDao.saveRegistrationSummaries(registrationSummaries);
+    }
+
+    /**
+     * Let the listener know the temporary uuid is now mapped, the queue data waiting for it can be picked up again.
+     */
+    private void notifyRegistrationDataSaved(final String temporaryUuid) {
+        if (registrationDataListener != null) {
+            registrationDataListener.registrationDataSaved(temporaryUuid);
+        }
+    }
+
+    /**
+     * Get patients by their uuid in as few queries as possible. The names and identifiers of the patients are
+     * fetched together with the patients, so reading them will not trigger additional queries.
+     *
+     * @param assignedUuids the uuids of the patients.
+     * @return map of the patient uuid to the patient. Uuids without matching patient will not be in the map.
+     */
+    @Override
+    public Map<String, Patient> getAssignedPatients(final Collection<String> assignedUuids) {
+        Map<String, Patient> patients = new HashMap<String, Patient>();
+        for (Patient patient : dao.getPatientsByUuids(new HashSet<String>(assignedUuids))) {
+            patients.put(patient.getUuid(), patient);
+        }
+        return patients;
+    }
+
+    /**
+     * Get registration summary by the uuid of the registration data it summarizes.
+     *
+     * @param registrationUuid the uuid of the registration data.
+     * @return the registration summary of the registration data.
+     */
+    @Override
+    public RegistrationSummary getRegistrationSummaryByRegistrationUuid(final String registrationUuid) {
+        return summaryDao.getRegistrationSummaryByRegistrationUuid(registrationUuid);
+    }
+
+    /**
+     * Get a page of registration summaries.
+     *
+     * @param search     the prefix of the display name or the preferred identifier, all summaries when blank.
+     * @param orderBy    the property to order the summaries by, prefixed with "-" for descending order.
+     * @param pageNumber the page number.
+     * @param pageSize   the page size.
+     * @return the registration summaries in the page.
+     */
+    @Override
+    public List<RegistrationSummary> getRegistrationSummaries(final String search, final String orderBy,
+                                                              final Integer pageNumber, final Integer pageSize) {
+        return summaryDao.getRegistrationSummaries(search, orderBy, pageNumber, pageSize);
+    }
+
+    /**
+     * Walk through a page of registration summaries one row at a time. The rows are read through a forward only
+     * cursor on a stateless session, so memory usage stays constant regardless of the page size.
+     *
+     * @param search     the prefix of the display name or the preferred identifier, all summaries when blank.
+     * @param orderBy    the property to order the summaries by, prefixed with "-" for descending order.
+     * @param pageNumber the page number.
+     * @param pageSize   the page size.
+     * @param callback   the callback which will receive each registration summary.
+     */
+    @Override
+    public void scrollRegistrationSummaries(final String search, final String orderBy,
+                                            final Integer pageNumber, final Integer pageSize,
+                                            final RegistrationSummaryCallback callback) {
+        summaryDao.scrollRegistrationSummaries(search, orderBy, pageNumber, pageSize, callback);
+    }
+
+    /**
+     * Count the number of registration summaries.
+     *
+     * @param search the prefix of the display name or the preferred identifier, all summaries when blank.
+     * @return the number of registration summaries.
+     */
+    @Override
+    public Number countRegistrationSummaries(final String search) {
+        return summaryDao.countRegistrationSummaries(search);
+    }
+
+    /**
+     * Create or update the registration summary of a registration data using the patient the registration data
+     * is pointing to.
+     *
+     * @param registrationData the registration data.
+     * @param patient          the patient of the registration data.
+     * @return the saved registration summary.
+     */
+    @Override
+    public RegistrationSummary saveRegistrationSummary(final RegistrationData registrationData, final Patient patient) {
+        RegistrationSummary registrationSummary =
+                summaryDao.getRegistrationSummaryByTemporaryUuid(registrationData.getTemporaryUuid());
+        if (registrationSummary == null) {
+            registrationSummary = newRegistrationSummary(registrationData);
+        } else {
+            registrationSummary.setDateChanged(new Date());
+            registrationSummary.setRegistrationUuid(registrationData.getUuid());
+            registrationSummary.setAssignedUuid(registrationData.getAssignedUuid());
+        }
+        copyPatientInformation(registrationSummary, patient);
+        return summaryDao.saveRegistrationSummary(registrationSummary);
+    }
+
+    private RegistrationSummary newRegistrationSummary(final RegistrationData registrationData) {
+        RegistrationSummary registrationSummary = new RegistrationSummary();
+        registrationSummary.setTemporaryUuid(registrationData.getTemporaryUuid());
+        registrationSummary.setRegistrationUuid(registrationData.getUuid());
+        registrationSummary.setAssignedUuid(registrationData.getAssignedUuid());
+        Date dateCreated = registrationData.getDateCreated();
+        registrationSummary.setDateCreated(dateCreated != null ? dateCreated : new Date());
+        return registrationSummary;
+    }
+
+    /**
+     * Refresh the patient information in all registration summaries pointing to the patient.
+     *
+     * @param patient the patient.
+     */
+    @Override
+    public void refreshRegistrationSummaries(final Patient patient) {
+        for (RegistrationSummary registrationSummary : summaryDao.getRegistrationSummariesByAssignedUuid(patient.getUuid())) {
+            copyPatientInformation(registrationSummary, patient);
+            registrationSummary.setDateChanged(new Date());
+            summaryDao.saveRegistrationSummary(registrationSummary);
+        }
+    }
+
+    /**
+     * Create registration summaries for registration data which doesn't have one yet (e.g. registration data
+     * created before the summary table was introduced).
+     *
+     * @param batchSize the maximum number of registration summaries to create.
+     * @return the number of registration summaries created.
+     */
+    @Override
+    public Integer synchronizeRegistrationSummaries(final Integer batchSize) {
+        List<RegistrationData> registrationDataList = dao.getRegistrationDataWithoutSummary(batchSize);
+        Set<String> assignedUuids = new HashSet<String>();
+        for (RegistrationData registrationData : registrationDataList) {
+            assignedUuids.add(registrationData.getAssignedUuid());
+        }
+        Map<String, Patient> patients = getAssignedPatients(assignedUuids);
+        for (RegistrationData registrationData : registrationDataList) {
+            saveRegistrationSummary(registrationData, patients.get(registrationData.getAssignedUuid()));
+        }
+        return registrationDataList.size();
+    }
+
+    private void copyPatientInformation(final RegistrationSummary registrationSummary, final Patient patient) {
+        if (patient == null) {
+            log.warn("Unable to find patient for registration summary: " + registrationSummary.getTemporaryUuid());
+            return;
+        }
+        PersonName personName = patient.getPersonName();
+        registrationSummary.setDisplayName(personName != null ? personName.getFullName() : null);
+        registrationSummary.setGender(patient.getGender());
+        registrationSummary.setBirthdate(patient.getBirthdate());
+        PatientIdentifier patientIdentifier = patient.getPatientIdentifier();
+        if (patientIdentifier != null) {
+            registrationSummary.setPreferredIdentifier(patientIdentifier.getIdentifier());
+            if (patientIdentifier.getLocation() != null) {
+                registrationSummary.setLocationId(patientIdentifier.getLocation().getLocationId());
+                registrationSummary.setLocationName(patientIdentifier.getLocation().getName());
+            }
+        }
+    }
+
+    /**
+     * Resolve a set of temporary uuids into their registration summaries in as few queries as possible. Registration
+     * data which doesn't have a summary yet will get one created.
+     *
+     * @param temporaryUuids the temporary uuids.
+     * @return map of the temporary uuid to the registration summary. Temporary uuids which have not been registered
+     *         will not be in the map.
+     */
+    @Override
+    public Map<String, RegistrationSummary> getRegistrationSummariesByTemporaryUuids(final Collection<String> temporaryUuids) {
+        Map<String, RegistrationSummary> registrationSummaries = new HashMap<String, RegistrationSummary>();
+        Set<String> unresolvedUuids = new HashSet<String>(temporaryUuids);
+        for (RegistrationSummary registrationSummary : summaryDao.getRegistrationSummariesByTemporaryUuids(unresolvedUuids)) {
+            registrationSummaries.put(registrationSummary.getTemporaryUuid(), registrationSummary);
+            unresolvedUuids.remove(registrationSummary.getTemporaryUuid());
+        }
+        if (!unresolvedUuids.isEmpty()) {
+            List<RegistrationData> registrationDataList = dao.getRegistrationDataByTemporaryUuids(unresolvedUuids);
+            Set<String> assignedUuids = new HashSet<String>();
+            for (RegistrationData registrationData : registrationDataList) {
+                assignedUuids.add(registrationData.getAssignedUuid());
+            }
+            Map<String, Patient> patients = getAssignedPatients(assignedUuids);
+            for (RegistrationData registrationData : registrationDataList) {
+                Patient patient = patients.get(registrationData.getAssignedUuid());
+                registrationSummaries.put(registrationData.getTemporaryUuid(), saveRegistrationSummary(registrationData, patient));
+            }
+        }
+        return registrationSummaries;
+    }
+
+    /**
+     * Get registration data mappings created, changed or voided after the since date and not later than the until
+     * date. Voided registration data is returned too, so the caller can remove them. The mappings are ordered by
+     * the internal database id and the page continues after the last id.
+     *
+     * @param since      the lower bound (exclusive) of the modification date, null to get all registration data.
+     * @param until      the upper bound (inclusive) of the modification date.
+     * @param lastId     the internal database id of the last mapping in the previous page, null for the first page.
+     * @param maxResults the maximum number of mappings to return.
+     * @return the registration data mappings modified in the window.
+     */
+    @Override
+    public List<RegistrationMapping> getRegistrationMappingsModifiedSince(final Date since, final Date until,
+                                                                          final Integer lastId, final Integer maxResults) {
+        return dao.getRegistrationMappingsModifiedSince(since, until, lastId, maxResults);
+    }
+
+    /**
+     * Get the upper bound of a delta sync window. The modification dates are stored with a precision of one second
+     * and a registration data saved in a transaction still running at the end of the window would be missed by the
+     * next sync too. The bound is therefore truncated to whole seconds and kept behind the current time by a safety
+     * window.
+     *
+     * @param now the current time.
+     * @return the upper bound (inclusive) of the sync window.
+     */
+    @Override
+    public Date getRegistrationChangesUntil(final Date now) {
+        long until = now.getTime() - CHANGES_SAFETY_WINDOW;
+        return new Date(until - until % 1000);
+    }
+
+    /**
+     * Get the last modification date of the registration summaries, used to detect changes in the listing without
+     * reading the summaries.
+     *
+     * @param search the prefix of the display name or the preferred identifier, all summaries when blank.
+     * @return the latest creation or change date of the registration summaries, null when there is no summary.
+     */
+    @Override
+    public Date getRegistrationSummariesLastModified(final String search) {
+        return summaryDao.getRegistrationSummariesLastModified(search);
+    }
+
+    /**
+     * Resolve a temporary uuid into the uuid of the patient assigned to it. Both the found and the not found results
+     * are cached for a short time, so clients polling for a registration which is still in the queue will not hit the
+     * database on every request. A registration waiting in the queue is found through the queued registration recorded
+     * when it was queued, the queue payloads are never searched.
+     *
+     * @param temporaryUuid the temporary uuid assigned to a patient.
+     * @return the resolution of the temporary uuid, never null.
+     */
+    @Override
+    public RegistrationResolution resolveTemporaryUuid(final String temporaryUuid) {
+        RegistrationResolution resolution = resolutionCache.get(temporaryUuid);
+        if (resolution == null) {
+            RegistrationData registrationData = getRegistrationDataByTemporaryUuid(temporaryUuid);
+            if (registrationData != null) {
+                resolution = new RegistrationResolution(temporaryUuid, registrationData.getAssignedUuid(),
+                        RegistrationResolution.Status.REGISTERED);
+                resolutionCache.put(temporaryUuid, resolution, REGISTERED_RESOLUTION_TIME_TO_LIVE);
+            } else if (queuedRegistrationDao.countQueuedRegistrations(temporaryUuid).intValue() > 0) {
+                resolution = new RegistrationResolution(temporaryUuid, null, RegistrationResolution.Status.PENDING);
+                resolutionCache.put(temporaryUuid, resolution, UNREGISTERED_RESOLUTION_TIME_TO_LIVE);
+            } else {
+                resolution = new RegistrationResolution(temporaryUuid, null, RegistrationResolution.Status.UNKNOWN);
+                resolutionCache.put(temporaryUuid, resolution, UNREGISTERED_RESOLUTION_TIME_TO_LIVE);
+            }
+        }
+        return resolution;
+    }
+
+    /**
+     * Record the temporary uuids of the registrations waiting in the queue, so resolving a temporary uuid answers
+     * pending as soon as its registration is queued. Queue data which is not a registration, or which has already been
+     * recorded, is skipped.
+     *
+     * @param queueDataList the queued or picked up queue data.
+     * @return the number of queued registrations recorded.
+     */
+    @Override
+    public Integer saveQueuedRegistrations(final Collection<QueueData> queueDataList) {
+        Map<String, QueueData> registrations = new HashMap<String, QueueData>();
+        for (QueueData queueData : queueDataList) {
+            if (QueueDataUtils.isRegistration(queueData.getDiscriminator())
+                    && QueueDataUtils.getPatientUuid(queueData) != null) {
+                registrations.put(queueData.getUuid(), queueData);
+            }
+        }
+        if (registrations.isEmpty()) {
+            return 0;
+        }
+        registrations.keySet().removeAll(queuedRegistrationDao.getQueueDataUuids(registrations.keySet()));
+        Date now = new Date();
+        for (QueueData queueData : registrations.values()) {
+            QueuedRegistration queuedRegistration = new QueuedRegistration();
+            queuedRegistration.setTemporaryUuid(QueueDataUtils.getPatientUuid(queueData));
+            queuedRegistration.setQueueDataUuid(queueData.getUuid());
+            queuedRegistration.setDateCreated(now);
+            queuedRegistrationDao.saveQueuedRegistration(queuedRegistration);
+            // the temporary uuid might have been resolved as unknown just before the registration was queued.
+            resolutionCache.remove(queuedRegistration.getTemporaryUuid());
+        }
+        return registrations.size();
+    }
+
+    /**
+     * Delete the queued registrations of queue data which left the queue, because it was processed or quarantined.
+     *
+     * @param queueDataUuids the uuids of the queue data.
+     * @return the number of queued registrations deleted.
+     */
+    @Override
+    public Integer deleteQueuedRegistrations(final Collection<String> queueDataUuids) {
+        return queuedRegistrationDao.deleteQueuedRegistrations(queueDataUuids);
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.io;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzimaregistration.api.RegistrationDataCallback;
+import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationData;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Write all registration data in the database into a writer, one line per registration data. The registration
+ * data is read through a forward only cursor, so memory usage stays constant regardless of the number of rows.
+ */
+public class RegistrationDataExporter {
+
+    private static final int PROGRESS_INTERVAL = 10000;
+
+    private final Log log = LogFactory.getLog(RegistrationDataExporter.class);
+
+    private final RegistrationDataFormat format;
+
+    private long exported;
+
+    public RegistrationDataExporter(final RegistrationDataFormat format) {
+        this.format = format;
+    }
+
+    /**
+     * Export all registration data into the writer. The writer will be flushed but not closed.
+     *
+     * @param writer the writer.
+     * @return the number of registration data exported.
+     * @throws IOException when writing to the writer failed.
+     */
+    public long export(final Writer writer) throws IOException {
+        exported = 0;
+        if (format.getHeader() != null) {
+            writer.write(format.getHeader());
+            writer.write('\n');
+        }
+        RegistrationDataService registrationDataService = Context.getService(RegistrationDataService.class);
+        try {
+            registrationDataService.scrollRegistrationData(new RegistrationDataCallback() {
+                @Override
+                public void handle(final RegistrationData registrationData) {
+                    try {
+                        writer.write(format.format(registrationData));
+                        writer.write('\n');
+                    } catch (IOException e) {
+                        throw new APIException("Unable to write registration data: " + registrationData.getUuid(), e);
+                    }
+                    exported++;
+                    if (exported % PROGRESS_INTERVAL == 0) {
+                        log.info("Exported " + exported + " registration data.");
+                    }
+                }
+            });
+        } catch (APIException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+        writer.flush();
+        log.info("Finished exporting " + exported + " registration data.");
+        return exported;
+    }
+}
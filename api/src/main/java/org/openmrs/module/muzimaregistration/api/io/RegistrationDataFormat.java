@@ -0,0 +1,177 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.io;
+
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
+import org.apache.commons.lang.BooleanUtils;
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.api.APIException;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationData;
+import org.openmrs.module.muzimaregistration.utils.ISO8601Util;
+import org.openmrs.module.muzimaregistration.utils.JsonUtils;
+
+import java.text.ParseException;
+import java.util.Calendar;
+
+/**
+ * Line based formats used to move registration data between servers. Every registration data is written as a
+ * single line, so both the export and the import can work on the data one line at a time.
+ */
+public enum RegistrationDataFormat {
+
+    /**
+     * One json object per line (newline delimited json).
+     */
+    NDJSON("application/x-ndjson", "ndjson") {
+        @Override
+        public String getHeader() {
+            return null;
+        }
+
+        @Override
+        public String format(final RegistrationData registrationData) {
+            JSONObject jsonObject = new JSONObject();
+            JsonUtils.writeAsString(jsonObject, "uuid", registrationData.getUuid());
+            JsonUtils.writeAsString(jsonObject, "temporaryUuid", registrationData.getTemporaryUuid());
+            JsonUtils.writeAsString(jsonObject, "assignedUuid", registrationData.getAssignedUuid());
+            JsonUtils.writeAsDateTime(jsonObject, "dateCreated", registrationData.getDateCreated());
+            JsonUtils.writeAsBoolean(jsonObject, "voided", BooleanUtils.isTrue(registrationData.getVoided()));
+            return jsonObject.toJSONString();
+        }
+
+        @Override
+        public RegistrationData parse(final String line) {
+            Object object = JSONValue.parse(line);
+            if (!(object instanceof JSONObject)) {
+                throw new APIException("Unable to parse registration data from: " + line);
+            }
+            JSONObject jsonObject = (JSONObject) object;
+            return createRegistrationData((String) jsonObject.get("uuid"), (String) jsonObject.get("temporaryUuid"),
+                    (String) jsonObject.get("assignedUuid"), (String) jsonObject.get("dateCreated"),
+                    String.valueOf(jsonObject.get("voided")));
+        }
+    },
+
+    /**
+     * Comma separated values with a header line. None of the exported values can contain a comma, so no quoting
+     * is needed.
+     */
+    CSV("text/csv", "csv") {
+        @Override
+        public String getHeader() {
+            return "uuid,temporary_uuid,assigned_uuid,date_created,voided";
+        }
+
+        @Override
+        public String format(final RegistrationData registrationData) {
+            String dateCreated = StringUtils.EMPTY;
+            if (registrationData.getDateCreated() != null) {
+                Calendar calendar = Calendar.getInstance();
+                calendar.setTime(registrationData.getDateCreated());
+                dateCreated = ISO8601Util.fromCalendar(calendar);
+            }
+            return StringUtils.defaultString(registrationData.getUuid())
+                    + "," + StringUtils.defaultString(registrationData.getTemporaryUuid())
+                    + "," + StringUtils.defaultString(registrationData.getAssignedUuid())
+                    + "," + dateCreated
+                    + "," + BooleanUtils.isTrue(registrationData.getVoided());
+        }
+
+        @Override
+        public RegistrationData parse(final String line) {
+            String[] elements = StringUtils.splitPreserveAllTokens(line, ",");
+            if (elements.length != 5) {
+                throw new APIException("Unable to parse registration data from: " + line);
+            }
+            return createRegistrationData(elements[0], elements[1], elements[2], elements[3], elements[4]);
+        }
+    };
+
+    private final String contentType;
+
+    private final String extension;
+
+    RegistrationDataFormat(final String contentType, final String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @return the header line of the format or null when the format doesn't have a header line.
+     */
+    public abstract String getHeader();
+
+    /**
+     * Convert a registration data into a single line (without the line terminator).
+     *
+     * @param registrationData the registration data.
+     * @return the line representing the registration data.
+     */
+    public abstract String format(final RegistrationData registrationData);
+
+    /**
+     * Convert a single line into a new registration data.
+     *
+     * @param line the line representing the registration data.
+     * @return the new registration data.
+     */
+    public abstract RegistrationData parse(final String line);
+
+    /**
+     * Find the format based on the extension of the format (case insensitive).
+     *
+     * @param extension the extension of the format.
+     * @return the matching format.
+     */
+    public static RegistrationDataFormat fromExtension(final String extension) {
+        for (RegistrationDataFormat format : values()) {
+            if (StringUtils.equalsIgnoreCase(format.getExtension(), extension)) {
+                return format;
+            }
+        }
+        throw new APIException("Unsupported registration data format: " + extension);
+    }
+
+    private static RegistrationData createRegistrationData(final String uuid, final String temporaryUuid,
+                                                           final String assignedUuid, final String dateCreated,
+                                                           final String voided) {
+        if (StringUtils.isBlank(temporaryUuid) || StringUtils.isBlank(assignedUuid)) {
+            throw new APIException("Registration data must have both temporary and assigned uuid!");
+        }
+        RegistrationData registrationData = new RegistrationData();
+        if (StringUtils.isNotBlank(uuid)) {
+            registrationData.setUuid(uuid);
+        }
+        registrationData.setTemporaryUuid(temporaryUuid);
+        registrationData.setAssignedUuid(assignedUuid);
+        if (StringUtils.isNotBlank(dateCreated)) {
+            try {
+                registrationData.setDateCreated(ISO8601Util.toCalendar(dateCreated).getTime());
+            } catch (ParseException e) {
+                throw new APIException("Unable to parse date created from: " + dateCreated, e);
+            }
+        }
+        registrationData.setVoided(BooleanUtils.toBoolean(voided));
+        return registrationData;
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.io;
+
+/**
+ * Listener which will be notified every time a batch of registration data has been committed by the importer.
+ */
+public interface RegistrationDataImportListener {
+
+    /**
+     * Called after a batch of registration data has been committed to the database.
+     *
+     * @param checkpoint the number of lines of the import file which have been committed so far. Passing this value
+     *                   back to the importer will resume the import right after the last committed line.
+     * @param imported   the number of registration data created so far.
+     * @param skipped    the number of registration data skipped so far because they already exist.
+     */
+    void onProgress(final long checkpoint, final long imported, final long skipped);
+}
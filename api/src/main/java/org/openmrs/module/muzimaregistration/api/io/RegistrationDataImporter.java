@@ -0,0 +1,131 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.io;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationData;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read registration data from a reader, one line per registration data, and save them in batches. Each batch is
+ * committed in its own transaction and reported to the listener with a checkpoint. When an import is interrupted,
+ * passing the last reported checkpoint will resume the import right after the last committed line.
+ */
+public class RegistrationDataImporter {
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final Log log = LogFactory.getLog(RegistrationDataImporter.class);
+
+    private final RegistrationDataFormat format;
+
+    private final int batchSize;
+
+    private final RegistrationDataImportListener listener;
+
+    private long checkpoint;
+
+    private long imported;
+
+    private long skipped;
+
+    public RegistrationDataImporter(final RegistrationDataFormat format) {
+        this(format, DEFAULT_BATCH_SIZE, null);
+    }
+
+    public RegistrationDataImporter(final RegistrationDataFormat format, final int batchSize,
+                                    final RegistrationDataImportListener listener) {
+        this.format = format;
+        this.batchSize = batchSize;
+        this.listener = listener;
+    }
+
+    /**
+     * Import registration data from the reader. The reader will not be closed.
+     *
+     * @param reader         the reader.
+     * @param fromCheckpoint the checkpoint of a previous import, all lines up to the checkpoint will be skipped.
+     * @return the checkpoint after the last committed line.
+     * @throws IOException when reading from the reader failed.
+     */
+    public long importFrom(final Reader reader, final long fromCheckpoint) throws IOException {
+        checkpoint = fromCheckpoint;
+        imported = 0;
+        skipped = 0;
+
+        BufferedReader bufferedReader = new BufferedReader(reader);
+        if (format.getHeader() != null) {
+            // the header line is not counted as part of the checkpoint.
+            bufferedReader.readLine();
+        }
+
+        RegistrationDataService registrationDataService = Context.getService(RegistrationDataService.class);
+        List<RegistrationData> batch = new ArrayList<RegistrationData>(batchSize);
+        long lineNumber = 0;
+        String line;
+        while ((line = bufferedReader.readLine()) != null) {
+            lineNumber++;
+            if (lineNumber <= fromCheckpoint) {
+                continue;
+            }
+            if (StringUtils.isNotBlank(line)) {
+                batch.add(format.parse(line));
+            }
+            if (batch.size() >= batchSize) {
+                commit(registrationDataService, batch, lineNumber);
+            }
+        }
+        commit(registrationDataService, batch, lineNumber);
+        log.info("Finished importing registration data. Imported: " + imported + ", skipped: " + skipped + ".");
+        return checkpoint;
+    }
+
+    private void commit(final RegistrationDataService registrationDataService,
+                        final List<RegistrationData> batch, final long lineNumber) {
+        if (!batch.isEmpty()) {
+            int created = registrationDataService.importRegistrationData(batch);
+            imported += created;
+            skipped += batch.size() - created;
+            batch.clear();
+        }
+        if (lineNumber > checkpoint) {
+            checkpoint = lineNumber;
+            log.info("Import checkpoint: " + checkpoint + ". Imported: " + imported + ", skipped: " + skipped + ".");
+            if (listener != null) {
+                listener.onProgress(checkpoint, imported, skipped);
+            }
+        }
+    }
+
+    public long getCheckpoint() {
+        return checkpoint;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+}
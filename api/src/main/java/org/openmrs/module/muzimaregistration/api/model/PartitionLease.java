@@ -0,0 +1,117 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.model;
+
+import org.openmrs.BaseOpenmrsObject;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Lease of a queue data partition by a node. A node only processes the queue data of the partitions it holds a lease
+ * on, the lease has to be renewed before it expires or another node will take the partition over. A node which does
+ * not get its share of the partitions requests a held one, the owner gives it up on its next claim.
+ */
+public class PartitionLease extends BaseOpenmrsObject implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private Integer id;
+
+    private Integer partitionNumber;
+
+    private String owner;
+
+    private Date leaseExpiry;
+
+    private String requestedBy;
+
+    private Date requestExpiry;
+
+    private Date dateChanged;
+
+    @Override
+    public Integer getId() {
+        return id;
+    }
+
+    @Override
+    public void setId(final Integer id) {
+        this.id = id;
+    }
+
+    public Integer getPartitionNumber() {
+        return partitionNumber;
+    }
+
+    public void setPartitionNumber(final Integer partitionNumber) {
+        this.partitionNumber = partitionNumber;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(final String owner) {
+        this.owner = owner;
+    }
+
+    public Date getLeaseExpiry() {
+        return leaseExpiry;
+    }
+
+    public void setLeaseExpiry(final Date leaseExpiry) {
+        this.leaseExpiry = leaseExpiry;
+    }
+
+    public String getRequestedBy() {
+        return requestedBy;
+    }
+
+    public void setRequestedBy(final String requestedBy) {
+        this.requestedBy = requestedBy;
+    }
+
+    public Date getRequestExpiry() {
+        return requestExpiry;
+    }
+
+    public void setRequestExpiry(final Date requestExpiry) {
+        this.requestExpiry = requestExpiry;
+    }
+
+    public Date getDateChanged() {
+        return dateChanged;
+    }
+
+    public void setDateChanged(final Date dateChanged) {
+        this.dateChanged = dateChanged;
+    }
+
+    /**
+     * @param now the current date.
+     * @return true when a node holds the lease at the current date.
+     */
+    public boolean isHeld(final Date now) {
+        return owner != null && leaseExpiry != null && leaseExpiry.after(now);
+    }
+
+    /**
+     * @param now the current date.
+     * @return true when a node without enough partitions asked the owner to give this partition up.
+     */
+    public boolean isRequested(final Date now) {
+        return requestedBy != null && requestExpiry != null && requestExpiry.after(now);
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.model;
+
+import org.openmrs.BaseOpenmrsObject;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Failure history of a queue data. Queue data failing with a permanent error is quarantined and will not be processed
+ * again, queue data failing with a transient error is retried after a delay which doubles with each failure.
+ */
+public class QueueDataFailure extends BaseOpenmrsObject implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String TRANSIENT_FAILURE = "transient";
+
+    public static final String TOO_MANY_FAILURES = "too-many-failures";
+
+    private Integer id;
+
+    private String queueDataUuid;
+
+    private String discriminator;
+
+    private Boolean quarantined = Boolean.FALSE;
+
+    private String reasonCode;
+
+    private String message;
+
+    private Integer failureCount = 0;
+
+    private Date nextAttempt;
+
+    private Date dateCreated;
+
+    private Date dateChanged;
+
+    @Override
+    public Integer getId() {
+        return id;
+    }
+
+    @Override
+    public void setId(final Integer id) {
+        this.id = id;
+    }
+
+    public String getQueueDataUuid() {
+        return queueDataUuid;
+    }
+
+    public void setQueueDataUuid(final String queueDataUuid) {
+        this.queueDataUuid = queueDataUuid;
+    }
+
+    public String getDiscriminator() {
+        return discriminator;
+    }
+
+    public void setDiscriminator(final String discriminator) {
+        this.discriminator = discriminator;
+    }
+
+    public Boolean getQuarantined() {
+        return quarantined;
+    }
+
+    public void setQuarantined(final Boolean quarantined) {
+        this.quarantined = quarantined;
+    }
+
+    public String getReasonCode() {
+        return reasonCode;
+    }
+
+    public void setReasonCode(final String reasonCode) {
+        this.reasonCode = reasonCode;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(final String message) {
+        this.message = message;
+    }
+
+    public Integer getFailureCount() {
+        return failureCount;
+    }
+
+    public void setFailureCount(final Integer failureCount) {
+        this.failureCount = failureCount;
+    }
+
+    public Date getNextAttempt() {
+        return nextAttempt;
+    }
+
+    public void setNextAttempt(final Date nextAttempt) {
+        this.nextAttempt = nextAttempt;
+    }
+
+    public Date getDateCreated() {
+        return dateCreated;
+    }
+
+    public void setDateCreated(final Date dateCreated) {
+        this.dateCreated = dateCreated;
+    }
+
+    public Date getDateChanged() {
+        return dateChanged;
+    }
+
+    public void setDateChanged(final Date dateChanged) {
+        this.dateChanged = dateChanged;
+    }
+
+    /**
+     * @param now the current date.
+     * @return true when the queue data should not be processed at the current date.
+     */
+    public boolean isPostponed(final Date now) {
+        return Boolean.TRUE.equals(quarantined) || (nextAttempt != null && nextAttempt.after(now));
+    }
+}
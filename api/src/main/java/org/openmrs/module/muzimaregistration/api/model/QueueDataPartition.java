@@ -0,0 +1,75 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.model;
+
+import org.openmrs.BaseOpenmrsObject;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Queue data waiting in the queue, indexed by the hash of the patient it belongs to. It is recorded when the queue
+ * data is saved into the queue, or when the processing task finds it unrecorded, and deleted once the queue data leaves
+ * the queue. The processing task pages through the queue data of the partitions held by its node here instead of
+ * loading the whole queue.
+ */
+public class QueueDataPartition extends BaseOpenmrsObject implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private Integer id;
+
+    private String queueDataUuid;
+
+    private Integer patientHash;
+
+    private Date dateCreated;
+
+    @Override
+    public Integer getId() {
+        return id;
+    }
+
+    @Override
+    public void setId(final Integer id) {
+        this.id = id;
+    }
+
+    public String getQueueDataUuid() {
+        return queueDataUuid;
+    }
+
+    public void setQueueDataUuid(final String queueDataUuid) {
+        this.queueDataUuid = queueDataUuid;
+    }
+
+    /**
+     * @return the hash of the patient key, the partition is this hash modulo the partition count.
+     */
+    public Integer getPatientHash() {
+        return patientHash;
+    }
+
+    public void setPatientHash(final Integer patientHash) {
+        this.patientHash = patientHash;
+    }
+
+    public Date getDateCreated() {
+        return dateCreated;
+    }
+
+    public void setDateCreated(final Date dateCreated) {
+        this.dateCreated = dateCreated;
+    }
+}
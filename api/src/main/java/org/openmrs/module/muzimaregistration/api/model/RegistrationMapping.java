@@ -0,0 +1,106 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.model;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Lightweight read only view of a {@link RegistrationData}. It only carries the mapping columns and is populated
+ * straight from a projection query, so reading it doesn't hydrate the registration data entity or its users.
+ */
+public class RegistrationMapping implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private Integer id;
+
+    private String uuid;
+
+    private String temporaryUuid;
+
+    private String assignedUuid;
+
+    private Date dateCreated;
+
+    private Date dateChanged;
+
+    private Date dateVoided;
+
+    private Boolean voided;
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(final Integer id) {
+        this.id = id;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    public void setUuid(final String uuid) {
+        this.uuid = uuid;
+    }
+
+    public String getTemporaryUuid() {
+        return temporaryUuid;
+    }
+
+    public void setTemporaryUuid(final String temporaryUuid) {
+        this.temporaryUuid = temporaryUuid;
+    }
+
+    public String getAssignedUuid() {
+        return assignedUuid;
+    }
+
+    public void setAssignedUuid(final String assignedUuid) {
+        this.assignedUuid = assignedUuid;
+    }
+
+    public Date getDateCreated() {
+        return dateCreated;
+    }
+
+    public void setDateCreated(final Date dateCreated) {
+        this.dateCreated = dateCreated;
+    }
+
+    public Date getDateChanged() {
+        return dateChanged;
+    }
+
+    public void setDateChanged(final Date dateChanged) {
+        this.dateChanged = dateChanged;
+    }
+
+    public Date getDateVoided() {
+        return dateVoided;
+    }
+
+    public void setDateVoided(final Date dateVoided) {
+        this.dateVoided = dateVoided;
+    }
+
+    public Boolean getVoided() {
+        return voided;
+    }
+
+    public void setVoided(final Boolean voided) {
+        this.voided = voided;
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.model;
+
+/**
+ * Result of resolving a temporary uuid created on the phone into the uuid of the patient on the server.
+ */
+public class RegistrationResolution {
+
+    public enum Status {
+        /**
+         * The registration has been processed and the temporary uuid is mapped to a patient.
+         */
+        REGISTERED,
+        /**
+         * The registration failed and is waiting in the queue for its next attempt, the client should try again later.
+         */
+        PENDING,
+        /**
+         * Nothing is known about the temporary uuid.
+         */
+        UNKNOWN
+    }
+
+    private final String temporaryUuid;
+
+    private final String assignedUuid;
+
+    private final Status status;
+
+    public RegistrationResolution(final String temporaryUuid, final String assignedUuid, final Status status) {
+        this.temporaryUuid = temporaryUuid;
+        this.assignedUuid = assignedUuid;
+        this.status = status;
+    }
+
+    public String getTemporaryUuid() {
+        return temporaryUuid;
+    }
+
+    public String getAssignedUuid() {
+        return assignedUuid;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api.model;
+
+import org.openmrs.BaseOpenmrsObject;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Denormalized copy of the patient information displayed for a registration. It is maintained by the module when
+ * a registration is processed and when the demographics of the patient are updated, so the registration listing
+ * can be served from a single table.
+ */
+public class RegistrationSummary extends BaseOpenmrsObject implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private Integer id;
+
+    private String registrationUuid;
+
+    private String temporaryUuid;
+
+    private String assignedUuid;
+
+    private String displayName;
+
+    private String gender;
+
+    private Date birthdate;
+
+    private String preferredIdentifier;
+
+    private Integer locationId;
+
+    private String locationName;
+
+    private Date dateCreated;
+
+    private Date dateChanged;
+
+    @Override
+    public Integer getId() {
+        return id;
+    }
+
+    @Override
+    public void setId(final Integer id) {
+        this.id = id;
+    }
+
+    public String getRegistrationUuid() {
+        return registrationUuid;
+    }
+
+    public void setRegistrationUuid(final String registrationUuid) {
+        this.registrationUuid = registrationUuid;
+    }
+
+    public String getTemporaryUuid() {
+        return temporaryUuid;
+    }
+
+    public void setTemporaryUuid(final String temporaryUuid) {
+        this.temporaryUuid = temporaryUuid;
+    }
+
+    public String getAssignedUuid() {
+        return assignedUuid;
+    }
+
+    public void setAssignedUuid(final String assignedUuid) {
+        this.assignedUuid = assignedUuid;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public void setDisplayName(final String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getGender() {
+        return gender;
+    }
+
+    public void setGender(final String gender) {
+        this.gender = gender;
+    }
+
+    public Date getBirthdate() {
+        return birthdate;
+    }
+
+    public void setBirthdate(final Date birthdate) {
+        this.birthdate = birthdate;
+    }
+
+    public String getPreferredIdentifier() {
+        return preferredIdentifier;
+    }
+
+    public void setPreferredIdentifier(final String preferredIdentifier) {
+        this.preferredIdentifier = preferredIdentifier;
+    }
+
+    public Integer getLocationId() {
+        return locationId;
+    }
+
+    public void setLocationId(final Integer locationId) {
+        this.locationId = locationId;
+    }
+
+    public String getLocationName() {
+        return locationName;
+    }
+
+    public void setLocationName(final String locationName) {
+        this.locationName = locationName;
+    }
+
+    public Date getDateCreated() {
+        return dateCreated;
+    }
+
+    public void setDateCreated(final Date dateCreated) {
+        this.dateCreated = dateCreated;
+    }
+
+    public Date getDateChanged() {
+        return dateChanged;
+    }
+
+    public void setDateChanged(final Date dateChanged) {
+        this.dateChanged = dateChanged;
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.handler;
+
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzimaregistration.api.ObsBatchService;
+import org.openmrs.module.muzimaregistration.utils.EncounterNormalizer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the observations of an encounter while its form data is read, keeping the canonical representation of
+ * each top level observation for the duplicate check. Closing the writer saves the encounter header, then inserts the
+ * observations in chunks through JDBC batches, so they never go through the hibernate session.
+ * <p/>
+ * A top level obs group is inserted along with all its members: chunks only close between two top level observations,
+ * so a single group larger than the chunk size is inserted as one chunk.
+ */
+class ChunkedObsWriter {
+
+    public static final int DEFAULT_CHUNK_SIZE = 200;
+
+    private final Encounter encounter;
+
+    private final int chunkSize;
+
+    private final List<Obs> obsList = new ArrayList<Obs>();
+
+    private final List<String> normalizedObs = new ArrayList<String>();
+
+    ChunkedObsWriter(final Encounter encounter) {
+        this(encounter, DEFAULT_CHUNK_SIZE);
+    }
+
+    ChunkedObsWriter(final Encounter encounter, final int chunkSize) {
+        this.encounter = encounter;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Write a top level observation.
+     *
+     * @param obs the observation, with its group members.
+     */
+    public void write(final Obs obs) {
+        obsList.add(obs);
+        normalizedObs.add(EncounterNormalizer.normalize(obs));
+    }
+
+    /**
+     * @return the canonical representations of the top level observations written so far.
+     */
+    public List<String> getNormalizedObs() {
+        return normalizedObs;
+    }
+
+    /**
+     * Save the encounter header, then insert the observations chunk by chunk.
+     *
+     * @return the saved encounter, without its observations.
+     */
+    public Encounter close() {
+        Encounter savedEncounter = Context.getEncounterService().saveEncounter(encounter);
+        ObsBatchService obsBatchService = Context.getService(ObsBatchService.class);
+        List<Obs> chunk = new ArrayList<Obs>();
+        int chunkObsCount = 0;
+        for (Obs obs : obsList) {
+            chunk.add(obs);
+            chunkObsCount += countObs(obs);
+            if (chunkObsCount >= chunkSize) {
+                obsBatchService.saveObsChunk(savedEncounter, chunk);
+                chunk.clear();
+                chunkObsCount = 0;
+            }
+        }
+        if (!chunk.isEmpty()) {
+            obsBatchService.saveObsChunk(savedEncounter, chunk);
+        }
+        obsList.clear();
+        return savedEncounter;
+    }
+
+    private int countObs(final Obs obs) {
+        int counter = 1;
+        if (obs.hasGroupMembers()) {
+            for (Obs member : obs.getGroupMembers()) {
+                counter += countObs(member);
+            }
+        }
+        return counter;
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.handler;
+
+import org.openmrs.module.muzima.exception.QueueProcessorException;
+
+/**
+ * Thrown when the queue data points to a temporary uuid whose registration has not been processed yet. The queue
+ * data is not broken, it can be processed once the registration is saved.
+ */
+public class DeferredQueueDataException extends QueueProcessorException {
+
+    private final String temporaryUuid;
+
+    public DeferredQueueDataException(final String temporaryUuid) {
+        super("Registration for temporary uuid: " + temporaryUuid + " has not been processed yet.");
+        this.temporaryUuid = temporaryUuid;
+    }
+
+    /**
+     * @return the temporary uuid the queue data is waiting for.
+     */
+    public String getTemporaryUuid() {
+        return temporaryUuid;
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.handler;
+
+import net.minidev.json.JSONObject;
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.module.muzimaregistration.utils.JsonUtils;
+
+import java.util.Date;
+
+/**
+ * Demographics update read from a json-demographics-update payload. A field missing from the payload is null and
+ * leaves the stored value of the patient unchanged.
+ */
+public class DemographicsUpdate {
+
+    public static final String IDENTIFIER = "identifier";
+
+    public static final String BIRTHDATE = "birthdate";
+
+    public static final String BIRTHDATE_ESTIMATED = "birthdateEstimated";
+
+    public static final String GENDER = "gender";
+
+    public static final String GIVEN_NAME = "givenName";
+
+    public static final String MIDDLE_NAME = "middleName";
+
+    public static final String FAMILY_NAME = "familyName";
+
+    public static final String FINGER = "finger";
+
+    public static final String FINGERPRINT = "fingerprint";
+
+    private String patientUuid;
+
+    private String identifier;
+
+    private String identifierTypeUuid;
+
+    private Date birthdate;
+
+    private Boolean birthdateEstimated;
+
+    private String gender;
+
+    private String givenName;
+
+    private String middleName;
+
+    private String familyName;
+
+    private String finger;
+
+    private String fingerprint;
+
+    /**
+     * Read the demographics update from a payload.
+     *
+     * @param payload the json-demographics-update payload.
+     * @return the demographics update.
+     */
+    public static DemographicsUpdate parse(final String payload) {
+        Object patientObject = JsonUtils.readAsObject(payload, "$['patient']");
+        if (!(patientObject instanceof JSONObject)) {
+            throw new PermanentQueueDataException(PermanentQueueDataException.MALFORMED_PAYLOAD,
+                    "Unable to find the patient of the demographics update.");
+        }
+        JSONObject patientJsonObject = (JSONObject) patientObject;
+        String patientPayload = patientJsonObject.toString();
+
+        DemographicsUpdate update = new DemographicsUpdate();
+        update.patientUuid = readString(patientJsonObject, "patient.uuid");
+        update.identifier = readString(patientJsonObject, "patient.medical_record_number");
+        update.identifierTypeUuid = readString(patientJsonObject, "patient.identifier_type");
+        update.birthdate = JsonUtils.readAsDate(patientPayload, "$['patient.birthdate']");
+        Object birthdateEstimated = patientJsonObject.get("patient.birthdate_estimated");
+        if (birthdateEstimated != null) {
+            update.birthdateEstimated = Boolean.valueOf(birthdateEstimated.toString());
+        }
+        update.gender = readString(patientJsonObject, "patient.sex");
+        update.givenName = readString(patientJsonObject, "patient.given_name");
+        update.middleName = readString(patientJsonObject, "patient.middle_name");
+        update.familyName = readString(patientJsonObject, "patient.family_name");
+        update.finger = readString(patientJsonObject, "patient.finger");
+        update.fingerprint = readString(patientJsonObject, "patient.fingerprint");
+        return update;
+    }
+
+    private static String readString(final JSONObject jsonObject, final String key) {
+        Object value = jsonObject.get(key);
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * Check whether a later update of the same patient can be merged into this one. Identifiers are added to the
+     * patient instead of replacing each other, so two updates carrying different identifiers can't be merged
+     * without losing one of them.
+     *
+     * @param later the update submitted after this one.
+     * @return true when both updates can be applied as a single update.
+     */
+    public boolean canMerge(final DemographicsUpdate later) {
+        if (!StringUtils.equals(patientUuid, later.patientUuid)) {
+            return false;
+        }
+        if (StringUtils.isBlank(identifier) || StringUtils.isBlank(later.identifier)) {
+            return true;
+        }
+        return StringUtils.equals(identifier, later.identifier)
+                && StringUtils.equals(identifierTypeUuid, later.identifierTypeUuid);
+    }
+
+    /**
+     * Merge a later update of the same patient into this one. The fields provided by the later update win, the
+     * fields it doesn't provide keep the value of this update.
+     *
+     * @param later the update submitted after this one.
+     * @return the net change of both updates.
+     */
+    public DemographicsUpdate merge(final DemographicsUpdate later) {
+        DemographicsUpdate merged = new DemographicsUpdate();
+        merged.patientUuid = patientUuid;
+        if (StringUtils.isNotBlank(later.identifier)) {
+            merged.identifier = later.identifier;
+            merged.identifierTypeUuid = later.identifierTypeUuid;
+        } else {
+            merged.identifier = identifier;
+            merged.identifierTypeUuid = identifierTypeUuid;
+        }
+        merged.birthdate = later.birthdate != null ? later.birthdate : birthdate;
+        merged.birthdateEstimated = later.birthdateEstimated != null ? later.birthdateEstimated : birthdateEstimated;
+        merged.gender = later.gender != null ? later.gender : gender;
+        merged.givenName = later.givenName != null ? later.givenName : givenName;
+        merged.middleName = later.middleName != null ? later.middleName : middleName;
+        merged.familyName = later.familyName != null ? later.familyName : familyName;
+        merged.finger = later.finger != null ? later.finger : finger;
+        merged.fingerprint = later.fingerprint != null ? later.fingerprint : fingerprint;
+        return merged;
+    }
+
+    public String getPatientUuid() {
+        return patientUuid;
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public String getIdentifierTypeUuid() {
+        return identifierTypeUuid;
+    }
+
+    public Date getBirthdate() {
+        return birthdate;
+    }
+
+    public Boolean getBirthdateEstimated() {
+        return birthdateEstimated;
+    }
+
+    public String getGender() {
+        return gender;
+    }
+
+    public String getGivenName() {
+        return givenName;
+    }
+
+    public String getMiddleName() {
+        return middleName;
+    }
+
+    public String getFamilyName() {
+        return familyName;
+    }
+
+    public String getFinger() {
+        return finger;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+}
@@ -14,6 +14,7 @@
 package org.openmrs.module.muzimaregistration.handler;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.DateUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.Patient;
@@ -29,83 +30,218 @@ import org.openmrs.api.context.Context;
 import org.openmrs.module.muzima.exception.QueueProcessorException;
 import org.openmrs.module.muzima.model.QueueData;
 import org.openmrs.module.muzima.model.handler.QueueDataHandler;
-import org.openmrs.module.muzimaregistration.utils.JsonUtils;
+import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationData;
 import org.springframework.stereotype.Component;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Apply demographics updates to existing patients. The update is compared field by field with the stored patient and
+ * only the changed fields are written. When nothing changed the patient is not saved at all, saving it would cascade
+ * over the whole patient graph and touch the audit columns for nothing.
  */
 @Component
 @Handler(supports = QueueData.class, order = 6)
 public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
 
     private static final String DISCRIMINATOR_VALUE = "json-demographics-update";
-    private static final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
     private final Log log = LogFactory.getLog(DemographicsUpdateQueueDataHandler.class);
 
+    private final ConcurrentMap<String, AtomicLong> changedFieldCounts = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final AtomicLong unchangedUpdateCount = new AtomicLong();
+
     @Override
     public void process(final QueueData queueData) throws QueueProcessorException {
         log.info("Processing demographics update form data: " + queueData.getUuid());
-        Object patientObject = JsonUtils.readAsObject(queueData.getPayload(), "$['patient']");
-        processPatient(patientObject);
+        processPatient(DemographicsUpdate.parse(queueData.getPayload()));
+    }
+
+    /**
+     * Apply an update merged from several queued demographics updates of the same patient, in place of the payload
+     * of the queue data.
+     *
+     * @param queueData the latest of the merged queue data.
+     * @param update the net change of the merged queue data.
+     */
+    public void process(final QueueData queueData, final DemographicsUpdate update) throws QueueProcessorException {
+        log.info("Processing merged demographics update form data: " + queueData.getUuid());
+        processPatient(update);
+    }
+
+    /**
+     * @return the number of times each field has been changed by a demographics update since the module was started.
+     */
+    public Map<String, Long> getChangedFieldCounts() {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : changedFieldCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * @return the number of demographics updates which didn't change anything since the module was started.
+     */
+    public long getUnchangedUpdateCount() {
+        return unchangedUpdateCount.get();
+    }
+
+    private void processPatient(final DemographicsUpdate update) throws QueueProcessorException {
+        Patient patient = Context.getPatientService().getPatientByUuid(update.getPatientUuid());
+        if (patient == null) {
+            RegistrationData registrationData = Context.getService(RegistrationDataService.class)
+                    .getRegistrationDataByTemporaryUuid(update.getPatientUuid());
+            if (registrationData == null) {
+                // the registration for this patient might still be waiting in the queue.
+                throw new DeferredQueueDataException(update.getPatientUuid());
+            }
+            patient = Context.getPatientService().getPatientByUuid(registrationData.getAssignedUuid());
+        }
+        if (patient == null) {
+            throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_PATIENT,
+                    "Unable to find patient using the uuid: " + update.getPatientUuid());
+        }
+        List<String> changedFields = applyChanges(patient, update);
+        if (changedFields.isEmpty()) {
+            log.info("Skipping demographics update of patient: " + patient.getUuid() + ", nothing changed.");
+            unchangedUpdateCount.incrementAndGet();
+            return;
+        }
+        log.info("Updating " + changedFields + " of patient: " + patient.getUuid());
+        Context.getPatientService().savePatient(patient);
+        Context.getService(RegistrationDataService.class).refreshRegistrationSummaries(patient);
+        for (String changedField : changedFields) {
+            changedFieldCounts.putIfAbsent(changedField, new AtomicLong());
+            changedFieldCounts.get(changedField).incrementAndGet();
+        }
+    }
+
+    /**
+     * Apply the fields of the update which differ from the stored patient.
+     *
+     * @return the names of the changed fields, empty when the update doesn't change anything.
+     */
+    private List<String> applyChanges(final Patient patient, final DemographicsUpdate update) {
+        List<String> changedFields = new ArrayList<String>();
+        if (StringUtils.isNotBlank(update.getIdentifier())) {
+            PatientService patientService = Context.getPatientService();
+            PatientIdentifierType patientIdentifierType = StringUtils.isNotBlank(update.getIdentifierTypeUuid()) ?
+                    patientService.getPatientIdentifierTypeByUuid(update.getIdentifierTypeUuid()) :
+                    patientService.getPatientIdentifierType(1);
+            if (patientIdentifierType == null) {
+                throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_IDENTIFIER_TYPE,
+                        "Unable to find identifier type using the uuid: " + update.getIdentifierTypeUuid());
+            }
+            if (!hasIdentifier(patient, patientIdentifierType, update.getIdentifier())) {
+                PatientIdentifier patientIdentifier = new PatientIdentifier();
+                patientIdentifier.setIdentifierType(patientIdentifierType);
+                patientIdentifier.setIdentifier(update.getIdentifier());
+                patient.addIdentifier(patientIdentifier);
+                changedFields.add(DemographicsUpdate.IDENTIFIER);
+            }
+        }
+        if (update.getBirthdate() != null && !isSameDay(patient.getBirthdate(), update.getBirthdate())) {
+            patient.setBirthdate(update.getBirthdate());
+            changedFields.add(DemographicsUpdate.BIRTHDATE);
+        }
+        if (update.getBirthdateEstimated() != null
+                && !update.getBirthdateEstimated().equals(patient.getBirthdateEstimated())) {
+            patient.setBirthdateEstimated(update.getBirthdateEstimated());
+            changedFields.add(DemographicsUpdate.BIRTHDATE_ESTIMATED);
+        }
+        if (update.getGender() != null && !StringUtils.equals(update.getGender(), patient.getGender())) {
+            patient.setGender(update.getGender());
+            changedFields.add(DemographicsUpdate.GENDER);
+        }
+        PersonName personName = patient.getPersonName();
+        if (personName == null && (update.getGivenName() != null || update.getMiddleName() != null
+                || update.getFamilyName() != null)) {
+            personName = new PersonName();
+            personName.setPreferred(true);
+            patient.addName(personName);
+        }
+        if (personName != null) {
+            if (update.getGivenName() != null
+                    && !StringUtils.equals(update.getGivenName(), personName.getGivenName())) {
+                personName.setGivenName(update.getGivenName());
+                changedFields.add(DemographicsUpdate.GIVEN_NAME);
+            }
+            if (update.getMiddleName() != null
+                    && !StringUtils.equals(update.getMiddleName(), personName.getMiddleName())) {
+                personName.setMiddleName(update.getMiddleName());
+                changedFields.add(DemographicsUpdate.MIDDLE_NAME);
+            }
+            if (update.getFamilyName() != null
+                    && !StringUtils.equals(update.getFamilyName(), personName.getFamilyName())) {
+                personName.setFamilyName(update.getFamilyName());
+                changedFields.add(DemographicsUpdate.FAMILY_NAME);
+            }
+        }
+        if (applyAttribute(patient, DemographicsUpdate.FINGER, update.getFinger())) {
+            changedFields.add(DemographicsUpdate.FINGER);
+        }
+        if (applyAttribute(patient, DemographicsUpdate.FINGERPRINT, update.getFingerprint())) {
+            changedFields.add(DemographicsUpdate.FINGERPRINT);
+        }
+        return changedFields;
     }
 
-    private void processPatient(final Object patientObject) throws QueueProcessorException {
-        String patientPayload = patientObject.toString();
-        String uuid = JsonUtils.readAsString(patientPayload, "$['patient.uuid']");
-        Patient unsavedPatient = Context.getPatientService().getPatientByUuid(uuid);
-        PatientService patientService = Context.getPatientService();
-        PatientIdentifierType defaultIdentifierType = patientService.getPatientIdentifierType(1);
-        String identifier = JsonUtils.readAsString(patientPayload, "$['patient.medical_record_number']");
-        String identifierTypeUuid = JsonUtils.readAsString(patientPayload, "$['patient.identifier_type']");
-        PatientIdentifier patientIdentifier = new PatientIdentifier();
-        PatientIdentifierType patientIdentifierType = StringUtils.isNotBlank(identifierTypeUuid) ?
-                patientService.getPatientIdentifierTypeByUuid(identifierTypeUuid) : defaultIdentifierType;
-        patientIdentifier.setIdentifierType(patientIdentifierType);
-        patientIdentifier.setIdentifier(identifier);
-        unsavedPatient.addIdentifier(patientIdentifier);
-        Date birthdate = JsonUtils.readAsDate(patientPayload, "$['patient.birthdate']");
-        boolean birthdateEstimated = JsonUtils.readAsBoolean(patientPayload, "$['patient.birthdate_estimated']");
-        String gender = JsonUtils.readAsString(patientPayload, "$['patient.sex']");
-        unsavedPatient.setBirthdate(birthdate);
-        unsavedPatient.setBirthdateEstimated(birthdateEstimated);
-        unsavedPatient.setGender(gender);
-        String givenName = JsonUtils.readAsString(patientPayload, "$['patient.given_name']");
-        String middleName = JsonUtils.readAsString(patientPayload, "$['patient.middle_name']");
-        String familyName = JsonUtils.readAsString(patientPayload, "$['patient.family_name']");
-        PersonName personName = unsavedPatient.getPersonName();
-        personName.setGivenName(givenName);
-        personName.setMiddleName(middleName);
-        personName.setFamilyName(familyName);
-        String patientsFinger = JsonUtils.readAsString(patientPayload, "$['patient.finger']");
-        String patientsFingerprint = JsonUtils.readAsString(patientPayload, "$['patient.fingerprint']");
+    private boolean hasIdentifier(final Patient patient, final PatientIdentifierType patientIdentifierType,
+                                  final String identifier) {
+        for (PatientIdentifier patientIdentifier : patient.getActiveIdentifiers()) {
+            if (patientIdentifierType.equals(patientIdentifier.getIdentifierType())
+                    && StringUtils.equals(identifier, patientIdentifier.getIdentifier())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isSameDay(final Date date, final Date otherDate) {
+        return date != null && DateUtils.isSameDay(date, otherDate);
+    }
+
+    /**
+     * @return true when the value of the attribute has been changed.
+     */
+    private boolean applyAttribute(final Patient patient, final String attributeTypeName, final String value) {
+        if (value == null) {
+            return false;
+        }
         PersonService personService = Context.getPersonService();
-        PersonAttributeType fingerprintAttributeType = personService.getPersonAttributeTypeByName("fingerprint");
-        PersonAttributeType fingerAttributeType = personService.getPersonAttributeTypeByName("finger");
-        PersonAttribute personAttributeFingerprint = unsavedPatient.getAttribute("fingerprint");
-        PersonAttribute personAttributeFinger = unsavedPatient.getAttribute("finger");
-        if (personAttributeFingerprint != null && personAttributeFinger != null) {
-            personAttributeFinger.setAttributeType(fingerAttributeType);
-            personAttributeFinger.setValue(patientsFinger);
-            personAttributeFingerprint.setAttributeType(fingerprintAttributeType);
-            personAttributeFingerprint.setValue(patientsFingerprint);
-        } else if (fingerprintAttributeType != null && fingerAttributeType != null) {
-            PersonAttribute fingerAttribute = new PersonAttribute();
-            fingerAttribute.setAttributeType(fingerAttributeType);
-            fingerAttribute.setValue(patientsFinger);
-            PersonAttribute fingerprintAttribute = new PersonAttribute();
-            fingerprintAttribute.setAttributeType(fingerprintAttributeType);
-            fingerprintAttribute.setValue(patientsFingerprint);
-            unsavedPatient.addAttribute(fingerprintAttribute);
-        }
-        Context.getPatientService().savePatient(unsavedPatient);
+        PersonAttributeType attributeType = personService.getPersonAttributeTypeByName(attributeTypeName);
+        if (attributeType == null) {
+            return false;
+        }
+        PersonAttribute personAttribute = patient.getAttribute(attributeType);
+        if (personAttribute != null) {
+            if (StringUtils.equals(value, personAttribute.getValue())) {
+                return false;
+            }
+            personAttribute.setValue(value);
+            return true;
+        }
+        if (StringUtils.isBlank(value)) {
+            return false;
+        }
+        personAttribute = new PersonAttribute();
+        personAttribute.setAttributeType(attributeType);
+        personAttribute.setValue(value);
+        patient.addAttribute(personAttribute);
+        return true;
     }
 
     @Override
     public boolean accept(final QueueData queueData) {
         return StringUtils.equals(DISCRIMINATOR_VALUE, queueData.getDiscriminator());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,203 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.handler;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.openmrs.Concept;
+import org.openmrs.ConceptDatatype;
+import org.openmrs.Form;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzimaregistration.utils.ExpiringCache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Compiled plan of a form: maps the concept keys found in the payloads of the form, like
+ * {@code "5089^WEIGHT^99DCT"}, to the resolved concept id, how its value is stored and whether it is a set. Coded
+ * answers are resolved the same way. Each key is split and resolved the first time it is seen, after that building
+ * the observations of an encounter doesn't split any key or query any metadata.
+ * <p/>
+ * Plans are keyed by the form uuid and version, a new version of a form gets a new plan. Plans expire after an hour
+ * so changes to the concept dictionary are picked up. Plans are shared between the threads processing the queue, so
+ * they only keep the ids of the concepts: every call hands out a new {@link Concept} reference, only meant to be set
+ * on the saved observations. Keys of concepts which don't exist are not remembered, they are looked up again.
+ */
+public class FormPlan {
+
+    private static final int PLAN_CACHE_SIZE = 500;
+
+    private static final long PLAN_TIME_TO_LIVE = 60 * 60 * 1000;
+
+    private static final ExpiringCache<String, FormPlan> plans = new ExpiringCache<String, FormPlan>(PLAN_CACHE_SIZE);
+
+    private static final Question UNKNOWN_QUESTION = new Question(null, ValueType.UNSUPPORTED, false);
+
+    private final String planKey;
+
+    private final ConcurrentMap<String, Question> questions = new ConcurrentHashMap<String, Question>();
+
+    private final ConcurrentMap<String, Integer> answers = new ConcurrentHashMap<String, Integer>();
+
+    private FormPlan(final String planKey) {
+        this.planKey = planKey;
+    }
+
+    /**
+     * Get the plan of a form, creating it on first use.
+     *
+     * @param form the form of the encounter, null when the form is unknown.
+     * @return the plan of the form, forms which are not known share a single plan.
+     */
+    public static FormPlan forForm(final Form form) {
+        String planKey = form == null ? StringUtils.EMPTY : form.getUuid() + "^" + form.getVersion();
+        synchronized (plans) {
+            FormPlan plan = plans.get(planKey);
+            if (plan == null) {
+                plan = new FormPlan(planKey);
+                plans.put(planKey, plan, PLAN_TIME_TO_LIVE);
+            }
+            return plan;
+        }
+    }
+
+    /**
+     * Forget all plans, the next encounters will build them again.
+     */
+    public static void clear() {
+        plans.clear();
+    }
+
+    public String getPlanKey() {
+        return planKey;
+    }
+
+    /**
+     * Get the question of a concept key.
+     *
+     * @param conceptKey the concept key, like {@code "5089^WEIGHT^99DCT"}.
+     * @return the question, null when the key is not a concept key. The concept of the question is null when the
+     *         concept doesn't exist.
+     */
+    public Question getQuestion(final String conceptKey) {
+        if (conceptKey == null) {
+            return null;
+        }
+        Question question = questions.get(conceptKey);
+        if (question == null) {
+            String[] conceptElements = StringUtils.split(conceptKey, "\\^");
+            if (conceptElements.length < 3) {
+                question = UNKNOWN_QUESTION;
+            } else {
+                Concept concept = Context.getConceptService().getConcept(NumberUtils.toInt(conceptElements[0], -1));
+                if (concept == null) {
+                    // the concept might be created later, don't remember the miss.
+                    return new Question(null, ValueType.UNSUPPORTED, false);
+                }
+                question = new Question(concept.getConceptId(), ValueType.forDatatype(concept.getDatatype()),
+                        concept.isSet());
+            }
+            questions.putIfAbsent(conceptKey, question);
+        }
+        return question == UNKNOWN_QUESTION ? null : question;
+    }
+
+    /**
+     * Get the concept of a coded answer.
+     *
+     * @param answerKey the answer key, like {@code "1065^YES^99DCT"}.
+     * @return a reference to the concept of the answer, null when the concept doesn't exist.
+     */
+    public Concept getAnswer(final String answerKey) {
+        if (answerKey == null) {
+            return null;
+        }
+        Integer answerId = answers.get(answerKey);
+        if (answerId == null) {
+            String answerIdString = StringUtils.substringBefore(StringUtils.trim(answerKey), "^");
+            Concept answer = Context.getConceptService().getConcept(NumberUtils.toInt(answerIdString, -1));
+            if (answer == null) {
+                return null;
+            }
+            answerId = answer.getConceptId();
+            answers.putIfAbsent(answerKey, answerId);
+        }
+        return new Concept(answerId);
+    }
+
+    /**
+     * How the value of an observation is stored.
+     */
+    public enum ValueType {
+
+        NUMERIC, DATETIME, CODED, TEXT, UNSUPPORTED;
+
+        private static ValueType forDatatype(final ConceptDatatype datatype) {
+            if (datatype == null) {
+                return UNSUPPORTED;
+            } else if (datatype.isNumeric()) {
+                return NUMERIC;
+            } else if (datatype.isDate() || datatype.isTime() || datatype.isDateTime()) {
+                return DATETIME;
+            } else if (datatype.isCoded()) {
+                return CODED;
+            } else if (datatype.isText()) {
+                return TEXT;
+            }
+            return UNSUPPORTED;
+        }
+    }
+
+    /**
+     * A resolved concept key of the form.
+     */
+    public static class Question {
+
+        private final Integer conceptId;
+
+        private final ValueType valueType;
+
+        private final boolean set;
+
+        private Question(final Integer conceptId, final ValueType valueType, final boolean set) {
+            this.conceptId = conceptId;
+            this.valueType = valueType;
+            this.set = set;
+        }
+
+        /**
+         * @return the id of the concept, null when the concept doesn't exist.
+         */
+        public Integer getConceptId() {
+            return conceptId;
+        }
+
+        /**
+         * @return a new reference to the concept, null when the concept doesn't exist. Only the id of the reference
+         *         is set, it is meant to be set on the saved observations.
+         */
+        public Concept getConcept() {
+            return conceptId == null ? null : new Concept(conceptId);
+        }
+
+        public ValueType getValueType() {
+            return valueType;
+        }
+
+        public boolean isSet() {
+            return set;
+        }
+    }
+}
@@ -29,11 +29,10 @@ import org.openmrs.api.context.Context;
 import org.openmrs.module.muzima.exception.QueueProcessorException;
 import org.openmrs.module.muzima.model.QueueData;
 import org.openmrs.module.muzima.model.handler.QueueDataHandler;
+import org.openmrs.module.muzimaregistration.api.ProcessedPayloadService;
 import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
 import org.openmrs.module.muzimaregistration.api.model.RegistrationData;
 import org.openmrs.module.muzimaregistration.utils.JsonUtils;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
@@ -49,52 +48,52 @@ public class HtmlRegistrationQueueDataHandler implements QueueDataHandler {
 
     private static final String DISCRIMINATOR_VALUE = "html-registration";
 
-    private static final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-
     private final Log log = LogFactory.getLog(HtmlRegistrationQueueDataHandler.class);
 
-    private Patient unsavedPatient;
-    private String payload;
-
     @Override
     public void process(final QueueData queueData) throws QueueProcessorException {
         log.info("Processing registration form data: " + queueData.getUuid());
-        payload = queueData.getPayload();
-        unsavedPatient = new Patient();
-        populateUnsavedPatientFromPayload();
+        ProcessedPayloadService processedPayloadService = Context.getService(ProcessedPayloadService.class);
+        if (processedPayloadService.isDuplicatePayload(queueData)) {
+            log.info("Skipping resubmitted registration form data: " + queueData.getUuid());
+            return;
+        }
+        RegistrationForm form = new RegistrationForm(queueData.getPayload());
+        populateUnsavedPatientFromPayload(form);
 
-        if (StringUtils.isNotEmpty(unsavedPatient.getUuid())) {
-            validateAndRegisterUnsavedPatient();
+        if (StringUtils.isNotEmpty(form.getUnsavedPatient().getUuid())) {
+            validateAndRegisterUnsavedPatient(form);
         }
+        processedPayloadService.saveProcessedPayload(queueData);
     }
 
-    private void populateUnsavedPatientFromPayload() {
-        setPatientIdentifiersFromPayload();
-        setPatientBirthDateFromPayload();
-        setPatientBirthDateEstimatedFromPayload();
-        setPatientGenderFromPayload();
-        setPatientNameFromPayload();
+    private void populateUnsavedPatientFromPayload(final RegistrationForm form) {
+        setPatientIdentifiersFromPayload(form);
+        setPatientBirthDateFromPayload(form);
+        setPatientBirthDateEstimatedFromPayload(form);
+        setPatientGenderFromPayload(form);
+        setPatientNameFromPayload(form);
     }
 
-    private void setPatientIdentifiersFromPayload(){
+    private void setPatientIdentifiersFromPayload(final RegistrationForm form){
         Set<PatientIdentifier> patientIdentifiers = new HashSet<PatientIdentifier>();
 
-        PatientIdentifier preferredIdentifier = getPreferredPatientIdentifierFromPayload();
+        PatientIdentifier preferredIdentifier = getPreferredPatientIdentifierFromPayload(form);
         patientIdentifiers.add(preferredIdentifier);
 
-        List<PatientIdentifier> otherIdentifiers = getOtherPatientIdentifiersFromPayload();
+        List<PatientIdentifier> otherIdentifiers = getOtherPatientIdentifiersFromPayload(form);
         if(!otherIdentifiers.isEmpty())
             patientIdentifiers.addAll(otherIdentifiers);
 
-        String locationIdString = JsonUtils.readAsString(payload, "$.encounter.['encounter.location_id']");
+        String locationIdString = JsonUtils.readAsString(form.getPayload(), "$.encounter.['encounter.location_id']");
         int locationId=Integer.parseInt(locationIdString);
         setIdentifierTypeLocation(patientIdentifiers,locationId);
 
-        unsavedPatient.setIdentifiers(patientIdentifiers);
+        form.getUnsavedPatient().setIdentifiers(patientIdentifiers);
     }
 
-    private PatientIdentifier getPreferredPatientIdentifierFromPayload(){
-        String identifierValue = JsonUtils.readAsString(payload, "$.patient.['patient.medical_record_number']");
+    private PatientIdentifier getPreferredPatientIdentifierFromPayload(final RegistrationForm form){
+        String identifierValue = JsonUtils.readAsString(form.getPayload(), "$.patient.['patient.medical_record_number']");
         String identifierTypeName = "AMRS Universal ID";
 
         PatientIdentifier preferredPatientIdentifier = createPatientIdentifier(identifierTypeName, identifierValue);
@@ -102,10 +101,10 @@ public class HtmlRegistrationQueueDataHandler implements QueueDataHandler {
 
         return preferredPatientIdentifier;
     }
-    private List<PatientIdentifier> getOtherPatientIdentifiersFromPayload(){
+    private List<PatientIdentifier> getOtherPatientIdentifiersFromPayload(final RegistrationForm form){
         List<PatientIdentifier> otherIdentifiers = new ArrayList<PatientIdentifier>();
-        Object identifierTypeNameObject = JsonUtils.readAsObject(payload,"$.observation.other_identifier_type");
-        Object identifierValueObject =JsonUtils.readAsObject(payload,"$.observation.other_identifier_value");
+        Object identifierTypeNameObject = JsonUtils.readAsObject(form.getPayload(),"$.observation.other_identifier_type");
+        Object identifierValueObject =JsonUtils.readAsObject(form.getPayload(),"$.observation.other_identifier_value");
 
         if(identifierTypeNameObject instanceof JSONArray) {
             JSONArray identifierTypeName = (JSONArray)identifierTypeNameObject;
@@ -130,14 +129,16 @@ public class HtmlRegistrationQueueDataHandler implements QueueDataHandler {
             patientIdentifier.setIdentifier(identifierValue);
             return patientIdentifier;
         }else{
-            throw new QueueProcessorException("Unable to find identifier type with name: " + identifierTypeName);
+            throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_IDENTIFIER_TYPE,
+                    "Unable to find identifier type with name: " + identifierTypeName);
         }
     }
 
     private void setIdentifierTypeLocation(final Set<PatientIdentifier> patientIdentifiers, int locationId){
         Location location = Context.getLocationService().getLocation(locationId);
         if (location == null) {
-            throw new QueueProcessorException("Unable to find encounter location using the id: " + locationId);
+            throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_LOCATION,
+                    "Unable to find encounter location using the id: " + locationId);
         }
         Iterator<PatientIdentifier> iterator = patientIdentifiers.iterator();
         while(iterator.hasNext()) {
@@ -146,27 +147,27 @@ public class HtmlRegistrationQueueDataHandler implements QueueDataHandler {
         }
     }
 
-    private void setPatientBirthDateFromPayload(){
-        Date birthDate = JsonUtils.readAsDate(payload, "$.patient.['patient.birth_date']");
-        unsavedPatient.setBirthdate(birthDate);
+    private void setPatientBirthDateFromPayload(final RegistrationForm form){
+        Date birthDate = JsonUtils.readAsDate(form.getPayload(), "$.patient.['patient.birth_date']");
+        form.getUnsavedPatient().setBirthdate(birthDate);
     }
 
-    private void setPatientBirthDateEstimatedFromPayload(){
-        boolean birthdateEstimated = JsonUtils.readAsBoolean(payload, "$.patient.['patient.birthdate_estimated']");
-        unsavedPatient.setBirthdateEstimated(birthdateEstimated);
+    private void setPatientBirthDateEstimatedFromPayload(final RegistrationForm form){
+        boolean birthdateEstimated = JsonUtils.readAsBoolean(form.getPayload(), "$.patient.['patient.birthdate_estimated']");
+        form.getUnsavedPatient().setBirthdateEstimated(birthdateEstimated);
     }
 
-    private void setPatientGenderFromPayload(){
-        String gender = JsonUtils.readAsString(payload, "$.patient.['patient.sex']");
-        unsavedPatient.setGender(gender);
+    private void setPatientGenderFromPayload(final RegistrationForm form){
+        String gender = JsonUtils.readAsString(form.getPayload(), "$.patient.['patient.sex']");
+        form.getUnsavedPatient().setGender(gender);
     }
 
-    private void setPatientNameFromPayload(){
-        String givenName = JsonUtils.readAsString(payload, "$.patient.['patient.given_name']");
-        String familyName = JsonUtils.readAsString(payload, "$.patient.['patient.family_name']");
+    private void setPatientNameFromPayload(final RegistrationForm form){
+        String givenName = JsonUtils.readAsString(form.getPayload(), "$.patient.['patient.given_name']");
+        String familyName = JsonUtils.readAsString(form.getPayload(), "$.patient.['patient.family_name']");
         String middleName="";
         try{
-            middleName= JsonUtils.readAsString(payload, "$.patient.['patient.middle_name']");
+            middleName= JsonUtils.readAsString(form.getPayload(), "$.patient.['patient.middle_name']");
         }catch(Exception e){}
 
         PersonName personName = new PersonName();
@@ -174,46 +175,48 @@ public class HtmlRegistrationQueueDataHandler implements QueueDataHandler {
         personName.setMiddleName(middleName);
         personName.setFamilyName(familyName);
 
-        unsavedPatient.addName(personName);
+        form.getUnsavedPatient().addName(personName);
     }
 
-    private void validateAndRegisterUnsavedPatient(){
+    private void validateAndRegisterUnsavedPatient(final RegistrationForm form){
         RegistrationDataService registrationDataService = Context.getService(RegistrationDataService.class);
-        String temporaryUuid = getPatientUuidFromPayload();
+        String temporaryUuid = getPatientUuidFromPayload(form);
         RegistrationData registrationData = registrationDataService.getRegistrationDataByTemporaryUuid(temporaryUuid);
         if (registrationData == null) {
             registrationData = new RegistrationData();
             registrationData.setTemporaryUuid(temporaryUuid);
 
-            Patient savedPatient = findSimilarSavedPatient();
+            Patient savedPatient = findSimilarSavedPatient(form);
             if (savedPatient != null) {
-                throw new QueueProcessorException("Found a patient with similar characteristic :  patientId =" + savedPatient.getPatientId()
+                throw new PermanentQueueDataException(PermanentQueueDataException.DUPLICATE_PATIENT,
+                        "Found a patient with similar characteristic :  patientId =" + savedPatient.getPatientId()
                         + "Identifier Id = "+ savedPatient.getPatientIdentifier().getIdentifier());
             }
 
-            Context.getPatientService().savePatient(unsavedPatient);
-            String assignedUuid = unsavedPatient.getUuid();
+            Context.getPatientService().savePatient(form.getUnsavedPatient());
+            String assignedUuid = form.getUnsavedPatient().getUuid();
             registrationData.setAssignedUuid(assignedUuid);
             registrationDataService.saveRegistrationData(registrationData);
+            registrationDataService.saveRegistrationSummary(registrationData, form.getUnsavedPatient());
         }
     }
 
-    private String getPatientUuidFromPayload(){
-        return JsonUtils.readAsString(payload, "$.patient.['patient.uuid']");
+    private String getPatientUuidFromPayload(final RegistrationForm form){
+        return JsonUtils.readAsString(form.getPayload(), "$.patient.['patient.uuid']");
     }
 
-    private Patient findSimilarSavedPatient(){
+    private Patient findSimilarSavedPatient(final RegistrationForm form){
         Patient savedPatient = null;
-        if (unsavedPatient.getNames().isEmpty()) {
-            PatientIdentifier identifier = unsavedPatient.getPatientIdentifier();
+        if (form.getUnsavedPatient().getNames().isEmpty()) {
+            PatientIdentifier identifier = form.getUnsavedPatient().getPatientIdentifier();
             if (identifier != null) {
                 List<Patient> patients = Context.getPatientService().getPatients(identifier.getIdentifier());
-                savedPatient = findPatient(patients, unsavedPatient);
+                savedPatient = findPatient(patients, form.getUnsavedPatient());
             }
         } else {
-            PersonName personName = unsavedPatient.getPersonName();
+            PersonName personName = form.getUnsavedPatient().getPersonName();
             List<Patient> patients = Context.getPatientService().getPatients(personName.getFullName());
-            savedPatient = findPatient(patients, unsavedPatient);
+            savedPatient = findPatient(patients, form.getUnsavedPatient());
         }
         return savedPatient;
     }
@@ -41,12 +41,12 @@ import org.openmrs.module.muzima.model.QueueData;
 import org.openmrs.module.muzima.model.handler.QueueDataHandler;
 import org.openmrs.module.muzimaforms.MuzimaForm;
 import org.openmrs.module.muzimaforms.api.MuzimaFormService;
+import org.openmrs.module.muzimaregistration.api.ProcessedPayloadService;
 import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
 import org.openmrs.module.muzimaregistration.api.model.RegistrationData;
 import org.openmrs.module.muzimaregistration.utils.JsonUtils;
 import org.springframework.stereotype.Component;
 
-import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -60,13 +60,18 @@ public class JsonEncounterQueueDataHandler implements QueueDataHandler {
 
     private static final String DISCRIMINATOR_VALUE = "json-encounter";
 
-    private static final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+    private static final String DATE_FORMAT = "yyyy-MM-dd";
 
     private final Log log = LogFactory.getLog(JsonEncounterQueueDataHandler.class);
 
     @Override
     public void process(final QueueData queueData) throws QueueProcessorException {
         log.info("Processing encounter form data: " + queueData.getUuid());
+        ProcessedPayloadService processedPayloadService = Context.getService(ProcessedPayloadService.class);
+        if (processedPayloadService.isDuplicatePayload(queueData)) {
+            log.info("Skipping resubmitted encounter form data: " + queueData.getUuid());
+            return;
+        }
         Encounter encounter = new Encounter();
 
         Object encounterObject = JsonUtils.readAsObject(queueData.getPayload(), "$['encounter']");
@@ -76,9 +81,18 @@ public class JsonEncounterQueueDataHandler implements QueueDataHandler {
         processPatient(encounter, patientObject);
 
         Object obsObject = JsonUtils.readAsObject(queueData.getPayload(), "$['observation']");
-        processObs(encounter, null, obsObject);
+        FormPlan formPlan = FormPlan.forForm(encounter.getForm());
+        ChunkedObsWriter obsWriter = new ChunkedObsWriter(encounter);
+        processObs(formPlan, obsWriter, null, obsObject);
+        List<String> normalizedObs = obsWriter.getNormalizedObs();
 
-        Context.getEncounterService().saveEncounter(encounter);
+        if (processedPayloadService.isDuplicateEncounter(encounter, normalizedObs)) {
+            log.info("Skipping encounter form data: " + queueData.getUuid() + ", the encounter has already been saved.");
+        } else {
+            processedPayloadService.saveEncounterDigest(encounter, normalizedObs);
+            obsWriter.close();
+        }
+        processedPayloadService.saveProcessedPayload(queueData);
     }
 
     private void processPatient(final Encounter encounter, final Object patientObject) throws QueueProcessorException {
@@ -133,6 +147,10 @@ public class JsonEncounterQueueDataHandler implements QueueDataHandler {
                 String temporaryUuid = unsavedPatient.getUuid();
                 RegistrationDataService dataService = Context.getService(RegistrationDataService.class);
                 RegistrationData registrationData = dataService.getRegistrationDataByTemporaryUuid(temporaryUuid);
+                if (registrationData == null) {
+                    // the registration for this patient is still waiting in the queue.
+                    throw new DeferredQueueDataException(temporaryUuid);
+                }
                 candidatePatient = Context.getPatientService().getPatientByUuid(registrationData.getAssignedUuid());
             }
         } else if (!StringUtils.isBlank(patientIdentifier.getIdentifier())) {
@@ -144,7 +162,8 @@ public class JsonEncounterQueueDataHandler implements QueueDataHandler {
         }
 
         if (candidatePatient == null) {
-            throw new QueueProcessorException("Unable to uniquely identify patient for this encounter form data. "
+            throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_PATIENT,
+                    "Unable to uniquely identify patient for this encounter form data. "
                     + ToStringBuilder.reflectionToString(unsavedPatient));
         }
 
@@ -181,80 +200,94 @@ public class JsonEncounterQueueDataHandler implements QueueDataHandler {
         return null;
     }
 
-    private void processObs(final Encounter encounter, final Obs parentObs, final Object obsObject) throws QueueProcessorException {
+    private void processObs(final FormPlan formPlan, final ChunkedObsWriter obsWriter, final Obs parentObs,
+                            final Object obsObject) throws QueueProcessorException {
         if (obsObject instanceof JSONObject) {
             JSONObject obsJsonObject = (JSONObject) obsObject;
             for (String conceptQuestion : obsJsonObject.keySet()) {
-                String[] conceptElements = StringUtils.split(conceptQuestion, "\\^");
-                if (conceptElements.length < 3)
+                FormPlan.Question question = formPlan.getQuestion(conceptQuestion);
+                if (question == null)
                     continue;
-                int conceptId = Integer.parseInt(conceptElements[0]);
-                Concept concept = Context.getConceptService().getConcept(conceptId);
-                if (concept.isSet()) {
+                Concept concept = question.getConcept();
+                if (concept == null) {
+                    throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_CONCEPT,
+                            "Unable to find concept for question: " + conceptQuestion);
+                }
+                if (question.isSet()) {
                     Obs obsGroup = new Obs();
                     obsGroup.setConcept(concept);
-                    processObsObject(encounter, obsGroup, obsJsonObject.get(conceptQuestion));
                     if (parentObs != null) {
                         parentObs.addGroupMember(obsGroup);
                     }
+                    processObsObject(formPlan, obsWriter, obsGroup, obsJsonObject.get(conceptQuestion));
                 } else {
                     Object valueObject = obsJsonObject.get(conceptQuestion);
                     Object o = JsonUtils.readAsObject(valueObject.toString(), "$");
                     if (o instanceof JSONArray) {
                         JSONArray jsonArray = (JSONArray) o;
                         for (Object arrayElement : jsonArray) {
-                            createObs(encounter, parentObs, concept, arrayElement);
+                            createObs(formPlan, obsWriter, parentObs, question, arrayElement);
                         }
                     } else {
-                        createObs(encounter, parentObs, concept, valueObject);
+                        createObs(formPlan, obsWriter, parentObs, question, valueObject);
                     }
                 }
             }
         }
     }
 
-    private void createObs(final Encounter encounter, final Obs parentObs, final Concept concept, final Object o) {
+    private void createObs(final FormPlan formPlan, final ChunkedObsWriter obsWriter, final Obs parentObs,
+                           final FormPlan.Question question, final Object o) {
         String value = o.toString();
         Obs obs = new Obs();
-        obs.setConcept(concept);
+        obs.setConcept(question.getConcept());
         // find the obs value :)
-        if (concept.getDatatype().isNumeric()) {
-            obs.setValueNumeric(Double.parseDouble(value));
-        } else if (concept.getDatatype().isDate()
-                || concept.getDatatype().isTime()
-                || concept.getDatatype().isDateTime()) {
-            obs.setValueDatetime(parseDate(value));
-        } else if (concept.getDatatype().isCoded()) {
-            String[] valueCodedElements = StringUtils.split(value, "\\^");
-            int valueCodedId = Integer.parseInt(valueCodedElements[0]);
-            Concept valueCoded = Context.getConceptService().getConcept(valueCodedId);
-            if (valueCoded == null) {
-                throw new QueueProcessorException("Unable to find concept for value coded with id: " + valueCodedId);
-            }
-            obs.setValueCoded(valueCoded);
-        } else if (concept.getDatatype().isText()) {
-            obs.setValueText(value);
+        switch (question.getValueType()) {
+            case NUMERIC:
+                obs.setValueNumeric(Double.parseDouble(value));
+                break;
+            case DATETIME:
+                obs.setValueDatetime(parseDate(value));
+                break;
+            case CODED:
+                Concept valueCoded = formPlan.getAnswer(value);
+                if (valueCoded == null) {
+                    throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_CONCEPT,
+                            "Unable to find concept for value coded: " + value);
+                }
+                obs.setValueCoded(valueCoded);
+                break;
+            case TEXT:
+                obs.setValueText(value);
+                break;
+            default:
+                break;
         }
         // only add if the value is not empty :)
-        encounter.addObs(obs);
         if (parentObs != null) {
             parentObs.addGroupMember(obs);
+        } else {
+            obsWriter.write(obs);
         }
     }
 
-    private void processObsObject(final Encounter encounter, final Obs parentObs, final Object childObsObject) {
+    private void processObsObject(final FormPlan formPlan, final ChunkedObsWriter obsWriter, final Obs parentObs,
+                                  final Object childObsObject) {
         Object o = JsonUtils.readAsObject(childObsObject.toString(), "$");
         if (o instanceof JSONArray) {
             JSONArray jsonArray = (JSONArray) o;
             for (Object arrayElement : jsonArray) {
                 Obs obsGroup = new Obs();
                 obsGroup.setConcept(parentObs.getConcept());
-                processObs(encounter, obsGroup, arrayElement);
-                encounter.addObs(obsGroup);
+                processObs(formPlan, obsWriter, obsGroup, arrayElement);
+                obsWriter.write(obsGroup);
             }
         } else if (o instanceof JSONObject) {
-            processObs(encounter, parentObs, o);
-            encounter.addObs(parentObs);
+            processObs(formPlan, obsWriter, parentObs, o);
+            // a nested group is written along with its own group.
+            if (parentObs.getObsGroup() == null) {
+                obsWriter.write(parentObs);
+            }
         }
     }
 
@@ -276,7 +309,8 @@ public class JsonEncounterQueueDataHandler implements QueueDataHandler {
                 int encounterTypeId = NumberUtils.toInt(encounterTypeString, -999);
                 EncounterType encounterType = Context.getEncounterService().getEncounterType(encounterTypeId);
                 if (encounterType == null) {
-                    throw new QueueProcessorException("Unable to find encounter type using the id: " + encounterTypeString);
+                    throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_ENCOUNTER_TYPE,
+                            "Unable to find encounter type using the id: " + encounterTypeString);
                 }
                 encounter.setEncounterType(encounterType);
             }
@@ -288,7 +322,8 @@ public class JsonEncounterQueueDataHandler implements QueueDataHandler {
         String providerString = JsonUtils.readAsString(encounterPayload, "$['encounter.provider_id']");
         User user = Context.getUserService().getUserByUsername(providerString);
         if (user == null) {
-            throw new QueueProcessorException("Unable to find user using the id: " + providerString);
+            throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_PROVIDER,
+                    "Unable to find user using the id: " + providerString);
         }
         encounter.setCreator(user);
         encounter.setProvider(user);
@@ -297,7 +332,8 @@ public class JsonEncounterQueueDataHandler implements QueueDataHandler {
         int locationId = NumberUtils.toInt(locationString, -999);
         Location location = Context.getLocationService().getLocation(locationId);
         if (location == null) {
-            throw new QueueProcessorException("Unable to find encounter location using the id: " + locationString);
+            throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_LOCATION,
+                    "Unable to find encounter location using the id: " + locationString);
         }
         encounter.setLocation(location);
 
@@ -308,7 +344,7 @@ public class JsonEncounterQueueDataHandler implements QueueDataHandler {
     private Date parseDate(final String dateValue) {
         Date date = null;
         try {
-            date = dateFormat.parse(dateValue);
+            date = new SimpleDateFormat(DATE_FORMAT).parse(dateValue);
         } catch (ParseException e) {
             log.error("Unable to parse date data for encounter!", e);
         }
@@ -13,16 +13,67 @@
  */
 package org.openmrs.module.muzimaregistration.handler;
 
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONObject;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.Concept;
+import org.openmrs.ConceptDatatype;
+import org.openmrs.Location;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.Person;
+import org.openmrs.User;
 import org.openmrs.annotation.Handler;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.muzima.exception.QueueProcessorException;
 import org.openmrs.module.muzima.model.QueueData;
 import org.openmrs.module.muzima.model.handler.QueueDataHandler;
+import org.openmrs.module.muzimaregistration.api.ObsBatchService;
+import org.openmrs.module.muzimaregistration.api.ProcessedPayloadService;
+import org.openmrs.module.muzimaregistration.api.QueueDataFailureService;
+import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationData;
+import org.openmrs.module.muzimaregistration.utils.ExpiringCache;
+import org.openmrs.module.muzimaregistration.utils.ISO8601Util;
+import org.openmrs.module.muzimaregistration.utils.JsonUtils;
 import org.springframework.stereotype.Component;
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
+ * Bulk ingest path for standalone observations, for example lab results or readings of a vitals device. The payload
+ * looks like:
+ * <pre>
+ * {
+ *     "patient": {"patient.uuid": "..."},
+ *     "observation": {
+ *         "obs.location_id": "1",
+ *         "obs.provider_id": "admin",
+ *         "obs.obs_datetime": "2014-01-31T08:00:00.000+0300",
+ *         "obs.values": [
+ *             {"concept": "5089^WEIGHT^99DCT", "value": "70.5"},
+ *             {"concept": "1284^DIAGNOSIS^99DCT", "value": "123^MALARIA^99DCT", "obs_datetime": "2014-01-30"}
+ *         ]
+ *     }
+ * }
+ * </pre>
+ * The patient, concepts, location and provider are resolved through short lived caches of their ids and the
+ * observations are inserted through JDBC batches, they never go through the hibernate session or
+ * {@code saveEncounter}. An observation which can't be built is skipped, the rest of the observations are inserted.
+ * The skipped observations are recorded with their index and reason in the failure history of the queue data, which
+ * is kept once the queue data is processed. The queue data fails only when none of its observations can be built.
+ * <p/>
+ * Like the encounter handlers, the processing is deferred while the patient uuid is not a patient and no registration
+ * has been processed for it yet, it might be the temporary uuid of a registration still in the queue. A registration
+ * pointing to a patient which doesn't exist quarantines the queue data.
  */
 @Component
 @Handler(supports = QueueData.class, order = 3)
@@ -30,15 +81,281 @@ public class ObsQueueDataHandler implements QueueDataHandler {
 
     public static final String DISCRIMINATOR_VALUE = "obs";
 
+    private static final String DATE_FORMAT = "yyyy-MM-dd";
+
+    private static final int CACHE_SIZE = 10000;
+
+    private static final long METADATA_TIME_TO_LIVE = 60 * 60 * 1000;
+
+    private static final long PATIENT_TIME_TO_LIVE = 10 * 60 * 1000;
+
     private final Log log = LogFactory.getLog(ObsQueueDataHandler.class);
 
+    private final ExpiringCache<String, Integer> patientCache = new ExpiringCache<String, Integer>(CACHE_SIZE);
+
+    private final ExpiringCache<Integer, ObsValueType> conceptCache = new ExpiringCache<Integer, ObsValueType>(CACHE_SIZE);
+
+    private final ExpiringCache<Integer, Boolean> locationCache = new ExpiringCache<Integer, Boolean>(CACHE_SIZE);
+
+    private final ExpiringCache<String, Integer> providerCache = new ExpiringCache<String, Integer>(CACHE_SIZE);
+
+    private final AtomicLong insertedObsCount = new AtomicLong();
+
+    private final AtomicLong failedObsCount = new AtomicLong();
+
     @Override
     public void process(final QueueData queueData) throws QueueProcessorException {
-        log.info("Processing encounter form data: " + queueData.getUuid());
+        log.info("Processing obs data: " + queueData.getUuid());
+        RegistrationDataService registrationDataService = Context.getService(RegistrationDataService.class);
+        ProcessedPayloadService processedPayloadService = Context.getService(ProcessedPayloadService.class);
+        if (processedPayloadService.isDuplicatePayload(queueData)) {
+            log.info("Skipping resubmitted obs data: " + queueData.getUuid());
+            return;
+        }
+        JSONObject payloadObject = readObject(JsonUtils.readAsObject(queueData.getPayload(), "$"), "$");
+        JSONObject patientObject = readObject(payloadObject.get("patient"), "patient");
+        JSONObject observationObject = readObject(payloadObject.get("observation"), "observation");
+
+        Person person = new Person(resolvePatient(registrationDataService, readString(patientObject, "patient.uuid")));
+        Location location = new Location(resolveLocation(readString(observationObject, "obs.location_id")));
+        User creator = new User(resolveProvider(readString(observationObject, "obs.provider_id")));
+        String obsDatetimeString = readString(observationObject, "obs.obs_datetime");
+        Date obsDatetime = StringUtils.isNotBlank(obsDatetimeString) ? parseDate(obsDatetimeString) : null;
+
+        Object valuesObject = observationObject.get("obs.values");
+        if (!(valuesObject instanceof JSONArray)) {
+            throw new PermanentQueueDataException(PermanentQueueDataException.MALFORMED_PAYLOAD,
+                    "Unable to find the observation values of obs data: " + queueData.getUuid());
+        }
+        JSONArray valuesArray = (JSONArray) valuesObject;
+        List<Obs> obsList = new ArrayList<Obs>(valuesArray.size());
+        List<String> failures = new ArrayList<String>();
+        PermanentQueueDataException firstFailure = null;
+        Date dateCreated = new Date();
+        for (int i = 0; i < valuesArray.size(); i++) {
+            try {
+                Obs obs = createObs(readObject(valuesArray.get(i), "obs.values"), obsDatetime);
+                obs.setPerson(person);
+                obs.setLocation(location);
+                obs.setCreator(creator);
+                obs.setDateCreated(dateCreated);
+                obsList.add(obs);
+            } catch (PermanentQueueDataException e) {
+                failures.add("obs.values[" + i + "] " + e.getReasonCode() + ": " + e.getMessage());
+                if (firstFailure == null) {
+                    firstFailure = e;
+                }
+            }
+        }
+        if (obsList.isEmpty() && firstFailure != null) {
+            throw new PermanentQueueDataException(firstFailure.getReasonCode(),
+                    "Unable to create any observation of obs data: " + queueData.getUuid() + ". "
+                            + StringUtils.join(failures, "; "));
+        }
+
+        Context.getService(ObsBatchService.class).insertObs(obsList);
+        processedPayloadService.saveProcessedPayload(queueData);
+        insertedObsCount.addAndGet(obsList.size());
+        if (!failures.isEmpty()) {
+            failedObsCount.addAndGet(failures.size());
+            log.warn("Skipped " + failures.size() + " of " + valuesArray.size() + " observations of obs data: "
+                    + queueData.getUuid() + ". " + StringUtils.join(failures, "; "));
+            Context.getService(QueueDataFailureService.class).saveSkippedObs(queueData, failures);
+        }
+    }
+
+    /**
+     * @return the number of observations inserted since the module was started.
+     */
+    public long getInsertedObsCount() {
+        return insertedObsCount.get();
+    }
+
+    /**
+     * @return the number of observations skipped because they couldn't be built since the module was started.
+     */
+    public long getFailedObsCount() {
+        return failedObsCount.get();
+    }
+
+    private Obs createObs(final JSONObject valueObject, final Date defaultObsDatetime) {
+        String conceptQuestion = readString(valueObject, "concept");
+        int conceptId = NumberUtils.toInt(StringUtils.substringBefore(conceptQuestion, "^"), -1);
+        ObsValueType valueType = resolveConcept(conceptId);
+        if (valueType == null) {
+            throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_CONCEPT,
+                    "Unable to find concept for question: " + conceptQuestion);
+        }
+
+        Obs obs = new Obs();
+        obs.setConcept(new Concept(conceptId));
+        String obsDatetimeString = readString(valueObject, "obs_datetime");
+        obs.setObsDatetime(StringUtils.isNotBlank(obsDatetimeString) ? parseDate(obsDatetimeString) : defaultObsDatetime);
+        if (obs.getObsDatetime() == null) {
+            throw new PermanentQueueDataException(PermanentQueueDataException.MALFORMED_PAYLOAD,
+                    "Unable to find the date of the observation for question: " + conceptQuestion);
+        }
+
+        String value = readString(valueObject, "value");
+        if (StringUtils.isBlank(value)) {
+            throw new PermanentQueueDataException(PermanentQueueDataException.MALFORMED_PAYLOAD,
+                    "Missing value for question: " + conceptQuestion);
+        }
+        switch (valueType) {
+            case NUMERIC:
+                try {
+                    obs.setValueNumeric(Double.parseDouble(value));
+                } catch (NumberFormatException e) {
+                    throw new PermanentQueueDataException(PermanentQueueDataException.MALFORMED_PAYLOAD,
+                            "Invalid numeric value: " + value + " for question: " + conceptQuestion, e);
+                }
+                break;
+            case BOOLEAN:
+                boolean valueBoolean = StringUtils.equalsIgnoreCase("true", value) || StringUtils.equals("1", value);
+                obs.setValueNumeric(valueBoolean ? 1.0 : 0.0);
+                break;
+            case DATETIME:
+                obs.setValueDatetime(parseDate(value));
+                break;
+            case CODED:
+                int valueCodedId = NumberUtils.toInt(StringUtils.substringBefore(value, "^"), -1);
+                if (resolveConcept(valueCodedId) == null) {
+                    throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_CONCEPT,
+                            "Unable to find concept for value coded: " + value);
+                }
+                obs.setValueCoded(new Concept(valueCodedId));
+                break;
+            case TEXT:
+                obs.setValueText(value);
+                break;
+            default:
+                throw new PermanentQueueDataException(PermanentQueueDataException.MALFORMED_PAYLOAD,
+                        "Unsupported standalone observation for question: " + conceptQuestion);
+        }
+        return obs;
+    }
+
+    private Integer resolvePatient(final RegistrationDataService registrationDataService, final String patientUuid) {
+        if (StringUtils.isBlank(patientUuid)) {
+            throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_PATIENT,
+                    "Unable to find the patient uuid of the obs data.");
+        }
+        Integer patientId = patientCache.get(patientUuid);
+        if (patientId == null) {
+            Patient patient = Context.getPatientService().getPatientByUuid(patientUuid);
+            if (patient == null) {
+                RegistrationData registrationData = registrationDataService.getRegistrationDataByTemporaryUuid(patientUuid);
+                if (registrationData == null) {
+                    // the registration for this patient might still be waiting in the queue.
+                    throw new DeferredQueueDataException(patientUuid);
+                }
+                patient = Context.getPatientService().getPatientByUuid(registrationData.getAssignedUuid());
+            }
+            if (patient == null) {
+                throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_PATIENT,
+                        "Unable to find patient using the uuid: " + patientUuid);
+            }
+            patientId = patient.getPatientId();
+            patientCache.put(patientUuid, patientId, PATIENT_TIME_TO_LIVE);
+        }
+        return patientId;
+    }
+
+    /**
+     * @return the type of value of the concept, null when the concept doesn't exist.
+     */
+    private ObsValueType resolveConcept(final int conceptId) {
+        ObsValueType valueType = conceptCache.get(conceptId);
+        if (valueType == null) {
+            Concept concept = Context.getConceptService().getConcept(conceptId);
+            if (concept == null) {
+                return null;
+            }
+            valueType = ObsValueType.forConcept(concept);
+            conceptCache.put(conceptId, valueType, METADATA_TIME_TO_LIVE);
+        }
+        return valueType;
+    }
+
+    private Integer resolveLocation(final String locationString) {
+        int locationId = NumberUtils.toInt(locationString, -999);
+        if (locationCache.get(locationId) == null) {
+            if (Context.getLocationService().getLocation(locationId) == null) {
+                throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_LOCATION,
+                        "Unable to find obs location using the id: " + locationString);
+            }
+            locationCache.put(locationId, Boolean.TRUE, METADATA_TIME_TO_LIVE);
+        }
+        return locationId;
+    }
+
+    private Integer resolveProvider(final String providerString) {
+        Integer userId = StringUtils.isNotBlank(providerString) ? providerCache.get(providerString) : null;
+        if (userId == null) {
+            User user = Context.getUserService().getUserByUsername(providerString);
+            if (user == null) {
+                throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_PROVIDER,
+                        "Unable to find user using the id: " + providerString);
+            }
+            userId = user.getUserId();
+            providerCache.put(providerString, userId, METADATA_TIME_TO_LIVE);
+        }
+        return userId;
+    }
+
+    private JSONObject readObject(final Object object, final String name) {
+        if (!(object instanceof JSONObject)) {
+            throw new PermanentQueueDataException(PermanentQueueDataException.MALFORMED_PAYLOAD,
+                    "Expecting a json object for: " + name);
+        }
+        return (JSONObject) object;
+    }
+
+    private String readString(final JSONObject jsonObject, final String key) {
+        Object value = jsonObject.get(key);
+        return value == null ? null : value.toString();
+    }
+
+    private Date parseDate(final String dateValue) {
+        try {
+            if (dateValue.length() > DATE_FORMAT.length()) {
+                return ISO8601Util.toCalendar(dateValue).getTime();
+            }
+            return new SimpleDateFormat(DATE_FORMAT).parse(dateValue);
+        } catch (ParseException e) {
+            throw new PermanentQueueDataException(PermanentQueueDataException.MALFORMED_PAYLOAD,
+                    "Unable to parse date: " + dateValue, e);
+        }
     }
 
     @Override
     public boolean accept(final QueueData queueData) {
         return StringUtils.equals(DISCRIMINATOR_VALUE, queueData.getDiscriminator());
     }
+
+    /**
+     * The column a standalone observation value is written to, resolved once per concept.
+     */
+    private enum ObsValueType {
+
+        NUMERIC, BOOLEAN, DATETIME, CODED, TEXT, UNSUPPORTED;
+
+        private static ObsValueType forConcept(final Concept concept) {
+            ConceptDatatype datatype = concept.getDatatype();
+            if (concept.isSet() || datatype == null) {
+                return UNSUPPORTED;
+            } else if (datatype.isNumeric()) {
+                return NUMERIC;
+            } else if (datatype.isBoolean()) {
+                return BOOLEAN;
+            } else if (datatype.isDate() || datatype.isTime() || datatype.isDateTime()) {
+                return DATETIME;
+            } else if (datatype.isCoded()) {
+                return CODED;
+            } else if (datatype.isText()) {
+                return TEXT;
+            }
+            return UNSUPPORTED;
+        }
+    }
 }
@@ -0,0 +1,92 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.handler;
+
+import org.hibernate.exception.LockAcquisitionException;
+import org.openmrs.module.muzima.exception.QueueProcessorException;
+import org.openmrs.module.muzimaregistration.api.model.QueueDataFailure;
+import org.springframework.dao.TransientDataAccessException;
+
+import java.sql.SQLTransientException;
+import java.text.ParseException;
+
+/**
+ * Thrown when the queue data can never be processed as it is, for example when it points to metadata which doesn't
+ * exist or when the payload can't be parsed. Retrying the queue data is pointless, it is quarantined instead.
+ */
+public class PermanentQueueDataException extends QueueProcessorException {
+
+    public static final String UNKNOWN_IDENTIFIER_TYPE = "unknown-identifier-type";
+
+    public static final String UNKNOWN_ATTRIBUTE_TYPE = "unknown-attribute-type";
+
+    public static final String UNKNOWN_LOCATION = "unknown-location";
+
+    public static final String UNKNOWN_PROVIDER = "unknown-provider";
+
+    public static final String UNKNOWN_ENCOUNTER_TYPE = "unknown-encounter-type";
+
+    public static final String UNKNOWN_CONCEPT = "unknown-concept";
+
+    public static final String UNKNOWN_PATIENT = "unknown-patient";
+
+    public static final String DUPLICATE_PATIENT = "duplicate-patient";
+
+    public static final String MALFORMED_PAYLOAD = "malformed-payload";
+
+    public static final String TOO_MANY_FAILURES = QueueDataFailure.TOO_MANY_FAILURES;
+
+    private final String reasonCode;
+
+    public PermanentQueueDataException(final String reasonCode, final String message) {
+        super(message);
+        this.reasonCode = reasonCode;
+    }
+
+    public PermanentQueueDataException(final String reasonCode, final String message, final Throwable cause) {
+        this(reasonCode, message);
+        initCause(cause);
+    }
+
+    /**
+     * @return the code of the reason why the queue data can't be processed.
+     */
+    public String getReasonCode() {
+        return reasonCode;
+    }
+
+    /**
+     * Walk through the causes of a failure to decide whether retrying the queue data can ever succeed. Only this
+     * exception and the errors parsing the payload are permanent, unexpected runtime exceptions are retried.
+     *
+     * @param exception the cause of the failure.
+     * @return the reason code of a permanent failure, null for a transient failure.
+     */
+    public static String getPermanentReasonCode(final Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof PermanentQueueDataException) {
+                return ((PermanentQueueDataException) cause).getReasonCode();
+            }
+            if (cause instanceof TransientDataAccessException
+                    || cause instanceof LockAcquisitionException
+                    || cause instanceof SQLTransientException) {
+                return null;
+            }
+            if (cause instanceof NumberFormatException || cause instanceof ParseException) {
+                return MALFORMED_PAYLOAD;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.handler;
+
+import org.openmrs.Patient;
+
+/**
+ * Everything read from a single registration form while it is being processed. The registration handlers are shared
+ * between threads, so the state of a form is kept here instead of in the handler.
+ */
+class RegistrationForm {
+
+    private final String payload;
+
+    private final Patient unsavedPatient = new Patient();
+
+    private String temporaryUuid;
+
+    RegistrationForm(final String payload) {
+        this.payload = payload;
+    }
+
+    String getPayload() {
+        return payload;
+    }
+
+    Patient getUnsavedPatient() {
+        return unsavedPatient;
+    }
+
+    String getTemporaryUuid() {
+        return temporaryUuid;
+    }
+
+    void setTemporaryUuid(final String temporaryUuid) {
+        this.temporaryUuid = temporaryUuid;
+    }
+}
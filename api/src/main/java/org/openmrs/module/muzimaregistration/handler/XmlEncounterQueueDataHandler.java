@@ -38,6 +38,7 @@ import org.openmrs.module.muzima.model.QueueData;
 import org.openmrs.module.muzima.model.handler.QueueDataHandler;
 import org.openmrs.module.muzimaforms.MuzimaForm;
 import org.openmrs.module.muzimaforms.api.MuzimaFormService;
+import org.openmrs.module.muzimaregistration.api.ProcessedPayloadService;
 import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
 import org.openmrs.module.muzimaregistration.api.model.RegistrationData;
 import org.springframework.stereotype.Component;
@@ -53,7 +54,6 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -67,13 +67,18 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
 
     private static final String DISCRIMINATOR_VALUE = "xml-encounter";
 
-    private static final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+    private static final String DATE_FORMAT = "yyyy-MM-dd";
 
     private final Log log = LogFactory.getLog(XmlEncounterQueueDataHandler.class);
 
     @Override
     public void process(final QueueData queueData) throws QueueProcessorException {
         log.info("Processing encounter form data: " + queueData.getUuid());
+        ProcessedPayloadService processedPayloadService = Context.getService(ProcessedPayloadService.class);
+        if (processedPayloadService.isDuplicatePayload(queueData)) {
+            log.info("Skipping resubmitted encounter form data: " + queueData.getUuid());
+            return;
+        }
         String payload = queueData.getPayload();
 
         try {
@@ -90,13 +95,22 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
 
             processPatient(encounter, document.getElementsByTagName("patient"));
             processEncounter(encounter, document.getElementsByTagName("encounter"));
-            processObs(encounter, document.getElementsByTagName("obs"));
+            NodeList obsNodeList = document.getElementsByTagName("obs");
+            ChunkedObsWriter obsWriter = new ChunkedObsWriter(encounter);
+            processObs(encounter, obsWriter, obsNodeList);
+            List<String> normalizedObs = obsWriter.getNormalizedObs();
 
-            Context.getEncounterService().saveEncounter(encounter);
+            if (processedPayloadService.isDuplicateEncounter(encounter, normalizedObs)) {
+                log.info("Skipping encounter form data: " + queueData.getUuid() + ", the encounter has already been saved.");
+            } else {
+                processedPayloadService.saveEncounterDigest(encounter, normalizedObs);
+                obsWriter.close();
+            }
+            processedPayloadService.saveProcessedPayload(queueData);
         } catch (ParserConfigurationException e) {
             throw new QueueProcessorException(e);
         } catch (SAXException e) {
-            throw new QueueProcessorException(e);
+            throw new PermanentQueueDataException(PermanentQueueDataException.MALFORMED_PAYLOAD, e.getMessage(), e);
         } catch (IOException e) {
             throw new QueueProcessorException(e);
         }
@@ -146,6 +160,10 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
                 String temporaryUuid = unsavedPatient.getUuid();
                 RegistrationDataService dataService = Context.getService(RegistrationDataService.class);
                 RegistrationData registrationData = dataService.getRegistrationDataByTemporaryUuid(temporaryUuid);
+                if (registrationData == null) {
+                    // the registration for this patient is still waiting in the queue.
+                    throw new DeferredQueueDataException(temporaryUuid);
+                }
                 candidatePatient = Context.getPatientService().getPatientByUuid(registrationData.getAssignedUuid());
             }
         } else if (!StringUtils.isBlank(patientIdentifier.getIdentifier())) {
@@ -157,7 +175,8 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
         }
 
         if (candidatePatient == null) {
-            throw new QueueProcessorException("Unable to uniquely identify patient for this encounter form data. "
+            throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_PATIENT,
+                    "Unable to uniquely identify patient for this encounter form data. "
                     + ToStringBuilder.reflectionToString(unsavedPatient));
         }
 
@@ -209,7 +228,9 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
         return null;
     }
 
-    private void processObs(final Encounter encounter, final NodeList obsNodeList) throws QueueProcessorException {
+    private void processObs(final Encounter encounter, final ChunkedObsWriter obsWriter,
+                            final NodeList obsNodeList) throws QueueProcessorException {
+        FormPlan formPlan = FormPlan.forForm(encounter.getForm());
         Node obsNode = obsNodeList.item(0);
         NodeList obsElementNodes = obsNode.getChildNodes();
         for (int i = 0; i < obsElementNodes.getLength(); i++) {
@@ -218,36 +239,41 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
             // no attribute: temporary elements
             // no child: element with no answer
             if (obsElementNode.hasAttributes() && obsElementNode.hasChildNodes()) {
-                processObsNode(encounter, null, obsElementNode);
+                processObsNode(formPlan, encounter, obsWriter, null, obsElementNode);
             }
         }
     }
 
-    private void processObsNode(final Encounter encounter, final Obs parentObs, final Node obsElementNode) {
+    private void processObsNode(final FormPlan formPlan, final Encounter encounter, final ChunkedObsWriter obsWriter,
+                                final Obs parentObs, final Node obsElementNode) {
         Element obsElement = (Element) obsElementNode;
-        String[] conceptElements = StringUtils.split(obsElement.getAttribute("concept"), "\\^");
-        int conceptId = Integer.parseInt(conceptElements[0]);
-        Concept concept = Context.getConceptService().getConcept(conceptId);
+        FormPlan.Question question = formPlan.getQuestion(obsElement.getAttribute("concept"));
 
-        if (concept == null) {
+        if (question == null || question.getConcept() == null) {
             log.info("Skipping obs creation, " + obsElement.getAttribute("concept") + " is not valid or not available.");
             return;
         }
+        Concept concept = question.getConcept();
 
-        if (concept.isSet()) {
+        if (question.isSet()) {
             Obs obsGroup = new Obs();
             obsGroup.setConcept(concept);
             obsGroup.setCreator(encounter.getCreator());
             NodeList nodeList = obsElementNode.getChildNodes();
+            boolean hasSubNodes = false;
             for (int i = 0; i < nodeList.getLength(); i++) {
                 Node subNode = nodeList.item(i);
                 // only process sub node with attribute and it is a tag
                 if (subNode.hasAttributes() && subNode.getNodeType() == Node.ELEMENT_NODE) {
                     // need to do recursive because we might have nested sets structure
-                    encounter.addObs(obsGroup);
-                    processObsNode(encounter, obsGroup, subNode);
+                    hasSubNodes = true;
+                    processObsNode(formPlan, encounter, obsWriter, obsGroup, subNode);
                 }
             }
+            // nested groups are not attached to their enclosing group, they are written as top level observations.
+            if (hasSubNodes) {
+                obsWriter.write(obsGroup);
+            }
         } else {
             Node valueNode = findSubNode("value", obsElementNode);
             if (valueNode != null) {
@@ -261,27 +287,27 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
                     obs.setLocation(encounter.getLocation());
                     obs.setCreator(encounter.getCreator());
                     // find the obs value :)
-                    if (concept.getDatatype().isNumeric()) {
-                        obs.setValueNumeric(Double.parseDouble(value));
-                    } else if (concept.getDatatype().isDate()
-                            || concept.getDatatype().isTime()
-                            || concept.getDatatype().isDateTime()) {
-                        obs.setValueDatetime(parseDate(value));
-                    } else if (concept.getDatatype().isCoded()) {
-                        String[] valueCodedElements = StringUtils.split(value, "\\^");
-                        int valueCodedId = Integer.parseInt(valueCodedElements[0]);
-                        Concept valueCoded = Context.getConceptService().getConcept(valueCodedId);
-                        if (valueCoded == null) {
-                            throw new QueueProcessorException("Unable to find concept for value coded with id: " + valueCodedId);
-                        }
-                        obs.setValueCoded(valueCoded);
-                    } else if (concept.getDatatype().isText()) {
-                        obs.setValueText(value);
+                    switch (question.getValueType()) {
+                        case NUMERIC:
+                            obs.setValueNumeric(Double.parseDouble(value));
+                            break;
+                        case DATETIME:
+                            obs.setValueDatetime(parseDate(value));
+                            break;
+                        case CODED:
+                            obs.setValueCoded(getAnswer(formPlan, value));
+                            break;
+                        case TEXT:
+                            obs.setValueText(value);
+                            break;
+                        default:
+                            break;
                     }
                     // only add if the value is not empty :)
-                    encounter.addObs(obs);
                     if (parentObs != null) {
                         parentObs.addGroupMember(obs);
+                    } else {
+                        obsWriter.write(obs);
                     }
                 }
             } else {
@@ -300,17 +326,12 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
                             obs.setCreator(encounter.getCreator());
 
                             Element xformValueElement = (Element) xformValueNode;
-                            String[] valueCodedElements = StringUtils.split(xformValueElement.getAttribute("concept"), "\\^");
-                            int valueCodedId = Integer.parseInt(valueCodedElements[0]);
-                            Concept valueCoded = Context.getConceptService().getConcept(valueCodedId);
-                            if (valueCoded == null) {
-                                throw new QueueProcessorException("Unable to find concept for value coded with id: " + valueCodedId);
-                            }
-                            obs.setValueCoded(valueCoded);
+                            obs.setValueCoded(getAnswer(formPlan, xformValueElement.getAttribute("concept")));
 
-                            encounter.addObs(obs);
                             if (parentObs != null) {
                                 parentObs.addGroupMember(obs);
+                            } else {
+                                obsWriter.write(obs);
                             }
                         }
                     }
@@ -319,6 +340,15 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
         }
     }
 
+    private Concept getAnswer(final FormPlan formPlan, final String answerKey) {
+        Concept valueCoded = formPlan.getAnswer(answerKey);
+        if (valueCoded == null) {
+            throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_CONCEPT,
+                    "Unable to find concept for value coded: " + answerKey);
+        }
+        return valueCoded;
+    }
+
     private void processEncounter(final Encounter encounter, final NodeList encounterNodeList) throws QueueProcessorException {
         Node encounterNode = encounterNodeList.item(0);
         NodeList encounterElementNodes = encounterNode.getChildNodes();
@@ -334,13 +364,15 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
                     int locationId = NumberUtils.toInt(encounterElementValue, -999);
                     Location location = Context.getLocationService().getLocation(locationId);
                     if (location == null) {
-                        throw new QueueProcessorException("Unable to find encounter location using the id: " + encounterElementValue);
+                        throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_LOCATION,
+                                "Unable to find encounter location using the id: " + encounterElementValue);
                     }
                     encounter.setLocation(location);
                 } else if (encounterElement.getTagName().equals("encounter.provider_id")) {
                     User user = Context.getUserService().getUserByUsername(encounterElementValue);
                     if (user == null) {
-                        throw new QueueProcessorException("Unable to find user using the id: " + encounterElementValue);
+                        throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_PROVIDER,
+                                "Unable to find user using the id: " + encounterElementValue);
                     }
                     encounter.setProvider(user);
                     encounter.setCreator(user);
@@ -365,7 +397,8 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
                         int encounterTypeId = NumberUtils.toInt(encounterElementValue, -999);
                         EncounterType encounterType = Context.getEncounterService().getEncounterType(encounterTypeId);
                         if (encounterType == null) {
-                            throw new QueueProcessorException("Unable to find encounter type using the id: " + encounterElementValue);
+                            throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_ENCOUNTER_TYPE,
+                                    "Unable to find encounter type using the id: " + encounterElementValue);
                         }
                         encounter.setEncounterType(encounterType);
                     }
@@ -377,7 +410,7 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
     private Date parseDate(final String dateValue) {
         Date date = null;
         try {
-            date = dateFormat.parse(dateValue);
+            date = new SimpleDateFormat(DATE_FORMAT).parse(dateValue);
         } catch (ParseException e) {
             log.error("Unable to parse date data for encounter!", e);
         }
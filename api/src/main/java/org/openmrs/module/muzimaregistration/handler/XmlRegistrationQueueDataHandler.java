@@ -26,13 +26,13 @@ import org.openmrs.PersonAttribute;
 import org.openmrs.PersonAttributeType;
 import org.openmrs.PersonName;
 import org.openmrs.annotation.Handler;
-import org.openmrs.api.LocationService;
 import org.openmrs.api.PatientService;
 import org.openmrs.api.PersonService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.muzima.exception.QueueProcessorException;
 import org.openmrs.module.muzima.model.QueueData;
 import org.openmrs.module.muzima.model.handler.QueueDataHandler;
+import org.openmrs.module.muzimaregistration.api.ProcessedPayloadService;
 import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
 import org.openmrs.module.muzimaregistration.api.model.RegistrationData;
 import org.w3c.dom.Document;
@@ -47,7 +47,6 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -61,16 +60,10 @@ public class XmlRegistrationQueueDataHandler implements QueueDataHandler {
 
     private static final String DISCRIMINATOR_VALUE = "xml-registration";
 
-    private static final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+    private static final String DATE_FORMAT = "yyyy-MM-dd";
 
     private final Log log = LogFactory.getLog(XmlRegistrationQueueDataHandler.class);
 
-    private PatientService patientService;
-
-    private LocationService locationService;
-
-    private String temporaryPatientUuid;
-
     /**
      * Implementation of how the queue data should be processed.
      *
@@ -81,18 +74,22 @@ public class XmlRegistrationQueueDataHandler implements QueueDataHandler {
     @Override
     public void process(final QueueData queueData) throws QueueProcessorException {
         log.info("Processing registration form data: " + queueData.getUuid());
-        String payload = queueData.getPayload();
-
-        Patient unsavedPatient = createPatientFromPayload(payload);
         RegistrationDataService registrationDataService = Context.getService(RegistrationDataService.class);
+        ProcessedPayloadService processedPayloadService = Context.getService(ProcessedPayloadService.class);
+        if (processedPayloadService.isDuplicatePayload(queueData)) {
+            log.info("Skipping resubmitted registration form data: " + queueData.getUuid());
+            return;
+        }
+        RegistrationForm form = new RegistrationForm(queueData.getPayload());
+
+        Patient unsavedPatient = createPatientFromPayload(form);
 
         RegistrationData registrationData;
         if (StringUtils.isNotEmpty(unsavedPatient.getUuid())) {
-            registrationData = registrationDataService.getRegistrationDataByTemporaryUuid(getTemporaryPatientUuid());
+            registrationData = registrationDataService.getRegistrationDataByTemporaryUuid(form.getTemporaryUuid());
             if (registrationData == null) {
                 // we can't find registration data for this uuid, process the registration form.
-                patientService = Context.getPatientService();
-                locationService = Context.getLocationService();
+                PatientService patientService = Context.getPatientService();
 
                 Patient savedPatient = null;
                 // check whether we already have similar patients!
@@ -109,8 +106,9 @@ public class XmlRegistrationQueueDataHandler implements QueueDataHandler {
                 }
 
                 registrationData = new RegistrationData();
-                registrationData.setTemporaryUuid(getTemporaryPatientUuid());
+                registrationData.setTemporaryUuid(form.getTemporaryUuid());
                 String assignedUuid;
+                Patient assignedPatient;
                 // for a new patient we will create mapping:
                 // * temporary uuid --> uuid of the newly created patient
                 // for existing patient we will create mapping:
@@ -119,14 +117,18 @@ public class XmlRegistrationQueueDataHandler implements QueueDataHandler {
                     // if we have a patient already saved with the characteristic found in the registration form:
                     // * we will map the temporary uuid to the existing uuid.
                     assignedUuid = savedPatient.getUuid();
+                    assignedPatient = savedPatient;
                 } else {
                     patientService.savePatient(unsavedPatient);
                     assignedUuid = unsavedPatient.getUuid();
+                    assignedPatient = unsavedPatient;
                 }
                 registrationData.setAssignedUuid(assignedUuid);
                 registrationDataService.saveRegistrationData(registrationData);
+                registrationDataService.saveRegistrationSummary(registrationData, assignedPatient);
             }
         }
+        processedPayloadService.saveProcessedPayload(queueData);
     }
 
     /**
@@ -143,15 +145,17 @@ public class XmlRegistrationQueueDataHandler implements QueueDataHandler {
     private Date parseDate(final String dateValue) {
         Date date = null;
         try {
-            date = dateFormat.parse(dateValue);
+            // date formats are not thread safe, handlers are shared between threads.
+            date = new SimpleDateFormat(DATE_FORMAT).parse(dateValue);
         } catch (ParseException e) {
             log.error("Unable to parse date data for encounter!", e);
         }
         return date;
     }
 
-    private Patient createPatientFromPayload(final String payload) {
-        Patient unsavedPatient = new Patient();
+    private Patient createPatientFromPayload(final RegistrationForm form) {
+        String payload = form.getPayload();
+        Patient unsavedPatient = form.getUnsavedPatient();
         try {
             DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
             DocumentBuilder db = dbf.newDocumentBuilder();
@@ -180,7 +184,8 @@ public class XmlRegistrationQueueDataHandler implements QueueDataHandler {
                         int identifierTypeId = Integer.parseInt(patientElement.getTextContent());
                         PatientIdentifierType identifierType = Context.getPatientService().getPatientIdentifierType(identifierTypeId);
                         if (identifierType == null) {
-                            throw new QueueProcessorException("Unable to find patient identifier type with id: " + identifierTypeId);
+                            throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_IDENTIFIER_TYPE,
+                                    "Unable to find patient identifier type with id: " + identifierTypeId);
                         }
                         patientIdentifier.setIdentifierType(identifierType);
                     } else if (tagName.equals("patient.medical_record_number")) {
@@ -192,7 +197,7 @@ public class XmlRegistrationQueueDataHandler implements QueueDataHandler {
                         unsavedPatient.setBirthdate(dob);
                     } else if (tagName.equals("patient.uuid")) {
                         unsavedPatient.setUuid(patientElement.getTextContent());
-                        setTemporaryPatientUuid(patientElement.getTextContent());
+                        form.setTemporaryUuid(patientElement.getTextContent());
                     }else if (tagName.equals("patient.finger")) {
                         savePatientsFinger(unsavedPatient, patientElement.getTextContent());
                     }else if (tagName.equals("patient.fingerprint")) {
@@ -219,7 +224,8 @@ public class XmlRegistrationQueueDataHandler implements QueueDataHandler {
                         int personAttributeTypeId = NumberUtils.toInt(tagName.replace("person_attribute", ""));
                         PersonAttributeType personAttributeType = personService.getPersonAttributeType(personAttributeTypeId);
                         if (personAttributeType == null) {
-                            throw new QueueProcessorException("Unable to find attribute type with id: " + personAttributeTypeId);
+                            throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_ATTRIBUTE_TYPE,
+                                    "Unable to find attribute type with id: " + personAttributeTypeId);
                         }
                         PersonAttribute personAttribute = new PersonAttribute();
                         personAttribute.setAttributeType(personAttributeType);
@@ -240,7 +246,8 @@ public class XmlRegistrationQueueDataHandler implements QueueDataHandler {
                         int locationId = Integer.parseInt(encounterElement.getTextContent());
                         Location location = Context.getLocationService().getLocation(locationId);
                         if (location == null) {
-                            throw new QueueProcessorException("Unable to find location with id: " + locationId);
+                            throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_LOCATION,
+                                    "Unable to find location with id: " + locationId);
                         }
                         patientIdentifier.setLocation(location);
                         for (PatientIdentifier identifier : unsavedPatient.getIdentifiers()) {
@@ -255,21 +262,13 @@ public class XmlRegistrationQueueDataHandler implements QueueDataHandler {
         } catch (ParserConfigurationException e) {
             throw new QueueProcessorException(e);
         } catch (SAXException e) {
-            throw new QueueProcessorException(e);
+            throw new PermanentQueueDataException(PermanentQueueDataException.MALFORMED_PAYLOAD, e.getMessage(), e);
         } catch (IOException e) {
             throw new QueueProcessorException(e);
         }
         return unsavedPatient;
     }
 
-    private void setTemporaryPatientUuid(String temporaryUuid){
-        this.temporaryPatientUuid = temporaryUuid;
-    }
-
-    private String getTemporaryPatientUuid(){
-        return temporaryPatientUuid;
-    }
-
     private void extractIdentifier(final Patient unsavedPatient, final Element patientElement, final String typeName) {
         boolean identical = true;
         String identifierValue = StringUtils.EMPTY;
@@ -295,7 +294,8 @@ public class XmlRegistrationQueueDataHandler implements QueueDataHandler {
                 patientIdentifier.setIdentifier(identifierValue);
                 unsavedPatient.addIdentifier(patientIdentifier);
             } else {
-                throw new QueueProcessorException("Unable to find identifier type with name: " + typeName);
+                throw new PermanentQueueDataException(PermanentQueueDataException.UNKNOWN_IDENTIFIER_TYPE,
+                        "Unable to find identifier type with name: " + typeName);
             }
         }
     }
@@ -0,0 +1,253 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.processor;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+
+/**
+ * Adapt the batch size and the number of batches processed at the same time to the database latency. Every
+ * committed batch reports its latency and number of failures:
+ * <ul>
+ * <li>a fast batch without failures grows the batch size by a fixed step, once the batch size reaches its maximum
+ * one more batch is allowed to run at the same time.</li>
+ * <li>a batch slower than the latency target, or with too many failures, halves the batch size and allows one batch
+ * less to run at the same time.</li>
+ * <li>a batch much slower than the latency target means the database is overloaded, no new batch is started until
+ * the pause is over, so the clinical users of the same database are not starved.</li>
+ * </ul>
+ * The latency target is read from the {@link #LATENCY_TARGET_PROPERTY} global property when it is set.
+ * <p/>
+ * The concurrency is shared by all lanes, a free slot is granted in priority order: a batch waits while a batch of a
+ * higher priority lane is waiting, so a flood of encounters can't starve the registrations.
+ */
+public class AdaptiveBatchController {
+
+    public static final String LATENCY_TARGET_PROPERTY = "muzimaregistration.batch.latencyTarget";
+
+    public static final long DEFAULT_LATENCY_TARGET = 1000;
+
+    public static final int DEFAULT_MIN_BATCH_SIZE = 5;
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 500;
+
+    public static final int DEFAULT_BATCH_SIZE_STEP = 10;
+
+    public static final int DEFAULT_CONCURRENCY = 2;
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 6;
+
+    public static final double DEFAULT_MAX_ERROR_RATE = 0.1;
+
+    public static final int DEFAULT_OVERLOAD_FACTOR = 4;
+
+    public static final long DEFAULT_PAUSE_DURATION = 30 * 1000;
+
+    private final Log log = LogFactory.getLog(AdaptiveBatchController.class);
+
+    private final int[] waiting = new int[QueueDataLane.values().length];
+
+    private long latencyTarget = DEFAULT_LATENCY_TARGET;
+
+    private int minBatchSize = DEFAULT_MIN_BATCH_SIZE;
+
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    private int batchSizeStep = DEFAULT_BATCH_SIZE_STEP;
+
+    private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+
+    private double maxErrorRate = DEFAULT_MAX_ERROR_RATE;
+
+    private int overloadFactor = DEFAULT_OVERLOAD_FACTOR;
+
+    private long pauseDuration = DEFAULT_PAUSE_DURATION;
+
+    private int batchSize = QueueDataBatchProcessor.DEFAULT_BATCH_SIZE;
+
+    private int concurrency = DEFAULT_CONCURRENCY;
+
+    private int running;
+
+    private long pausedUntil;
+
+    public synchronized long getLatencyTarget() {
+        return latencyTarget;
+    }
+
+    /**
+     * @param latencyTarget the commit latency of a batch in milliseconds the controller aims at.
+     */
+    public synchronized void setLatencyTarget(final long latencyTarget) {
+        this.latencyTarget = latencyTarget;
+    }
+
+    public synchronized void setMinBatchSize(final int minBatchSize) {
+        this.minBatchSize = minBatchSize;
+    }
+
+    public synchronized void setMaxBatchSize(final int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public synchronized void setBatchSizeStep(final int batchSizeStep) {
+        this.batchSizeStep = batchSizeStep;
+    }
+
+    public synchronized void setMaxConcurrency(final int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * @param maxErrorRate the ratio of failed queue data in a batch above which the batch size is reduced.
+     */
+    public synchronized void setMaxErrorRate(final double maxErrorRate) {
+        this.maxErrorRate = maxErrorRate;
+    }
+
+    /**
+     * @param overloadFactor how many times slower than the latency target a batch has to be to pause the processing.
+     */
+    public synchronized void setOverloadFactor(final int overloadFactor) {
+        this.overloadFactor = overloadFactor;
+    }
+
+    public synchronized void setPauseDuration(final long pauseDuration) {
+        this.pauseDuration = pauseDuration;
+    }
+
+    public synchronized int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize the initial batch size.
+     */
+    public synchronized void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public synchronized int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * @param concurrency the initial number of batches processed at the same time.
+     */
+    public synchronized void setConcurrency(final int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public synchronized boolean isPaused() {
+        return pausedUntil > System.currentTimeMillis();
+    }
+
+    /**
+     * Read the latency target from the global property, keeping the current one when the property is not set or
+     * not a number.
+     */
+    public void loadLatencyTarget() {
+        String value = Context.getAdministrationService().getGlobalProperty(LATENCY_TARGET_PROPERTY);
+        if (StringUtils.isNotBlank(value)) {
+            try {
+                setLatencyTarget(Long.parseLong(value.trim()));
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring invalid value for global property " + LATENCY_TARGET_PROPERTY + ": " + value);
+            }
+        }
+    }
+
+    /**
+     * Wait until a new batch can be started, with the priority of the lowest priority lane.
+     *
+     * @see #acquire(QueueDataLane)
+     */
+    public void acquire() {
+        QueueDataLane[] lanes = QueueDataLane.values();
+        acquire(lanes[lanes.length - 1]);
+    }
+
+    /**
+     * Wait until a new batch can be started: the processing is not paused, fewer batches than the current
+     * concurrency are running and no batch of a higher priority lane is waiting. Every call must be followed by a
+     * call to {@link #release()}.
+     *
+     * @param lane the lane of the batch.
+     */
+    public synchronized void acquire(final QueueDataLane lane) {
+        waiting[lane.ordinal()]++;
+        try {
+            long now = System.currentTimeMillis();
+            while (pausedUntil > now || running >= concurrency || isHigherPriorityWaiting(lane)) {
+                wait(pausedUntil > now ? pausedUntil - now : 0);
+                now = System.currentTimeMillis();
+            }
+            running++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new APIException("Interrupted while waiting to process the next batch!", e);
+        } finally {
+            waiting[lane.ordinal()]--;
+            // the lower priority lanes might be able to go now.
+            notifyAll();
+        }
+    }
+
+    private boolean isHigherPriorityWaiting(final QueueDataLane lane) {
+        for (int i = 0; i < lane.ordinal(); i++) {
+            if (waiting[i] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void release() {
+        running--;
+        notifyAll();
+    }
+
+    /**
+     * Adjust the batch size and the concurrency to the latency and the failures of a committed batch.
+     *
+     * @param size     the number of queue data in the batch.
+     * @param latency  the time it took to process and commit the batch, in milliseconds.
+     * @param failures the number of queue data which failed in the batch.
+     */
+    public synchronized void completed(final int size, final long latency, final int failures) {
+        if (size == 0) {
+            return;
+        }
+        if (latency > latencyTarget * overloadFactor) {
+            pausedUntil = System.currentTimeMillis() + pauseDuration;
+            log.warn("Batch of " + size + " queue data took " + latency + " ms, the database looks overloaded."
+                    + " Pausing the processing for " + pauseDuration + " ms.");
+        }
+        if (latency > latencyTarget || (double) failures / size > maxErrorRate) {
+            batchSize = Math.max(minBatchSize, batchSize / 2);
+            concurrency = Math.max(1, concurrency - 1);
+        } else if (size >= batchSize) {
+            // only full batches tell whether a bigger batch would still be fast enough.
+            if (batchSize < maxBatchSize) {
+                batchSize = Math.min(maxBatchSize, batchSize + batchSizeStep);
+            } else if (concurrency < maxConcurrency) {
+                concurrency++;
+            }
+        }
+        notifyAll();
+    }
+}
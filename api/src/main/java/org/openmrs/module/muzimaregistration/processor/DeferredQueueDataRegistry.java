@@ -0,0 +1,201 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.processor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzimaregistration.api.RegistrationDataListener;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Wait set for queue data which can't be processed yet because the registration it points to has not been
+ * processed. The queue data is parked under the temporary uuid of the registration and released once the
+ * registration data mapping that temporary uuid is saved, the processors then pick the released queue data up again
+ * instead of retrying it blindly.
+ * <p/>
+ * The temporary uuids mapped recently are remembered, so queue data parked after its registration has been saved
+ * (the registration came later in the same batch or was processed by another worker) is released right away. The
+ * processor checks the registrations saved by other nodes itself when parking the queue data.
+ * <p/>
+ * The wait set only lives in memory and is bounded, the parked queue data itself stays in the queue until it is
+ * processed. When the wait set is full, the queue data parked first is dropped from it and simply processed again by
+ * the next run.
+ */
+public class DeferredQueueDataRegistry implements RegistrationDataListener {
+
+    public static final int DEFAULT_MAX_WAITING = 10000;
+
+    public static final int DEFAULT_MAX_MAPPED = 10000;
+
+    private final Log log = LogFactory.getLog(DeferredQueueDataRegistry.class);
+
+    private final Map<String, Map<String, QueueData>> waiting = new LinkedHashMap<String, Map<String, QueueData>>();
+
+    private final Map<String, String> waitingFor = new HashMap<String, String>();
+
+    private final Map<String, QueueData> released = new LinkedHashMap<String, QueueData>();
+
+    private final Set<String> mapped = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+            return size() > maxMapped;
+        }
+    });
+
+    private int maxWaiting = DEFAULT_MAX_WAITING;
+
+    private int maxMapped = DEFAULT_MAX_MAPPED;
+
+    public synchronized int getMaxWaiting() {
+        return maxWaiting;
+    }
+
+    /**
+     * @param maxWaiting the maximum number of queue data kept in the wait set.
+     */
+    public synchronized void setMaxWaiting(final int maxWaiting) {
+        this.maxWaiting = maxWaiting;
+    }
+
+    public synchronized int getMaxMapped() {
+        return maxMapped;
+    }
+
+    /**
+     * @param maxMapped the maximum number of recently mapped temporary uuids remembered.
+     */
+    public synchronized void setMaxMapped(final int maxMapped) {
+        this.maxMapped = maxMapped;
+    }
+
+    /**
+     * Park the queue data until the registration with the temporary uuid is saved. The queue data is released right
+     * away when the temporary uuid has been mapped already.
+     *
+     * @param temporaryUuid the temporary uuid the queue data is waiting for.
+     * @param queueData     the queue data.
+     */
+    public synchronized void defer(final String temporaryUuid, final QueueData queueData) {
+        forget(queueData);
+        if (mapped.contains(temporaryUuid)) {
+            released.put(queueData.getUuid(), queueData);
+            return;
+        }
+        Map<String, QueueData> queueDataMap = waiting.get(temporaryUuid);
+        if (queueDataMap == null) {
+            queueDataMap = new LinkedHashMap<String, QueueData>();
+            waiting.put(temporaryUuid, queueDataMap);
+        }
+        queueDataMap.put(queueData.getUuid(), queueData);
+        waitingFor.put(queueData.getUuid(), temporaryUuid);
+        evictWaiting();
+    }
+
+    /**
+     * Drop the queue data from the wait set, used when it has been processed or failed.
+     *
+     * @param queueData the queue data.
+     */
+    public synchronized void forget(final QueueData queueData) {
+        String temporaryUuid = waitingFor.remove(queueData.getUuid());
+        if (temporaryUuid != null) {
+            Map<String, QueueData> queueDataMap = waiting.get(temporaryUuid);
+            queueDataMap.remove(queueData.getUuid());
+            if (queueDataMap.isEmpty()) {
+                waiting.remove(temporaryUuid);
+            }
+        }
+    }
+
+    /**
+     * Release the queue data waiting for the temporary uuid and remember the temporary uuid as mapped. When called
+     * inside a transaction, this happens only after the transaction is committed, so the queue data is never picked
+     * up before the mapping is visible.
+     *
+     * @param temporaryUuid the temporary uuid which is now mapped.
+     */
+    public void release(final String temporaryUuid) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    releaseNow(temporaryUuid);
+                }
+            });
+        } else {
+            releaseNow(temporaryUuid);
+        }
+    }
+
+    /**
+     * Release the queue data waiting for the newly mapped temporary uuid.
+     *
+     * @param temporaryUuid the temporary uuid which is now mapped.
+     * @see #release(String)
+     */
+    @Override
+    public void registrationDataSaved(final String temporaryUuid) {
+        release(temporaryUuid);
+    }
+
+    /**
+     * Take the released queue data out of the registry.
+     *
+     * @return the released queue data, in the order it was released.
+     */
+    public synchronized List<QueueData> drainReleased() {
+        List<QueueData> queueDataList = new ArrayList<QueueData>(released.values());
+        released.clear();
+        return queueDataList;
+    }
+
+    /**
+     * @return the number of queue data still waiting for their registration.
+     */
+    public synchronized int getWaitingCount() {
+        return waitingFor.size();
+    }
+
+    private synchronized void releaseNow(final String temporaryUuid) {
+        mapped.add(temporaryUuid);
+        Map<String, QueueData> queueDataMap = waiting.remove(temporaryUuid);
+        if (queueDataMap != null) {
+            log.info("Releasing " + queueDataMap.size() + " queue data waiting for registration: " + temporaryUuid);
+            released.putAll(queueDataMap);
+            waitingFor.keySet().removeAll(queueDataMap.keySet());
+        }
+    }
+
+    private void evictWaiting() {
+        Iterator<Map.Entry<String, Map<String, QueueData>>> iterator = waiting.entrySet().iterator();
+        while (waitingFor.size() > maxWaiting && iterator.hasNext()) {
+            Map.Entry<String, Map<String, QueueData>> entry = iterator.next();
+            log.warn("Dropping " + entry.getValue().size() + " queue data waiting for registration: " + entry.getKey()
+                    + ", it will be processed again by the next run.");
+            waitingFor.keySet().removeAll(entry.getValue().keySet());
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.processor;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzimaregistration.handler.DemographicsUpdate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compaction stage running ahead of the demographics update handler. A sync often queues several demographics
+ * updates for the same patient, and each of them would load and save the whole patient. The updates are grouped by
+ * patient and merged in submission order into a single net change, which is applied once with the latest queue data.
+ * The earlier queue data is reported as merged instead of being processed.
+ * <p/>
+ * Updates which can't be parsed are left alone, the handler fails them with the right reason.
+ */
+public class DemographicsUpdateCoalescer {
+
+    private static final String DISCRIMINATOR_VALUE = "json-demographics-update";
+
+    private final Log log = LogFactory.getLog(DemographicsUpdateCoalescer.class);
+
+    private final AtomicLong mergedCount = new AtomicLong();
+
+    /**
+     * Merge the demographics updates queued for the same patient. Other queue data is ignored.
+     *
+     * @param queueDataList the queue data about to be processed, in submission order.
+     * @return the merged updates, one per group of at least two demographics updates.
+     */
+    public List<MergedDemographicsUpdate> coalesce(final List<QueueData> queueDataList) {
+        Map<String, List<QueueData>> patientQueueData = new LinkedHashMap<String, List<QueueData>>();
+        Map<QueueData, DemographicsUpdate> updates = new LinkedHashMap<QueueData, DemographicsUpdate>();
+        for (QueueData queueData : queueDataList) {
+            if (!StringUtils.equals(DISCRIMINATOR_VALUE, queueData.getDiscriminator())) {
+                continue;
+            }
+            DemographicsUpdate update;
+            try {
+                update = DemographicsUpdate.parse(queueData.getPayload());
+            } catch (RuntimeException e) {
+                log.debug("Not merging unreadable demographics update: " + queueData.getUuid(), e);
+                continue;
+            }
+            if (StringUtils.isBlank(update.getPatientUuid())) {
+                continue;
+            }
+            List<QueueData> queueDataOfPatient = patientQueueData.get(update.getPatientUuid());
+            if (queueDataOfPatient == null) {
+                queueDataOfPatient = new ArrayList<QueueData>();
+                patientQueueData.put(update.getPatientUuid(), queueDataOfPatient);
+            }
+            queueDataOfPatient.add(queueData);
+            updates.put(queueData, update);
+        }
+
+        List<MergedDemographicsUpdate> mergedUpdates = new ArrayList<MergedDemographicsUpdate>();
+        for (List<QueueData> queueDataOfPatient : patientQueueData.values()) {
+            if (queueDataOfPatient.size() < 2) {
+                continue;
+            }
+            if (hasDateCreated(queueDataOfPatient)) {
+                // the sort is stable, queue data created at the same time keeps its position in the queue.
+                Collections.sort(queueDataOfPatient, new SubmissionOrderComparator());
+            }
+            List<QueueData> chain = new ArrayList<QueueData>();
+            DemographicsUpdate merged = null;
+            for (QueueData queueData : queueDataOfPatient) {
+                DemographicsUpdate update = updates.get(queueData);
+                if (merged != null && !merged.canMerge(update)) {
+                    addMergedUpdate(chain, merged, mergedUpdates);
+                    chain = new ArrayList<QueueData>();
+                    merged = null;
+                }
+                chain.add(queueData);
+                merged = merged == null ? update : merged.merge(update);
+            }
+            addMergedUpdate(chain, merged, mergedUpdates);
+        }
+        return mergedUpdates;
+    }
+
+    /**
+     * @return the number of demographics updates merged into a later update of the same patient since the module was
+     * started.
+     */
+    public long getMergedCount() {
+        return mergedCount.get();
+    }
+
+    void merged(final int count) {
+        mergedCount.addAndGet(count);
+    }
+
+    private boolean hasDateCreated(final List<QueueData> queueDataList) {
+        for (QueueData queueData : queueDataList) {
+            if (queueData.getDateCreated() == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addMergedUpdate(final List<QueueData> chain, final DemographicsUpdate merged,
+                                 final List<MergedDemographicsUpdate> mergedUpdates) {
+        if (chain.size() > 1) {
+            QueueData latest = chain.get(chain.size() - 1);
+            List<QueueData> superseded = new ArrayList<QueueData>(chain.subList(0, chain.size() - 1));
+            log.info("Merging " + superseded.size() + " demographics updates of patient: " + merged.getPatientUuid()
+                    + " into queue data: " + latest.getUuid());
+            mergedUpdates.add(new MergedDemographicsUpdate(latest, superseded, merged));
+        }
+    }
+
+    /**
+     * Net change of several demographics updates of the same patient, applied with the latest queue data.
+     */
+    public static class MergedDemographicsUpdate {
+
+        private final QueueData latest;
+
+        private final List<QueueData> superseded;
+
+        private final DemographicsUpdate update;
+
+        private MergedDemographicsUpdate(final QueueData latest, final List<QueueData> superseded,
+                                         final DemographicsUpdate update) {
+            this.latest = latest;
+            this.superseded = superseded;
+            this.update = update;
+        }
+
+        /**
+         * @return the latest queue data of the group, processed with the merged update.
+         */
+        public QueueData getLatest() {
+            return latest;
+        }
+
+        /**
+         * @return the earlier queue data of the group, in submission order.
+         */
+        public List<QueueData> getSuperseded() {
+            return superseded;
+        }
+
+        /**
+         * @return the net change of the group.
+         */
+        public DemographicsUpdate getUpdate() {
+            return update;
+        }
+    }
+
+    private static class SubmissionOrderComparator implements Comparator<QueueData> {
+
+        @Override
+        public int compare(final QueueData queueData, final QueueData otherQueueData) {
+            return queueData.getDateCreated().compareTo(otherQueueData.getDateCreated());
+        }
+    }
+}
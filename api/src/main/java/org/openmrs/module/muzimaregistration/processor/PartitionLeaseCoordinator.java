@@ -0,0 +1,363 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.processor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzimaregistration.api.PartitionLeaseService;
+import org.openmrs.module.muzimaregistration.api.model.PartitionLease;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Share the queue data between several OpenMRS nodes. The patient keys are hashed into a fixed number of partitions,
+ * each node claims a lease on some of the partitions and only processes the queue data falling into them. The forms
+ * of a patient are therefore always processed by a single node.
+ * <p/>
+ * Every claim renews the leases of the node and balances the partitions between the live nodes: a node holding more
+ * than its share gives the extra partitions up, a node holding less claims free or expired ones and requests held
+ * ones when none are left. The partitions of a node which stopped renewing its leases are taken over once the
+ * leases expire.
+ * <p/>
+ * While processing, the leases of the partitions in a batch are renewed before the batch, only when this node still
+ * holds them. A partition whose lease has been lost (expired or taken over by another node) is not processed any
+ * further, its queue data is left in the queue for its new owner.
+ */
+public class PartitionLeaseCoordinator {
+
+    public static final int DEFAULT_PARTITION_COUNT = 16;
+
+    public static final long DEFAULT_LEASE_DURATION = 5 * 60 * 1000;
+
+    private final Log log = LogFactory.getLog(PartitionLeaseCoordinator.class);
+
+    private PlatformTransactionManager transactionManager;
+
+    private volatile PartitionLeaseService partitionLeaseService;
+
+    private PriorityQueueDataScheduler scheduler;
+
+    private String nodeId = createNodeId();
+
+    private int partitionCount = DEFAULT_PARTITION_COUNT;
+
+    private long leaseDuration = DEFAULT_LEASE_DURATION;
+
+    public void setTransactionManager(final PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    /**
+     * @param partitionLeaseService the service holding the leases, by default the one from the context.
+     */
+    public void setPartitionLeaseService(final PartitionLeaseService partitionLeaseService) {
+        this.partitionLeaseService = partitionLeaseService;
+    }
+
+    public void setScheduler(final PriorityQueueDataScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @param nodeId the unique name of this node, by default the host name followed by a random uuid.
+     */
+    public void setNodeId(final String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    /**
+     * @param partitionCount the number of partitions, it must be the same on all nodes.
+     */
+    public void setPartitionCount(final int partitionCount) {
+        this.partitionCount = partitionCount;
+    }
+
+    public long getLeaseDuration() {
+        return leaseDuration;
+    }
+
+    public void setLeaseDuration(final long leaseDuration) {
+        this.leaseDuration = leaseDuration;
+    }
+
+    /**
+     * Process the queue data of the partitions held by this node. The queue data of other partitions is left for the
+     * other nodes. Archiving the processed queue data and recording the failed ones is left to the caller.
+     *
+     * @param queueDataList the pending queue data.
+     * @param partitions    the partitions claimed for the run, see {@link #claimPartitions()}.
+     * @return the processed, failed, deferred and postponed queue data of the partitions held by this node.
+     */
+    public QueueDataBatchResult process(final List<QueueData> queueDataList, final Set<Integer> partitions) {
+        QueueDataPartitioner partitioner = new QueueDataPartitioner(partitionCount);
+        List<QueueData> ownedQueueData = new ArrayList<QueueData>();
+        for (QueueData queueData : queueDataList) {
+            if (partitions.contains(partitioner.getPartition(queueData))) {
+                ownedQueueData.add(queueData);
+            }
+        }
+        log.info("Node " + nodeId + " holds partitions " + partitions + ", processing " + ownedQueueData.size()
+                + " of " + queueDataList.size() + " queue data.");
+        return scheduler.process(ownedQueueData, createLeaseGuard(partitions));
+    }
+
+    /**
+     * @param partitions the partitions claimed for the run.
+     * @return the guard renewing the leases of the partitions before each batch.
+     */
+    QueueDataBatchGuard createLeaseGuard(final Set<Integer> partitions) {
+        return new LeaseGuard(partitions);
+    }
+
+    /**
+     * Renew the leases of this node and claim or give up partitions to get its share of them.
+     *
+     * @return the partitions held by this node.
+     */
+    public Set<Integer> claimPartitions() {
+        return claimPartitions(new Date());
+    }
+
+    /**
+     * Give up all partitions held by this node, used when the node stops processing queue data.
+     */
+    public void releasePartitions() {
+        final Date now = new Date();
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.execute(new TransactionCallback<Object>() {
+            @Override
+            public Object doInTransaction(final TransactionStatus status) {
+                PartitionLeaseService service = getPartitionLeaseService();
+                for (PartitionLease partitionLease : service.getPartitionLeases()) {
+                    if (nodeId.equals(partitionLease.getOwner())) {
+                        service.releasePartitionLease(partitionLease.getPartitionNumber(), nodeId, now);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    Set<Integer> claimPartitions(final Date now) {
+        try {
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+            return transactionTemplate.execute(new TransactionCallback<Set<Integer>>() {
+                @Override
+                public Set<Integer> doInTransaction(final TransactionStatus status) {
+                    return balancePartitions(now);
+                }
+            });
+        } catch (RuntimeException e) {
+            // most likely another node created the missing leases at the same time, the next claim will succeed.
+            log.error("Unable to claim partitions for node: " + nodeId, e);
+            return Collections.emptySet();
+        }
+    }
+
+    private Set<Integer> balancePartitions(final Date now) {
+        PartitionLeaseService service = getPartitionLeaseService();
+        Date leaseExpiry = new Date(now.getTime() + leaseDuration);
+        service.renewPartitionLeases(nodeId, now, leaseExpiry);
+
+        List<PartitionLease> partitionLeases = getPartitionLeases(service);
+        Set<String> liveNodes = new HashSet<String>();
+        liveNodes.add(nodeId);
+        TreeSet<Integer> partitions = new TreeSet<Integer>();
+        List<Integer> requestedPartitions = new ArrayList<Integer>();
+        for (PartitionLease partitionLease : partitionLeases) {
+            if (partitionLease.isHeld(now)) {
+                liveNodes.add(partitionLease.getOwner());
+                if (nodeId.equals(partitionLease.getOwner())) {
+                    partitions.add(partitionLease.getPartitionNumber());
+                }
+            }
+            if (partitionLease.isRequested(now)) {
+                // a node without partitions only shows up through its requests.
+                liveNodes.add(partitionLease.getRequestedBy());
+                if (!nodeId.equals(partitionLease.getRequestedBy())) {
+                    requestedPartitions.add(partitionLease.getPartitionNumber());
+                }
+            }
+        }
+
+        int share = (partitionCount + liveNodes.size() - 1) / liveNodes.size();
+        // give the extra partitions up, the ones requested by other nodes first.
+        List<Integer> extraPartitions = new ArrayList<Integer>(requestedPartitions);
+        extraPartitions.retainAll(partitions);
+        Iterator<Integer> iterator = partitions.descendingIterator();
+        while (iterator.hasNext()) {
+            Integer partitionNumber = iterator.next();
+            if (!extraPartitions.contains(partitionNumber)) {
+                extraPartitions.add(partitionNumber);
+            }
+        }
+        for (Iterator<Integer> extraIterator = extraPartitions.iterator();
+             partitions.size() > share && extraIterator.hasNext(); ) {
+            Integer partitionNumber = extraIterator.next();
+            service.releasePartitionLease(partitionNumber, nodeId, now);
+            partitions.remove(partitionNumber);
+        }
+
+        for (PartitionLease partitionLease : partitionLeases) {
+            if (partitions.size() >= share) {
+                break;
+            }
+            if (!partitionLease.isHeld(now)
+                    && service.claimPartitionLease(partitionLease.getPartitionNumber(), nodeId, now, leaseExpiry) > 0) {
+                partitions.add(partitionLease.getPartitionNumber());
+            }
+        }
+        // no free partition left, ask the other nodes to give some of theirs up on their next claim.
+        int missing = share - partitions.size();
+        for (PartitionLease partitionLease : partitionLeases) {
+            if (missing <= 0) {
+                break;
+            }
+            if (partitionLease.isHeld(now) && !nodeId.equals(partitionLease.getOwner())
+                    && !requestedPartitions.contains(partitionLease.getPartitionNumber())
+                    && service.requestPartitionLease(partitionLease.getPartitionNumber(), nodeId, now, leaseExpiry) > 0) {
+                missing--;
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * @return the leases of the partitions in use, creating the missing ones.
+     */
+    private List<PartitionLease> getPartitionLeases(final PartitionLeaseService service) {
+        Set<Integer> existing = new HashSet<Integer>();
+        for (PartitionLease partitionLease : service.getPartitionLeases()) {
+            existing.add(partitionLease.getPartitionNumber());
+        }
+        for (int i = 0; i < partitionCount; i++) {
+            if (!existing.contains(i)) {
+                PartitionLease partitionLease = new PartitionLease();
+                partitionLease.setPartitionNumber(i);
+                service.savePartitionLease(partitionLease);
+            }
+        }
+        List<PartitionLease> partitionLeases = new ArrayList<PartitionLease>();
+        for (PartitionLease partitionLease : service.getPartitionLeases()) {
+            if (partitionLease.getPartitionNumber() < partitionCount) {
+                partitionLeases.add(partitionLease);
+            }
+        }
+        return partitionLeases;
+    }
+
+    /**
+     * Renew the lease of a partition, when this node still holds it.
+     *
+     * @return true when the lease has been renewed.
+     */
+    private boolean renewPartitionLease(final Integer partitionNumber) {
+        final Date now = new Date();
+        final Date leaseExpiry = new Date(now.getTime() + leaseDuration);
+        try {
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+            return transactionTemplate.execute(new TransactionCallback<Boolean>() {
+                @Override
+                public Boolean doInTransaction(final TransactionStatus status) {
+                    PartitionLeaseService service = getPartitionLeaseService();
+                    return service.renewPartitionLease(partitionNumber, nodeId, now, leaseExpiry) > 0;
+                }
+            });
+        } catch (RuntimeException e) {
+            // the ownership can't be confirmed, stop processing the partition to be safe.
+            log.error("Unable to renew the lease of partition: " + partitionNumber + " for node: " + nodeId, e);
+            return false;
+        }
+    }
+
+    private PartitionLeaseService getPartitionLeaseService() {
+        PartitionLeaseService service = partitionLeaseService;
+        if (service == null) {
+            service = Context.getService(PartitionLeaseService.class);
+            partitionLeaseService = service;
+        }
+        return service;
+    }
+
+    /**
+     * Admit the queue data of the partitions whose lease is renewed, the lost partitions are dropped for the rest of
+     * the run. Shared by the workers of the run.
+     */
+    private class LeaseGuard implements QueueDataBatchGuard {
+
+        private final Set<Integer> partitions;
+
+        private final QueueDataPartitioner partitioner = new QueueDataPartitioner(partitionCount);
+
+        private LeaseGuard(final Set<Integer> partitions) {
+            this.partitions = Collections.synchronizedSet(new HashSet<Integer>(partitions));
+        }
+
+        @Override
+        public List<QueueData> admit(final List<QueueData> batch) {
+            Set<Integer> renewed = new HashSet<Integer>();
+            List<QueueData> admitted = new ArrayList<QueueData>();
+            for (QueueData queueData : batch) {
+                Integer partitionNumber = partitioner.getPartition(queueData);
+                if (!renewed.contains(partitionNumber) && partitions.contains(partitionNumber)) {
+                    if (renewPartitionLease(partitionNumber)) {
+                        renewed.add(partitionNumber);
+                    } else {
+                        log.warn("Node " + nodeId + " lost the lease of partition " + partitionNumber
+                                + ", leaving its queue data to the new owner.");
+                        partitions.remove(partitionNumber);
+                    }
+                }
+                if (renewed.contains(partitionNumber)) {
+                    admitted.add(queueData);
+                }
+            }
+            return admitted;
+        }
+    }
+
+    private static String createNodeId() {
+        String hostName;
+        try {
+            hostName = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            hostName = "localhost";
+        }
+        return hostName + "/" + UUID.randomUUID();
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.processor;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.APIException;
+import org.openmrs.module.muzima.model.QueueData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Process queue data on several worker threads. The queue data is partitioned by patient, each partition is
+ * processed on a single worker in the original order, so the forms of a patient are never processed out of order
+ * while different patients are processed in parallel.
+ * <p/>
+ * Registrations are processed first, all of them, before any other queue data. Encounters pointing to a temporary
+ * uuid will then find the registration which maps it. Each partition is handed to the {@link QueueDataBatchProcessor}.
+ */
+public class PartitionedQueueDataProcessor {
+
+    private static final String REGISTRATION_DISCRIMINATOR_SUFFIX = "-registration";
+
+    private final Log log = LogFactory.getLog(PartitionedQueueDataProcessor.class);
+
+    private QueueDataBatchProcessor batchProcessor;
+
+    private int workers = Runtime.getRuntime().availableProcessors();
+
+    public void setBatchProcessor(final QueueDataBatchProcessor batchProcessor) {
+        this.batchProcessor = batchProcessor;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public void setWorkers(final int workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * Process the queue data on the worker threads. Archiving the processed queue data and recording the failed ones
+     * is left to the caller.
+     *
+     * @param queueDataList the queue data to process.
+     * @return the processed and failed queue data.
+     */
+    public QueueDataBatchResult process(final List<QueueData> queueDataList) {
+        List<QueueData> registrations = new ArrayList<QueueData>();
+        List<QueueData> others = new ArrayList<QueueData>();
+        for (QueueData queueData : queueDataList) {
+            if (StringUtils.endsWith(queueData.getDiscriminator(), REGISTRATION_DISCRIMINATOR_SUFFIX)) {
+                registrations.add(queueData);
+            } else {
+                others.add(queueData);
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        QueueDataBatchResult result = new QueueDataBatchResult();
+        ExecutorService executorService = Executors.newFixedThreadPool(workers);
+        try {
+            QueueDataPartitioner partitioner = new QueueDataPartitioner(workers);
+            WorkerContext workerContext = WorkerContext.fromSchedulerProperties();
+            processPartitions(executorService, partitioner.partition(registrations), workerContext, result);
+            processPartitions(executorService, partitioner.partition(others), workerContext, result);
+        } finally {
+            executorService.shutdown();
+        }
+        result.setElapsedTime(System.currentTimeMillis() - start);
+        log.info("Processed " + queueDataList.size() + " queue data in " + result.getElapsedTime() + " ms"
+                + " (workers: " + workers + ", " + String.format("%.2f", result.getThroughput()) + " per second).");
+        return result;
+    }
+
+    /**
+     * Process the partitions in parallel and wait until all of them are done.
+     */
+    private void processPartitions(final ExecutorService executorService, final List<List<QueueData>> partitions,
+                                   final WorkerContext workerContext, final QueueDataBatchResult result) {
+        List<Future<QueueDataBatchResult>> futures = new ArrayList<Future<QueueDataBatchResult>>();
+        for (final List<QueueData> partition : partitions) {
+            if (!partition.isEmpty()) {
+                futures.add(executorService.submit(new Callable<QueueDataBatchResult>() {
+                    @Override
+                    public QueueDataBatchResult call() throws Exception {
+                        workerContext.open();
+                        try {
+                            return batchProcessor.process(partition);
+                        } finally {
+                            workerContext.close();
+                        }
+                    }
+                }));
+            }
+        }
+        for (Future<QueueDataBatchResult> future : futures) {
+            try {
+                result.merge(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new APIException("Interrupted while waiting for the queue data to be processed!", e);
+            } catch (ExecutionException e) {
+                throw new APIException("Unable to process queue data partition!", e.getCause());
+            }
+        }
+    }
+}
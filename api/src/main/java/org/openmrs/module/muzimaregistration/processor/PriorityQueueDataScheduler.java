@@ -0,0 +1,273 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.processor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.APIException;
+import org.openmrs.module.muzima.model.QueueData;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Process queue data in priority lanes. The registration lane is processed first, by as many workers as its quota,
+ * so the encounters of the same run find the patients they point to instead of being deferred. The other lanes are
+ * processed next: the queue data is partitioned by patient, so the forms of a patient go to a single worker and are
+ * processed in the order they were queued, whatever their lane. The quota of each lane limits the number of workers
+ * processing a batch of the lane at the same time, a batch holding queue data of several lanes waits for each of them.
+ * <p/>
+ * The queue data released by the registrations is picked up once all workers are done, as a partition of its own.
+ * <p/>
+ * Every worker opens its own session, authenticated with the scheduler credentials.
+ * <p/>
+ * The depth and latency of each lane are kept in {@link QueueDataLaneMetrics}. The quota is an upper bound, when the
+ * batch processor has an {@link AdaptiveBatchController} the workers of all lanes share its concurrency.
+ */
+public class PriorityQueueDataScheduler {
+
+    private final Log log = LogFactory.getLog(PriorityQueueDataScheduler.class);
+
+    private final Map<QueueDataLane, Integer> quotas = new EnumMap<QueueDataLane, Integer>(QueueDataLane.class);
+
+    private final Map<QueueDataLane, QueueDataLaneMetrics> metrics =
+            new EnumMap<QueueDataLane, QueueDataLaneMetrics>(QueueDataLane.class);
+
+    private QueueDataBatchProcessor batchProcessor;
+
+    public PriorityQueueDataScheduler() {
+        for (QueueDataLane lane : QueueDataLane.values()) {
+            quotas.put(lane, lane.getDefaultWorkers());
+            QueueDataLaneMetrics laneMetrics = new QueueDataLaneMetrics();
+            laneMetrics.setWorkers(lane.getDefaultWorkers());
+            metrics.put(lane, laneMetrics);
+        }
+    }
+
+    public void setBatchProcessor(final QueueDataBatchProcessor batchProcessor) {
+        this.batchProcessor = batchProcessor;
+    }
+
+    /**
+     * @param quotas the number of workers of each lane, lanes missing from the map keep their default quota.
+     */
+    public void setQuotas(final Map<QueueDataLane, Integer> quotas) {
+        for (Map.Entry<QueueDataLane, Integer> entry : quotas.entrySet()) {
+            int workers = Math.max(1, entry.getValue());
+            this.quotas.put(entry.getKey(), workers);
+            metrics.get(entry.getKey()).setWorkers(workers);
+        }
+    }
+
+    /**
+     * @return the depth and latency of each lane.
+     */
+    public Map<QueueDataLane, QueueDataLaneMetrics> getMetrics() {
+        return Collections.unmodifiableMap(metrics);
+    }
+
+    /**
+     * Process the queue data in the priority lanes. Archiving the processed queue data and recording the failed ones
+     * is left to the caller.
+     *
+     * @param queueDataList the queue data to process.
+     * @return the processed, failed, deferred and postponed queue data.
+     */
+    public QueueDataBatchResult process(final List<QueueData> queueDataList) {
+        return process(queueDataList, null);
+    }
+
+    /**
+     * Process the queue data in the priority lanes, asking the guard before each batch which queue data may still
+     * be processed.
+     *
+     * @param queueDataList the queue data to process.
+     * @param batchGuard    the guard of the batches, can be null.
+     * @return the processed, failed, deferred and postponed queue data.
+     */
+    QueueDataBatchResult process(final List<QueueData> queueDataList, final QueueDataBatchGuard batchGuard) {
+        long start = System.currentTimeMillis();
+        AdaptiveBatchController batchController = batchProcessor.getBatchController();
+        if (batchController != null) {
+            // the workers have no access to the global properties of the caller's session.
+            batchController.loadLatencyTarget();
+        }
+        List<QueueData> registrations = new ArrayList<QueueData>();
+        List<QueueData> dependents = new ArrayList<QueueData>();
+        for (QueueData queueData : queueDataList) {
+            QueueDataLane lane = QueueDataLane.forDiscriminator(queueData.getDiscriminator());
+            metrics.get(lane).enqueued(1);
+            if (lane == QueueDataLane.REGISTRATION) {
+                registrations.add(queueData);
+            } else {
+                dependents.add(queueData);
+            }
+        }
+        int dependentWorkers = 0;
+        for (QueueDataLane lane : QueueDataLane.values()) {
+            if (lane != QueueDataLane.REGISTRATION) {
+                dependentWorkers += quotas.get(lane);
+            }
+        }
+
+        Map<QueueDataLane, Semaphore> lanePermits = new EnumMap<QueueDataLane, Semaphore>(QueueDataLane.class);
+        for (QueueDataLane lane : QueueDataLane.values()) {
+            lanePermits.put(lane, new Semaphore(quotas.get(lane), true));
+        }
+
+        QueueDataBatchResult result = new QueueDataBatchResult();
+        WorkerContext workerContext = WorkerContext.fromSchedulerProperties();
+        processPartitions(registrations, quotas.get(QueueDataLane.REGISTRATION), workerContext, lanePermits, start,
+                batchGuard, result);
+        processPartitions(dependents, dependentWorkers, workerContext, lanePermits, start, batchGuard, result);
+        // pick up the queue data released by the registrations once, after all workers are done.
+        List<QueueData> released = batchProcessor.drainReleased(result);
+        for (QueueData queueData : released) {
+            metrics.get(QueueDataLane.forDiscriminator(queueData.getDiscriminator())).enqueued(1);
+        }
+        processPartitions(released, 1, workerContext, lanePermits, start, batchGuard, result);
+
+        result.setElapsedTime(System.currentTimeMillis() - start);
+        log.info("Processed " + queueDataList.size() + " queue data in " + result.getElapsedTime() + " ms"
+                + " (" + String.format("%.2f", result.getThroughput()) + " per second).");
+        return result;
+    }
+
+    /**
+     * Partition the queue data by patient and process the partitions in parallel, waiting for all of them.
+     */
+    private void processPartitions(final List<QueueData> queueDataList, final int workers,
+                                   final WorkerContext workerContext, final Map<QueueDataLane, Semaphore> lanePermits,
+                                   final long submitted, final QueueDataBatchGuard batchGuard,
+                                   final QueueDataBatchResult result) {
+        if (queueDataList.isEmpty()) {
+            return;
+        }
+        ExecutorService executorService = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<QueueDataBatchResult>> futures = new ArrayList<Future<QueueDataBatchResult>>();
+            for (List<QueueData> partition : new QueueDataPartitioner(workers).partition(queueDataList)) {
+                if (!partition.isEmpty()) {
+                    futures.add(executorService.submit(
+                            new LaneWorker(partition, workerContext, lanePermits, submitted, batchGuard)));
+                }
+            }
+            for (Future<QueueDataBatchResult> future : futures) {
+                try {
+                    result.merge(future.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new APIException("Interrupted while waiting for the queue data to be processed!", e);
+                } catch (ExecutionException e) {
+                    throw new APIException("Unable to process queue data partition!", e.getCause());
+                }
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * Process a partition in batches, holding a permit of each lane in a batch while the batch runs, and recording
+     * the latency of each queue data in the metrics of its lane.
+     */
+    private class LaneWorker implements Callable<QueueDataBatchResult>, QueueDataBatchProcessor.BatchListener {
+
+        private final List<QueueData> partition;
+
+        private final WorkerContext workerContext;
+
+        private final Map<QueueDataLane, Semaphore> lanePermits;
+
+        private final long submitted;
+
+        private final QueueDataBatchGuard batchGuard;
+
+        private final Set<QueueDataLane> heldLanes = EnumSet.noneOf(QueueDataLane.class);
+
+        private LaneWorker(final List<QueueData> partition, final WorkerContext workerContext,
+                           final Map<QueueDataLane, Semaphore> lanePermits, final long submitted,
+                           final QueueDataBatchGuard batchGuard) {
+            this.partition = partition;
+            this.workerContext = workerContext;
+            this.lanePermits = lanePermits;
+            this.submitted = submitted;
+            this.batchGuard = batchGuard;
+        }
+
+        @Override
+        public QueueDataBatchResult call() throws Exception {
+            workerContext.open();
+            try {
+                return batchProcessor.process(partition, this);
+            } finally {
+                workerContext.close();
+            }
+        }
+
+        @Override
+        public List<QueueData> admit(final List<QueueData> batch) {
+            return batchGuard == null ? batch : batchGuard.admit(batch);
+        }
+
+        @Override
+        public void started(final List<QueueData> batch) {
+            Set<QueueDataLane> lanes = EnumSet.noneOf(QueueDataLane.class);
+            for (QueueData queueData : batch) {
+                lanes.add(QueueDataLane.forDiscriminator(queueData.getDiscriminator()));
+            }
+            // always in lane order, so two workers never wait for each other's permits.
+            for (QueueDataLane lane : lanes) {
+                try {
+                    lanePermits.get(lane).acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    finished(batch);
+                    throw new APIException("Interrupted while waiting for a worker of the lane: " + lane, e);
+                }
+                heldLanes.add(lane);
+            }
+        }
+
+        @Override
+        public void finished(final List<QueueData> batch) {
+            for (QueueDataLane lane : heldLanes) {
+                lanePermits.get(lane).release();
+            }
+            heldLanes.clear();
+        }
+
+        @Override
+        public void completed(final List<QueueData> queueDataList) {
+            long now = System.currentTimeMillis();
+            for (QueueData queueData : queueDataList) {
+                // the latency runs from the moment the queue data was queued, or submitted when that is unknown.
+                long queued = queueData.getDateCreated() == null ? submitted : queueData.getDateCreated().getTime();
+                QueueDataLane lane = QueueDataLane.forDiscriminator(queueData.getDiscriminator());
+                metrics.get(lane).completed(1, Math.max(0, now - queued));
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.processor;
+
+import org.openmrs.module.muzima.model.QueueData;
+
+import java.util.List;
+
+/**
+ * Decides, right before a batch is processed, which queue data of the batch may still be processed by this node.
+ * The rejected queue data is left in the queue.
+ */
+public interface QueueDataBatchGuard {
+
+    /**
+     * @param batch the queue data of the next batch.
+     * @return the queue data of the batch which may be processed.
+     */
+    List<QueueData> admit(List<QueueData> batch);
+}
@@ -0,0 +1,588 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.processor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.SessionImplementor;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzima.model.handler.QueueDataHandler;
+import org.openmrs.module.muzimaregistration.api.QueueDataFailureService;
+import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
+import org.openmrs.module.muzimaregistration.api.model.QueueDataFailure;
+import org.openmrs.module.muzimaregistration.handler.DeferredQueueDataException;
+import org.openmrs.module.muzimaregistration.handler.DemographicsUpdate;
+import org.openmrs.module.muzimaregistration.handler.DemographicsUpdateQueueDataHandler;
+import org.openmrs.module.muzimaregistration.handler.PermanentQueueDataException;
+import org.openmrs.module.muzimaregistration.processor.DemographicsUpdateCoalescer.MergedDemographicsUpdate;
+import org.openmrs.util.HandlerUtil;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Process queue data in batches instead of one transaction per queue data. Each batch runs in a single transaction
+ * and hibernate session. The session is flushed every few queue data, and the entities the batch brought into the
+ * session are evicted to keep it small. The entities which were already in the session are left alone.
+ * <p/>
+ * When any queue data in a batch fails, the whole batch is rolled back and its queue data is processed again one at
+ * a time, each in its own transaction. Only the failing queue data is then rolled back, the rest of the batch is
+ * committed. A batch size of 1 gives the same behavior as processing the queue one queue data at a time, which can
+ * be used to compare the throughput of both modes.
+ * <p/>
+ * Queue data waiting for a registration which has not been processed yet is parked in the
+ * {@link DeferredQueueDataRegistry} without failing the batch. Once the registration is saved, the parked queue data
+ * is released and processed again at the end of the current (or next) run. Parked queue data which is never released
+ * stays in the queue and is processed again by the next run.
+ * <p/>
+ * Failures are recorded through the {@link QueueDataFailureService}: queue data failing with a permanent error is
+ * quarantined and queue data failing with a transient error is postponed with an exponential backoff. Both are
+ * skipped by the following runs instead of being parsed again.
+ * <p/>
+ * When an {@link AdaptiveBatchController} is set, it decides the batch size and how many batches run at the same
+ * time, from the latency and the failures of the previous batches.
+ * <p/>
+ * When a {@link DemographicsUpdateCoalescer} is set, the demographics updates of the same patient are merged before
+ * the batches are built. The merged update is applied once with the latest queue data, the earlier queue data is
+ * reported as merged once the latest one is committed, and left in the queue otherwise.
+ */
+public class QueueDataBatchProcessor {
+
+    public static final int DEFAULT_BATCH_SIZE = 50;
+
+    public static final int DEFAULT_FLUSH_INTERVAL = 10;
+
+    private final Log log = LogFactory.getLog(QueueDataBatchProcessor.class);
+
+    private SessionFactory sessionFactory;
+
+    private PlatformTransactionManager transactionManager;
+
+    private volatile List<QueueDataHandler> handlers;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private int flushInterval = DEFAULT_FLUSH_INTERVAL;
+
+    private DeferredQueueDataRegistry deferredQueueDataRegistry;
+
+    private volatile RegistrationDataService registrationDataService;
+
+    private volatile QueueDataFailureService queueDataFailureService;
+
+    private AdaptiveBatchController batchController;
+
+    private DemographicsUpdateCoalescer demographicsUpdateCoalescer;
+
+    public void setSessionFactory(final SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    public void setTransactionManager(final PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    /**
+     * @param handlers the handlers to use, by default all registered queue data handlers.
+     */
+    public void setHandlers(final List<QueueDataHandler> handlers) {
+        this.handlers = handlers;
+    }
+
+    /**
+     * @return the batch size decided by the batch controller when there is one, the configured batch size otherwise.
+     */
+    public int getBatchSize() {
+        if (batchController != null) {
+            return batchController.getBatchSize();
+        }
+        return batchSize;
+    }
+
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getFlushInterval() {
+        return flushInterval;
+    }
+
+    public void setFlushInterval(final int flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public void setDeferredQueueDataRegistry(final DeferredQueueDataRegistry deferredQueueDataRegistry) {
+        this.deferredQueueDataRegistry = deferredQueueDataRegistry;
+    }
+
+    /**
+     * @param registrationDataService the service checking the registrations, by default the one from the context.
+     */
+    public void setRegistrationDataService(final RegistrationDataService registrationDataService) {
+        this.registrationDataService = registrationDataService;
+    }
+
+    /**
+     * @param queueDataFailureService the service recording the failures, by default the one from the context.
+     */
+    public void setQueueDataFailureService(final QueueDataFailureService queueDataFailureService) {
+        this.queueDataFailureService = queueDataFailureService;
+    }
+
+    public AdaptiveBatchController getBatchController() {
+        return batchController;
+    }
+
+    public void setBatchController(final AdaptiveBatchController batchController) {
+        this.batchController = batchController;
+    }
+
+    public void setDemographicsUpdateCoalescer(final DemographicsUpdateCoalescer demographicsUpdateCoalescer) {
+        this.demographicsUpdateCoalescer = demographicsUpdateCoalescer;
+    }
+
+    /**
+     * Process the queue data in batches. Archiving the processed queue data and recording the failed ones is left to
+     * the caller.
+     *
+     * @param queueDataList the queue data to process.
+     * @return the processed, failed, deferred, postponed and merged queue data.
+     */
+    public QueueDataBatchResult process(final List<QueueData> queueDataList) {
+        long start = System.currentTimeMillis();
+        QueueDataBatchResult result = process(queueDataList, null);
+        // registrations processed above might have released parked queue data, process it in the same run.
+        List<QueueData> released = drainReleased(result);
+        if (!released.isEmpty()) {
+            result.merge(process(released, null));
+        }
+        result.setElapsedTime(System.currentTimeMillis() - start);
+        log.info("Processed " + queueDataList.size() + " queue data in " + result.getElapsedTime() + " ms"
+                + " (batch size: " + getBatchSize() + ", " + String.format("%.2f", result.getThroughput())
+                + " per second).");
+        return result;
+    }
+
+    /**
+     * Process the queue data in batches, leaving the queue data released in the meantime to the caller through
+     * {@link #drainReleased(QueueDataBatchResult)}. Used by the workers of the {@link PriorityQueueDataScheduler},
+     * which process the released queue data once all workers are done.
+     *
+     * @param queueDataList the queue data to process.
+     * @param batchListener notified of every queue data leaving the processor, can be null.
+     * @return the processed, failed, deferred, postponed and merged queue data.
+     */
+    QueueDataBatchResult process(final List<QueueData> queueDataList, final BatchListener batchListener) {
+        QueueDataBatchResult result = new QueueDataBatchResult();
+        long start = System.currentTimeMillis();
+        Map<String, QueueDataFailure> queueDataFailures = getQueueDataFailures(queueDataList);
+        List<QueueData> ready = new ArrayList<QueueData>();
+        Date now = new Date();
+        for (QueueData queueData : queueDataList) {
+            QueueDataFailure queueDataFailure = queueDataFailures.get(queueData.getUuid());
+            if (queueDataFailure != null && queueDataFailure.isPostponed(now)) {
+                result.addPostponed(queueData);
+            } else {
+                ready.add(queueData);
+            }
+        }
+        notifyCompleted(batchListener, result.getPostponed());
+        Map<QueueData, DemographicsUpdate> mergedUpdates = new HashMap<QueueData, DemographicsUpdate>();
+        Map<QueueData, QueueData> superseded = new LinkedHashMap<QueueData, QueueData>();
+        if (demographicsUpdateCoalescer != null) {
+            for (MergedDemographicsUpdate mergedUpdate : demographicsUpdateCoalescer.coalesce(ready)) {
+                mergedUpdates.put(mergedUpdate.getLatest(), mergedUpdate.getUpdate());
+                for (QueueData queueData : mergedUpdate.getSuperseded()) {
+                    superseded.put(queueData, mergedUpdate.getLatest());
+                }
+            }
+            ready.removeAll(superseded.keySet());
+        }
+        processBatches(ready, mergedUpdates, result, batchListener);
+        addMergedResults(superseded, result);
+        notifyCompleted(batchListener, new ArrayList<QueueData>(superseded.keySet()));
+        updateQueueDataFailures(queueDataFailures, result);
+        result.setElapsedTime(System.currentTimeMillis() - start);
+        return result;
+    }
+
+    private void processBatches(final List<QueueData> queueDataList,
+                                final Map<QueueData, DemographicsUpdate> mergedUpdates,
+                                final QueueDataBatchResult result, final BatchListener batchListener) {
+        int i = 0;
+        while (i < queueDataList.size()) {
+            List<QueueData> batch = queueDataList.subList(i, Math.min(i + getBatchSize(), queueDataList.size()));
+            i += batch.size();
+            if (batchListener != null) {
+                batch = admit(batch, result, batchListener);
+                if (batch.isEmpty()) {
+                    continue;
+                }
+                batchListener.started(batch);
+            }
+            if (batchController != null) {
+                batchController.acquire(getLane(batch));
+            }
+            long batchStart = System.currentTimeMillis();
+            long latency = 0;
+            int failures = 0;
+            try {
+                addResults(batch, processInTransaction(batch, mergedUpdates), result);
+                latency = System.currentTimeMillis() - batchStart;
+            } catch (RuntimeException e) {
+                latency = System.currentTimeMillis() - batchStart;
+                log.info("Batch of " + batch.size() + " queue data failed, processing them one at a time.", e);
+                for (QueueData queueData : batch) {
+                    List<QueueData> single = Collections.singletonList(queueData);
+                    try {
+                        addResults(single, processInTransaction(single, mergedUpdates), result);
+                    } catch (RuntimeException ex) {
+                        log.error("Unable to process queue data: " + queueData.getUuid(), ex);
+                        result.addFailed(queueData, getCause(ex));
+                        if (deferredQueueDataRegistry != null) {
+                            deferredQueueDataRegistry.forget(queueData);
+                        }
+                        failures++;
+                    }
+                }
+            } finally {
+                if (batchController != null) {
+                    batchController.completed(batch.size(), latency, failures);
+                    batchController.release();
+                }
+                if (batchListener != null) {
+                    batchListener.finished(batch);
+                }
+                notifyCompleted(batchListener, batch);
+            }
+        }
+    }
+
+    /**
+     * Record the committed batch, parking the queue data which has been deferred. The registration might have been
+     * saved since the queue data was deferred, by another node or after the queue data in the same batch, so the
+     * mapping is checked again once the queue data is parked.
+     */
+    private void addResults(final List<QueueData> batch, final Map<QueueData, String> deferred,
+                            final QueueDataBatchResult result) {
+        List<QueueData> processed = new ArrayList<QueueData>();
+        for (QueueData queueData : batch) {
+            String temporaryUuid = deferred.get(queueData);
+            if (temporaryUuid == null) {
+                processed.add(queueData);
+                if (deferredQueueDataRegistry != null) {
+                    deferredQueueDataRegistry.forget(queueData);
+                }
+            } else {
+                log.info("Deferring queue data: " + queueData.getUuid() + " until registration: " + temporaryUuid
+                        + " is processed.");
+                if (deferredQueueDataRegistry != null) {
+                    deferredQueueDataRegistry.defer(temporaryUuid, queueData);
+                    if (isRegistrationSaved(temporaryUuid)) {
+                        deferredQueueDataRegistry.release(temporaryUuid);
+                    }
+                }
+                result.addDeferred(queueData, temporaryUuid);
+            }
+        }
+        result.addProcessed(processed);
+    }
+
+    private boolean isRegistrationSaved(final String temporaryUuid) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        return transactionTemplate.execute(new TransactionCallback<Boolean>() {
+            @Override
+            public Boolean doInTransaction(final TransactionStatus status) {
+                return getRegistrationDataService().getRegistrationDataByTemporaryUuid(temporaryUuid) != null;
+            }
+        });
+    }
+
+    /**
+     * Report the superseded demographics updates as merged when the queue data carrying their merged update has been
+     * committed. When it failed they are left in the queue and merged again by the next run.
+     */
+    private void addMergedResults(final Map<QueueData, QueueData> superseded, final QueueDataBatchResult result) {
+        if (superseded.isEmpty()) {
+            return;
+        }
+        Set<QueueData> processed = new HashSet<QueueData>(result.getProcessed());
+        int count = 0;
+        for (Map.Entry<QueueData, QueueData> entry : superseded.entrySet()) {
+            if (processed.contains(entry.getValue())) {
+                result.addMerged(entry.getKey(), entry.getValue());
+                count++;
+            }
+        }
+        demographicsUpdateCoalescer.merged(count);
+    }
+
+    /**
+     * @return the queue data of the batch admitted by the listener, the rest is postponed.
+     */
+    private List<QueueData> admit(final List<QueueData> batch, final QueueDataBatchResult result,
+                                  final BatchListener batchListener) {
+        List<QueueData> admitted = batchListener.admit(batch);
+        if (admitted.size() < batch.size()) {
+            List<QueueData> rejected = new ArrayList<QueueData>(batch);
+            rejected.removeAll(admitted);
+            for (QueueData queueData : rejected) {
+                result.addPostponed(queueData);
+            }
+            notifyCompleted(batchListener, rejected);
+        }
+        return admitted;
+    }
+
+    /**
+     * @return the highest priority lane of the queue data in the batch.
+     */
+    private QueueDataLane getLane(final List<QueueData> batch) {
+        QueueDataLane lane = null;
+        for (QueueData queueData : batch) {
+            QueueDataLane queueDataLane = QueueDataLane.forDiscriminator(queueData.getDiscriminator());
+            if (lane == null || queueDataLane.compareTo(lane) < 0) {
+                lane = queueDataLane;
+            }
+        }
+        return lane;
+    }
+
+    private void notifyCompleted(final BatchListener batchListener, final List<QueueData> queueDataList) {
+        if (batchListener != null && !queueDataList.isEmpty()) {
+            batchListener.completed(queueDataList);
+        }
+    }
+
+    /**
+     * Take the released queue data out of the registry, skipping the queue data already processed in this run.
+     *
+     * @param result the result of the run.
+     * @return the released queue data to process.
+     */
+    List<QueueData> drainReleased(final QueueDataBatchResult result) {
+        List<QueueData> released = new ArrayList<QueueData>();
+        if (deferredQueueDataRegistry != null) {
+            Set<String> completed = new HashSet<String>();
+            for (QueueData queueData : result.getProcessed()) {
+                completed.add(queueData.getUuid());
+            }
+            for (QueueData queueData : result.getFailed().keySet()) {
+                completed.add(queueData.getUuid());
+            }
+            for (QueueData queueData : deferredQueueDataRegistry.drainReleased()) {
+                if (!completed.contains(queueData.getUuid())) {
+                    released.add(queueData);
+                }
+            }
+        }
+        return released;
+    }
+
+    private Map<String, QueueDataFailure> getQueueDataFailures(final List<QueueData> queueDataList) {
+        final Set<String> queueDataUuids = new HashSet<String>();
+        for (QueueData queueData : queueDataList) {
+            queueDataUuids.add(queueData.getUuid());
+        }
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        return transactionTemplate.execute(new TransactionCallback<Map<String, QueueDataFailure>>() {
+            @Override
+            public Map<String, QueueDataFailure> doInTransaction(final TransactionStatus status) {
+                return getQueueDataFailureService().getQueueDataFailures(queueDataUuids);
+            }
+        });
+    }
+
+    /**
+     * Record the failures of this run and forget the failure history of the queue data which went through.
+     */
+    private void updateQueueDataFailures(final Map<String, QueueDataFailure> queueDataFailures,
+                                         final QueueDataBatchResult result) {
+        try {
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+            transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                    QueueDataFailureService service = getQueueDataFailureService();
+                    for (Map.Entry<QueueData, Exception> entry : result.getFailed().entrySet()) {
+                        Exception exception = entry.getValue();
+                        service.saveQueueDataFailure(entry.getKey(),
+                                PermanentQueueDataException.getPermanentReasonCode(exception), exception.getMessage());
+                    }
+                    List<QueueData> completed = new ArrayList<QueueData>(result.getProcessed());
+                    completed.addAll(result.getMerged().keySet());
+                    for (QueueData queueData : completed) {
+                        QueueDataFailure queueDataFailure = queueDataFailures.get(queueData.getUuid());
+                        if (queueDataFailure != null) {
+                            service.deleteQueueDataFailure(queueDataFailure);
+                        }
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            log.error("Unable to record the queue data failures!", e);
+        }
+    }
+
+    private RegistrationDataService getRegistrationDataService() {
+        RegistrationDataService service = registrationDataService;
+        if (service == null) {
+            service = Context.getService(RegistrationDataService.class);
+            registrationDataService = service;
+        }
+        return service;
+    }
+
+    private QueueDataFailureService getQueueDataFailureService() {
+        QueueDataFailureService service = queueDataFailureService;
+        if (service == null) {
+            service = Context.getService(QueueDataFailureService.class);
+            queueDataFailureService = service;
+        }
+        return service;
+    }
+
+    /**
+     * @return the queue data deferred in the batch, mapped to the temporary uuid it is waiting for.
+     */
+    private Map<QueueData, String> processInTransaction(final List<QueueData> batch,
+                                                        final Map<QueueData, DemographicsUpdate> mergedUpdates) {
+        final Map<QueueData, String> deferred = new LinkedHashMap<QueueData, String>();
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                Session session = sessionFactory.getCurrentSession();
+                Set<Object> entities = getEntities(session);
+                int counter = 0;
+                for (QueueData queueData : batch) {
+                    QueueDataHandler handler = getHandler(queueData);
+                    DemographicsUpdate mergedUpdate = mergedUpdates.get(queueData);
+                    try {
+                        if (mergedUpdate != null && handler instanceof DemographicsUpdateQueueDataHandler) {
+                            ((DemographicsUpdateQueueDataHandler) handler).process(queueData, mergedUpdate);
+                        } else {
+                            handler.process(queueData);
+                        }
+                    } catch (DeferredQueueDataException e) {
+                        // nothing has been saved for this queue data yet, the rest of the batch can go on.
+                        deferred.put(queueData, e.getTemporaryUuid());
+                    } catch (Exception e) {
+                        throw new QueueDataBatchException(e);
+                    }
+                    if (++counter % flushInterval == 0) {
+                        session.flush();
+                        evictEntities(session, entities);
+                    }
+                }
+            }
+        });
+        return deferred;
+    }
+
+    /**
+     * @return the entities in the session, compared by identity.
+     */
+    private Set<Object> getEntities(final Session session) {
+        Set<Object> entities = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        if (session instanceof SessionImplementor) {
+            Map<?, ?> entityEntries = ((SessionImplementor) session).getPersistenceContext().getEntityEntries();
+            for (Map.Entry<?, ?> entityEntry : entityEntries.entrySet()) {
+                entities.add(entityEntry.getKey());
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Evict the entities which entered the session after the snapshot was taken. The session must be flushed.
+     */
+    private void evictEntities(final Session session, final Set<Object> snapshot) {
+        for (Object entity : getEntities(session)) {
+            if (!snapshot.contains(entity)) {
+                session.evict(entity);
+            }
+        }
+    }
+
+    private QueueDataHandler getHandler(final QueueData queueData) {
+        List<QueueDataHandler> queueDataHandlers = handlers;
+        if (queueDataHandlers == null) {
+            // the processor is shared between the worker threads, looking the handlers up twice is harmless.
+            queueDataHandlers = HandlerUtil.getHandlersForType(QueueDataHandler.class, QueueData.class);
+            handlers = queueDataHandlers;
+        }
+        for (QueueDataHandler handler : queueDataHandlers) {
+            if (handler.accept(queueData)) {
+                return handler;
+            }
+        }
+        throw new APIException("Unable to find handler for queue data with discriminator: " + queueData.getDiscriminator());
+    }
+
+    private Exception getCause(final RuntimeException exception) {
+        if (exception instanceof QueueDataBatchException) {
+            return (Exception) exception.getCause();
+        }
+        return exception;
+    }
+
+    /**
+     * Asked which queue data of each batch may be processed, told when an admitted batch starts and finishes, and
+     * notified of the queue data leaving the processor: committed, failed, deferred, postponed or merged.
+     */
+    interface BatchListener extends QueueDataBatchGuard {
+
+        /**
+         * Called right before an admitted batch is processed, may block until the batch is allowed to run.
+         */
+        void started(List<QueueData> batch);
+
+        /**
+         * Called once a started batch is done, whatever its outcome.
+         */
+        void finished(List<QueueData> batch);
+
+        void completed(List<QueueData> queueDataList);
+    }
+
+    /**
+     * Carries checked exceptions thrown by the handlers out of the transaction callback, so the transaction is
+     * rolled back.
+     */
+    private static class QueueDataBatchException extends RuntimeException {
+
+        private QueueDataBatchException(final Exception cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.processor;
+
+import org.openmrs.module.muzima.model.QueueData;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of processing a list of queue data with the {@link QueueDataBatchProcessor}.
+ */
+public class QueueDataBatchResult {
+
+    private final List<QueueData> processed = new ArrayList<QueueData>();
+
+    private final Map<QueueData, Exception> failed = new LinkedHashMap<QueueData, Exception>();
+
+    private final Map<QueueData, String> deferred = new LinkedHashMap<QueueData, String>();
+
+    private final List<QueueData> postponed = new ArrayList<QueueData>();
+
+    private final Map<QueueData, QueueData> merged = new LinkedHashMap<QueueData, QueueData>();
+
+    private long elapsedTime;
+
+    /**
+     * @return the queue data which has been processed and committed.
+     */
+    public List<QueueData> getProcessed() {
+        return processed;
+    }
+
+    /**
+     * @return the queue data which failed, mapped to the cause of the failure.
+     */
+    public Map<QueueData, Exception> getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return the queue data waiting for a registration which has not been processed yet, mapped to the temporary
+     * uuid of that registration. The deferred queue data should be left in the queue.
+     */
+    public Map<QueueData, String> getDeferred() {
+        return deferred;
+    }
+
+    /**
+     * @return the queue data which has not been processed because it is quarantined, waiting for its next attempt or
+     * in a partition whose lease has been lost during the run.
+     */
+    public List<QueueData> getPostponed() {
+        return postponed;
+    }
+
+    /**
+     * @return the demographics updates merged into a later update of the same patient, mapped to the queue data
+     * carrying the merged update. The merged queue data should be archived with the processed queue data.
+     */
+    public Map<QueueData, QueueData> getMerged() {
+        return merged;
+    }
+
+    /**
+     * @return the number of milliseconds spent processing the queue data.
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * @return the number of queue data processed (successfully or not) per second.
+     */
+    public double getThroughput() {
+        int total = processed.size() + failed.size() + merged.size();
+        if (elapsedTime == 0) {
+            return total;
+        }
+        return total * 1000.0 / elapsedTime;
+    }
+
+    void addProcessed(final List<QueueData> queueDataList) {
+        processed.addAll(queueDataList);
+        deferred.keySet().removeAll(queueDataList);
+    }
+
+    void addFailed(final QueueData queueData, final Exception exception) {
+        failed.put(queueData, exception);
+        deferred.remove(queueData);
+    }
+
+    void addDeferred(final QueueData queueData, final String temporaryUuid) {
+        deferred.put(queueData, temporaryUuid);
+    }
+
+    void addPostponed(final QueueData queueData) {
+        postponed.add(queueData);
+    }
+
+    void addMerged(final QueueData queueData, final QueueData latest) {
+        merged.put(queueData, latest);
+    }
+
+    void merge(final QueueDataBatchResult other) {
+        processed.addAll(other.getProcessed());
+        failed.putAll(other.getFailed());
+        deferred.putAll(other.getDeferred());
+        postponed.addAll(other.getPostponed());
+        merged.putAll(other.getMerged());
+        // queue data deferred on one worker might have been released and processed on another one.
+        deferred.keySet().removeAll(processed);
+        deferred.keySet().removeAll(failed.keySet());
+    }
+
+    void setElapsedTime(final long elapsedTime) {
+        this.elapsedTime = elapsedTime;
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.processor;
+
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.module.muzimaregistration.utils.QueueDataUtils;
+
+/**
+ * Priority lanes of the queue data handled by this module, in priority order. The registration lane is processed
+ * first by its own workers, so a flood of encounters doesn't delay the registrations the encounters are waiting for.
+ */
+public enum QueueDataLane {
+
+    REGISTRATION(2),
+
+    DEMOGRAPHICS_UPDATE(1),
+
+    ENCOUNTER(2),
+
+    OBS(1);
+
+    private final int defaultWorkers;
+
+    private QueueDataLane(final int defaultWorkers) {
+        this.defaultWorkers = defaultWorkers;
+    }
+
+    /**
+     * @return the number of workers of the lane when no quota is configured.
+     */
+    public int getDefaultWorkers() {
+        return defaultWorkers;
+    }
+
+    /**
+     * Get the lane of a queue data discriminator. Unknown discriminators go to the encounter lane.
+     *
+     * @param discriminator the discriminator of the queue data.
+     * @return the lane of the queue data.
+     */
+    public static QueueDataLane forDiscriminator(final String discriminator) {
+        if (QueueDataUtils.isRegistration(discriminator)) {
+            return REGISTRATION;
+        } else if (StringUtils.endsWith(discriminator, "-demographics-update")) {
+            return DEMOGRAPHICS_UPDATE;
+        } else if (StringUtils.equals(discriminator, "obs")) {
+            return OBS;
+        }
+        return ENCOUNTER;
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.processor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Depth and latency of a priority lane. The latency of a queue data is the time between the moment it was queued
+ * and the end of its own batch, so it includes the time spent waiting in the queue and in the lane.
+ */
+public class QueueDataLaneMetrics {
+
+    private final AtomicInteger workers = new AtomicInteger();
+
+    private final AtomicInteger depth = new AtomicInteger();
+
+    private final AtomicLong processed = new AtomicLong();
+
+    private final AtomicLong totalLatency = new AtomicLong();
+
+    private final AtomicLong lastLatency = new AtomicLong();
+
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    /**
+     * @return the number of workers of the lane.
+     */
+    public int getWorkers() {
+        return workers.get();
+    }
+
+    /**
+     * @return the number of queue data waiting or being processed in the lane.
+     */
+    public int getDepth() {
+        return depth.get();
+    }
+
+    /**
+     * @return the number of queue data which went through the lane.
+     */
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    /**
+     * @return the average latency in milliseconds.
+     */
+    public long getAverageLatency() {
+        long count = processed.get();
+        return count == 0 ? 0 : totalLatency.get() / count;
+    }
+
+    /**
+     * @return the latency in milliseconds of the last queue data which went through the lane.
+     */
+    public long getLastLatency() {
+        return lastLatency.get();
+    }
+
+    /**
+     * @return the highest latency in milliseconds.
+     */
+    public long getMaxLatency() {
+        return maxLatency.get();
+    }
+
+    void setWorkers(final int workers) {
+        this.workers.set(workers);
+    }
+
+    void enqueued(final int count) {
+        depth.addAndGet(count);
+    }
+
+    void completed(final int count, final long latency) {
+        depth.addAndGet(-count);
+        processed.addAndGet(count);
+        totalLatency.addAndGet(latency * count);
+        lastLatency.set(latency);
+        long max = maxLatency.get();
+        while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+            max = maxLatency.get();
+        }
+    }
+}
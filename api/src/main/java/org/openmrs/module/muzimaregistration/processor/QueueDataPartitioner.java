@@ -0,0 +1,72 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.processor;
+
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzimaregistration.utils.QueueDataUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Split queue data into partitions by the patient they belong to. All queue data of a patient ends up in the same
+ * partition, in the original order, so partitions can be processed in parallel without reordering the forms of a
+ * single patient.
+ */
+public class QueueDataPartitioner {
+
+    private final int partitionCount;
+
+    public QueueDataPartitioner(final int partitionCount) {
+        this.partitionCount = partitionCount;
+    }
+
+    /**
+     * Get the key of the patient the queue data belongs to: the temporary or the real uuid of the patient. Queue data
+     * without patient uuid is keyed by its own uuid.
+     *
+     * @param queueData the queue data.
+     * @return the patient key of the queue data.
+     */
+    public String getPatientKey(final QueueData queueData) {
+        return QueueDataUtils.getPatientKey(queueData);
+    }
+
+    /**
+     * Get the partition of a queue data, the partition is a hash range of the patient key.
+     *
+     * @param queueData the queue data.
+     * @return the partition number of the queue data, between 0 and the partition count (exclusive).
+     */
+    public int getPartition(final QueueData queueData) {
+        return QueueDataUtils.getPatientHash(queueData) % partitionCount;
+    }
+
+    /**
+     * Split the queue data into partitions.
+     *
+     * @param queueDataList the queue data.
+     * @return the partitions, some of them might be empty.
+     */
+    public List<List<QueueData>> partition(final List<QueueData> queueDataList) {
+        List<List<QueueData>> partitions = new ArrayList<List<QueueData>>();
+        for (int i = 0; i < partitionCount; i++) {
+            partitions.add(new ArrayList<QueueData>());
+        }
+        for (QueueData queueData : queueDataList) {
+            partitions.get(getPartition(queueData)).add(queueData);
+        }
+        return partitions;
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.processor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.api.service.DataService;
+import org.openmrs.module.muzima.model.ArchiveData;
+import org.openmrs.module.muzima.model.ErrorData;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzimaregistration.api.PartitionLeaseService;
+import org.openmrs.module.muzimaregistration.api.QueueDataFailureService;
+import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
+import org.openmrs.module.muzimaregistration.api.model.QueueDataFailure;
+import org.openmrs.module.muzimaregistration.api.model.QueueDataPartition;
+import org.openmrs.scheduler.tasks.AbstractTask;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Scheduled task processing the muzima queue with the {@link PartitionLeaseCoordinator}, so the queue data is
+ * processed in batches on the partitions held by this node. It replaces the queue data processing task of the muzima
+ * module, which must be stopped when this task is started.
+ * <p/>
+ * The queue is never loaded as a whole: the partitions are claimed first, then the queue data of the held partitions
+ * is read page by page through its recorded partition, and each page is processed before the next one is read.
+ * <p/>
+ * The processed and merged queue data is archived. The quarantined queue data is moved to the errors with the reason
+ * of its last failure, the rest of the failed, deferred and postponed queue data is left in the queue for the next
+ * run.
+ */
+public class QueueDataProcessorTask extends AbstractTask {
+
+    private static final int PAGE_SIZE = 500;
+
+    private final Log log = LogFactory.getLog(QueueDataProcessorTask.class);
+
+    @Override
+    public void execute() {
+        if (isExecuting) {
+            log.info("The previous run is still processing the queue data, skipping this run.");
+            return;
+        }
+        startExecuting();
+        try {
+            List<PartitionLeaseCoordinator> coordinators =
+                    Context.getRegisteredComponents(PartitionLeaseCoordinator.class);
+            if (coordinators.isEmpty()) {
+                log.error("Unable to find the partition lease coordinator, the queue data is not processed.");
+                return;
+            }
+            PartitionLeaseCoordinator coordinator = coordinators.get(0);
+            recordUnpartitionedQueueData();
+            Set<Integer> partitions = coordinator.claimPartitions();
+            if (partitions.isEmpty()) {
+                log.info("Node " + coordinator.getNodeId() + " holds no partition, the queue data is not processed.");
+                return;
+            }
+            DataService dataService = Context.getService(DataService.class);
+            PartitionLeaseService partitionLeaseService = Context.getService(PartitionLeaseService.class);
+            Integer lastId = 0;
+            List<QueueDataPartition> queueDataPartitions;
+            do {
+                queueDataPartitions = partitionLeaseService.getQueueDataPartitions(partitions,
+                        coordinator.getPartitionCount(), lastId, PAGE_SIZE);
+                if (queueDataPartitions.isEmpty()) {
+                    break;
+                }
+                lastId = queueDataPartitions.get(queueDataPartitions.size() - 1).getId();
+                List<QueueData> queueDataList = getQueueData(partitionLeaseService, queueDataPartitions);
+                QueueDataBatchResult result = coordinator.process(queueDataList, partitions);
+                archiveQueueData(dataService, result);
+                moveQuarantinedQueueData(dataService, result);
+            } while (queueDataPartitions.size() == PAGE_SIZE);
+        } catch (RuntimeException e) {
+            log.error("Unable to process the queue data!", e);
+        } finally {
+            stopExecuting();
+        }
+    }
+
+    /**
+     * Record the queue data which was queued before the module was started, or whose recording failed when it was
+     * saved into the queue.
+     */
+    private void recordUnpartitionedQueueData() {
+        PartitionLeaseService partitionLeaseService = Context.getService(PartitionLeaseService.class);
+        List<QueueData> queueDataList;
+        do {
+            queueDataList = partitionLeaseService.getUnpartitionedQueueData(PAGE_SIZE);
+            Context.getService(RegistrationDataService.class).saveQueuedRegistrations(queueDataList);
+            partitionLeaseService.saveQueueDataPartitions(queueDataList);
+        } while (queueDataList.size() == PAGE_SIZE);
+    }
+
+    /**
+     * Load the queue data of a page of queue data partitions. The partitions of queue data which left the queue
+     * outside of this task are deleted.
+     */
+    private List<QueueData> getQueueData(final PartitionLeaseService partitionLeaseService,
+                                         final List<QueueDataPartition> queueDataPartitions) {
+        Set<String> queueDataUuids = new HashSet<String>();
+        for (QueueDataPartition queueDataPartition : queueDataPartitions) {
+            queueDataUuids.add(queueDataPartition.getQueueDataUuid());
+        }
+        List<QueueData> queueDataList = partitionLeaseService.getQueueData(queueDataUuids);
+        for (QueueData queueData : queueDataList) {
+            queueDataUuids.remove(queueData.getUuid());
+        }
+        partitionLeaseService.deleteQueueDataPartitions(queueDataUuids);
+        return queueDataList;
+    }
+
+    private void archiveQueueData(final DataService dataService, final QueueDataBatchResult result) {
+        List<QueueData> completed = new ArrayList<QueueData>(result.getProcessed());
+        completed.addAll(result.getMerged().keySet());
+        List<String> completedUuids = new ArrayList<String>();
+        for (QueueData queueData : completed) {
+            dataService.saveArchiveData(new ArchiveData(queueData));
+            dataService.purgeQueueData(queueData);
+            completedUuids.add(queueData.getUuid());
+        }
+        Context.getService(RegistrationDataService.class).deleteQueuedRegistrations(completedUuids);
+        Context.getService(PartitionLeaseService.class).deleteQueueDataPartitions(completedUuids);
+    }
+
+    private void moveQuarantinedQueueData(final DataService dataService, final QueueDataBatchResult result) {
+        if (result.getFailed().isEmpty()) {
+            return;
+        }
+        Set<String> queueDataUuids = new HashSet<String>();
+        for (QueueData queueData : result.getFailed().keySet()) {
+            queueDataUuids.add(queueData.getUuid());
+        }
+        Map<String, QueueDataFailure> queueDataFailures =
+                Context.getService(QueueDataFailureService.class).getQueueDataFailures(queueDataUuids);
+        List<String> quarantinedUuids = new ArrayList<String>();
+        for (Map.Entry<QueueData, Exception> entry : result.getFailed().entrySet()) {
+            QueueDataFailure queueDataFailure = queueDataFailures.get(entry.getKey().getUuid());
+            if (queueDataFailure != null && Boolean.TRUE.equals(queueDataFailure.getQuarantined())) {
+                ErrorData errorData = new ErrorData(entry.getKey());
+                errorData.setMessage(queueDataFailure.getReasonCode() + ": " + queueDataFailure.getMessage());
+                dataService.saveErrorData(errorData);
+                dataService.purgeQueueData(entry.getKey());
+                quarantinedUuids.add(entry.getKey().getUuid());
+            }
+        }
+        Context.getService(PartitionLeaseService.class).deleteQueueDataPartitions(quarantinedUuids);
+    }
+}
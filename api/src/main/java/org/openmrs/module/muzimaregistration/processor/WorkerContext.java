@@ -0,0 +1,66 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.processor;
+
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+
+/**
+ * Opens the session of a worker thread with a user context of its own, authenticated with the credentials the
+ * scheduler runs its tasks with. A user context isn't thread safe, the workers can't share the one of the thread
+ * which started the processing.
+ */
+class WorkerContext {
+
+    private static final String SCHEDULER_USERNAME_PROPERTY = "scheduler.username";
+
+    private static final String SCHEDULER_PASSWORD_PROPERTY = "scheduler.password";
+
+    private final String username;
+
+    private final String password;
+
+    private WorkerContext(final String username, final String password) {
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Read the scheduler credentials, on the thread which started the processing.
+     *
+     * @return the context to open on each worker thread.
+     */
+    static WorkerContext fromSchedulerProperties() {
+        AdministrationService administrationService = Context.getAdministrationService();
+        return new WorkerContext(administrationService.getGlobalProperty(SCHEDULER_USERNAME_PROPERTY),
+                administrationService.getGlobalProperty(SCHEDULER_PASSWORD_PROPERTY));
+    }
+
+    /**
+     * Open a session on the current worker thread and authenticate its own user context.
+     */
+    void open() {
+        Context.openSession();
+        Context.setUserContext(new UserContext());
+        Context.authenticate(username, password);
+    }
+
+    /**
+     * Close the session of the current worker thread, together with its user context.
+     */
+    void close() {
+        Context.closeSession();
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.utils;
+
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Helper class for building a canonical representation of an encounter. Two encounters with the same patient, form,
+ * encounter datetime, location and observations get the same representation, whatever the order or the formatting of
+ * the form data they were created from.
+ */
+public class EncounterNormalizer {
+
+    /**
+     * Build the canonical representation of an encounter which has not been saved yet.
+     *
+     * @param encounter the encounter.
+     * @return the canonical representation of the encounter.
+     */
+    public static String normalize(final Encounter encounter) {
+        List<String> normalizedObs = new ArrayList<String>();
+        Collection<Obs> observations = encounter.getObsAtTopLevel(false);
+        if (observations != null) {
+            for (Obs obs : observations) {
+                normalizedObs.add(normalize(obs));
+            }
+        }
+        return normalize(encounter, normalizedObs);
+    }
+
+    /**
+     * Build the canonical representation of an encounter from the canonical representations of its top level
+     * observations, so the observations don't need to be kept in memory.
+     *
+     * @param encounter     the encounter, its observations are ignored.
+     * @param normalizedObs the canonical representations of the top level observations of the encounter.
+     * @return the canonical representation of the encounter.
+     */
+    public static String normalize(final Encounter encounter, final List<String> normalizedObs) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(encounter.getPatient() == null ? null : encounter.getPatient().getUuid()).append('|');
+        if (encounter.getForm() != null) {
+            builder.append("form:").append(encounter.getForm().getUuid()).append('|');
+        } else if (encounter.getEncounterType() != null) {
+            builder.append("type:").append(encounter.getEncounterType().getUuid()).append('|');
+        }
+        builder.append(encounter.getEncounterDatetime() == null ? null : encounter.getEncounterDatetime().getTime());
+        builder.append('|');
+        builder.append(encounter.getLocation() == null ? null : encounter.getLocation().getId()).append('|');
+        builder.append(sort(new ArrayList<String>(normalizedObs)));
+        return builder.toString();
+    }
+
+    private static String normalize(final Collection<Obs> observations) {
+        List<String> values = new ArrayList<String>();
+        if (observations != null) {
+            for (Obs obs : observations) {
+                values.add(normalize(obs));
+            }
+        }
+        return sort(values);
+    }
+
+    private static String sort(final List<String> values) {
+        // the order of the observations depends on the order of the form data, sort them.
+        Collections.sort(values);
+        return "[" + StringUtils.join(values, ',') + "]";
+    }
+
+    /**
+     * Build the canonical representation of an observation and its group members.
+     *
+     * @param obs the observation.
+     * @return the canonical representation of the observation.
+     */
+    public static String normalize(final Obs obs) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(obs.getConcept() == null ? null : obs.getConcept().getId()).append('=');
+        if (obs.getValueNumeric() != null) {
+            builder.append(obs.getValueNumeric());
+        } else if (obs.getValueDatetime() != null) {
+            builder.append(obs.getValueDatetime().getTime());
+        } else if (obs.getValueCoded() != null) {
+            builder.append(obs.getValueCoded().getId());
+        } else if (obs.getValueText() != null) {
+            builder.append(StringUtils.trim(obs.getValueText()));
+        }
+        if (obs.hasGroupMembers()) {
+            builder.append(normalize(obs.getGroupMembers()));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small in memory cache where every entry expires after its own time to live. The cache holds at most the maximum
+ * number of entries, the least recently used entry is dropped first.
+ */
+public class ExpiringCache<K, V> {
+
+    private final Map<K, Entry<V>> entries;
+
+    public ExpiringCache(final int maximumSize) {
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, Entry<V>> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    /**
+     * Get the cached value.
+     *
+     * @param key the key.
+     * @return the cached value, null when the key is not in the cache or the entry has expired.
+     */
+    public synchronized V get(final K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiry < System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Put a value in the cache.
+     *
+     * @param key        the key.
+     * @param value      the value.
+     * @param timeToLive the number of milliseconds the value will stay in the cache.
+     */
+    public synchronized void put(final K key, final V value, final long timeToLive) {
+        entries.put(key, new Entry<V>(value, System.currentTimeMillis() + timeToLive));
+    }
+
+    /**
+     * Remove a value from the cache.
+     *
+     * @param key the key.
+     */
+    public synchronized void remove(final K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Remove all values from the cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private static class Entry<V> {
+
+        private final V value;
+
+        private final long expiry;
+
+        private Entry(final V value, final long expiry) {
+            this.value = value;
+            this.expiry = expiry;
+        }
+    }
+}
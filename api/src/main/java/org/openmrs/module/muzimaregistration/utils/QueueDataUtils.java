@@ -0,0 +1,81 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.utils;
+
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.module.muzima.model.QueueData;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Helper class for reading what the module needs from a queue data without parsing its payload.
+ */
+public class QueueDataUtils {
+
+    /**
+     * Matches the patient uuid in both the xml ({@code <patient.uuid>...</patient.uuid>}) and the json
+     * ({@code "patient.uuid": "..."}) payloads.
+     */
+    private static final Pattern PATIENT_UUID_PATTERN =
+            Pattern.compile("patient\\.uuid['\"]?\\s*[:>]\\s*['\"]?([^'\"<\\s,}]+)");
+
+    /**
+     * Get the uuid of the patient a queue data belongs to. For a registration it is the temporary uuid assigned to the
+     * patient by the client.
+     *
+     * @param queueData the queue data.
+     * @return the patient uuid found in the payload, null when the payload doesn't have one.
+     */
+    public static String getPatientUuid(final QueueData queueData) {
+        Matcher matcher = PATIENT_UUID_PATTERN.matcher(StringUtils.defaultString(queueData.getPayload()));
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+        return null;
+    }
+
+    /**
+     * Get the key of the patient the queue data belongs to: the temporary or the real uuid of the patient. Queue data
+     * without patient uuid is keyed by its own uuid.
+     *
+     * @param queueData the queue data.
+     * @return the patient key of the queue data.
+     */
+    public static String getPatientKey(final QueueData queueData) {
+        String patientUuid = getPatientUuid(queueData);
+        return patientUuid != null ? patientUuid : queueData.getUuid();
+    }
+
+    /**
+     * Get the non negative hash of the patient key, the partition of a queue data is this hash modulo the partition
+     * count.
+     *
+     * @param queueData the queue data.
+     * @return the hash of the patient key of the queue data.
+     */
+    public static int getPatientHash(final QueueData queueData) {
+        return getPatientKey(queueData).hashCode() & Integer.MAX_VALUE;
+    }
+
+    /**
+     * Check whether a queue data discriminator is one of the registration forms.
+     *
+     * @param discriminator the discriminator of the queue data.
+     * @return true for the discriminators of the registration forms.
+     */
+    public static boolean isRegistration(final String discriminator) {
+        return StringUtils.endsWith(discriminator, "-registration");
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api;
+
+import org.hibernate.SessionFactory;
+import org.junit.Test;
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Tests {@link ObsBatchService}.
+ */
+public class ObsBatchServiceTest extends BaseModuleContextSensitiveTest {
+
+    @Test
+    public void saveObsChunk_shouldInsertTheObsGroupsWithTheirMembersOutsideOfTheSession() {
+        ObsBatchService service = Context.getService(ObsBatchService.class);
+        Encounter encounter = Context.getEncounterService().saveEncounter(createEncounter(new Date()));
+        List<Obs> obsChunk = new ArrayList<Obs>();
+        for (int i = 0; i < 3; i++) {
+            Obs obs = new Obs();
+            obs.setConcept(Context.getConceptService().getConcept(5089));
+            obs.setValueNumeric(50.0 + i);
+            obsChunk.add(obs);
+        }
+        Obs member = new Obs();
+        member.setConcept(Context.getConceptService().getConcept(5497));
+        member.setValueNumeric(350.0);
+        Obs group = new Obs();
+        group.setConcept(Context.getConceptService().getConcept(5089));
+        group.addGroupMember(member);
+        obsChunk.add(group);
+
+        assertEquals(5, service.saveObsChunk(encounter, obsChunk).intValue());
+        assertNotNull(group.getObsId());
+        SessionFactory sessionFactory = Context.getRegisteredComponents(SessionFactory.class).get(0);
+        for (Obs obs : obsChunk) {
+            assertFalse(sessionFactory.getCurrentSession().contains(obs));
+        }
+        assertFalse(sessionFactory.getCurrentSession().contains(member));
+
+        Context.clearSession();
+        Obs savedMember = Context.getObsService().getObsByUuid(member.getUuid());
+        assertEquals(group.getUuid(), savedMember.getObsGroup().getUuid());
+        assertEquals(encounter.getUuid(), savedMember.getEncounter().getUuid());
+        assertEquals(encounter.getPatient().getPersonId(), savedMember.getPerson().getPersonId());
+        assertNotNull(savedMember.getCreator());
+        assertNotNull(savedMember.getDateCreated());
+    }
+
+    private Encounter createEncounter(final Date encounterDatetime) {
+        Encounter encounter = new Encounter();
+        encounter.setPatient(Context.getPatientService().getPatient(2));
+        encounter.setEncounterType(Context.getEncounterService().getEncounterType(1));
+        encounter.setLocation(Context.getLocationService().getLocation(1));
+        encounter.setEncounterDatetime(encounterDatetime);
+        return encounter;
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api;
+
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzimaregistration.api.model.QueueDataPartition;
+import org.openmrs.module.muzimaregistration.processor.QueueDataPartitioner;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link PartitionLeaseService}.
+ */
+public class PartitionLeaseServiceTest extends BaseModuleContextSensitiveTest {
+
+    @Test
+    public void getQueueDataPartitions_shouldPageThroughTheQueueDataOfTheRequestedPartitionsOnly() {
+        PartitionLeaseService service = Context.getService(PartitionLeaseService.class);
+        QueueDataPartitioner partitioner = new QueueDataPartitioner(4);
+
+        List<QueueData> queueDataList = new ArrayList<QueueData>();
+        for (int i = 0; i < 20; i++) {
+            queueDataList.add(createQueueData("{\"patient\":{\"patient.uuid\":\"patient-" + i + "\"}}"));
+        }
+        assertEquals(Integer.valueOf(20), service.saveQueueDataPartitions(queueDataList));
+        // the queue data saved again when it is picked up is not recorded twice.
+        assertEquals(Integer.valueOf(0), service.saveQueueDataPartitions(queueDataList.subList(0, 5)));
+
+        List<Integer> partitions = Arrays.asList(0, 2);
+        List<String> expected = new ArrayList<String>();
+        for (QueueData queueData : queueDataList) {
+            if (partitions.contains(partitioner.getPartition(queueData))) {
+                expected.add(queueData.getUuid());
+            }
+        }
+        List<String> paged = new ArrayList<String>();
+        Integer lastId = 0;
+        List<QueueDataPartition> page;
+        do {
+            page = service.getQueueDataPartitions(partitions, 4, lastId, 3);
+            assertTrue(page.size() <= 3);
+            for (QueueDataPartition queueDataPartition : page) {
+                paged.add(queueDataPartition.getQueueDataUuid());
+                lastId = queueDataPartition.getId();
+            }
+        } while (!page.isEmpty());
+        assertEquals(expected, paged);
+
+        String processed = expected.get(0);
+        assertEquals(Integer.valueOf(1), service.deleteQueueDataPartitions(Collections.singletonList(processed)));
+        assertEquals(expected.size() - 1, service.getQueueDataPartitions(partitions, 4, 0, 20).size());
+    }
+
+    private QueueData createQueueData(final String payload) {
+        QueueData queueData = new QueueData();
+        queueData.setDiscriminator("json-encounter");
+        queueData.setPayload(payload);
+        return queueData;
+    }
+}
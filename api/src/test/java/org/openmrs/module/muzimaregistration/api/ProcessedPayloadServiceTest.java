@@ -0,0 +1,86 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api;
+
+import org.junit.Test;
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ProcessedPayloadService}.
+ */
+public class ProcessedPayloadServiceTest extends BaseModuleContextSensitiveTest {
+
+    @Test
+    public void isDuplicatePayload_shouldDetectResubmittedPayload() {
+        ProcessedPayloadService service = Context.getService(ProcessedPayloadService.class);
+        String payload = "{\"encounter\":{\"encounter.form_uuid\":\"c4a2b2d0-7c3e-4b3f-9b4e-6a1f2e3d4c5b\"}}";
+
+        QueueData queueData = createQueueData(payload);
+        assertFalse(service.isDuplicatePayload(queueData));
+        service.saveProcessedPayload(queueData);
+
+        assertTrue(service.isDuplicatePayload(createQueueData(payload)));
+        assertFalse(service.isDuplicatePayload(createQueueData(payload + " ")));
+        assertEquals(Long.valueOf(1), service.getDuplicatePayloadCounts().get("json-encounter"));
+    }
+
+    @Test
+    public void isDuplicateEncounter_shouldIgnoreTheOrderOfTheObservations() {
+        ProcessedPayloadService service = Context.getService(ProcessedPayloadService.class);
+        Date encounterDatetime = new Date();
+
+        Encounter encounter = createEncounter(encounterDatetime, 5089, 60.0, 5497, 350.0);
+        assertFalse(service.isDuplicateEncounter(encounter));
+        service.saveEncounterDigest(encounter);
+
+        assertTrue(service.isDuplicateEncounter(createEncounter(encounterDatetime, 5497, 350.0, 5089, 60.0)));
+        assertFalse(service.isDuplicateEncounter(createEncounter(encounterDatetime, 5089, 61.0, 5497, 350.0)));
+        assertEquals(Long.valueOf(1), service.getDuplicateEncounterCount());
+    }
+
+    /**
+     * @param conceptValues pairs of numeric concept id and value of the observations.
+     */
+    private Encounter createEncounter(final Date encounterDatetime, final Object... conceptValues) {
+        Encounter encounter = new Encounter();
+        encounter.setPatient(Context.getPatientService().getPatient(2));
+        encounter.setEncounterType(Context.getEncounterService().getEncounterType(1));
+        encounter.setLocation(Context.getLocationService().getLocation(1));
+        encounter.setEncounterDatetime(encounterDatetime);
+        for (int i = 0; i < conceptValues.length; i += 2) {
+            Obs obs = new Obs();
+            obs.setConcept(Context.getConceptService().getConcept((Integer) conceptValues[i]));
+            obs.setValueNumeric((Double) conceptValues[i + 1]);
+            encounter.addObs(obs);
+        }
+        return encounter;
+    }
+
+    private QueueData createQueueData(final String payload) {
+        QueueData queueData = new QueueData();
+        queueData.setDiscriminator("json-encounter");
+        queueData.setPayload(payload);
+        return queueData;
+    }
+}
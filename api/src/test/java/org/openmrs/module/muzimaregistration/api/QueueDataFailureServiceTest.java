@@ -0,0 +1,79 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.api;
+
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzimaregistration.api.model.QueueDataFailure;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link QueueDataFailureService}.
+ */
+public class QueueDataFailureServiceTest extends BaseModuleContextSensitiveTest {
+
+    @Test
+    public void saveQueueDataFailure_shouldQuarantinePermanentFailuresAndBackOffTransientOnes() {
+        QueueDataFailureService service = Context.getService(QueueDataFailureService.class);
+
+        QueueData broken = createQueueData("{\"encounter\":{\"encounter.location_id\":\"-1\"}}");
+        QueueDataFailure quarantined = service.saveQueueDataFailure(broken, "unknown-location",
+                "Unable to find encounter location using the id: -1");
+        assertTrue(quarantined.getQuarantined());
+        assertEquals("unknown-location", quarantined.getReasonCode());
+        assertTrue(quarantined.isPostponed(new Date()));
+
+        QueueData locked = createQueueData("{\"encounter\":{\"encounter.location_id\":\"1\"}}");
+        Date firstAttempt = service.saveQueueDataFailure(locked, null, "Lock wait timeout").getNextAttempt();
+        QueueDataFailure postponed = service.saveQueueDataFailure(locked, null, "Lock wait timeout");
+        assertFalse(postponed.getQuarantined());
+        assertEquals(QueueDataFailure.TRANSIENT_FAILURE, postponed.getReasonCode());
+        assertEquals(Integer.valueOf(2), postponed.getFailureCount());
+        assertTrue(postponed.getNextAttempt().after(firstAttempt));
+
+        Map<String, QueueDataFailure> failures =
+                service.getQueueDataFailures(Arrays.asList(broken.getUuid(), locked.getUuid(), "unknown"));
+        assertEquals(2, failures.size());
+    }
+
+    @Test
+    public void saveQueueDataFailure_shouldQuarantineQueueDataFailingTooOften() {
+        QueueDataFailureService service = Context.getService(QueueDataFailureService.class);
+
+        QueueData buggy = createQueueData("{\"encounter\":{}}");
+        QueueDataFailure queueDataFailure = null;
+        for (int i = 0; i < 10; i++) {
+            assertTrue(queueDataFailure == null || !queueDataFailure.getQuarantined());
+            queueDataFailure = service.saveQueueDataFailure(buggy, null, null);
+        }
+        assertTrue(queueDataFailure.getQuarantined());
+        assertEquals(QueueDataFailure.TOO_MANY_FAILURES, queueDataFailure.getReasonCode());
+    }
+
+    private QueueData createQueueData(final String payload) {
+        QueueData queueData = new QueueData();
+        queueData.setDiscriminator("json-encounter");
+        queueData.setPayload(payload);
+        return queueData;
+    }
+}
@@ -14,12 +14,28 @@
 package org.openmrs.module.muzimaregistration.api;
 
 import junit.framework.Assert;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.Test;
+import org.openmrs.Patient;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.model.QueueData;
 import org.openmrs.module.muzimaregistration.api.model.RegistrationData;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationMapping;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationResolution;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationSummary;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Tests {@link RegistrationDataService}.
@@ -38,4 +54,155 @@ public class RegistrationDataServiceTest extends BaseModuleContextSensitiveTest
 
         Assert.assertNotNull(savedRegistrationData.getId());
     }
+
+    @Test
+    public void getAssignedPatients_shouldNotIncreaseQueryCountWithNumberOfPatients() {
+        RegistrationDataService service = Context.getService(RegistrationDataService.class);
+        List<String> assignedUuids = new ArrayList<String>();
+        for (Patient patient : Context.getPatientService().getAllPatients()) {
+            assignedUuids.add(patient.getUuid());
+        }
+        assertTrue(assignedUuids.size() > 1);
+
+        SessionFactory sessionFactory = Context.getRegisteredComponents(SessionFactory.class).get(0);
+        Statistics statistics = sessionFactory.getStatistics();
+        statistics.setStatisticsEnabled(true);
+
+        // warm up the metadata referenced by the patients, we only want to count the patient queries.
+        readPatients(service.getAssignedPatients(assignedUuids));
+        Context.clearSession();
+
+        statistics.clear();
+        Map<String, Patient> singlePatient = service.getAssignedPatients(Collections.singletonList(assignedUuids.get(0)));
+        readPatients(singlePatient);
+        long singlePatientQueries = statistics.getPrepareStatementCount();
+        Context.clearSession();
+
+        statistics.clear();
+        Map<String, Patient> allPatients = service.getAssignedPatients(assignedUuids);
+        readPatients(allPatients);
+        long allPatientsQueries = statistics.getPrepareStatementCount();
+
+        assertEquals(1, singlePatient.size());
+        assertEquals(assignedUuids.size(), allPatients.size());
+        assertEquals(singlePatientQueries, allPatientsQueries);
+    }
+
+    @Test
+    public void getRegistrationMappingsModifiedSince_shouldReturnVoidedRegistrationDataAsChange() {
+        RegistrationDataService service = Context.getService(RegistrationDataService.class);
+        long now = System.currentTimeMillis();
+        RegistrationData kept = createRegistrationData(service, "temporary-kept", new Date(now - 60000));
+        RegistrationData voided = createRegistrationData(service, "temporary-voided", new Date(now - 60000));
+        Date since = new Date(now - 30000);
+
+        service.voidRegistrationData(voided, "duplicate registration");
+        Date until = new Date();
+
+        List<RegistrationMapping> changes = service.getRegistrationMappingsModifiedSince(since, until, null, 10);
+        assertEquals(1, changes.size());
+        assertEquals(voided.getUuid(), changes.get(0).getUuid());
+        assertTrue(changes.get(0).getVoided());
+
+        List<RegistrationMapping> initialSync = service.getRegistrationMappingsModifiedSince(null, until, null, 1);
+        assertEquals(1, initialSync.size());
+        assertEquals(kept.getUuid(), initialSync.get(0).getUuid());
+        Integer lastId = initialSync.get(0).getId();
+        assertTrue(service.getRegistrationMappingsModifiedSince(null, until, lastId, 1).isEmpty());
+    }
+
+    @Test
+    public void getRegistrationChangesUntil_shouldNotSkipChangesAtTheBoundaryOfTheWindow() {
+        RegistrationDataService service = Context.getService(RegistrationDataService.class);
+        Date now = new Date();
+        Date until = service.getRegistrationChangesUntil(now);
+        assertEquals(0, until.getTime() % 1000);
+        assertTrue(until.before(now));
+
+        // saved with a second precision date on the boundary, and by a transaction committed after the first sync.
+        RegistrationData onBoundary = createRegistrationData(service, "temporary-boundary", until);
+        RegistrationData committedLater = createRegistrationData(service, "temporary-later", new Date(until.getTime() + 1000));
+
+        List<RegistrationMapping> firstSync = service.getRegistrationMappingsModifiedSince(null, until, null, 10);
+        assertEquals(1, firstSync.size());
+        assertEquals(onBoundary.getUuid(), firstSync.get(0).getUuid());
+
+        Date nextUntil = service.getRegistrationChangesUntil(new Date(now.getTime() + 2000));
+        List<RegistrationMapping> nextSync = service.getRegistrationMappingsModifiedSince(until, nextUntil, null, 10);
+        assertEquals(1, nextSync.size());
+        assertEquals(committedLater.getUuid(), nextSync.get(0).getUuid());
+    }
+
+    @Test
+    public void importRegistrationData_shouldCreateTheRegistrationSummariesOfTheImportedRegistrationData() {
+        RegistrationDataService service = Context.getService(RegistrationDataService.class);
+        Patient patient = Context.getPatientService().getPatient(2);
+        RegistrationData registrationData = new RegistrationData();
+        registrationData.setTemporaryUuid("temporary-imported");
+        registrationData.setAssignedUuid(patient.getUuid());
+        RegistrationData duplicate = new RegistrationData();
+        duplicate.setTemporaryUuid("temporary-imported");
+        duplicate.setAssignedUuid(patient.getUuid());
+
+        assertEquals(1, service.importRegistrationData(Arrays.asList(registrationData, duplicate)).intValue());
+
+        assertEquals(1, service.getRegistrationSummaries("", null, 1, 10).size());
+        RegistrationSummary registrationSummary = service.getRegistrationSummaryByRegistrationUuid(registrationData.getUuid());
+        assertNotNull(registrationSummary);
+        assertEquals("temporary-imported", registrationSummary.getTemporaryUuid());
+        assertEquals(patient.getUuid(), registrationSummary.getAssignedUuid());
+        assertEquals(patient.getPersonName().getFullName(), registrationSummary.getDisplayName());
+    }
+
+    @Test
+    public void resolveTemporaryUuid_shouldAnswerPendingAsSoonAsTheRegistrationIsQueued() {
+        RegistrationDataService service = Context.getService(RegistrationDataService.class);
+        QueueData registration = createQueueData("<form><patient><patient.uuid>temporary-queued</patient.uuid></patient></form>");
+        registration.setDiscriminator("xml-registration");
+        QueueData encounter = createQueueData("<form><patient><patient.uuid>temporary-queued</patient.uuid></patient></form>");
+        encounter.setDiscriminator("xml-encounter");
+        assertEquals(RegistrationResolution.Status.UNKNOWN,
+                service.resolveTemporaryUuid("temporary-queued").getStatus());
+
+        // the registration has not been attempted yet, the unknown answer must not be served from the cache.
+        assertEquals(1, service.saveQueuedRegistrations(Arrays.asList(registration, encounter)).intValue());
+        assertEquals(0, service.saveQueuedRegistrations(Arrays.asList(registration, encounter)).intValue());
+        assertEquals(RegistrationResolution.Status.PENDING,
+                service.resolveTemporaryUuid("temporary-queued").getStatus());
+
+        // a quarantined registration won't be processed without help, the phone shouldn't keep waiting for it.
+        QueueData quarantined = createQueueData("<patient.uuid>temporary-quarantined</patient.uuid>");
+        quarantined.setDiscriminator("xml-registration");
+        service.saveQueuedRegistrations(Collections.singletonList(quarantined));
+        QueueDataFailureService queueDataFailureService = Context.getService(QueueDataFailureService.class);
+        queueDataFailureService.saveQueueDataFailure(quarantined, null, "Lock wait timeout");
+        queueDataFailureService.saveQueueDataFailure(quarantined, "malformed-payload",
+                "Unable to parse the registration.");
+        assertEquals(RegistrationResolution.Status.UNKNOWN,
+                service.resolveTemporaryUuid("temporary-quarantined").getStatus());
+    }
+
+    private QueueData createQueueData(final String payload) {
+        QueueData queueData = new QueueData();
+        queueData.setDiscriminator("json-encounter");
+        queueData.setPayload(payload);
+        return queueData;
+    }
+
+    private RegistrationData createRegistrationData(final RegistrationDataService service, final String temporaryUuid,
+                                                    final Date dateCreated) {
+        RegistrationData registrationData = new RegistrationData();
+        registrationData.setTemporaryUuid(temporaryUuid);
+        registrationData.setAssignedUuid("assigned-" + temporaryUuid);
+        registrationData.setDateCreated(dateCreated);
+        return service.saveRegistrationData(registrationData);
+    }
+
+    private void readPatients(final Map<String, Patient> patients) {
+        for (Patient patient : patients.values()) {
+            patient.getPersonName().getFullName();
+            patient.getPatientIdentifier();
+            patient.getBirthdate();
+        }
+    }
 }
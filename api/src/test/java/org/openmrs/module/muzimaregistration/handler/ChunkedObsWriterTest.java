@@ -0,0 +1,96 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.handler;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzimaregistration.utils.EncounterNormalizer;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+import java.util.Collections;
+import java.util.Date;
+
+/**
+ * Tests {@link ChunkedObsWriter}.
+ */
+public class ChunkedObsWriterTest extends BaseModuleContextSensitiveTest {
+
+    /**
+     * @verifies insert the observations in chunks with the obs groups and their members
+     * @see ChunkedObsWriter#close()
+     */
+    @Test
+    public void close_shouldInsertTheObservationsInChunksWithTheObsGroupsAndTheirMembers() throws Exception {
+        Encounter encounter = createEncounter();
+        ChunkedObsWriter obsWriter = new ChunkedObsWriter(encounter, 3);
+        obsWriter.write(createObs(5089, 50.0));
+        obsWriter.write(createObs(5089, 51.0));
+        obsWriter.write(createObs(5089, 52.0));
+        Obs group = createObs(5089, null);
+        Obs member = createObs(5497, 350.0);
+        group.addGroupMember(member);
+        group.addGroupMember(createObs(5497, 360.0));
+        obsWriter.write(group);
+        obsWriter.write(createObs(5089, 53.0));
+        Assert.assertNull(encounter.getEncounterId());
+
+        Encounter savedEncounter = obsWriter.close();
+        Assert.assertNotNull(savedEncounter.getEncounterId());
+        Assert.assertNotNull(group.getObsId());
+
+        Context.flushSession();
+        Context.clearSession();
+        Assert.assertEquals(7, Context.getObsService().getObservations(null, Collections.singletonList(savedEncounter),
+                null, null, null, null, null, null, null, null, null, false).size());
+        Obs savedMember = Context.getObsService().getObsByUuid(member.getUuid());
+        Assert.assertEquals(group.getUuid(), savedMember.getObsGroup().getUuid());
+    }
+
+    /**
+     * @verifies keep the canonical representation of each top level observation
+     * @see ChunkedObsWriter#write(org.openmrs.Obs)
+     */
+    @Test
+    public void write_shouldKeepTheCanonicalRepresentationOfEachTopLevelObservation() throws Exception {
+        ChunkedObsWriter obsWriter = new ChunkedObsWriter(createEncounter());
+        Obs obs = createObs(5089, 50.0);
+        obsWriter.write(obs);
+        Obs group = createObs(5089, null);
+        group.addGroupMember(createObs(5497, 350.0));
+        obsWriter.write(group);
+
+        Assert.assertEquals(2, obsWriter.getNormalizedObs().size());
+        Assert.assertEquals(EncounterNormalizer.normalize(obs), obsWriter.getNormalizedObs().get(0));
+        Assert.assertEquals(EncounterNormalizer.normalize(group), obsWriter.getNormalizedObs().get(1));
+    }
+
+    private Encounter createEncounter() {
+        Encounter encounter = new Encounter();
+        encounter.setPatient(Context.getPatientService().getPatient(2));
+        encounter.setEncounterType(Context.getEncounterService().getEncounterType(1));
+        encounter.setLocation(Context.getLocationService().getLocation(1));
+        encounter.setEncounterDatetime(new Date());
+        return encounter;
+    }
+
+    private Obs createObs(final Integer conceptId, final Double valueNumeric) {
+        Obs obs = new Obs();
+        obs.setConcept(Context.getConceptService().getConcept(conceptId));
+        obs.setValueNumeric(valueNumeric);
+        return obs;
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.handler;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PersonName;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationData;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+import java.text.SimpleDateFormat;
+
+/**
+ * Tests {@link DemographicsUpdateQueueDataHandler}.
+ */
+public class DemographicsUpdateQueueDataHandlerTest extends BaseModuleContextSensitiveTest {
+
+    /**
+     * @verifies not write anything when the update does not change the patient
+     * @see DemographicsUpdateQueueDataHandler#process(org.openmrs.module.muzima.model.QueueData)
+     */
+    @Test
+    public void process_shouldNotWriteAnythingWhenTheUpdateDoesNotChangeThePatient() throws Exception {
+        Patient patient = Context.getPatientService().getPatient(2);
+        DemographicsUpdateQueueDataHandler handler = new DemographicsUpdateQueueDataHandler();
+        QueueData queueData = createQueueData(patient, patient.getGivenName());
+        Context.flushSession();
+
+        SessionFactory sessionFactory = Context.getRegisteredComponents(SessionFactory.class).get(0);
+        Statistics statistics = sessionFactory.getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+        handler.process(queueData);
+        Context.flushSession();
+
+        Assert.assertEquals(0, statistics.getEntityInsertCount());
+        Assert.assertEquals(0, statistics.getEntityUpdateCount());
+        Assert.assertEquals(1, handler.getUnchangedUpdateCount());
+        Assert.assertTrue(handler.getChangedFieldCounts().isEmpty());
+    }
+
+    /**
+     * @verifies only apply the changed fields
+     * @see DemographicsUpdateQueueDataHandler#process(org.openmrs.module.muzima.model.QueueData)
+     */
+    @Test
+    public void process_shouldOnlyApplyTheChangedFields() throws Exception {
+        Patient patient = Context.getPatientService().getPatient(2);
+        int identifierCount = patient.getActiveIdentifiers().size();
+        DemographicsUpdateQueueDataHandler handler = new DemographicsUpdateQueueDataHandler();
+
+        handler.process(createQueueData(patient, "Changed"));
+
+        Assert.assertEquals("Changed", patient.getGivenName());
+        Assert.assertEquals(identifierCount, patient.getActiveIdentifiers().size());
+        Assert.assertEquals(0, handler.getUnchangedUpdateCount());
+        Assert.assertEquals(1, handler.getChangedFieldCounts().size());
+        Assert.assertEquals(Long.valueOf(1), handler.getChangedFieldCounts().get(DemographicsUpdate.GIVEN_NAME));
+    }
+
+    /**
+     * @verifies defer the update of a patient whose registration has not been processed
+     * @see DemographicsUpdateQueueDataHandler#process(org.openmrs.module.muzima.model.QueueData)
+     */
+    @Test
+    public void process_shouldDeferTheUpdateOfAPatientWhoseRegistrationHasNotBeenProcessed() throws Exception {
+        Patient patient = Context.getPatientService().getPatient(2);
+        DemographicsUpdateQueueDataHandler handler = new DemographicsUpdateQueueDataHandler();
+        try {
+            handler.process(createQueueData(patient, "temporary-unprocessed", "Changed"));
+            Assert.fail("The update of a registration which has not been processed should be deferred.");
+        } catch (DeferredQueueDataException e) {
+            Assert.assertEquals("temporary-unprocessed", e.getTemporaryUuid());
+        }
+
+        RegistrationData registrationData = new RegistrationData();
+        registrationData.setTemporaryUuid("temporary-registered");
+        registrationData.setAssignedUuid(patient.getUuid());
+        Context.getService(RegistrationDataService.class).saveRegistrationData(registrationData);
+        handler.process(createQueueData(patient, "temporary-registered", "Changed"));
+
+        Assert.assertEquals("Changed", patient.getGivenName());
+    }
+
+    private QueueData createQueueData(final Patient patient, final String givenName) {
+        return createQueueData(patient, patient.getUuid(), givenName);
+    }
+
+    private QueueData createQueueData(final Patient patient, final String patientUuid, final String givenName) {
+        PersonName personName = patient.getPersonName();
+        PatientIdentifier patientIdentifier = patient.getPatientIdentifier();
+        QueueData queueData = new QueueData();
+        queueData.setDiscriminator("json-demographics-update");
+        queueData.setPayload("{\"patient\": {"
+                + "\"patient.uuid\": \"" + patientUuid + "\","
+                + "\"patient.medical_record_number\": \"" + patientIdentifier.getIdentifier() + "\","
+                + "\"patient.identifier_type\": \"" + patientIdentifier.getIdentifierType().getUuid() + "\","
+                + "\"patient.birthdate\": \"" + new SimpleDateFormat("dd-MM-yyyy").format(patient.getBirthdate()) + "\","
+                + "\"patient.birthdate_estimated\": " + patient.getBirthdateEstimated() + ","
+                + "\"patient.sex\": \"" + patient.getGender() + "\","
+                + "\"patient.given_name\": \"" + givenName + "\","
+                + "\"patient.family_name\": \"" + personName.getFamilyName() + "\"}}");
+        return queueData;
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.handler;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Form;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+/**
+ * Tests {@link FormPlan}.
+ */
+public class FormPlanTest extends BaseModuleContextSensitiveTest {
+
+    /**
+     * @verifies resolve each concept key once
+     * @see FormPlan#getQuestion(String)
+     */
+    @Test
+    public void getQuestion_shouldResolveEachConceptKeyOnce() throws Exception {
+        FormPlan.clear();
+        FormPlan formPlan = FormPlan.forForm(null);
+
+        FormPlan.Question question = formPlan.getQuestion("5089^WEIGHT^99DCT");
+        Assert.assertEquals(5089, question.getConcept().getConceptId().intValue());
+        Assert.assertEquals(FormPlan.ValueType.NUMERIC, question.getValueType());
+        Assert.assertFalse(question.isSet());
+        Assert.assertSame(question, FormPlan.forForm(null).getQuestion("5089^WEIGHT^99DCT"));
+
+        Assert.assertNull(formPlan.getQuestion("patient.uuid"));
+        Assert.assertNull(formPlan.getQuestion("999999^UNKNOWN^99DCT").getConcept());
+        Assert.assertEquals(5089, formPlan.getAnswer("5089^WEIGHT^99DCT").getConceptId().intValue());
+        Assert.assertNull(formPlan.getAnswer("999999^UNKNOWN^99DCT"));
+    }
+
+    /**
+     * @verifies not query any concept when the keys were resolved before
+     * @see FormPlan#getQuestion(String)
+     */
+    @Test
+    public void getQuestion_shouldNotQueryAnyConceptWhenTheKeysWereResolvedBefore() throws Exception {
+        FormPlan.clear();
+        FormPlan formPlan = FormPlan.forForm(null);
+        formPlan.getQuestion("5089^WEIGHT^99DCT");
+        formPlan.getAnswer("5089^WEIGHT^99DCT");
+        Context.flushSession();
+        Context.clearSession();
+
+        SessionFactory sessionFactory = Context.getRegisteredComponents(SessionFactory.class).get(0);
+        Statistics statistics = sessionFactory.getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+
+        FormPlan.Question question = formPlan.getQuestion("5089^WEIGHT^99DCT");
+        Assert.assertEquals(5089, question.getConcept().getConceptId().intValue());
+        Assert.assertNotSame(question.getConcept(), question.getConcept());
+        Assert.assertEquals(5089, formPlan.getAnswer("5089^WEIGHT^99DCT").getConceptId().intValue());
+        Assert.assertEquals(0, statistics.getPrepareStatementCount());
+        Assert.assertEquals(0, statistics.getEntityLoadCount());
+        Assert.assertEquals(0, statistics.getSecondLevelCacheHitCount());
+
+        formPlan.getQuestion("999999^UNKNOWN^99DCT");
+        statistics.clear();
+        Assert.assertNull(formPlan.getQuestion("999999^UNKNOWN^99DCT").getConcept());
+        Assert.assertNull(formPlan.getAnswer("999999^UNKNOWN^99DCT"));
+        Assert.assertTrue(statistics.getPrepareStatementCount() > 0);
+    }
+
+    /**
+     * @verifies build a new plan for each version of a form
+     * @see FormPlan#forForm(org.openmrs.Form)
+     */
+    @Test
+    public void forForm_shouldBuildANewPlanForEachVersionOfAForm() throws Exception {
+        FormPlan.clear();
+        Form form = Context.getFormService().getForm(1);
+        FormPlan formPlan = FormPlan.forForm(form);
+        Assert.assertSame(formPlan, FormPlan.forForm(form));
+
+        form.setVersion(form.getVersion() + ".1");
+        Assert.assertNotSame(formPlan, FormPlan.forForm(form));
+        Assert.assertNotSame(formPlan, FormPlan.forForm(null));
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.handler;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzimaregistration.api.QueueDataFailureService;
+import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationData;
+import org.openmrs.module.muzimaregistration.api.model.SkippedObs;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests {@link ObsQueueDataHandler}.
+ */
+public class ObsQueueDataHandlerTest extends BaseModuleContextSensitiveTest {
+
+    /**
+     * @verifies insert the valid observations and skip the invalid ones
+     * @see ObsQueueDataHandler#process(org.openmrs.module.muzima.model.QueueData)
+     */
+    @Test
+    public void process_shouldInsertTheValidObservationsAndSkipTheInvalidOnes() throws Exception {
+        Patient patient = Context.getPatientService().getPatient(2);
+        Concept weight = Context.getConceptService().getConcept(5089);
+        int before = Context.getObsService().getObservationsByPersonAndConcept(patient, weight).size();
+
+        QueueData queueData = new QueueData();
+        queueData.setDiscriminator(ObsQueueDataHandler.DISCRIMINATOR_VALUE);
+        queueData.setPayload("{\"patient\": {\"patient.uuid\": \"" + patient.getUuid() + "\"},"
+                + " \"observation\": {\"obs.location_id\": \"1\", \"obs.provider_id\": \"admin\","
+                + " \"obs.obs_datetime\": \"2014-01-31\", \"obs.values\": ["
+                + "{\"concept\": \"5089^WEIGHT^99DCT\", \"value\": \"70.5\"},"
+                + "{\"concept\": \"999999^UNKNOWN^99DCT\", \"value\": \"1\"},"
+                + "{\"concept\": \"5089^WEIGHT^99DCT\", \"value\": \"heavy\"}]}}");
+
+        ObsQueueDataHandler handler = new ObsQueueDataHandler();
+        Assert.assertTrue(handler.accept(queueData));
+        handler.process(queueData);
+
+        Assert.assertEquals(1, handler.getInsertedObsCount());
+        Assert.assertEquals(2, handler.getFailedObsCount());
+        List<Obs> observations = Context.getObsService().getObservationsByPersonAndConcept(patient, weight);
+        Assert.assertEquals(before + 1, observations.size());
+
+        // the skipped observations are recorded apart from the failure history, the queue data went through.
+        QueueDataFailureService queueDataFailureService = Context.getService(QueueDataFailureService.class);
+        SkippedObs skippedObs = queueDataFailureService.getSkippedObsByQueueDataUuid(queueData.getUuid());
+        Assert.assertNotNull(skippedObs);
+        Assert.assertEquals(Integer.valueOf(2), skippedObs.getSkippedCount());
+        Assert.assertTrue(skippedObs.getMessage().contains(
+                "obs.values[1] " + PermanentQueueDataException.UNKNOWN_CONCEPT));
+        Assert.assertTrue(queueDataFailureService.getQueueDataFailures(
+                Collections.singletonList(queueData.getUuid())).isEmpty());
+    }
+
+    /**
+     * @verifies defer the queue data until the registration of the patient has been processed
+     * @see ObsQueueDataHandler#process(org.openmrs.module.muzima.model.QueueData)
+     */
+    @Test
+    public void process_shouldDeferTheQueueDataUntilTheRegistrationOfThePatientHasBeenProcessed() throws Exception {
+        ObsQueueDataHandler handler = new ObsQueueDataHandler();
+        // the registration might be queued but not attempted yet, the obs data waits for it like the encounters.
+        try {
+            handler.process(createObsQueueData("temporary-unprocessed"));
+            Assert.fail("The obs data of a registration which has not been processed should be deferred.");
+        } catch (DeferredQueueDataException e) {
+            Assert.assertEquals("temporary-unprocessed", e.getTemporaryUuid());
+        }
+
+        RegistrationData registrationData = new RegistrationData();
+        registrationData.setTemporaryUuid("temporary-registered");
+        registrationData.setAssignedUuid("missing-patient");
+        Context.getService(RegistrationDataService.class).saveRegistrationData(registrationData);
+        try {
+            handler.process(createObsQueueData("temporary-registered"));
+            Assert.fail("The obs data of a registration pointing to an unknown patient should be quarantined.");
+        } catch (PermanentQueueDataException e) {
+            Assert.assertEquals(PermanentQueueDataException.UNKNOWN_PATIENT, e.getReasonCode());
+        }
+    }
+
+    private QueueData createObsQueueData(final String patientUuid) {
+        QueueData queueData = new QueueData();
+        queueData.setDiscriminator(ObsQueueDataHandler.DISCRIMINATOR_VALUE);
+        queueData.setPayload("{\"patient\": {\"patient.uuid\": \"" + patientUuid + "\"},"
+                + " \"observation\": {\"obs.location_id\": \"1\", \"obs.provider_id\": \"admin\","
+                + " \"obs.obs_datetime\": \"2014-01-31\", \"obs.values\": ["
+                + "{\"concept\": \"5089^WEIGHT^99DCT\", \"value\": \"70.5\"}]}}");
+        return queueData;
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.handler;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.api.APIException;
+import org.springframework.dao.CannotAcquireLockException;
+
+/**
+ * Tests {@link PermanentQueueDataException}.
+ */
+public class PermanentQueueDataExceptionTest {
+
+    /**
+     * @verifies quarantine only permanent failures and parse errors
+     * @see PermanentQueueDataException#getPermanentReasonCode(Throwable)
+     */
+    @Test
+    public void getPermanentReasonCode_shouldQuarantineOnlyPermanentFailuresAndParseErrors() throws Exception {
+        Assert.assertEquals(PermanentQueueDataException.UNKNOWN_LOCATION,
+                PermanentQueueDataException.getPermanentReasonCode(new APIException(new PermanentQueueDataException(
+                        PermanentQueueDataException.UNKNOWN_LOCATION, "Unable to find encounter location."))));
+        Assert.assertEquals(PermanentQueueDataException.MALFORMED_PAYLOAD,
+                PermanentQueueDataException.getPermanentReasonCode(
+                        new RuntimeException(new NumberFormatException("For input string: \"one\""))));
+
+        // unexpected runtime exceptions and lock timeouts are retried.
+        Assert.assertNull(PermanentQueueDataException.getPermanentReasonCode(
+                new RuntimeException(new NullPointerException())));
+        Assert.assertNull(PermanentQueueDataException.getPermanentReasonCode(
+                new CannotAcquireLockException("Lock wait timeout", new NumberFormatException())));
+    }
+}
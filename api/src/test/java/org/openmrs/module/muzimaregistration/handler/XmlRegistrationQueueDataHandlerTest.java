@@ -16,6 +16,7 @@ package org.openmrs.module.muzimaregistration.handler;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.openmrs.Location;
 import org.openmrs.Patient;
 import org.openmrs.PatientIdentifier;
@@ -25,6 +26,7 @@ import org.openmrs.api.LocationService;
 import org.openmrs.api.PatientService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzimaregistration.api.ProcessedPayloadService;
 import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
 import org.openmrs.module.muzimaregistration.api.model.RegistrationData;
 import org.openmrs.module.muzimaregistration.utils.JsonUtils;
@@ -36,13 +38,26 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -65,6 +80,7 @@ public class XmlRegistrationQueueDataHandlerTest {
 
         PowerMockito.mockStatic(Context.class);
         when(Context.getService(RegistrationDataService.class)).thenReturn(registrationDataService);
+        when(Context.getService(ProcessedPayloadService.class)).thenReturn(mock(ProcessedPayloadService.class));
         when(Context.getLocationService()).thenReturn(locationService);
         when(Context.getPatientService()).thenReturn(patientService);
 
@@ -95,10 +111,88 @@ public class XmlRegistrationQueueDataHandlerTest {
 
         verify(registrationDataService).getRegistrationDataByTemporaryUuid(temporaryUuid);
         verify(registrationDataService).saveRegistrationData((RegistrationData) anyObject());
+        verify(registrationDataService).saveRegistrationSummary((RegistrationData) anyObject(), (Patient) anyObject());
 
         verifyNoMoreInteractions(registrationDataService);
     }
 
+    /**
+     * @verifies process registrations from several threads at once
+     * @see XmlRegistrationQueueDataHandler#process(org.openmrs.module.muzima.model.QueueData)
+     */
+    @Test
+    public void process_shouldProcessRegistrationsFromSeveralThreadsAtOnce() throws Exception {
+        RegistrationDataService registrationDataService = mock(RegistrationDataService.class);
+        PatientService patientService = mock(PatientService.class);
+        LocationService locationService = mock(LocationService.class);
+
+        PowerMockito.mockStatic(Context.class);
+        when(Context.getService(RegistrationDataService.class)).thenReturn(registrationDataService);
+        when(Context.getService(ProcessedPayloadService.class)).thenReturn(mock(ProcessedPayloadService.class));
+        when(Context.getLocationService()).thenReturn(locationService);
+        when(Context.getPatientService()).thenReturn(patientService);
+
+        when(locationService.getLocation(anyInt())).thenReturn(new Location());
+        when(patientService.getPatientIdentifierType(anyInt())).thenReturn(new PatientIdentifierType());
+        when(patientService.getPatients(anyString())).thenReturn(new ArrayList<Patient>());
+
+        final XmlRegistrationQueueDataHandler xmlRegistrationQueueDataHandler = new XmlRegistrationQueueDataHandler();
+        final int threads = 8;
+        final int registrationsPerThread = 25;
+        final CountDownLatch start = new CountDownLatch(1);
+        final Set<String> temporaryUuids = Collections.synchronizedSet(new HashSet<String>());
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executorService.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for (int j = 0; j < registrationsPerThread; j++) {
+                        String temporaryUuid = UUID.randomUUID().toString();
+                        temporaryUuids.add(temporaryUuid);
+                        QueueData queueData = new QueueData();
+                        queueData.setPayload(createRegistrationPayload(temporaryUuid));
+                        xmlRegistrationQueueDataHandler.process(queueData);
+                    }
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<Void> future : futures) {
+            future.get(1, TimeUnit.MINUTES);
+        }
+        executorService.shutdown();
+
+        ArgumentCaptor<RegistrationData> captor = ArgumentCaptor.forClass(RegistrationData.class);
+        verify(registrationDataService, times(threads * registrationsPerThread)).saveRegistrationData(captor.capture());
+        Set<String> savedTemporaryUuids = new HashSet<String>();
+        for (RegistrationData registrationData : captor.getAllValues()) {
+            // the new patient keeps the temporary uuid, any mix up between threads would break the mapping.
+            Assert.assertEquals(registrationData.getTemporaryUuid(), registrationData.getAssignedUuid());
+            savedTemporaryUuids.add(registrationData.getTemporaryUuid());
+        }
+        Assert.assertEquals(temporaryUuids, savedTemporaryUuids);
+    }
+
+    private String createRegistrationPayload(final String temporaryUuid) {
+        return "<form>"
+                + "<patient>"
+                + "<patient.uuid>" + temporaryUuid + "</patient.uuid>"
+                + "<patient.given_name>Given" + temporaryUuid + "</patient.given_name>"
+                + "<patient.family_name>Family" + temporaryUuid + "</patient.family_name>"
+                + "<patient.sex>F</patient.sex>"
+                + "<patient.birthdate>1980-01-01</patient.birthdate>"
+                + "<patient_identifier.identifier_type_id>3</patient_identifier.identifier_type_id>"
+                + "<patient.medical_record_number>" + temporaryUuid + "</patient.medical_record_number>"
+                + "</patient>"
+                + "<encounter>"
+                + "<encounter.location_id>1</encounter.location_id>"
+                + "</encounter>"
+                + "</form>";
+    }
+
     private String getPayloadFromFile() throws IOException {
         final InputStream resourceAsStream = this.getClass().getResourceAsStream("expected-well-formed-registration.json");
         BufferedReader reader = new BufferedReader(new InputStreamReader(resourceAsStream));
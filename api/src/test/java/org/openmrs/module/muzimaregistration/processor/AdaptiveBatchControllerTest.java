@@ -0,0 +1,154 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.processor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests {@link AdaptiveBatchController}.
+ */
+public class AdaptiveBatchControllerTest {
+
+    /**
+     * @verifies grow additively while the batches are fast and shrink by half when they are slow
+     * @see AdaptiveBatchController#completed(int, long, int)
+     */
+    @Test
+    public void completed_shouldGrowAdditivelyWhileTheBatchesAreFastAndShrinkByHalfWhenTheyAreSlow() throws Exception {
+        AdaptiveBatchController controller = createController();
+
+        controller.completed(40, 100, 0);
+        Assert.assertEquals(50, controller.getBatchSize());
+        controller.completed(50, 100, 0);
+        Assert.assertEquals(60, controller.getBatchSize());
+        // a partial batch says nothing about a bigger one.
+        controller.completed(10, 100, 0);
+        Assert.assertEquals(60, controller.getBatchSize());
+
+        controller.completed(60, 600, 0);
+        Assert.assertEquals(30, controller.getBatchSize());
+        Assert.assertEquals(1, controller.getConcurrency());
+        Assert.assertFalse(controller.isPaused());
+    }
+
+    /**
+     * @verifies shrink the batch size when too many queue data fail
+     * @see AdaptiveBatchController#completed(int, long, int)
+     */
+    @Test
+    public void completed_shouldShrinkTheBatchSizeWhenTooManyQueueDataFail() throws Exception {
+        AdaptiveBatchController controller = createController();
+
+        controller.completed(40, 100, 10);
+        Assert.assertEquals(20, controller.getBatchSize());
+        controller.completed(20, 100, 10);
+        controller.completed(10, 100, 10);
+        controller.completed(5, 100, 5);
+        Assert.assertEquals(5, controller.getBatchSize());
+    }
+
+    /**
+     * @verifies allow more batches at the same time once the batch size reached its maximum
+     * @see AdaptiveBatchController#completed(int, long, int)
+     */
+    @Test
+    public void completed_shouldAllowMoreBatchesAtTheSameTimeOnceTheBatchSizeReachedItsMaximum() throws Exception {
+        AdaptiveBatchController controller = createController();
+        controller.setMaxBatchSize(50);
+
+        controller.completed(40, 100, 0);
+        Assert.assertEquals(50, controller.getBatchSize());
+        Assert.assertEquals(2, controller.getConcurrency());
+        controller.completed(50, 100, 0);
+        Assert.assertEquals(3, controller.getConcurrency());
+        controller.completed(50, 100, 0);
+        Assert.assertEquals(3, controller.getConcurrency());
+    }
+
+    /**
+     * @verifies pause the processing when the database is overloaded
+     * @see AdaptiveBatchController#completed(int, long, int)
+     */
+    @Test
+    public void completed_shouldPauseTheProcessingWhenTheDatabaseIsOverloaded() throws Exception {
+        AdaptiveBatchController controller = createController();
+        controller.setPauseDuration(200);
+
+        controller.completed(40, 2500, 0);
+        Assert.assertTrue(controller.isPaused());
+
+        long start = System.currentTimeMillis();
+        controller.acquire();
+        controller.release();
+        Assert.assertTrue(System.currentTimeMillis() - start >= 100);
+        Assert.assertFalse(controller.isPaused());
+    }
+
+    /**
+     * @verifies grant the free slot to a waiting registration before a waiting encounter
+     * @see AdaptiveBatchController#acquire(QueueDataLane)
+     */
+    @Test
+    public void acquire_shouldGrantTheFreeSlotToAWaitingRegistrationBeforeAWaitingEncounter() throws Exception {
+        final AdaptiveBatchController controller = createController();
+        controller.setConcurrency(1);
+        final List<QueueDataLane> granted = Collections.synchronizedList(new ArrayList<QueueDataLane>());
+
+        controller.acquire(QueueDataLane.ENCOUNTER);
+        Thread encounter = startAcquiring(controller, QueueDataLane.ENCOUNTER, granted);
+        Thread registration = startAcquiring(controller, QueueDataLane.REGISTRATION, granted);
+        controller.release();
+        encounter.join(5000);
+        registration.join(5000);
+
+        Assert.assertEquals(Arrays.asList(QueueDataLane.REGISTRATION, QueueDataLane.ENCOUNTER), granted);
+    }
+
+    /**
+     * Start a thread acquiring a slot for the lane, returning once the thread is waiting for it.
+     */
+    private Thread startAcquiring(final AdaptiveBatchController controller, final QueueDataLane lane,
+                                  final List<QueueDataLane> granted) throws InterruptedException {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                controller.acquire(lane);
+                granted.add(lane);
+                controller.release();
+            }
+        };
+        thread.start();
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+        return thread;
+    }
+
+    private AdaptiveBatchController createController() {
+        AdaptiveBatchController controller = new AdaptiveBatchController();
+        controller.setLatencyTarget(500);
+        controller.setBatchSize(40);
+        controller.setBatchSizeStep(10);
+        controller.setMinBatchSize(5);
+        controller.setMaxConcurrency(3);
+        controller.setConcurrency(2);
+        return controller;
+    }
+}
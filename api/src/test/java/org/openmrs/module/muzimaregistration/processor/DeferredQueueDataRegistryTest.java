@@ -0,0 +1,80 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.processor;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.module.muzima.model.QueueData;
+
+import java.util.List;
+
+/**
+ * Tests {@link DeferredQueueDataRegistry}.
+ */
+public class DeferredQueueDataRegistryTest {
+
+    /**
+     * @verifies release queue data deferred after its registration has been saved
+     * @see DeferredQueueDataRegistry#defer(String, org.openmrs.module.muzima.model.QueueData)
+     */
+    @Test
+    public void defer_shouldReleaseQueueDataDeferredAfterItsRegistrationHasBeenSaved() throws Exception {
+        DeferredQueueDataRegistry registry = new DeferredQueueDataRegistry();
+        QueueData queueData = new QueueData();
+
+        registry.release("temporary-uuid");
+        registry.defer("temporary-uuid", queueData);
+
+        Assert.assertEquals(0, registry.getWaitingCount());
+        List<QueueData> released = registry.drainReleased();
+        Assert.assertEquals(1, released.size());
+        Assert.assertSame(queueData, released.get(0));
+    }
+
+    /**
+     * @verifies drop the queue data parked first when the wait set is full
+     * @see DeferredQueueDataRegistry#defer(String, org.openmrs.module.muzima.model.QueueData)
+     */
+    @Test
+    public void defer_shouldDropTheQueueDataParkedFirstWhenTheWaitSetIsFull() throws Exception {
+        DeferredQueueDataRegistry registry = new DeferredQueueDataRegistry();
+        registry.setMaxWaiting(2);
+        QueueData first = new QueueData();
+
+        registry.defer("first-uuid", first);
+        registry.defer("second-uuid", new QueueData());
+        registry.defer("third-uuid", new QueueData());
+
+        Assert.assertEquals(2, registry.getWaitingCount());
+        registry.release("first-uuid");
+        Assert.assertTrue(registry.drainReleased().isEmpty());
+    }
+
+    /**
+     * @verifies drop processed queue data from the wait set
+     * @see DeferredQueueDataRegistry#forget(org.openmrs.module.muzima.model.QueueData)
+     */
+    @Test
+    public void forget_shouldDropProcessedQueueDataFromTheWaitSet() throws Exception {
+        DeferredQueueDataRegistry registry = new DeferredQueueDataRegistry();
+        QueueData queueData = new QueueData();
+        registry.defer("temporary-uuid", queueData);
+
+        registry.forget(queueData);
+
+        Assert.assertEquals(0, registry.getWaitingCount());
+        registry.release("temporary-uuid");
+        Assert.assertTrue(registry.drainReleased().isEmpty());
+    }
+}
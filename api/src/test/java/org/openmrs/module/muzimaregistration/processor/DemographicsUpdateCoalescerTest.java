@@ -0,0 +1,80 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.processor;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzimaregistration.processor.DemographicsUpdateCoalescer.MergedDemographicsUpdate;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tests {@link DemographicsUpdateCoalescer}.
+ */
+public class DemographicsUpdateCoalescerTest {
+
+    /**
+     * @verifies merge the updates of a patient in submission order into the latest queue data
+     * @see DemographicsUpdateCoalescer#coalesce(java.util.List)
+     */
+    @Test
+    public void coalesce_shouldMergeTheUpdatesOfAPatientInSubmissionOrderIntoTheLatestQueueData() throws Exception {
+        QueueData first = createQueueData("patient", "\"patient.given_name\": \"First\", \"patient.sex\": \"F\"", 1);
+        QueueData other = createQueueData("other", "\"patient.given_name\": \"Other\"", 2);
+        QueueData second = createQueueData("patient", "\"patient.given_name\": \"Second\"", 3);
+        QueueData third = createQueueData("patient", "\"patient.family_name\": \"Third\"", 4);
+
+        List<MergedDemographicsUpdate> mergedUpdates =
+                new DemographicsUpdateCoalescer().coalesce(Arrays.asList(third, first, other, second));
+
+        Assert.assertEquals(1, mergedUpdates.size());
+        MergedDemographicsUpdate mergedUpdate = mergedUpdates.get(0);
+        Assert.assertSame(third, mergedUpdate.getLatest());
+        Assert.assertEquals(Arrays.asList(first, second), mergedUpdate.getSuperseded());
+        Assert.assertEquals("Second", mergedUpdate.getUpdate().getGivenName());
+        Assert.assertEquals("Third", mergedUpdate.getUpdate().getFamilyName());
+        Assert.assertEquals("F", mergedUpdate.getUpdate().getGender());
+        Assert.assertNull(mergedUpdate.getUpdate().getMiddleName());
+    }
+
+    /**
+     * @verifies not merge updates carrying different identifiers
+     * @see DemographicsUpdateCoalescer#coalesce(java.util.List)
+     */
+    @Test
+    public void coalesce_shouldNotMergeUpdatesCarryingDifferentIdentifiers() throws Exception {
+        QueueData first = createQueueData("patient", "\"patient.medical_record_number\": \"100\"", 1);
+        QueueData second = createQueueData("patient", "\"patient.given_name\": \"Second\"", 2);
+        QueueData third = createQueueData("patient", "\"patient.medical_record_number\": \"200\"", 3);
+
+        List<MergedDemographicsUpdate> mergedUpdates =
+                new DemographicsUpdateCoalescer().coalesce(Arrays.asList(first, second, third));
+
+        Assert.assertEquals(1, mergedUpdates.size());
+        Assert.assertSame(second, mergedUpdates.get(0).getLatest());
+        Assert.assertEquals("100", mergedUpdates.get(0).getUpdate().getIdentifier());
+        Assert.assertEquals("Second", mergedUpdates.get(0).getUpdate().getGivenName());
+    }
+
+    private QueueData createQueueData(final String patientUuid, final String fields, final long dateCreated) {
+        QueueData queueData = new QueueData();
+        queueData.setDiscriminator("json-demographics-update");
+        queueData.setDateCreated(new Date(dateCreated));
+        queueData.setPayload("{\"patient\": {\"patient.uuid\": \"" + patientUuid + "\", " + fields + "}}");
+        return queueData;
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.processor;
+
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link PartitionLeaseCoordinator}.
+ */
+public class PartitionLeaseCoordinatorTest extends BaseModuleContextSensitiveTest {
+
+    /**
+     * @verifies share the partitions between the live nodes and take over the expired ones
+     * @see PartitionLeaseCoordinator#claimPartitions()
+     */
+    @Test
+    public void claimPartitions_shouldShareThePartitionsBetweenTheLiveNodesAndTakeOverTheExpiredOnes() {
+        PartitionLeaseCoordinator nodeA = createCoordinator("node-a");
+        PartitionLeaseCoordinator nodeB = createCoordinator("node-b");
+        Date now = new Date();
+
+        assertEquals(4, nodeA.claimPartitions(now).size());
+        // node-a holds everything until it gives up its extra partitions on its next claim.
+        assertTrue(nodeB.claimPartitions(now).isEmpty());
+        Set<Integer> partitionsA = nodeA.claimPartitions(now);
+        assertEquals(2, partitionsA.size());
+        Set<Integer> partitionsB = nodeB.claimPartitions(now);
+        assertEquals(2, partitionsB.size());
+
+        Set<Integer> allPartitions = new HashSet<Integer>(partitionsA);
+        allPartitions.addAll(partitionsB);
+        assertEquals(4, allPartitions.size());
+
+        // node-a stopped renewing its leases.
+        Date later = new Date(now.getTime() + 2 * nodeA.getLeaseDuration());
+        assertEquals(4, nodeB.claimPartitions(later).size());
+    }
+
+    /**
+     * @verifies stop processing a partition once its lease expired during the run
+     * @see PartitionLeaseCoordinator#createLeaseGuard(java.util.Set)
+     */
+    @Test
+    public void createLeaseGuard_shouldStopProcessingAPartitionOnceItsLeaseExpiredDuringTheRun() {
+        PartitionLeaseCoordinator nodeA = createCoordinator("node-a");
+        PartitionLeaseCoordinator nodeB = createCoordinator("node-b");
+        Date now = new Date();
+
+        Set<Integer> partitions = nodeA.claimPartitions(now);
+        assertEquals(4, partitions.size());
+        QueueDataBatchGuard guard = nodeA.createLeaseGuard(partitions);
+        List<QueueData> batch = Collections.singletonList(new QueueData());
+        assertEquals(1, guard.admit(batch).size());
+
+        // the run outlasted the lease of node-a, node-b took the partitions over.
+        Date later = new Date(now.getTime() + 2 * nodeA.getLeaseDuration());
+        assertEquals(4, nodeB.claimPartitions(later).size());
+        assertTrue(guard.admit(batch).isEmpty());
+    }
+
+    private PartitionLeaseCoordinator createCoordinator(final String nodeId) {
+        PartitionLeaseCoordinator coordinator = new PartitionLeaseCoordinator();
+        coordinator.setTransactionManager(Context.getRegisteredComponents(PlatformTransactionManager.class).get(0));
+        coordinator.setNodeId(nodeId);
+        coordinator.setPartitionCount(4);
+        return coordinator;
+    }
+}
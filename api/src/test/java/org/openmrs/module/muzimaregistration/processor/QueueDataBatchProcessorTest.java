@@ -0,0 +1,384 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.processor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.PersistenceContext;
+import org.hibernate.engine.SessionImplementor;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openmrs.module.muzima.exception.QueueProcessorException;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzima.model.handler.QueueDataHandler;
+import org.openmrs.module.muzimaregistration.api.QueueDataFailureService;
+import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationData;
+import org.openmrs.module.muzimaregistration.handler.DeferredQueueDataException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Tests {@link QueueDataBatchProcessor}.
+ */
+public class QueueDataBatchProcessorTest {
+
+    private final Log log = LogFactory.getLog(QueueDataBatchProcessorTest.class);
+
+    /**
+     * @verifies roll back only the failing queue data of a batch
+     * @see QueueDataBatchProcessor#process(java.util.List)
+     */
+    @Test
+    public void process_shouldRollBackOnlyTheFailingQueueDataOfABatch() throws Exception {
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any(TransactionDefinition.class))).thenReturn(new SimpleTransactionStatus());
+        SessionFactory sessionFactory = mock(SessionFactory.class);
+        when(sessionFactory.getCurrentSession()).thenReturn(mock(Session.class));
+
+        List<QueueData> queueDataList = new ArrayList<QueueData>();
+        for (int i = 0; i < 5; i++) {
+            queueDataList.add(new QueueData());
+        }
+        QueueData failingQueueData = queueDataList.get(2);
+
+        QueueDataHandler handler = mock(QueueDataHandler.class);
+        when(handler.accept(any(QueueData.class))).thenReturn(true);
+        doThrow(new QueueProcessorException("Unable to process queue data!")).when(handler).process(failingQueueData);
+
+        QueueDataFailureService queueDataFailureService = mock(QueueDataFailureService.class);
+        QueueDataBatchProcessor processor = new QueueDataBatchProcessor();
+        processor.setTransactionManager(transactionManager);
+        processor.setSessionFactory(sessionFactory);
+        processor.setHandlers(Collections.singletonList(handler));
+        processor.setRegistrationDataService(mock(RegistrationDataService.class));
+        processor.setQueueDataFailureService(queueDataFailureService);
+        processor.setBatchSize(5);
+
+        QueueDataBatchResult result = processor.process(queueDataList);
+
+        Assert.assertEquals(4, result.getProcessed().size());
+        Assert.assertEquals(1, result.getFailed().size());
+        Assert.assertTrue(result.getFailed().get(failingQueueData) instanceof QueueProcessorException);
+        // one rolled back batch, then one transaction per queue data of which one is rolled back.
+        verify(transactionManager, times(2)).rollback(any(TransactionStatus.class));
+        // plus the transactions reading and updating the failure history.
+        verify(transactionManager, times(6)).commit(any(TransactionStatus.class));
+        // the failure is transient, it carries no reason code.
+        verify(queueDataFailureService).saveQueueDataFailure(failingQueueData, null, "Unable to process queue data!");
+    }
+
+    /**
+     * @verifies process deferred queue data again once the registration is saved
+     * @see QueueDataBatchProcessor#process(java.util.List)
+     */
+    @Test
+    public void process_shouldProcessDeferredQueueDataAgainOnceTheRegistrationIsSaved() throws Exception {
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any(TransactionDefinition.class))).thenReturn(new SimpleTransactionStatus());
+        SessionFactory sessionFactory = mock(SessionFactory.class);
+        when(sessionFactory.getCurrentSession()).thenReturn(mock(Session.class));
+
+        final String temporaryUuid = "c2e1b2a6-0f9e-4a3b-8d4c-2c7f3b2a1d90";
+        final DeferredQueueDataRegistry registry = new DeferredQueueDataRegistry();
+        QueueData encounter = new QueueData();
+        QueueData registration = new QueueData();
+
+        QueueDataHandler handler = mock(QueueDataHandler.class);
+        when(handler.accept(any(QueueData.class))).thenReturn(true);
+        doThrow(new DeferredQueueDataException(temporaryUuid)).doNothing().when(handler).process(encounter);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                registry.release(temporaryUuid);
+                return null;
+            }
+        }).when(handler).process(registration);
+
+        RegistrationDataService registrationDataService = mock(RegistrationDataService.class);
+        QueueDataBatchProcessor processor = new QueueDataBatchProcessor();
+        processor.setTransactionManager(transactionManager);
+        processor.setSessionFactory(sessionFactory);
+        processor.setHandlers(Collections.singletonList(handler));
+        processor.setRegistrationDataService(registrationDataService);
+        processor.setQueueDataFailureService(mock(QueueDataFailureService.class));
+        processor.setDeferredQueueDataRegistry(registry);
+
+        List<QueueData> queueDataList = new ArrayList<QueueData>();
+        queueDataList.add(encounter);
+        queueDataList.add(registration);
+        QueueDataBatchResult result = processor.process(queueDataList);
+
+        Assert.assertEquals(2, result.getProcessed().size());
+        Assert.assertTrue(result.getFailed().isEmpty());
+        Assert.assertTrue(result.getDeferred().isEmpty());
+        Assert.assertEquals(0, registry.getWaitingCount());
+        verify(handler, times(2)).process(encounter);
+        // deferring the encounter doesn't roll the batch back.
+        verify(transactionManager, never()).rollback(any(TransactionStatus.class));
+    }
+
+    /**
+     * @verifies process deferred queue data whose registration is saved later in the same batch
+     * @see QueueDataBatchProcessor#process(java.util.List)
+     */
+    @Test
+    public void process_shouldProcessDeferredQueueDataWhoseRegistrationIsSavedLaterInTheSameBatch() throws Exception {
+        SessionFactory sessionFactory = mock(SessionFactory.class);
+        when(sessionFactory.getCurrentSession()).thenReturn(mock(Session.class));
+
+        final String temporaryUuid = "5b0f8c3e-7d2a-4e61-9c8b-1f4a6d3e2b70";
+        final DeferredQueueDataRegistry registry = new DeferredQueueDataRegistry();
+        QueueData encounter = new QueueData();
+        QueueData registration = new QueueData();
+
+        QueueDataHandler handler = mock(QueueDataHandler.class);
+        when(handler.accept(any(QueueData.class))).thenReturn(true);
+        doThrow(new DeferredQueueDataException(temporaryUuid)).doNothing().when(handler).process(encounter);
+        // the registration is released after the commit of the batch, before the encounter is parked.
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                registry.release(temporaryUuid);
+                return null;
+            }
+        }).when(handler).process(registration);
+
+        QueueDataBatchProcessor processor = new QueueDataBatchProcessor();
+        processor.setTransactionManager(createTransactionManager());
+        processor.setSessionFactory(sessionFactory);
+        processor.setHandlers(Collections.singletonList(handler));
+        processor.setRegistrationDataService(mock(RegistrationDataService.class));
+        processor.setQueueDataFailureService(mock(QueueDataFailureService.class));
+        processor.setDeferredQueueDataRegistry(registry);
+
+        List<QueueData> queueDataList = new ArrayList<QueueData>();
+        queueDataList.add(encounter);
+        queueDataList.add(registration);
+        QueueDataBatchResult result = processor.process(queueDataList);
+
+        Assert.assertEquals(2, result.getProcessed().size());
+        Assert.assertTrue(result.getDeferred().isEmpty());
+        Assert.assertEquals(0, registry.getWaitingCount());
+        verify(handler, times(2)).process(encounter);
+    }
+
+    /**
+     * @verifies process deferred queue data whose registration is saved by another node
+     * @see QueueDataBatchProcessor#process(java.util.List)
+     */
+    @Test
+    public void process_shouldProcessDeferredQueueDataWhoseRegistrationIsSavedByAnotherNode() throws Exception {
+        SessionFactory sessionFactory = mock(SessionFactory.class);
+        when(sessionFactory.getCurrentSession()).thenReturn(mock(Session.class));
+
+        String temporaryUuid = "0e7c2d9a-3b4f-4a8e-b6d1-8f2c5a9e7b13";
+        DeferredQueueDataRegistry registry = new DeferredQueueDataRegistry();
+        QueueData encounter = new QueueData();
+
+        QueueDataHandler handler = mock(QueueDataHandler.class);
+        when(handler.accept(any(QueueData.class))).thenReturn(true);
+        doThrow(new DeferredQueueDataException(temporaryUuid)).doNothing().when(handler).process(encounter);
+
+        // the mapping is only visible in the database, this registry is never told about it.
+        RegistrationDataService registrationDataService = mock(RegistrationDataService.class);
+        when(registrationDataService.getRegistrationDataByTemporaryUuid(temporaryUuid)).thenReturn(new RegistrationData());
+
+        QueueDataBatchProcessor processor = new QueueDataBatchProcessor();
+        processor.setTransactionManager(createTransactionManager());
+        processor.setSessionFactory(sessionFactory);
+        processor.setHandlers(Collections.singletonList(handler));
+        processor.setRegistrationDataService(registrationDataService);
+        processor.setQueueDataFailureService(mock(QueueDataFailureService.class));
+        processor.setDeferredQueueDataRegistry(registry);
+
+        QueueDataBatchResult result = processor.process(Collections.singletonList(encounter));
+
+        Assert.assertEquals(1, result.getProcessed().size());
+        Assert.assertTrue(result.getDeferred().isEmpty());
+        Assert.assertEquals(0, registry.getWaitingCount());
+        verify(handler, times(2)).process(encounter);
+    }
+
+    /**
+     * @verifies commit fewer transactions in batches than one queue data at a time
+     * @see QueueDataBatchProcessor#process(java.util.List)
+     */
+    @Test
+    public void process_shouldCommitFewerTransactionsInBatchesThanOneQueueDataAtATime() throws Exception {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource();
+        dataSource.setDriverClassName("org.h2.Driver");
+        dataSource.setUrl("jdbc:h2:mem:queue_data_batch_benchmark;DB_CLOSE_DELAY=-1");
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table processed_queue_data (uuid char(38) primary key)");
+        final AtomicInteger commits = new AtomicInteger();
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource) {
+            @Override
+            protected void doCommit(final DefaultTransactionStatus status) {
+                commits.incrementAndGet();
+                super.doCommit(status);
+            }
+        };
+        SessionFactory sessionFactory = mock(SessionFactory.class);
+        when(sessionFactory.getCurrentSession()).thenReturn(mock(Session.class));
+
+        List<QueueData> queueDataList = new ArrayList<QueueData>();
+        for (int i = 0; i < 500; i++) {
+            queueDataList.add(new QueueData());
+        }
+        // each queue data writes a row in the transaction of the processor, like the handlers saving the forms.
+        QueueDataHandler handler = mock(QueueDataHandler.class);
+        when(handler.accept(any(QueueData.class))).thenReturn(true);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                QueueData queueData = (QueueData) invocation.getArguments()[0];
+                jdbcTemplate.update("insert into processed_queue_data (uuid) values (?)", queueData.getUuid());
+                return null;
+            }
+        }).when(handler).process(any(QueueData.class));
+
+        QueueDataBatchProcessor processor = new QueueDataBatchProcessor();
+        processor.setTransactionManager(transactionManager);
+        processor.setSessionFactory(sessionFactory);
+        processor.setHandlers(Collections.singletonList(handler));
+        processor.setRegistrationDataService(mock(RegistrationDataService.class));
+        processor.setQueueDataFailureService(mock(QueueDataFailureService.class));
+
+        try {
+            processor.setBatchSize(1);
+            QueueDataBatchResult singleResult = processor.process(queueDataList);
+            int singleCommits = commits.getAndSet(0);
+            jdbcTemplate.execute("delete from processed_queue_data");
+
+            processor.setBatchSize(50);
+            QueueDataBatchResult batchResult = processor.process(queueDataList);
+            int batchCommits = commits.get();
+
+            Assert.assertEquals(500, singleResult.getProcessed().size());
+            Assert.assertEquals(500, batchResult.getProcessed().size());
+            Assert.assertEquals(500, jdbcTemplate.queryForInt("select count(*) from processed_queue_data"));
+            // plus the transactions reading and updating the failure history.
+            Assert.assertEquals(502, singleCommits);
+            Assert.assertEquals(12, batchCommits);
+            assertThat(batchCommits, lessThan(singleCommits));
+            log.info("One queue data at a time: " + String.format("%.2f", singleResult.getThroughput())
+                    + " per second, batches of 50: " + String.format("%.2f", batchResult.getThroughput())
+                    + " per second.");
+        } finally {
+            jdbcTemplate.execute("drop table processed_queue_data");
+        }
+    }
+
+    /**
+     * @verifies evict only the entities the batch brought into the session
+     * @see QueueDataBatchProcessor#process(java.util.List)
+     */
+    @Test
+    public void process_shouldEvictOnlyTheEntitiesTheBatchBroughtIntoTheSession() throws Exception {
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any(TransactionDefinition.class))).thenReturn(new SimpleTransactionStatus());
+        final Map<Object, Object> entityEntries = new IdentityHashMap<Object, Object>();
+        PersistenceContext persistenceContext = mock(PersistenceContext.class);
+        when(persistenceContext.getEntityEntries()).thenReturn(entityEntries);
+        Session session = mock(Session.class, withSettings().extraInterfaces(SessionImplementor.class));
+        when(((SessionImplementor) session).getPersistenceContext()).thenReturn(persistenceContext);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                entityEntries.remove(invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(session).evict(any());
+        SessionFactory sessionFactory = mock(SessionFactory.class);
+        when(sessionFactory.getCurrentSession()).thenReturn(session);
+
+        final Object inUse = new Object();
+        entityEntries.put(inUse, inUse);
+        final List<Object> created = new ArrayList<Object>();
+        QueueDataHandler handler = mock(QueueDataHandler.class);
+        when(handler.accept(any(QueueData.class))).thenReturn(true);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                Object entity = new Object();
+                created.add(entity);
+                entityEntries.put(entity, entity);
+                return null;
+            }
+        }).when(handler).process(any(QueueData.class));
+
+        QueueDataBatchProcessor processor = new QueueDataBatchProcessor();
+        processor.setTransactionManager(transactionManager);
+        processor.setSessionFactory(sessionFactory);
+        processor.setHandlers(Collections.singletonList(handler));
+        processor.setRegistrationDataService(mock(RegistrationDataService.class));
+        processor.setQueueDataFailureService(mock(QueueDataFailureService.class));
+        processor.setBatchSize(4);
+        processor.setFlushInterval(2);
+
+        List<QueueData> queueDataList = new ArrayList<QueueData>();
+        for (int i = 0; i < 4; i++) {
+            queueDataList.add(new QueueData());
+        }
+        processor.process(queueDataList);
+
+        Assert.assertEquals(4, created.size());
+        for (Object entity : created) {
+            verify(session).evict(entity);
+        }
+        verify(session, never()).evict(inUse);
+        verify(session, never()).clear();
+    }
+
+    /**
+     * @return a transaction manager running real transactions against an in memory database, so the transaction
+     * synchronizations are triggered like in the module.
+     */
+    private DataSourceTransactionManager createTransactionManager() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource();
+        dataSource.setDriverClassName("org.h2.Driver");
+        dataSource.setUrl("jdbc:h2:mem:queue_data_batch_processor;DB_CLOSE_DELAY=-1");
+        return new DataSourceTransactionManager(dataSource);
+    }
+}
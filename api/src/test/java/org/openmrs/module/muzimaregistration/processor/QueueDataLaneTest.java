@@ -0,0 +1,55 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.processor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests {@link QueueDataLane} and {@link QueueDataLaneMetrics}.
+ */
+public class QueueDataLaneTest {
+
+    /**
+     * @verifies put each discriminator handled by the module in its lane
+     * @see QueueDataLane#forDiscriminator(String)
+     */
+    @Test
+    public void forDiscriminator_shouldPutEachDiscriminatorHandledByTheModuleInItsLane() throws Exception {
+        Assert.assertEquals(QueueDataLane.REGISTRATION, QueueDataLane.forDiscriminator("xml-registration"));
+        Assert.assertEquals(QueueDataLane.REGISTRATION, QueueDataLane.forDiscriminator("html-registration"));
+        Assert.assertEquals(QueueDataLane.DEMOGRAPHICS_UPDATE, QueueDataLane.forDiscriminator("json-demographics-update"));
+        Assert.assertEquals(QueueDataLane.ENCOUNTER, QueueDataLane.forDiscriminator("xml-encounter"));
+        Assert.assertEquals(QueueDataLane.ENCOUNTER, QueueDataLane.forDiscriminator("json-encounter"));
+        Assert.assertEquals(QueueDataLane.OBS, QueueDataLane.forDiscriminator("obs"));
+    }
+
+    /**
+     * @verifies track the depth and latency of the lane
+     * @see QueueDataLaneMetrics#completed(int, long)
+     */
+    @Test
+    public void completed_shouldTrackTheDepthAndLatencyOfTheLane() throws Exception {
+        QueueDataLaneMetrics metrics = new QueueDataLaneMetrics();
+        metrics.enqueued(30);
+        metrics.completed(10, 100);
+        metrics.completed(10, 300);
+
+        Assert.assertEquals(10, metrics.getDepth());
+        Assert.assertEquals(20, metrics.getProcessed());
+        Assert.assertEquals(200, metrics.getAverageLatency());
+        Assert.assertEquals(300, metrics.getLastLatency());
+        Assert.assertEquals(300, metrics.getMaxLatency());
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.processor;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.module.muzima.model.QueueData;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests {@link QueueDataPartitioner}.
+ */
+public class QueueDataPartitionerTest {
+
+    /**
+     * @verifies read the patient uuid from xml and json payloads
+     * @see QueueDataPartitioner#getPatientKey(org.openmrs.module.muzima.model.QueueData)
+     */
+    @Test
+    public void getPatientKey_shouldReadThePatientUuidFromXmlAndJsonPayloads() throws Exception {
+        QueueDataPartitioner partitioner = new QueueDataPartitioner(4);
+        Assert.assertEquals("abc-123", partitioner.getPatientKey(
+                createQueueData("<form><patient><patient.uuid>abc-123</patient.uuid></patient></form>")));
+        Assert.assertEquals("abc-123", partitioner.getPatientKey(
+                createQueueData("{\"patient\": {\"patient.uuid\": \"abc-123\", \"patient.sex\": \"F\"}}")));
+
+        QueueData queueData = createQueueData("{\"encounter\": {}}");
+        Assert.assertEquals(queueData.getUuid(), partitioner.getPatientKey(queueData));
+    }
+
+    /**
+     * @verifies keep the queue data of a patient in one partition in the original order
+     * @see QueueDataPartitioner#partition(java.util.List)
+     */
+    @Test
+    public void partition_shouldKeepTheQueueDataOfAPatientInOnePartitionInTheOriginalOrder() throws Exception {
+        List<QueueData> queueDataList = new ArrayList<QueueData>();
+        List<QueueData> patientQueueData = new ArrayList<QueueData>();
+        for (int i = 0; i < 20; i++) {
+            queueDataList.add(createQueueData("<patient.uuid>other-" + i + "</patient.uuid>"));
+            QueueData queueData = createQueueData("<patient.uuid>patient</patient.uuid><form>" + i + "</form>");
+            queueDataList.add(queueData);
+            patientQueueData.add(queueData);
+        }
+
+        List<List<QueueData>> partitions = new QueueDataPartitioner(4).partition(queueDataList);
+        Assert.assertEquals(4, partitions.size());
+        int total = 0;
+        for (List<QueueData> partition : partitions) {
+            total += partition.size();
+            if (partition.contains(patientQueueData.get(0))) {
+                List<QueueData> filtered = new ArrayList<QueueData>(partition);
+                filtered.retainAll(patientQueueData);
+                Assert.assertEquals(patientQueueData, filtered);
+            }
+        }
+        Assert.assertEquals(queueDataList.size(), total);
+    }
+
+    private QueueData createQueueData(final String payload) {
+        QueueData queueData = new QueueData();
+        queueData.setPayload(payload);
+        return queueData;
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.web.controller;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzimaregistration.api.ProcessedPayloadService;
+import org.openmrs.module.muzimaregistration.handler.DemographicsUpdateQueueDataHandler;
+import org.openmrs.module.muzimaregistration.handler.ObsQueueDataHandler;
+import org.openmrs.module.muzimaregistration.processor.AdaptiveBatchController;
+import org.openmrs.module.muzimaregistration.processor.DemographicsUpdateCoalescer;
+import org.openmrs.module.muzimaregistration.processor.PriorityQueueDataScheduler;
+import org.openmrs.module.muzimaregistration.processor.QueueDataLane;
+import org.openmrs.module.muzimaregistration.processor.QueueDataLaneMetrics;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Metrics of the queue data processing: depth and latency of each priority lane, the current batch size and
+ * concurrency, the number of standalone observations inserted and skipped, the fields changed by demographics
+ * updates and the updates merged before being applied, and the number of duplicates skipped by the handlers.
+ */
+@Controller
+@RequestMapping(value = "module/muzimaregistration/queue/metrics.json")
+public class QueueMetricsController {
+
+    @RequestMapping(method = RequestMethod.GET)
+    @ResponseBody
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> lanes = new HashMap<String, Object>();
+        List<PriorityQueueDataScheduler> schedulers = Context.getRegisteredComponents(PriorityQueueDataScheduler.class);
+        if (!schedulers.isEmpty()) {
+            for (Map.Entry<QueueDataLane, QueueDataLaneMetrics> entry : schedulers.get(0).getMetrics().entrySet()) {
+                lanes.put(entry.getKey().name().toLowerCase(), convertLaneMetrics(entry.getValue()));
+            }
+        }
+        Map<String, Object> batches = new HashMap<String, Object>();
+        List<AdaptiveBatchController> controllers = Context.getRegisteredComponents(AdaptiveBatchController.class);
+        if (!controllers.isEmpty()) {
+            AdaptiveBatchController controller = controllers.get(0);
+            batches.put("batchSize", controller.getBatchSize());
+            batches.put("concurrency", controller.getConcurrency());
+            batches.put("latencyTarget", controller.getLatencyTarget());
+            batches.put("paused", controller.isPaused());
+        }
+
+        Map<String, Object> obs = new HashMap<String, Object>();
+        List<ObsQueueDataHandler> obsHandlers = Context.getRegisteredComponents(ObsQueueDataHandler.class);
+        if (!obsHandlers.isEmpty()) {
+            obs.put("inserted", obsHandlers.get(0).getInsertedObsCount());
+            obs.put("failed", obsHandlers.get(0).getFailedObsCount());
+        }
+
+        Map<String, Object> demographics = new HashMap<String, Object>();
+        List<DemographicsUpdateQueueDataHandler> demographicsHandlers =
+                Context.getRegisteredComponents(DemographicsUpdateQueueDataHandler.class);
+        if (!demographicsHandlers.isEmpty()) {
+            demographics.put("changedFields", demographicsHandlers.get(0).getChangedFieldCounts());
+            demographics.put("unchanged", demographicsHandlers.get(0).getUnchangedUpdateCount());
+        }
+        List<DemographicsUpdateCoalescer> coalescers =
+                Context.getRegisteredComponents(DemographicsUpdateCoalescer.class);
+        if (!coalescers.isEmpty()) {
+            demographics.put("merged", coalescers.get(0).getMergedCount());
+        }
+
+        ProcessedPayloadService service = Context.getService(ProcessedPayloadService.class);
+        Map<String, Object> response = new HashMap<String, Object>();
+        response.put("lanes", lanes);
+        response.put("batches", batches);
+        response.put("obs", obs);
+        response.put("demographics", demographics);
+        response.put("duplicatePayloads", service.getDuplicatePayloadCounts());
+        response.put("duplicateEncounters", service.getDuplicateEncounterCount());
+        return response;
+    }
+
+    private Map<String, Object> convertLaneMetrics(final QueueDataLaneMetrics laneMetrics) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("workers", laneMetrics.getWorkers());
+        map.put("depth", laneMetrics.getDepth());
+        map.put("processed", laneMetrics.getProcessed());
+        map.put("averageLatency", laneMetrics.getAverageLatency());
+        map.put("lastLatency", laneMetrics.getLastLatency());
+        map.put("maxLatency", laneMetrics.getMaxLatency());
+        return map;
+    }
+}
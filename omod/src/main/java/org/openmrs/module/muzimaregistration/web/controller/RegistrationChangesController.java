@@ -0,0 +1,111 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.web.controller;
+
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationMapping;
+import org.openmrs.module.muzimaregistration.utils.ISO8601Util;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incremental sync of the registration mappings. The client keeps the watermark returned by the last completed sync
+ * and only receives the mappings created, changed or voided after it.
+ * <p/>
+ * The first page is requested with the watermark only. The response contains the upper bound of the sync window
+ * ("until") and the id of the last mapping in the page ("lastId"). Following pages are requested with the same since,
+ * until and the last id until "hasMore" is false, after which "until" becomes the watermark of the next sync. The
+ * window ends a little before the request, so changes still being committed are picked up by the next sync.
+ */
+@Controller
+@RequestMapping(value = "module/muzimaregistration/registrations/changes.json")
+public class RegistrationChangesController {
+
+    private static final int DEFAULT_PAGE_SIZE = 500;
+
+    @RequestMapping(method = RequestMethod.GET)
+    @ResponseBody
+    public Map<String, Object> getChanges(final @RequestParam(value = "since", required = false) String since,
+                                          final @RequestParam(value = "until", required = false) String until,
+                                          final @RequestParam(value = "lastId", required = false) Integer lastId,
+                                          final @RequestParam(value = "pageSize", required = false) Integer pageSize) {
+        RegistrationDataService service = Context.getService(RegistrationDataService.class);
+        Date sinceDate = parseDate(since);
+        Date untilDate = StringUtils.isBlank(until) ? service.getRegistrationChangesUntil(new Date()) : parseDate(until);
+        int maxResults = pageSize == null ? DEFAULT_PAGE_SIZE : pageSize;
+
+        List<RegistrationMapping> registrationMappings =
+                service.getRegistrationMappingsModifiedSince(sinceDate, untilDate, lastId, maxResults);
+
+        List<Object> objects = new ArrayList<Object>();
+        Integer lastMappingId = lastId;
+        for (RegistrationMapping registrationMapping : registrationMappings) {
+            objects.add(convertRegistrationMapping(registrationMapping));
+            lastMappingId = registrationMapping.getId();
+        }
+
+        Map<String, Object> response = new HashMap<String, Object>();
+        response.put("since", since);
+        response.put("until", formatDate(untilDate));
+        response.put("lastId", lastMappingId);
+        response.put("hasMore", registrationMappings.size() == maxResults);
+        response.put("objects", objects);
+        return response;
+    }
+
+    private Map<String, Object> convertRegistrationMapping(final RegistrationMapping registrationMapping) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("uuid", registrationMapping.getUuid());
+        map.put("temporaryUuid", registrationMapping.getTemporaryUuid());
+        map.put("assignedUuid", registrationMapping.getAssignedUuid());
+        map.put("dateCreated", formatDate(registrationMapping.getDateCreated()));
+        map.put("dateChanged", formatDate(registrationMapping.getDateChanged()));
+        map.put("voided", Boolean.TRUE.equals(registrationMapping.getVoided()));
+        return map;
+    }
+
+    private Date parseDate(final String date) {
+        if (StringUtils.isBlank(date)) {
+            return null;
+        }
+        try {
+            return ISO8601Util.toCalendar(date).getTime();
+        } catch (ParseException e) {
+            throw new APIException("Unable to parse date: " + date + ", expecting ISO 8601 date.", e);
+        }
+    }
+
+    private String formatDate(final Date date) {
+        if (date == null) {
+            return null;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(date);
+        return ISO8601Util.fromCalendar(calendar);
+    }
+}
@@ -15,6 +15,9 @@ package org.openmrs.module.muzimaregistration.web.controller;
 
 import org.openmrs.api.context.Context;
 import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationData;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationSummary;
+import org.openmrs.module.muzimaregistration.web.utils.ConditionalRequest;
 import org.openmrs.module.muzimaregistration.web.utils.WebConverter;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -22,6 +25,9 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Date;
 import java.util.Map;
 
 /**
@@ -33,8 +39,29 @@ public class RegistrationController {
 
     @RequestMapping(method = RequestMethod.GET)
     @ResponseBody
-    public Map<String, Object> getNotificationsFor(final @RequestParam(value = "uuid") String uuid) {
+    public Map<String, Object> getNotificationsFor(final @RequestParam(value = "uuid") String uuid,
+                                                   final HttpServletRequest request,
+                                                   final HttpServletResponse response) {
         RegistrationDataService service = Context.getService(RegistrationDataService.class);
-        return WebConverter.convertRegistrationData(service.getRegistrationDataByUuid(uuid));
+        RegistrationSummary registrationSummary = service.getRegistrationSummaryByRegistrationUuid(uuid);
+        if (registrationSummary != null) {
+            Date lastModified = ConditionalRequest.getLastModified(
+                    registrationSummary.getDateCreated(), registrationSummary.getDateChanged());
+            String eTag = ConditionalRequest.createETag(registrationSummary.getRegistrationUuid(), lastModified);
+            if (ConditionalRequest.checkNotModified(request, response, eTag, lastModified)) {
+                return null;
+            }
+            return WebConverter.convertRegistrationSummary(registrationSummary);
+        }
+        RegistrationData registrationData = service.getRegistrationDataByUuid(uuid);
+        if (registrationData != null) {
+            Date lastModified = ConditionalRequest.getLastModified(
+                    registrationData.getDateCreated(), registrationData.getDateChanged());
+            String eTag = ConditionalRequest.createETag(registrationData.getUuid(), lastModified);
+            if (ConditionalRequest.checkNotModified(request, response, eTag, lastModified)) {
+                return null;
+            }
+        }
+        return WebConverter.convertRegistrationData(registrationData);
     }
 }
@@ -0,0 +1,83 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.web.controller;
+
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONValue;
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationSummary;
+import org.openmrs.module.muzimaregistration.web.utils.WebConverter;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolve temporary patient uuids created on the phones into the assigned patient uuids in a single request.
+ */
+@Controller
+@RequestMapping(value = "module/muzimaregistration/resolve.json")
+public class RegistrationResolveController {
+
+    /**
+     * Resolve the temporary uuids posted as a json array of strings.
+     *
+     * @param request the request with the json array in the body.
+     * @return one entry per temporary uuid, in the same order as the request.
+     */
+    @RequestMapping(method = RequestMethod.POST)
+    @ResponseBody
+    public Map<String, Object> resolve(final HttpServletRequest request) throws IOException {
+        Object body = JSONValue.parse(request.getReader());
+        if (!(body instanceof JSONArray)) {
+            throw new APIException("Expecting json array of temporary uuids in the request body!");
+        }
+        Set<String> temporaryUuids = new LinkedHashSet<String>();
+        for (Object element : (JSONArray) body) {
+            if (element != null && StringUtils.isNotBlank(element.toString())) {
+                temporaryUuids.add(element.toString());
+            }
+        }
+
+        RegistrationDataService service = Context.getService(RegistrationDataService.class);
+        Map<String, RegistrationSummary> registrationSummaries = service.getRegistrationSummariesByTemporaryUuids(temporaryUuids);
+
+        List<Object> objects = new ArrayList<Object>();
+        for (String temporaryUuid : temporaryUuids) {
+            RegistrationSummary registrationSummary = registrationSummaries.get(temporaryUuid);
+            if (registrationSummary != null) {
+                objects.add(WebConverter.convertRegistrationSummary(registrationSummary));
+            } else {
+                Map<String, Object> unresolved = new HashMap<String, Object>();
+                unresolved.put("temporaryUuid", temporaryUuid);
+                objects.add(unresolved);
+            }
+        }
+        Map<String, Object> response = new HashMap<String, Object>();
+        response.put("objects", objects);
+        return response;
+    }
+}
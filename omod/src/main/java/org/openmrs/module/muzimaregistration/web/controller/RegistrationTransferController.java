@@ -0,0 +1,77 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.web.controller;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.muzimaregistration.api.io.RegistrationDataExporter;
+import org.openmrs.module.muzimaregistration.api.io.RegistrationDataFormat;
+import org.openmrs.module.muzimaregistration.api.io.RegistrationDataImporter;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bulk export and import of the registration data, used to move the temporary uuid mapping between servers.
+ */
+@Controller
+public class RegistrationTransferController {
+
+    private final Log log = LogFactory.getLog(RegistrationTransferController.class);
+
+    @RequestMapping(value = "module/muzimaregistration/registrations/export", method = RequestMethod.GET)
+    public void exportRegistrations(final @RequestParam(value = "format", defaultValue = "ndjson") String format,
+                                    final HttpServletResponse response) throws IOException {
+        RegistrationDataFormat registrationDataFormat = RegistrationDataFormat.fromExtension(format);
+        response.setContentType(registrationDataFormat.getContentType());
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Content-Disposition",
+                "attachment; filename=registrations." + registrationDataFormat.getExtension());
+
+        Writer writer = response.getWriter();
+        new RegistrationDataExporter(registrationDataFormat).export(writer);
+        writer.flush();
+    }
+
+    @RequestMapping(value = "module/muzimaregistration/registrations/import", method = RequestMethod.POST)
+    @ResponseBody
+    public Map<String, Object> importRegistrations(final @RequestParam(value = "format", defaultValue = "ndjson") String format,
+                                                   final @RequestParam(value = "checkpoint", defaultValue = "0") Long checkpoint,
+                                                   final HttpServletRequest request) throws IOException {
+        RegistrationDataImporter importer = new RegistrationDataImporter(RegistrationDataFormat.fromExtension(format));
+        Map<String, Object> response = new HashMap<String, Object>();
+        try {
+            importer.importFrom(request.getReader(), checkpoint);
+            response.put("completed", true);
+        } catch (RuntimeException e) {
+            // everything up to the checkpoint is committed, the client can resume the import from there.
+            log.error("Unable to complete registration data import after checkpoint: " + importer.getCheckpoint(), e);
+            response.put("completed", false);
+            response.put("error", e.getMessage());
+        }
+        response.put("checkpoint", importer.getCheckpoint());
+        response.put("imported", importer.getImported());
+        response.put("skipped", importer.getSkipped());
+        return response;
+    }
+}
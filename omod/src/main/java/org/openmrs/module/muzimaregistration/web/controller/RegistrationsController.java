@@ -13,9 +13,13 @@
  */
 package org.openmrs.module.muzimaregistration.web.controller;
 
+import net.minidev.json.JSONValue;
+import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
-import org.openmrs.module.muzimaregistration.api.model.RegistrationData;
+import org.openmrs.module.muzimaregistration.api.RegistrationSummaryCallback;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationSummary;
+import org.openmrs.module.muzimaregistration.web.utils.ConditionalRequest;
 import org.openmrs.module.muzimaregistration.web.utils.WebConverter;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -23,7 +27,12 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -38,18 +47,74 @@ public class RegistrationsController {
         @RequestMapping(method = RequestMethod.GET)
         @ResponseBody
         public Map<String, Object> getNotificationsFor(final @RequestParam(value = "pageNumber") Integer pageNumber,
-                                                       final @RequestParam(value = "pageSize") Integer pageSize) {
-            Map<String, Object> response = new HashMap<String, Object>();
+                                                       final @RequestParam(value = "pageSize") Integer pageSize,
+                                                       final @RequestParam(value = "search", required = false) String search,
+                                                       final @RequestParam(value = "orderBy", required = false) String orderBy,
+                                                       final HttpServletRequest request,
+                                                       final HttpServletResponse servletResponse) {
             RegistrationDataService service = Context.getService(RegistrationDataService.class);
+            Number count = service.countRegistrationSummaries(search);
+            if (checkNotModified(service, search, count, request, servletResponse)) {
+                return null;
+            }
+            int pages = (count.intValue() + pageSize - 1)/ pageSize;
 
-            int pages = (service.countRegistrationData().intValue() + pageSize - 1)/ pageSize;
-
+            Map<String, Object> response = new HashMap<String, Object>();
             List<Object> objects = new ArrayList<Object>();
-            for (RegistrationData notificationData : service.getRegistrationData(pageNumber, pageSize)) {
-                objects.add(WebConverter.convertRegistrationData(notificationData));
+            for (RegistrationSummary registrationSummary : service.getRegistrationSummaries(search, orderBy, pageNumber, pageSize)) {
+                objects.add(WebConverter.convertRegistrationSummary(registrationSummary));
             }
             response.put("pages", pages);
             response.put("objects", objects);
             return response;
         }
-}
+
+        /**
+         * Same response as {@link #getNotificationsFor}, but each registration is written to the response as soon as
+         * it is read from the database instead of collecting the whole page first.
+         */
+        @RequestMapping(method = RequestMethod.GET, params = "stream=true")
+        public void streamNotificationsFor(final @RequestParam(value = "pageNumber") Integer pageNumber,
+                                           final @RequestParam(value = "pageSize") Integer pageSize,
+                                           final @RequestParam(value = "search", required = false) String search,
+                                           final @RequestParam(value = "orderBy", required = false) String orderBy,
+                                           final HttpServletRequest request,
+                                           final HttpServletResponse response) throws IOException {
+            RegistrationDataService service = Context.getService(RegistrationDataService.class);
+            Number count = service.countRegistrationSummaries(search);
+            if (checkNotModified(service, search, count, request, response)) {
+                return;
+            }
+            int pages = (count.intValue() + pageSize - 1)/ pageSize;
+
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            final Writer writer = response.getWriter();
+            writer.write("{\"pages\":" + pages + ",\"objects\":[");
+            final boolean[] first = {true};
+            service.scrollRegistrationSummaries(search, orderBy, pageNumber, pageSize, new RegistrationSummaryCallback() {
+                @Override
+                public void handle(final RegistrationSummary registrationSummary) {
+                    try {
+                        if (!first[0]) {
+                            writer.write(",");
+                        }
+                        first[0] = false;
+                        JSONValue.writeJSONString(WebConverter.convertRegistrationSummary(registrationSummary), writer);
+                    } catch (IOException e) {
+                        throw new APIException("Unable to write registration to the response!", e);
+                    }
+                }
+            });
+            writer.write("]}");
+            writer.flush();
+        }
+
+        private boolean checkNotModified(final RegistrationDataService service, final String search, final Number count,
+                                         final HttpServletRequest request, final HttpServletResponse response) {
+            // summaries are only ever added, changed or removed, any of which moves either the count or the date.
+            Date lastModified = service.getRegistrationSummariesLastModified(search);
+            String eTag = ConditionalRequest.createETag("registrations-" + count, lastModified);
+            return ConditionalRequest.checkNotModified(request, response, eTag, lastModified);
+        }
+}
\ No newline at end of file
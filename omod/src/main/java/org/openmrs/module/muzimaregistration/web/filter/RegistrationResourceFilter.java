@@ -0,0 +1,115 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.web.filter;
+
+import net.minidev.json.JSONValue;
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationResolution;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationSummary;
+import org.openmrs.module.muzimaregistration.web.utils.ConditionalRequest;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Conditional GET support for the registration rest resource. The version of the patient behind a temporary uuid is
+ * taken from the registration summary, so a client holding the current version gets 304 (Not Modified) before the
+ * rest resource loads the patient. Temporary uuids whose registration is still in the queue are answered with
+ * 202 (Accepted) and a Retry-After header.
+ */
+public class RegistrationResourceFilter implements Filter {
+
+    private static final int PENDING_RETRY_AFTER_SECONDS = 30;
+
+    @Override
+    public void init(final FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(final ServletRequest servletRequest, final ServletResponse servletResponse,
+                         final FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+        String temporaryUuid = getTemporaryUuid(request);
+        if (StringUtils.equals(request.getMethod(), "GET") && temporaryUuid != null && Context.isAuthenticated()) {
+            RegistrationDataService service = Context.getService(RegistrationDataService.class);
+            RegistrationResolution resolution = service.resolveTemporaryUuid(temporaryUuid);
+            if (resolution.getStatus() == RegistrationResolution.Status.PENDING) {
+                writePending(response, temporaryUuid);
+                return;
+            }
+            if (resolution.getStatus() == RegistrationResolution.Status.UNKNOWN) {
+                chain.doFilter(request, response);
+                return;
+            }
+            Map<String, RegistrationSummary> registrationSummaries =
+                    service.getRegistrationSummariesByTemporaryUuids(Collections.singletonList(temporaryUuid));
+            RegistrationSummary registrationSummary = registrationSummaries.get(temporaryUuid);
+            if (registrationSummary != null) {
+                Date lastModified = ConditionalRequest.getLastModified(
+                        registrationSummary.getDateCreated(), registrationSummary.getDateChanged());
+                // the representation is part of the tag, the same patient is served in different shapes.
+                String identifier = registrationSummary.getTemporaryUuid()
+                        + "-" + StringUtils.defaultString(request.getParameter("v"), "default");
+                String eTag = ConditionalRequest.createETag(identifier, lastModified);
+                if (ConditionalRequest.checkNotModified(request, response, eTag, lastModified)) {
+                    return;
+                }
+            }
+        }
+        chain.doFilter(request, response);
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    /**
+     * The registration is still in the queue: tell the client to come back later instead of answering 404, which
+     * would make the client retry straight away.
+     */
+    private void writePending(final HttpServletResponse response, final String temporaryUuid) throws IOException {
+        Map<String, Object> pending = new HashMap<String, Object>();
+        pending.put("temporaryUuid", temporaryUuid);
+        pending.put("status", "pending");
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+        response.setHeader("Retry-After", String.valueOf(PENDING_RETRY_AFTER_SECONDS));
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        JSONValue.writeJSONString(pending, response.getWriter());
+        response.getWriter().flush();
+    }
+
+    private String getTemporaryUuid(final HttpServletRequest request) {
+        String path = StringUtils.removeEnd(request.getRequestURI(), "/");
+        String temporaryUuid = StringUtils.substringAfterLast(path, "/registration/");
+        if (StringUtils.isBlank(temporaryUuid) || StringUtils.contains(temporaryUuid, "/")) {
+            return null;
+        }
+        return temporaryUuid;
+    }
+}
@@ -13,6 +13,7 @@
  */
 package org.openmrs.module.muzimaregistration.web.resource;
 
+import org.apache.commons.lang.StringUtils;
 import org.openmrs.Patient;
 import org.openmrs.PatientIdentifier;
 import org.openmrs.Person;
@@ -20,20 +21,27 @@ import org.openmrs.api.PatientService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.muzima.web.controller.MuzimaRestController;
 import org.openmrs.module.muzimaregistration.api.RegistrationDataService;
-import org.openmrs.module.muzimaregistration.api.model.RegistrationData;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationResolution;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationSummary;
+import org.openmrs.module.webservices.rest.SimpleObject;
 import org.openmrs.module.webservices.rest.web.RequestContext;
 import org.openmrs.module.webservices.rest.web.RestConstants;
 import org.openmrs.module.webservices.rest.web.annotation.PropertyGetter;
 import org.openmrs.module.webservices.rest.web.annotation.Resource;
 import org.openmrs.module.webservices.rest.web.representation.DefaultRepresentation;
 import org.openmrs.module.webservices.rest.web.representation.FullRepresentation;
+import org.openmrs.module.webservices.rest.web.representation.NamedRepresentation;
 import org.openmrs.module.webservices.rest.web.representation.Representation;
 import org.openmrs.module.webservices.rest.web.resource.impl.DataDelegatingCrudResource;
 import org.openmrs.module.webservices.rest.web.resource.impl.DelegatingResourceDescription;
 import org.openmrs.module.webservices.rest.web.response.ResourceDoesNotSupportOperationException;
 import org.openmrs.module.webservices.rest.web.response.ResponseException;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -43,6 +51,9 @@ import java.util.Set;
         supportedClass = Patient.class,
         supportedOpenmrsVersions = {"1.8.*", "1.9.*"})
 public class RegistrationResource extends DataDelegatingCrudResource<Patient> {
+
+    public static final String REPRESENTATION_LEAN = "lean";
+
     /**
      * Gets the delegate object with the given unique id. Implementations may decide whether
      * "unique id" means a uuid, or if they also want to retrieve delegates based on a unique
@@ -56,8 +67,80 @@ public class RegistrationResource extends DataDelegatingCrudResource<Patient> {
         PatientService patientService = Context.getPatientService();
         RegistrationDataService registrationService = Context.getService(RegistrationDataService.class);
 
-        RegistrationData registrationData = registrationService.getRegistrationDataByTemporaryUuid(uniqueId);
-        return patientService.getPatientByUuid(registrationData.getAssignedUuid());
+        RegistrationResolution resolution = registrationService.resolveTemporaryUuid(uniqueId);
+        if (resolution.getStatus() != RegistrationResolution.Status.REGISTERED) {
+            // not found, the framework will answer with 404.
+            return null;
+        }
+        return patientService.getPatientByUuid(resolution.getAssignedUuid());
+    }
+
+    /**
+     * Resolve several temporary uuids at once. The query is a comma separated list of temporary uuids, the patients
+     * are fetched in a single batch together with their names and identifiers. Use the "lean" representation to
+     * avoid loading the rest of the person graph.
+     * <p/>
+     * The response has one entry per requested temporary uuid, in the order of the query. Each entry carries the
+     * temporary uuid and the status of its resolution, the patient properties are only present for the registered
+     * ones. The list is not paged, its size is decided by the client.
+     *
+     * @param context the request context.
+     * @return the resolution of each requested temporary uuid.
+     */
+    @Override
+    public SimpleObject search(final RequestContext context) throws ResponseException {
+        List<String> temporaryUuids = new ArrayList<String>();
+        for (String temporaryUuid : StringUtils.split(StringUtils.defaultString(context.getParameter("q")), ",")) {
+            if (StringUtils.isNotBlank(temporaryUuid)) {
+                temporaryUuids.add(StringUtils.trim(temporaryUuid));
+            }
+        }
+
+        RegistrationDataService registrationService = Context.getService(RegistrationDataService.class);
+        Map<String, RegistrationSummary> registrationSummaries =
+                registrationService.getRegistrationSummariesByTemporaryUuids(new HashSet<String>(temporaryUuids));
+        Set<String> assignedUuids = new HashSet<String>();
+        for (RegistrationSummary registrationSummary : registrationSummaries.values()) {
+            assignedUuids.add(registrationSummary.getAssignedUuid());
+        }
+        Map<String, Patient> patients = registrationService.getAssignedPatients(assignedUuids);
+
+        List<Object> results = new ArrayList<Object>();
+        for (String temporaryUuid : temporaryUuids) {
+            RegistrationSummary registrationSummary = registrationSummaries.get(temporaryUuid);
+            Patient patient = registrationSummary == null ? null : patients.get(registrationSummary.getAssignedUuid());
+            SimpleObject result;
+            if (patient != null) {
+                result = asRepresentation(patient, context.getRepresentation());
+                result.add("status", RegistrationResolution.Status.REGISTERED.name().toLowerCase());
+            } else {
+                // pending or unknown registrations are cached by the service, polling clients don't hit the database.
+                RegistrationResolution resolution = registrationService.resolveTemporaryUuid(temporaryUuid);
+                RegistrationResolution.Status status = resolution.getStatus() == RegistrationResolution.Status.REGISTERED ?
+                        RegistrationResolution.Status.UNKNOWN : resolution.getStatus();
+                result = new SimpleObject();
+                result.add("status", status.name().toLowerCase());
+            }
+            result.add("temporaryUuid", temporaryUuid);
+            results.add(result);
+        }
+        return new SimpleObject().add("results", results);
+    }
+
+    /**
+     * Add the requested temporary uuid to the patient, so the client can match the response with its request.
+     *
+     * @param uuid the temporary uuid.
+     * @param context the request context.
+     * @return the representation of the patient assigned to the temporary uuid.
+     */
+    @Override
+    public Object retrieve(final String uuid, final RequestContext context) throws ResponseException {
+        Object result = super.retrieve(uuid, context);
+        if (result instanceof SimpleObject) {
+            ((SimpleObject) result).add("temporaryUuid", uuid);
+        }
+        return result;
     }
 
     /**
@@ -129,6 +212,14 @@ public class RegistrationResource extends DataDelegatingCrudResource<Patient> {
             description.addSelfLink();
             description.addLink("full", ".?v=" + RestConstants.REPRESENTATION_FULL);
             return description;
+        } else if (rep instanceof NamedRepresentation
+                && StringUtils.equals(REPRESENTATION_LEAN, ((NamedRepresentation) rep).getRepresentation())) {
+            // uuid of the patient is the assigned uuid, nothing else in the person graph is needed to resolve it.
+            DelegatingResourceDescription description = new DelegatingResourceDescription();
+            description.addProperty("uuid");
+            description.addProperty("identifier");
+            description.addSelfLink();
+            return description;
         } else if (rep instanceof FullRepresentation) {
             DelegatingResourceDescription description = new DelegatingResourceDescription();
             description.addProperty("uuid");
@@ -159,6 +250,12 @@ public class RegistrationResource extends DataDelegatingCrudResource<Patient> {
         return new Person(instance); //Must be a Person instead of Patient to prevent infinite recursion RESTWS-273
     }
 
+    @PropertyGetter("identifier")
+    public static String getIdentifier(Patient instance) {
+        PatientIdentifier patientIdentifier = instance.getPatientIdentifier();
+        return patientIdentifier == null ? null : patientIdentifier.getIdentifier();
+    }
+
     @PropertyGetter("identifiers")
     public static Set<PatientIdentifier> getIdentifiers(Patient instance) {
         return new LinkedHashSet<PatientIdentifier>(instance.getActiveIdentifiers());
@@ -0,0 +1,113 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzimaregistration.web.utils;
+
+import org.apache.commons.lang.StringUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Date;
+
+/**
+ * Support for conditional GET requests. The entity tag and the last modified date are added to the response and the
+ * response is marked as not modified when the client already holds the current version.
+ */
+public class ConditionalRequest {
+
+    private static final String HEADER_ETAG = "ETag";
+
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    /**
+     * Create the entity tag of a resource.
+     *
+     * @param identifier   the identifier of the resource.
+     * @param lastModified the last modification date of the resource.
+     * @return the quoted entity tag.
+     */
+    public static String createETag(final String identifier, final Date lastModified) {
+        return "\"" + identifier + "-" + (lastModified == null ? 0 : lastModified.getTime()) + "\"";
+    }
+
+    /**
+     * Get the last modification date of a resource which might never have been changed.
+     *
+     * @param dateCreated the creation date of the resource.
+     * @param dateChanged the date of the last change of the resource, null when never changed.
+     * @return the last modification date of the resource.
+     */
+    public static Date getLastModified(final Date dateCreated, final Date dateChanged) {
+        if (dateChanged != null && (dateCreated == null || dateChanged.after(dateCreated))) {
+            return dateChanged;
+        }
+        return dateCreated;
+    }
+
+    /**
+     * Add the entity tag and the last modified date to the response and check them against the conditional headers
+     * of the request. When the client already holds the current version, the response status is set to
+     * 304 (Not Modified) and the caller must not write any body.
+     *
+     * @param request      the request.
+     * @param response     the response.
+     * @param eTag         the quoted entity tag of the current version.
+     * @param lastModified the last modification date of the current version.
+     * @return true when the response has been marked as not modified.
+     */
+    public static boolean checkNotModified(final HttpServletRequest request, final HttpServletResponse response,
+                                           final String eTag, final Date lastModified) {
+        response.setHeader(HEADER_ETAG, eTag);
+        if (lastModified != null) {
+            response.setDateHeader(HEADER_LAST_MODIFIED, lastModified.getTime());
+        }
+
+        boolean notModified;
+        String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            // entity tag takes precedence over the date when the client sends both.
+            notModified = matches(ifNoneMatch, eTag);
+        } else {
+            notModified = lastModified != null && notModifiedSince(request, lastModified);
+        }
+        if (notModified) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        }
+        return notModified;
+    }
+
+    private static boolean matches(final String ifNoneMatch, final String eTag) {
+        for (String candidate : StringUtils.split(ifNoneMatch, ",")) {
+            String trimmed = StringUtils.removeStart(StringUtils.trim(candidate), "W/");
+            if (StringUtils.equals(trimmed, "*") || StringUtils.equals(trimmed, eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean notModifiedSince(final HttpServletRequest request, final Date lastModified) {
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getDateHeader(HEADER_IF_MODIFIED_SINCE);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        // http dates only have second precision.
+        return ifModifiedSince != -1 && lastModified.getTime() / 1000 <= ifModifiedSince / 1000;
+    }
+}
@@ -16,7 +16,9 @@ package org.openmrs.module.muzimaregistration.web.utils;
 import org.openmrs.Patient;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.muzimaregistration.api.model.RegistrationData;
+import org.openmrs.module.muzimaregistration.api.model.RegistrationSummary;
 
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -27,20 +29,53 @@ public class WebConverter {
     public static Map<String, Object> convertRegistrationData(final RegistrationData registrationData) {
         Map<String, Object> map = new HashMap<String, Object>();
         if (registrationData != null) {
-            map.put("uuid", registrationData.getUuid());
-            map.put("assignedUuid", registrationData.getAssignedUuid());
-
             Patient patient = Context.getPatientService().getPatientByUuid(registrationData.getAssignedUuid());
+            map = convertRegistration(registrationData.getUuid(), registrationData.getTemporaryUuid(),
+                    registrationData.getAssignedUuid(), registrationData.getDateCreated(), patient);
+        }
+        return map;
+    }
+
+    public static Map<String, Object> convertRegistrationSummary(final RegistrationSummary registrationSummary) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        if (registrationSummary != null) {
+            map.put("uuid", registrationSummary.getRegistrationUuid());
+            map.put("assignedUuid", registrationSummary.getAssignedUuid());
+
+            Map<String, Object> patientMap = new HashMap<String, Object>();
+            patientMap.put("name", registrationSummary.getDisplayName());
+            patientMap.put("gender", registrationSummary.getGender());
+            if (registrationSummary.getBirthdate() != null) {
+                patientMap.put("birthdate", Context.getDateFormat().format(registrationSummary.getBirthdate()));
+            }
+            patientMap.put("identifier", registrationSummary.getPreferredIdentifier());
+            patientMap.put("location", registrationSummary.getLocationName());
+            map.put("patient", patientMap);
+
+            map.put("temporaryUuid", registrationSummary.getTemporaryUuid());
+            map.put("submitted", Context.getDateFormat().format(registrationSummary.getDateCreated()));
+        }
+        return map;
+    }
+
+    private static Map<String, Object> convertRegistration(final String uuid, final String temporaryUuid,
+                                                           final String assignedUuid, final Date dateCreated,
+                                                           final Patient patient) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("uuid", uuid);
+        map.put("assignedUuid", assignedUuid);
+
+        if (patient != null) {
             Map<String, Object> patientMap = new HashMap<String, Object>();
             patientMap.put("name", patient.getPersonName().getFullName());
             patientMap.put("gender", patient.getGender());
             patientMap.put("birthdate", Context.getDateFormat().format(patient.getBirthdate()));
             patientMap.put("identifier", patient.getPatientIdentifier().getIdentifier());
             map.put("patient", patientMap);
-
-            map.put("temporaryUuid", registrationData.getTemporaryUuid());
-            map.put("submitted", Context.getDateFormat().format(registrationData.getDateCreated()));
         }
+
+        map.put("temporaryUuid", temporaryUuid);
+        map.put("submitted", Context.getDateFormat().format(dateCreated));
         return map;
     }
 }